@@ -21,6 +21,7 @@ import json
 import time
 import unittest
 import socket
+import struct
 import subprocess
 import hashlib
 import numpy
@@ -42,6 +43,10 @@ class ItsSession(object):
 
     Attributes:
         sock: The open socket.
+        metadata_encoding: How capture results are sent back by do_capture;
+            METADATA_ENCODING_JSON (the default) or METADATA_ENCODING_TLV, a
+            compact binary encoding that is faster to produce on the device
+            for long bursts. See decode_tlv_metadata.
     """
 
     # Open a connection to localhost:<host_port>, forwarded to port 6000 on the
@@ -67,6 +72,9 @@ class ItsSession(object):
 
     SEC_TO_NSEC = 1000*1000*1000.0
 
+    METADATA_ENCODING_JSON = 'json'
+    METADATA_ENCODING_TLV = 'tlv'
+
     PACKAGE = 'com.android.cts.verifier.camera.its'
     INTENT_START = 'com.android.cts.verifier.camera.its.START'
     ACTION_ITS_RESULT = 'com.android.cts.verifier.camera.its.ACTION_ITS_RESULT'
@@ -216,8 +224,11 @@ class ItsSession(object):
                 break
         proc.kill()
 
-    def __init__(self, camera_id=None):
+    def __init__(self, camera_id=None,
+                 metadata_encoding=METADATA_ENCODING_JSON):
         self._camera_id = camera_id
+        self.metadata_encoding = metadata_encoding
+        self._metadata_key_table = None
 
     def __enter__(self):
         # Initialize device id and adb command.
@@ -779,6 +790,8 @@ class ItsSession(object):
         print "Capturing %d frame%s with %d format%s [%s]" % (
                   ncap, "s" if ncap>1 else "", nsurf, "s" if nsurf>1 else "",
                   ",".join(formats))
+        if self.metadata_encoding == self.METADATA_ENCODING_TLV:
+            cmd["metadataEncoding"] = self.METADATA_ENCODING_TLV
         self.sock.send(json.dumps(cmd) + "\n")
 
         # Wait for ncap*nsurf images and ncap metadata responses.
@@ -805,8 +818,15 @@ class ItsSession(object):
                 buf_size = numpy.product(buf.shape)
                 yuv_bufs[buf_size].append(buf)
                 nbufs += 1
+            elif jsonObj['tag'] == 'metadataKeyTable':
+                self._metadata_key_table = jsonObj['objValue']
             elif jsonObj['tag'] == 'captureResults':
-                mds.append(jsonObj['objValue']['captureResult'])
+                if jsonObj['objValue'].get('captureResultEncoding') == \
+                        self.METADATA_ENCODING_TLV:
+                    mds.append(decode_tlv_metadata(
+                            buf, self._metadata_key_table))
+                else:
+                    mds.append(jsonObj['objValue']['captureResult'])
                 physical_mds.append(jsonObj['objValue']['physicalResults'])
                 outputs = jsonObj['objValue']['outputs']
                 widths = [out['width'] for out in outputs]
@@ -847,6 +867,114 @@ class ItsSession(object):
         self.sock.settimeout(self.SOCK_TIMEOUT)
         return rets if len(rets)>1 else rets[0]
 
+# Value types of the TLV capture result encoding, see
+# ItsSerializer.serializeTlv() in CtsVerifier.
+_TLV_FORMAT_VERSION = 1
+_TLV_MAGIC = 'ITSM'
+_TLV_TYPE_NULL = 0
+_TLV_TYPE_STRING = 7
+_TLV_TYPE_RATIONAL = 8
+_TLV_TYPE_RECT = 9
+_TLV_TYPE_METERING_RECTANGLE = 10
+_TLV_TYPE_PAIR_FLOAT64 = 11
+_TLV_TYPE_TONEMAP_CURVE = 12
+_TLV_TYPE_LENS_SHADING_MAP = 13
+_TLV_TYPE_JSON = 14
+_TLV_TYPE_ARRAY = 0x80
+# Element types that are plain numbers, with their numpy dtype.
+_TLV_NUMBER_DTYPES = {1: '<i4', 2: '<i8', 3: '<f4', 4: '<f8', 5: '?', 6: 'i1'}
+
+
+def _tlv_records(data, offset, length, dtype, names):
+    """Decodes packed records of numbers into a list of dicts."""
+    count = length / numpy.dtype(dtype).itemsize
+    values = numpy.frombuffer(data, dtype, count, offset).tolist()
+    n = len(names)
+    return [dict(zip(names, values[i:i+n])) for i in range(0, len(values), n)]
+
+
+def _decode_tlv_value(data, offset, vtype, length):
+    """Decodes one TLV value into the object its JSON serialization gives."""
+    elmt_type = vtype & ~_TLV_TYPE_ARRAY
+    is_array = (vtype & _TLV_TYPE_ARRAY) != 0
+    if vtype == _TLV_TYPE_NULL:
+        return None
+    if elmt_type in _TLV_NUMBER_DTYPES:
+        dtype = _TLV_NUMBER_DTYPES[elmt_type]
+        values = numpy.frombuffer(
+                data, dtype, length / numpy.dtype(dtype).itemsize, offset)
+        return values.tolist() if is_array else values[0].item()
+    if elmt_type == _TLV_TYPE_RATIONAL:
+        rats = _tlv_records(data, offset, length, '<i4',
+                            ['numerator', 'denominator'])
+        return rats if is_array else rats[0]
+    if elmt_type == _TLV_TYPE_RECT:
+        rects = _tlv_records(data, offset, length, '<i4',
+                             ['left', 'right', 'top', 'bottom'])
+        return rects if is_array else rects[0]
+    if elmt_type == _TLV_TYPE_METERING_RECTANGLE:
+        rects = _tlv_records(data, offset, length, '<i4',
+                             ['x', 'y', 'width', 'height', 'weight'])
+        return rects if is_array else rects[0]
+    if vtype == _TLV_TYPE_PAIR_FLOAT64 | _TLV_TYPE_ARRAY:
+        values = numpy.frombuffer(data, '<f8', length / 8, offset).tolist()
+        return [values[i:i+2] for i in range(0, len(values), 2)]
+    if vtype == _TLV_TYPE_STRING:
+        return data[offset:offset+length].decode('utf-8')
+    if vtype == _TLV_TYPE_TONEMAP_CURVE:
+        curve = {}
+        for name in ['red', 'green', 'blue']:
+            n, = struct.unpack_from('<i', data, offset)
+            curve[name] = numpy.frombuffer(
+                    data, '<f4', n * 2, offset + 4).tolist()
+            offset += 4 + n * 8
+        return curve
+    if vtype == _TLV_TYPE_LENS_SHADING_MAP:
+        width, height = struct.unpack_from('<ii', data, offset)
+        return {'width': width, 'height': height,
+                'map': numpy.frombuffer(data, '<f4', width * height * 4,
+                                        offset + 8).tolist()}
+    if vtype == _TLV_TYPE_JSON:
+        return json.loads(data[offset:offset+length].decode('utf-8'))[0]
+    raise its.error.Error('Unknown TLV value type %d' % vtype)
+
+
+def decode_tlv_metadata(buf, key_table):
+    """Decode a capture result sent with the TLV metadata encoding.
+
+    The device serializes the capture results of do_capture in this encoding
+    when ItsSession.metadata_encoding is METADATA_ENCODING_TLV, and sends the
+    key table that the entries refer to before the first capture result.
+
+    Args:
+        buf: The binary buffer of the 'captureResults' response.
+        key_table: The objValue of the 'metadataKeyTable' response; a dict
+            with the table 'id', the format 'version' and the 'keys' names.
+
+    Returns:
+        The capture result as a dict, with the same keys and values as the
+        JSON encoding gives, except that 32-bit floats are not rounded to
+        their shortest decimal representation.
+    """
+    if key_table is None:
+        raise its.error.Error('TLV capture result without a key table')
+    data = numpy.asarray(buf, dtype=numpy.uint8).tostring()
+    magic, version, count, table_id = struct.unpack_from('<4sHHI', data, 0)
+    if magic != _TLV_MAGIC or version != _TLV_FORMAT_VERSION:
+        raise its.error.Error('Unsupported TLV capture result format')
+    if table_id != key_table['id'] or version != key_table['version']:
+        raise its.error.Error('TLV capture result for another key table')
+    keys = key_table['keys']
+    md = {}
+    offset = 12
+    for _ in range(count):
+        index, vtype, length = struct.unpack_from('<HBI', data, offset)
+        offset += 7
+        md[keys[index]] = _decode_tlv_value(data, offset, vtype, length)
+        offset += length
+    return md
+
+
 def get_device_id():
     """ Return the ID of the device that the test is running on.
 
@@ -995,6 +1123,35 @@ class __UnitTest(unittest.TestCase):
     """Run a suite of unit tests on this module.
     """
 
+    def test_decode_tlv_metadata(self):
+        keys = ['android.control.aeRegions', 'android.lens.focusDistance',
+                'android.scaler.cropRegion', 'android.sensor.exposureTime',
+                'android.sensor.noiseProfile', 'android.statistics.faces']
+        key_table = {'id': 1234, 'version': _TLV_FORMAT_VERSION, 'keys': keys}
+        faces = '[[]]'
+        entries = [
+            struct.pack('<HBI5i', 0, _TLV_TYPE_METERING_RECTANGLE |
+                        _TLV_TYPE_ARRAY, 20, 0, 0, 100, 50, 1),
+            struct.pack('<HBIf', 1, 3, 4, 0.5),
+            struct.pack('<HBI4i', 2, _TLV_TYPE_RECT, 16, 1, 2, 3, 4),
+            struct.pack('<HBIq', 3, 2, 8, 33333333),
+            struct.pack('<HBI2d', 4, _TLV_TYPE_PAIR_FLOAT64 | _TLV_TYPE_ARRAY,
+                        16, 1e-5, 2e-7),
+            struct.pack('<HBI', 5, _TLV_TYPE_JSON, len(faces)) + faces]
+        data = struct.pack('<4sHHI', _TLV_MAGIC, _TLV_FORMAT_VERSION,
+                           len(entries), 1234) + ''.join(entries)
+        md = decode_tlv_metadata(
+                numpy.frombuffer(data, dtype=numpy.uint8), key_table)
+        self.assertEqual(md['android.control.aeRegions'],
+                         [{'x': 0, 'y': 0, 'width': 100, 'height': 50,
+                           'weight': 1}])
+        self.assertEqual(md['android.lens.focusDistance'], 0.5)
+        self.assertEqual(md['android.scaler.cropRegion'],
+                         {'left': 1, 'right': 2, 'top': 3, 'bottom': 4})
+        self.assertEqual(md['android.sensor.exposureTime'], 33333333)
+        self.assertEqual(md['android.sensor.noiseProfile'], [[1e-5, 2e-7]])
+        self.assertEqual(md['android.statistics.faces'], [])
+
     """
     # TODO: this test currently needs connected device to pass
     #       Need to remove that dependency before enabling the test
@@ -45,6 +45,9 @@ import android.widget.SeekBar;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tests Audio Device roundtrip latency by using a loopback plug.
  */
@@ -57,6 +60,12 @@ public class AudioFrequencyLineActivity extends AudioFrequencyActivity implement
     static final int TEST_MESSAGE = 902;
     static final double MIN_ENERGY_BAND_1 = -20.0;
     static final double MIN_FRACTION_POINTS_IN_BAND = 0.3;
+    static final int CAPTURE_DURATION_MS = 2000;
+    // Early pass: every EARLY_CHECK_FRAMES frames, once MIN_FRAMES_FOR_DECISION frames have been
+    // averaged, the bands are checked; EARLY_PASS_CHECKS consecutive passes end the capture.
+    static final int MIN_FRAMES_FOR_DECISION = 60;
+    static final int EARLY_CHECK_FRAMES = 10;
+    static final int EARLY_PASS_CHECKS = 3;
 
     OnBtnClickListener mBtnClickListener = new OnBtnClickListener();
     Context mContext;
@@ -88,15 +97,15 @@ public class AudioFrequencyLineActivity extends AudioFrequencyActivity implement
     PipeShort mPipe = new PipeShort(65536);
     SoundPlayerObject mSPlayer;
 
-    private DspBufferComplex mC;
-    private DspBufferDouble mData;
-
-    private DspWindow mWindow;
-    private DspFftServer mFftServer;
-    private VectorAverage mFreqAverageMain = new VectorAverage();
-
-    private VectorAverage mFreqAverage0 = new VectorAverage();
-    private VectorAverage mFreqAverage1 = new VectorAverage();
+    // Welch averaged spectrum of the left and right captures, updated as samples arrive.
+    private DspStreamingSpectrum mSpectrum0;
+    private DspStreamingSpectrum mSpectrum1;
+    private volatile CountDownLatch mEarlyPassLatch;
+    // Guards the spectra and the early pass state, shared by the test thread and the recorder
+    // callback.
+    private final Object mSpectrumLock = new Object();
+    private int mLastCheckedFrame;
+    private int mConsecutivePasses;
 
     private int mCurrentTest = -1;
     int mBands = 4;
@@ -164,13 +173,11 @@ public class AudioFrequencyLineActivity extends AudioFrequencyActivity implement
 
         //Init FFT stuff
         mAudioShortArray2 = new short[mBlockSizeSamples*2];
-        mData = new DspBufferDouble(mBlockSizeSamples);
-        mC = new DspBufferComplex(mBlockSizeSamples);
-        mFftServer = new DspFftServer(mBlockSizeSamples);
-
         int overlap = mBlockSizeSamples / 2;
-
-        mWindow = new DspWindow(DspWindow.WINDOW_HANNING, mBlockSizeSamples, overlap);
+        mSpectrum0 = new DspStreamingSpectrum(mBlockSizeSamples, overlap,
+                DspWindow.WINDOW_HANNING);
+        mSpectrum1 = new DspStreamingSpectrum(mBlockSizeSamples, overlap,
+                DspWindow.WINDOW_HANNING);
 
         setPassFailButtonClickListeners();
         getPassButton().setEnabled(false);
@@ -248,14 +255,18 @@ public class AudioFrequencyLineActivity extends AudioFrequencyActivity implement
             mMessageHandler.sendMessage(msg);
 
             sendMessage("Testing Left Capture");
+            synchronized (mSpectrumLock) {
+                mSpectrum0.reset();
+            }
             mCurrentTest = 0;
-            mFreqAverage0.reset();
             mSPlayer.setBalance(0.0f);
             play();
 
             sendMessage("Testing Right Capture");
+            synchronized (mSpectrumLock) {
+                mSpectrum1.reset();
+            }
             mCurrentTest = 1;
-            mFreqAverage1.reset();
             mSPlayer.setBalance(1.0f);
             play();
 
@@ -268,11 +279,18 @@ public class AudioFrequencyLineActivity extends AudioFrequencyActivity implement
         }
 
         private void play() {
+            synchronized (mSpectrumLock) {
+                mLastCheckedFrame = 0;
+                mConsecutivePasses = 0;
+            }
+            mEarlyPassLatch = new CountDownLatch(1);
             startRecording();
             mSPlayer.play(true);
 
             try {
-                Thread.sleep(2000);
+                if (mEarlyPassLatch.await(CAPTURE_DURATION_MS, TimeUnit.MILLISECONDS)) {
+                    Log.v(TAG, "Bands passed early, ending capture");
+                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -378,9 +396,11 @@ public class AudioFrequencyLineActivity extends AudioFrequencyActivity implement
      */
     private void computeResults() {
         Results resultsLeft = new Results("Left");
-        computeResultsForVector(mFreqAverage0, resultsLeft);
         Results resultsRight = new Results("Right");
-        computeResultsForVector(mFreqAverage1, resultsRight);
+        synchronized (mSpectrumLock) {
+            computeResultsForVector(mSpectrum0.getAverage(), resultsLeft);
+            computeResultsForVector(mSpectrum1.getAverage(), resultsRight);
+        }
         if (resultsLeft.testAll() && resultsRight.testAll()) {
             String strSuccess = getResources().getString(R.string.audio_general_test_passed);
             appendResultsToScreen(strSuccess);
@@ -394,7 +414,20 @@ public class AudioFrequencyLineActivity extends AudioFrequencyActivity implement
     }
 
     private void computeResultsForVector(VectorAverage freqAverage,Results results) {
+        if (analyzeVector(freqAverage, results)) {
+            appendResultsToScreen(results.toString());
+            //store results
+            recordTestResults(results);
+        } else {
+            appendResultsToScreen("Failed testing channel " + results.mLabel);
+        }
+    }
 
+    /**
+     * Computes the band levels and in-band points of an averaged spectrum into results.
+     * Returns false if the spectrum is empty.
+     */
+    private boolean analyzeVector(VectorAverage freqAverage, Results results) {
         int points = freqAverage.getSize();
         if (points > 0) {
             //compute vector in db
@@ -449,13 +482,9 @@ public class AudioFrequencyLineActivity extends AudioFrequencyActivity implement
                     }
                 }
             }
-
-            appendResultsToScreen(results.toString());
-            //store results
-            recordTestResults(results);
-        } else {
-            appendResultsToScreen("Failed testing channel " + results.mLabel);
+            return true;
         }
+        return false;
     }
 
     //append results
@@ -614,61 +643,42 @@ public class AudioFrequencyLineActivity extends AudioFrequencyActivity implement
     // Implementation of AudioRecord.OnPeriodicNotificationListener
     // --------------------
     public void onPeriodicNotification(AudioRecord recorder) {
-        int samplesAvailable = mPipe.availableToRead();
-        int samplesNeeded = mBlockSizeSamples;
-        if (samplesAvailable >= samplesNeeded) {
-            mPipe.read(mAudioShortArray2, 0, samplesNeeded);
-
-            //compute stuff.
-            double maxval = Math.pow(2, 15);
-            int clipcount = 0;
-            double cliplevel = (maxval-10) / maxval;
-            double sum = 0;
-            double maxabs = 0;
-            int i;
-            int index = 0;
-
-            for (i = 0; i < samplesNeeded; i++) {
-                double value = mAudioShortArray2[i] / maxval;
-                double valueabs = Math.abs(value);
-
-                if (valueabs > maxabs) {
-                    maxabs = valueabs;
-                }
-
-                if (valueabs > cliplevel) {
-                    clipcount++;
-                }
+        DspStreamingSpectrum spectrum;
+        switch (mCurrentTest) {
+            case 0:
+                spectrum = mSpectrum0;
+                break;
+            case 1:
+                spectrum = mSpectrum1;
+                break;
+            default:
+                spectrum = null;
+        }
 
-                sum += value * value;
-                //fft stuff
-                if (index < mBlockSizeSamples) {
-                    mData.mData[index] = value;
+        synchronized (mSpectrumLock) {
+            // Consume everything captured so far; frames are transformed as soon as they are
+            // full.
+            int samplesRead;
+            while ((samplesRead = mPipe.read(mAudioShortArray2, 0, mAudioShortArray2.length))
+                    > 0) {
+                if (spectrum != null) {
+                    spectrum.addSamples(mAudioShortArray2, 0, samplesRead);
                 }
-                index++;
-            }
-
-            //for the current frame, compute FFT and send to the viewer.
-
-            //apply window and pack as complex for now.
-            DspBufferMath.mult(mData, mData, mWindow.mBuffer);
-            DspBufferMath.set(mC, mData);
-            mFftServer.fft(mC, 1);
-
-            double[] halfMagnitude = new double[mBlockSizeSamples / 2];
-            for (i = 0; i < mBlockSizeSamples / 2; i++) {
-                halfMagnitude[i] = Math.sqrt(mC.mReal[i] * mC.mReal[i] + mC.mImag[i] * mC.mImag[i]);
             }
 
-            mFreqAverageMain.setData(halfMagnitude, false); //average all of them!
-
-            switch(mCurrentTest) {
-                case 0:
-                    mFreqAverage0.setData(halfMagnitude, false);
-                    break;
-                case 1:
-                    mFreqAverage1.setData(halfMagnitude, false);
-                    break;
+            if (spectrum != null && spectrum.getFrameCount() >= MIN_FRAMES_FOR_DECISION
+                    && spectrum.getFrameCount() - mLastCheckedFrame >= EARLY_CHECK_FRAMES) {
+                mLastCheckedFrame = spectrum.getFrameCount();
+                Results results = new Results("");
+                if (analyzeVector(spectrum.getAverage(), results) && results.testAll()) {
+                    mConsecutivePasses++;
+                } else {
+                    mConsecutivePasses = 0;
+                }
+                CountDownLatch earlyPassLatch = mEarlyPassLatch;
+                if (mConsecutivePasses >= EARLY_PASS_CHECKS && earlyPassLatch != null) {
+                    earlyPassLatch.countDown();
+                }
             }
         }
     }
@@ -18,6 +18,7 @@ package com.android.cts.verifier.audio;
 
 import android.util.Log;
 
+import com.android.cts.verifier.audio.wavelib.DspCorrelation;
 
 public class Correlation {
 
@@ -25,6 +26,7 @@ public class Correlation {
     private int mSamplingRate = 44100;
     private double [] mDataDownsampled = new double [mBlockSize];
     private double [] mDataAutocorrelated = new double[mBlockSize];
+    private final DspCorrelation mDspCorrelation = new DspCorrelation();
 
     public double mEstimatedLatencySamples = 0;
     public double mEstimatedLatencyMs = 0;
@@ -35,6 +37,8 @@ public class Correlation {
     public void init(int blockSize, int samplingRate) {
         mBlockSize = blockSize;
         mSamplingRate = samplingRate;
+        mDataDownsampled = new double [mBlockSize];
+        mDataAutocorrelated = new double[mBlockSize];
     }
 
     public boolean computeCorrelation(double [] data, int samplingRate) {
@@ -149,12 +153,9 @@ public class Correlation {
         }
 
         if (sumsquared>0) {
+            // dataOut[i] = sum(data[j] * data[i + j]), computed with FFTs.
+            mDspCorrelation.autocorrelation(data, N, dataOut);
             for (int i = 0; i < N; i++) {
-                dataOut[i] = 0;
-                for (int j = 0; j < N - i; j++) {
-
-                    dataOut[i] += data[j] * data[i + j];
-                }
                 dataOut[i] = dataOut[i] / sumsquared;
             }
             status = true;
@@ -1,6 +1,6 @@
 package com.android.cts.verifier.audio;
 
-import org.apache.commons.math.complex.Complex;
+import com.android.cts.verifier.audio.wavelib.DspCorrelation;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -155,17 +155,7 @@ public class WavAnalyzer {
         noisePoints[j] = noisePoints[j] * Common.WINDOW_FOR_RECORDER[j];
       }
       for (int i = 0; i < Common.PIP_NUM; i++) {
-        double freq = Common.FREQUENCIES_ORIGINAL[i];
-        Complex fourierCoeff = new Complex(0, 0);
-        final Complex rotator = new Complex(0,
-            -2.0 * Math.PI * freq / sampleRate).exp();
-        Complex phasor = new Complex(1, 0);
-        for (int j = 0; j < noisePoints.length; j++) {
-          fourierCoeff = fourierCoeff.add(phasor.multiply(noisePoints[j]));
-          phasor = phasor.multiply(rotator);
-        }
-        fourierCoeff = fourierCoeff.multiply(1.0 / noisePoints.length);
-        noisePower[i][s] = fourierCoeff.multiply(fourierCoeff.conjugate()).abs();
+        noisePower[i][s] = fourierPower(noisePoints, Common.FREQUENCIES_ORIGINAL[i]);
       }
     }
     for (int i = 0; i < Common.PIP_NUM; i++) {
@@ -193,18 +183,9 @@ public class WavAnalyzer {
       for (int j = 0; j < Common.WINDOW_FOR_RECORDER.length; j++) {
         pipPoints[j] = pipPoints[j] * Common.WINDOW_FOR_RECORDER[j];
       }
-      Complex fourierCoeff = new Complex(0, 0);
-      final Complex rotator = new Complex(0,
-          -2.0 * Math.PI * Common.FREQUENCIES[i] / sampleRate).exp();
-      Complex phasor = new Complex(1, 0);
-      for (int j = 0; j < pipPoints.length; j++) {
-        fourierCoeff = fourierCoeff.add(phasor.multiply(pipPoints[j]));
-        phasor = phasor.multiply(rotator);
-      }
-      fourierCoeff = fourierCoeff.multiply(1.0 / pipPoints.length);
       int j = Common.ORDER[i];
       power[j % Common.PIP_NUM][j / Common.PIP_NUM] =
-          fourierCoeff.multiply(fourierCoeff.conjugate()).abs();
+          fourierPower(pipPoints, Common.FREQUENCIES[i]);
     }
 
     // Calculate median of trials.
@@ -225,14 +206,38 @@ public class WavAnalyzer {
             + Common.PAUSE_BEFORE_PREFIX_DURATION_S + Common.PAUSE_AFTER_PREFIX_DURATION_S + 0.5))
         + zeroPad);
 
-    double[] dataCut = new double[fftSize - zeroPad];
-    System.arraycopy(data, 0, dataCut, 0, fftSize - zeroPad);
-    double[] xCorrDataPrefix = Util.computeCrossCorrelation(
-        Util.padZeros(Util.toComplex(dataCut), fftSize),
-        Util.padZeros(Util.toComplex(Common.PREFIX_FOR_RECORDER), fftSize));
+    if (data.length < fftSize - zeroPad) {
+      throw new IndexOutOfBoundsException("Recording is shorter than the prefix search window");
+    }
+    double[] xCorrDataPrefix = new double[fftSize];
+    new DspCorrelation().crossCorrelation(data, fftSize - zeroPad,
+        Common.PREFIX_FOR_RECORDER, Common.PREFIX_FOR_RECORDER.length, fftSize, xCorrDataPrefix);
     return Util.findMaxIndex(xCorrDataPrefix);
   }
 
+  /**
+   * Squared magnitude of the Fourier coefficient of points at freq, normalized by the number of
+   * points. The phasor is rotated by recurrence.
+   */
+  private double fourierPower(double[] points, double freq) {
+    final double rotatorReal = Math.cos(-2.0 * Math.PI * freq / sampleRate);
+    final double rotatorImag = Math.sin(-2.0 * Math.PI * freq / sampleRate);
+    double phasorReal = 1;
+    double phasorImag = 0;
+    double coeffReal = 0;
+    double coeffImag = 0;
+    for (int j = 0; j < points.length; j++) {
+      coeffReal += phasorReal * points[j];
+      coeffImag += phasorImag * points[j];
+      double real = phasorReal * rotatorReal - phasorImag * rotatorImag;
+      phasorImag = phasorReal * rotatorImag + phasorImag * rotatorReal;
+      phasorReal = real;
+    }
+    coeffReal /= points.length;
+    coeffImag /= points.length;
+    return coeffReal * coeffReal + coeffImag * coeffImag;
+  }
+
   double[] getDB() {
     return dB;
   }
@@ -16,8 +16,6 @@
 
 package com.android.cts.verifier.audio.wavelib;
 
-import android.util.Log;
-
 public class DspBufferMath {
     private static final String TAG = "DspBufferMath";
     public static final int OPERANDS_TYPE_UNKNOWN  = -1;
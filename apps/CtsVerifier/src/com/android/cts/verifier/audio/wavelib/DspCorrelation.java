@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.verifier.audio.wavelib;
+
+import java.util.Arrays;
+
+/**
+ * FFT based correlation of real signals on primitive arrays.
+ *
+ * The {@link DspFftServer} (and its twiddle tables) and the complex workspace are kept between
+ * calls and only rebuilt when the transform size changes, so repeated correlations of the same
+ * size do not allocate. Not thread safe.
+ */
+public class DspCorrelation {
+    private DspFftServer mFftServer;
+    private DspBufferComplex mWorkspace;
+    private int mSize = 0;
+
+    /**
+     * Returns the smallest power of 2 greater than or equal to n, or 1 if n is not positive.
+     */
+    public static int nextPowerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private void prepare(int size) {
+        if (size != mSize) {
+            mFftServer = new DspFftServer(size);
+            mWorkspace = new DspBufferComplex(size);
+            mSize = size;
+        }
+    }
+
+    /**
+     * Linear autocorrelation of the first length samples of data:
+     * out[i] = sum(data[j] * data[j + i]) for i in [0, length).
+     */
+    public void autocorrelation(double[] data, int length, double[] out) {
+        int size = nextPowerOfTwo(2 * length);
+        prepare(size);
+        double[] real = mWorkspace.mReal;
+        double[] imag = mWorkspace.mImag;
+        System.arraycopy(data, 0, real, 0, length);
+        Arrays.fill(real, length, size, 0);
+        Arrays.fill(imag, 0);
+
+        mFftServer.fft(mWorkspace, 1);
+        for (int k = 0; k < size; k++) {
+            real[k] = real[k] * real[k] + imag[k] * imag[k];
+            imag[k] = 0;
+        }
+        mFftServer.fft(mWorkspace, -1);
+
+        for (int i = 0; i < length; i++) {
+            out[i] = real[i] / size;
+        }
+    }
+
+    /**
+     * Circular cross-correlation of data1 and data2, each zero padded (or truncated) to size, a
+     * power of 2: out[k] = |sum(data1[(j + k) % size] * data2[j])| for k in [0, size).
+     *
+     * Both real signals are transformed together as the real and imaginary parts of a single
+     * complex FFT.
+     */
+    public void crossCorrelation(double[] data1, int length1, double[] data2, int length2,
+            int size, double[] out) {
+        prepare(size);
+        length1 = Math.min(length1, size);
+        length2 = Math.min(length2, size);
+        double[] real = mWorkspace.mReal;
+        double[] imag = mWorkspace.mImag;
+        System.arraycopy(data1, 0, real, 0, length1);
+        Arrays.fill(real, length1, size, 0);
+        System.arraycopy(data2, 0, imag, 0, length2);
+        Arrays.fill(imag, length2, size, 0);
+
+        mFftServer.fft(mWorkspace, 1);
+        // With Z = FFT(data1 + i * data2) and m = (size - k) % size:
+        // X[k] = (Z[k] + conj(Z[m])) / 2, Y[k] = (Z[k] - conj(Z[m])) / 2i,
+        // and X[m] * conj(Y[m]) = conj(X[k] * conj(Y[k])) for real signals.
+        for (int k = 0; k <= size / 2; k++) {
+            int m = (size - k) & (size - 1);
+            double a = real[k];
+            double b = imag[k];
+            double c = real[m];
+            double d = imag[m];
+            double xr = (a + c) / 2;
+            double xi = (b - d) / 2;
+            double yr = (b + d) / 2;
+            double yi = (c - a) / 2;
+            double pr = xr * yr + xi * yi;
+            double pi = xi * yr - xr * yi;
+            real[k] = pr;
+            imag[k] = pi;
+            real[m] = pr;
+            imag[m] = -pi;
+        }
+        mFftServer.fft(mWorkspace, -1);
+
+        for (int i = 0; i < size; i++) {
+            out[i] = Math.sqrt(real[i] * real[i] + imag[i] * imag[i]) / size;
+        }
+    }
+}
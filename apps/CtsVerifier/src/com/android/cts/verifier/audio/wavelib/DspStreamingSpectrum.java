@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.verifier.audio.wavelib;
+
+/**
+ * Incremental Welch averaged magnitude spectrum of a mono stream.
+ *
+ * Samples are added as they are captured, in blocks of any size. Every time a full frame of
+ * blockSize samples is available, it is windowed and transformed, and the magnitudes of its
+ * first blockSize / 2 bins are averaged in a {@link VectorAverage}. Consecutive frames overlap
+ * by overlap samples. All buffers are allocated up front, so memory does not depend on the
+ * length of the recording, and the average is ready as soon as the last block is added.
+ */
+public class DspStreamingSpectrum {
+    private static final double SHORT_SCALE = 1.0 / (1 << 15);
+
+    private final int mBlockSize;
+    private final int mOverlap;
+    private final DspWindow mWindow;
+    private final DspFftServer mFftServer;
+    private final DspBufferComplex mSpectrum;
+    private final double[] mFrame;
+    private final double[] mMagnitude;
+    private final VectorAverage mAverage = new VectorAverage();
+    private int mFill = 0;
+    private int mFrameCount = 0;
+
+    /**
+     * @param blockSize  frame size, a power of 2
+     * @param overlap    samples shared by consecutive frames, less than blockSize
+     * @param windowType one of the {@link DspWindow} window types
+     */
+    public DspStreamingSpectrum(int blockSize, int overlap, int windowType) {
+        if (overlap < 0 || overlap >= blockSize) {
+            throw new IllegalArgumentException("Overlap must be in [0, " + blockSize + ")");
+        }
+        mBlockSize = blockSize;
+        mOverlap = overlap;
+        mWindow = new DspWindow(windowType, blockSize, Math.max(1, overlap));
+        mFftServer = new DspFftServer(blockSize);
+        mSpectrum = new DspBufferComplex(blockSize);
+        mFrame = new double[blockSize];
+        mMagnitude = new double[blockSize / 2];
+    }
+
+    /**
+     * Adds 16 bit PCM samples, as read from a {@link PipeShort}.
+     */
+    public void addSamples(short[] data, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            mFrame[mFill++] = data[i] * SHORT_SCALE;
+            if (mFill == mBlockSize) {
+                processFrame();
+            }
+        }
+    }
+
+    private void processFrame() {
+        double[] window = mWindow.mBuffer.mData;
+        double[] real = mSpectrum.mReal;
+        double[] imag = mSpectrum.mImag;
+        for (int i = 0; i < mBlockSize; i++) {
+            real[i] = mFrame[i] * window[i];
+            imag[i] = 0;
+        }
+        mFftServer.fft(mSpectrum, 1);
+        for (int i = 0; i < mMagnitude.length; i++) {
+            mMagnitude[i] = Math.sqrt(real[i] * real[i] + imag[i] * imag[i]);
+        }
+        mAverage.setData(mMagnitude, false);
+        mFrameCount++;
+
+        // Keep the overlapping tail as the head of the next frame.
+        System.arraycopy(mFrame, mBlockSize - mOverlap, mFrame, 0, mOverlap);
+        mFill = mOverlap;
+    }
+
+    /**
+     * Drops the pending samples and the average.
+     */
+    public void reset() {
+        mFill = 0;
+        mFrameCount = 0;
+        mAverage.reset();
+    }
+
+    /**
+     * Returns the number of frames averaged since the last reset.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /**
+     * Returns the average magnitude of the first blockSize / 2 bins.
+     */
+    public VectorAverage getAverage() {
+        return mAverage;
+    }
+}
@@ -16,10 +16,7 @@
 
 package com.android.cts.verifier.audio.wavelib;
 
-import android.util.Log;
-
 public class VectorAverage {
-    private static final String LOGTAG = "VectorAverage";
     private static final int mVersion = 0;
     private double[] mData;
     private int mValueCount = 0;
@@ -197,8 +194,4 @@ public class VectorAverage {
 
         return success;
     }
-
-    private static void log(String msg) {
-        Log.v(LOGTAG, msg);
-    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.verifier.camera.its;
+
+import android.util.SparseArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of direct byte buffers holding image plane data until it has been written to the host
+ * socket.
+ *
+ * Buffers are recycled by exact size, since a burst capture produces the same plane sizes for
+ * every frame of a stream. At most maxPooledBytes are kept idle; buffers released beyond that are
+ * left to the garbage collector.
+ */
+public class ItsBufferPool {
+    private final long mMaxPooledBytes;
+    private long mPooledBytes = 0;
+    private final SparseArray<ArrayDeque<ByteBuffer>> mBuffers =
+            new SparseArray<ArrayDeque<ByteBuffer>>();
+
+    public ItsBufferPool(long maxPooledBytes) {
+        mMaxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Returns a direct buffer of capacity size, with its position at zero and its limit at size.
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        ArrayDeque<ByteBuffer> buffers = mBuffers.get(size);
+        if (buffers != null && !buffers.isEmpty()) {
+            ByteBuffer buffer = buffers.pollLast();
+            mPooledBytes -= size;
+            buffer.clear();
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Returns a buffer obtained from acquire() to the pool. The buffer must not be used afterwards.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        int size = buffer.capacity();
+        if (mPooledBytes + size > mMaxPooledBytes) {
+            return;
+        }
+        ArrayDeque<ByteBuffer> buffers = mBuffers.get(size);
+        if (buffers == null) {
+            buffers = new ArrayDeque<ByteBuffer>();
+            mBuffers.put(size, buffers);
+        }
+        buffers.addLast(buffer);
+        mPooledBytes += size;
+    }
+
+    /**
+     * Drops all idle buffers, leaving them to the garbage collector.
+     */
+    public synchronized void trim() {
+        mBuffers.clear();
+        mPooledBytes = 0;
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.cts.verifier.camera.its;
 
 import android.graphics.Point;
+import android.graphics.PointF;
 import android.graphics.Rect;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
@@ -49,10 +50,16 @@ import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.CRC32;
 
 /**
  * Class to deal with serializing and deserializing between JSON and Camera2 objects.
@@ -558,6 +565,366 @@ public class ItsSerializer {
         return jsonObj;
     }
 
+    // Encodings of the capture results sent back with "captureResults" responses. JSON is the
+    // default; the host opts into TLV with the "metadataEncoding" field of a capture command.
+    public static final int METADATA_ENCODING_JSON = 0;
+    public static final int METADATA_ENCODING_TLV = 1;
+
+    // Version of the TLV layout described in serializeTlv(). Must match the host decoder in
+    // CameraITS/pymodules/its/device.py.
+    public static final int TLV_FORMAT_VERSION = 1;
+    // "ITSM", little endian.
+    private static final int TLV_MAGIC = 0x4d535449;
+
+    // TLV value types. TLV_TYPE_ARRAY is or'ed with the element type for packed arrays.
+    private static final int TLV_TYPE_NULL = 0;
+    private static final int TLV_TYPE_INT32 = 1;
+    private static final int TLV_TYPE_INT64 = 2;
+    private static final int TLV_TYPE_FLOAT32 = 3;
+    private static final int TLV_TYPE_FLOAT64 = 4;
+    private static final int TLV_TYPE_BOOL = 5;
+    private static final int TLV_TYPE_BYTE = 6;
+    private static final int TLV_TYPE_STRING = 7;
+    private static final int TLV_TYPE_RATIONAL = 8;
+    private static final int TLV_TYPE_RECT = 9;
+    private static final int TLV_TYPE_METERING_RECTANGLE = 10;
+    private static final int TLV_TYPE_PAIR_FLOAT64 = 11;
+    private static final int TLV_TYPE_TONEMAP_CURVE = 12;
+    private static final int TLV_TYPE_LENS_SHADING_MAP = 13;
+    // Any other value, as a JSON array holding the JSON serialization of the value.
+    private static final int TLV_TYPE_JSON = 14;
+    private static final int TLV_TYPE_ARRAY = 0x80;
+
+    private static final int TLV_INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    // Capture result keys sorted by name; an entry refers to its key by index in this table.
+    private static Field[] sTlvKeyFields = null;
+    private static String[] sTlvKeyNames = null;
+    private static int sTlvKeyTableId = 0;
+
+    private static synchronized void initTlvKeyTable() throws ItsException {
+        if (sTlvKeyFields != null) {
+            return;
+        }
+        List<Field> fields = new ArrayList<Field>();
+        for (Field field : CaptureResult.class.getDeclaredFields()) {
+            if (Modifier.isPublic(field.getModifiers()) &&
+                    Modifier.isStatic(field.getModifiers()) &&
+                    field.getType() == CaptureResult.Key.class &&
+                    field.getGenericType() instanceof ParameterizedType) {
+                fields.add(field);
+            }
+        }
+        Field[] keyFields = fields.toArray(new Field[fields.size()]);
+        String[] keyNames = new String[keyFields.length];
+        try {
+            for (int i = 0; i < keyFields.length; i++) {
+                keyNames[i] = ((CaptureResult.Key) keyFields[i].get(null)).getName();
+            }
+        } catch (IllegalAccessException e) {
+            throw new ItsException("Access error for capture result keys: ", e);
+        }
+        Integer[] order = new Integer[keyFields.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final String[] names = keyNames;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return names[a].compareTo(names[b]);
+            }
+        });
+        sTlvKeyFields = new Field[order.length];
+        sTlvKeyNames = new String[order.length];
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < order.length; i++) {
+            sTlvKeyFields[i] = keyFields[order[i]];
+            sTlvKeyNames[i] = keyNames[order[i]];
+            crc.update((sTlvKeyNames[i] + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        sTlvKeyTableId = (int) crc.getValue();
+    }
+
+    /**
+     * Returns the key table referenced by serializeTlv(): its id, the TLV format version and the
+     * key names, in index order.
+     */
+    public static JSONObject getTlvKeyTable() throws ItsException {
+        initTlvKeyTable();
+        try {
+            JSONObject tableObj = new JSONObject();
+            tableObj.put("id", sTlvKeyTableId & 0xffffffffL);
+            tableObj.put("version", TLV_FORMAT_VERSION);
+            JSONArray keysArr = new JSONArray();
+            for (String name : sTlvKeyNames) {
+                keysArr.put(name);
+            }
+            tableObj.put("keys", keysArr);
+            return tableObj;
+        } catch (org.json.JSONException e) {
+            throw new ItsException("JSON error for TLV key table: ", e);
+        }
+    }
+
+    // Little endian byte buffer that grows as TLV entries are appended.
+    private static class TlvBuffer {
+        ByteBuffer buf = ByteBuffer.allocate(TLV_INITIAL_BUFFER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        ByteBuffer ensure(int size) {
+            if (buf.remaining() < size) {
+                int capacity = Math.max(buf.capacity() * 2, buf.position() + size);
+                ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+                buf.flip();
+                grown.put(buf);
+                buf = grown;
+            }
+            return buf;
+        }
+
+        // Writes the key index and type of an entry; returns the position of its length field.
+        int beginEntry(int keyIndex, int type) {
+            ensure(7).putShort((short) keyIndex).put((byte) type);
+            int lengthPosition = buf.position();
+            buf.putInt(0);
+            return lengthPosition;
+        }
+
+        void endEntry(int lengthPosition) {
+            buf.putInt(lengthPosition, buf.position() - lengthPosition - 4);
+        }
+
+        void putRational(Rational rat) {
+            ensure(8).putInt(rat.getNumerator()).putInt(rat.getDenominator());
+        }
+
+        void putRect(Rect rect) {
+            ensure(16).putInt(rect.left).putInt(rect.right).putInt(rect.top).putInt(rect.bottom);
+        }
+
+        void putMeteringRectangle(MeteringRectangle rect) {
+            ensure(20).putInt(rect.getX()).putInt(rect.getY()).putInt(rect.getWidth())
+                    .putInt(rect.getHeight()).putInt(rect.getMeteringWeight());
+        }
+    }
+
+    /**
+     * Serializes a capture result in the compact TLV format, without building a JSON tree.
+     *
+     * All values are little endian. The buffer starts with the magic "ITSM", a u16 format version,
+     * a u16 entry count and the u32 id of the key table returned by getTlvKeyTable(). Each entry is
+     * a u16 key index, a u8 value type and a u32 value length, followed by the value. Keys that
+     * would be left out of the JSON serialization (null arrays, NaN or infinite floats,
+     * unsupported types) are left out as well.
+     *
+     * @return a buffer ready to be read
+     */
+    public static ByteBuffer serializeTlv(CaptureResult md) throws ItsException {
+        initTlvKeyTable();
+        TlvBuffer out = new TlvBuffer();
+        out.buf.putInt(TLV_MAGIC);
+        out.buf.putShort((short) TLV_FORMAT_VERSION);
+        out.buf.putShort((short) 0);
+        out.buf.putInt(sTlvKeyTableId);
+        int entryCount = 0;
+        for (int i = 0; i < sTlvKeyFields.length; i++) {
+            Field field = sTlvKeyFields[i];
+            Type keyType = ((ParameterizedType) field.getGenericType())
+                    .getActualTypeArguments()[0];
+            try {
+                if (serializeTlvEntry(out, i, keyType, field.get(md), md)) {
+                    entryCount++;
+                }
+            } catch (IllegalAccessException e) {
+                throw new ItsException("Access error for field: " + field + ": ", e);
+            }
+        }
+        out.buf.putShort(6, (short) entryCount);
+        out.buf.flip();
+        return out.buf;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean serializeTlvEntry(TlvBuffer out, int keyIndex, Type keyType,
+            Object keyObj, CameraMetadata md) throws ItsException {
+        Object keyValue = getKeyValue(md, keyObj);
+        if (keyValue == null) {
+            if (keyType instanceof GenericArrayType) {
+                return false;
+            }
+            out.endEntry(out.beginEntry(keyIndex, TLV_TYPE_NULL));
+            return true;
+        }
+        int entry;
+        if (keyType == Integer.class) {
+            entry = out.beginEntry(keyIndex, TLV_TYPE_INT32);
+            out.ensure(4).putInt((Integer) keyValue);
+        } else if (keyType == Long.class) {
+            entry = out.beginEntry(keyIndex, TLV_TYPE_INT64);
+            out.ensure(8).putLong((Long) keyValue);
+        } else if (keyType == Float.class) {
+            // Same as the JSON serialization, which doesn't handle NaN or Inf.
+            float f = (Float) keyValue;
+            if (Float.isInfinite(f) || Float.isNaN(f)) {
+                Logt.w(TAG, "Inf/NaN floating point value serialized: " + getKeyName(keyObj));
+                return false;
+            }
+            entry = out.beginEntry(keyIndex, TLV_TYPE_FLOAT32);
+            out.ensure(4).putFloat(f);
+        } else if (keyType == Boolean.class) {
+            entry = out.beginEntry(keyIndex, TLV_TYPE_BOOL);
+            out.ensure(1).put((byte) ((Boolean) keyValue ? 1 : 0));
+        } else if (keyType == Byte.class) {
+            entry = out.beginEntry(keyIndex, TLV_TYPE_BYTE);
+            out.ensure(1).put((Byte) keyValue);
+        } else if (keyType == String.class) {
+            byte[] str = ((String) keyValue).getBytes(StandardCharsets.UTF_8);
+            entry = out.beginEntry(keyIndex, TLV_TYPE_STRING);
+            out.ensure(str.length).put(str);
+        } else if (keyType == Rational.class) {
+            entry = out.beginEntry(keyIndex, TLV_TYPE_RATIONAL);
+            out.putRational((Rational) keyValue);
+        } else if (keyType == Rect.class) {
+            entry = out.beginEntry(keyIndex, TLV_TYPE_RECT);
+            out.putRect((Rect) keyValue);
+        } else if (keyType == ColorSpaceTransform.class) {
+            ColorSpaceTransform xform = (ColorSpaceTransform) keyValue;
+            entry = out.beginEntry(keyIndex, TLV_TYPE_RATIONAL | TLV_TYPE_ARRAY);
+            for (int row = 0; row < 3; row++) {
+                for (int col = 0; col < 3; col++) {
+                    out.putRational(xform.getElement(col, row));
+                }
+            }
+        } else if (keyType == RggbChannelVector.class) {
+            RggbChannelVector vec = (RggbChannelVector) keyValue;
+            entry = out.beginEntry(keyIndex, TLV_TYPE_FLOAT32 | TLV_TYPE_ARRAY);
+            out.ensure(16).putFloat(vec.getRed()).putFloat(vec.getGreenEven())
+                    .putFloat(vec.getGreenOdd()).putFloat(vec.getBlue());
+        } else if (keyType == TonemapCurve.class) {
+            TonemapCurve curve = (TonemapCurve) keyValue;
+            entry = out.beginEntry(keyIndex, TLV_TYPE_TONEMAP_CURVE);
+            for (int ch = 0; ch < 3; ch++) {
+                int len = curve.getPointCount(ch);
+                out.ensure(4 + len * 8).putInt(len);
+                for (int i = 0; i < len; i++) {
+                    PointF point = curve.getPoint(ch, i);
+                    out.buf.putFloat(point.x).putFloat(point.y);
+                }
+            }
+        } else if (keyType == LensShadingMap.class) {
+            LensShadingMap map = (LensShadingMap) keyValue;
+            int width = map.getColumnCount();
+            int height = map.getRowCount();
+            entry = out.beginEntry(keyIndex, TLV_TYPE_LENS_SHADING_MAP);
+            out.ensure(8 + width * height * 4 * 4).putInt(width).putInt(height);
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    for (int ch = 0; ch < 4; ch++) {
+                        out.buf.putFloat(map.getGainFactor(ch, col, row));
+                    }
+                }
+            }
+        } else if (keyType instanceof ParameterizedType &&
+                ((ParameterizedType) keyType).getRawType() == Range.class &&
+                ((Range) keyValue).getLower() instanceof Integer) {
+            Range<Integer> range = (Range<Integer>) keyValue;
+            entry = out.beginEntry(keyIndex, TLV_TYPE_INT32 | TLV_TYPE_ARRAY);
+            out.ensure(8).putInt(range.getLower()).putInt(range.getUpper());
+        } else if (keyType instanceof GenericArrayType) {
+            Type elmtType = ((GenericArrayType) keyType).getGenericComponentType();
+            if (elmtType == int.class) {
+                int[] values = (int[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_INT32 | TLV_TYPE_ARRAY);
+                out.ensure(values.length * 4).asIntBuffer().put(values);
+                out.buf.position(out.buf.position() + values.length * 4);
+            } else if (elmtType == long.class) {
+                long[] values = (long[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_INT64 | TLV_TYPE_ARRAY);
+                out.ensure(values.length * 8).asLongBuffer().put(values);
+                out.buf.position(out.buf.position() + values.length * 8);
+            } else if (elmtType == float.class) {
+                float[] values = (float[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_FLOAT32 | TLV_TYPE_ARRAY);
+                out.ensure(values.length * 4).asFloatBuffer().put(values);
+                out.buf.position(out.buf.position() + values.length * 4);
+            } else if (elmtType == double.class) {
+                double[] values = (double[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_FLOAT64 | TLV_TYPE_ARRAY);
+                out.ensure(values.length * 8).asDoubleBuffer().put(values);
+                out.buf.position(out.buf.position() + values.length * 8);
+            } else if (elmtType == byte.class) {
+                byte[] values = (byte[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_BYTE | TLV_TYPE_ARRAY);
+                out.ensure(values.length).put(values);
+            } else if (elmtType == boolean.class) {
+                boolean[] values = (boolean[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_BOOL | TLV_TYPE_ARRAY);
+                out.ensure(values.length);
+                for (boolean value : values) {
+                    out.buf.put((byte) (value ? 1 : 0));
+                }
+            } else if (elmtType == Rational.class) {
+                Rational[] values = (Rational[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_RATIONAL | TLV_TYPE_ARRAY);
+                for (Rational value : values) {
+                    out.putRational(value);
+                }
+            } else if (elmtType == Rect.class) {
+                Rect[] values = (Rect[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_RECT | TLV_TYPE_ARRAY);
+                for (Rect value : values) {
+                    out.putRect(value);
+                }
+            } else if (elmtType == MeteringRectangle.class) {
+                MeteringRectangle[] values = (MeteringRectangle[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_METERING_RECTANGLE | TLV_TYPE_ARRAY);
+                for (MeteringRectangle value : values) {
+                    out.putMeteringRectangle(value);
+                }
+            } else if (elmtType instanceof ParameterizedType &&
+                    ((ParameterizedType) elmtType).getRawType() == Pair.class &&
+                    isDoublePairArray((Pair[]) keyValue)) {
+                Pair<Double, Double>[] values = (Pair<Double, Double>[]) keyValue;
+                entry = out.beginEntry(keyIndex, TLV_TYPE_PAIR_FLOAT64 | TLV_TYPE_ARRAY);
+                out.ensure(values.length * 16);
+                for (Pair<Double, Double> value : values) {
+                    out.buf.putDouble(value.first).putDouble(value.second);
+                }
+            } else {
+                return serializeTlvJsonEntry(out, keyIndex,
+                        serializeArrayEntry(keyType, keyObj, md));
+            }
+        } else {
+            return serializeTlvJsonEntry(out, keyIndex, serializeEntry(keyType, keyObj, md));
+        }
+        out.endEntry(entry);
+        return true;
+    }
+
+    private static boolean isDoublePairArray(Pair[] pairs) {
+        for (Pair pair : pairs) {
+            if (!(pair.first instanceof Double) || !(pair.second instanceof Double)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Fallback for the value types without a binary layout.
+    private static boolean serializeTlvJsonEntry(TlvBuffer out, int keyIndex,
+            MetadataEntry metadataEntry) {
+        if (metadataEntry == null) {
+            return false;
+        }
+        byte[] json = new JSONArray().put(metadataEntry.value).toString()
+                .getBytes(StandardCharsets.UTF_8);
+        int entry = out.beginEntry(keyIndex, TLV_TYPE_JSON);
+        out.ensure(json.length).put(json);
+        out.endEntry(entry);
+        return true;
+    }
+
     @SuppressWarnings("unchecked")
     public static CaptureRequest.Builder deserialize(CaptureRequest.Builder mdDefault,
             JSONObject jsonReq) throws ItsException {
@@ -77,11 +77,14 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.math.BigInteger;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.util.ArrayList;
@@ -121,6 +124,15 @@ public class ItsService extends Service implements SensorEventListener {
 
     private static final int MAX_CONCURRENT_READER_BUFFERS = 10;
 
+    // Most responses coalesced into one gathering socket write, and the size above which no more
+    // responses are added to it.
+    private static final int MAX_SOCKET_WRITE_BATCH_MESSAGES = 16;
+    private static final long MAX_SOCKET_WRITE_BATCH_BYTES = 8 * 1024 * 1024;
+
+    // Captures' worth of image buffers kept idle for reuse between frames of a burst. The pool is
+    // emptied when the camera is closed.
+    private static final int IMAGE_POOL_FRAMES = 2;
+
     // Supports at most RAW+YUV+JPEG, one surface each, plus optional background stream
     private static final int MAX_NUM_OUTPUT_SURFACES = 4;
 
@@ -163,9 +175,11 @@ public class ItsService extends Service implements SensorEventListener {
     private volatile SocketRunnable mSocketRunnableObj = null;
     private Semaphore mSocketQueueQuota = null;
     private int mMemoryQuota = -1;
-    private LinkedList<Integer> mInflightImageSizes = new LinkedList<>();
-    private volatile BlockingQueue<ByteBuffer> mSocketWriteQueue =
-            new LinkedBlockingDeque<ByteBuffer>();
+    // Upper bound of the plane bytes of one capture of any ITS camera.
+    private int mMaxFrameBytes = -1;
+    private volatile ItsBufferPool mImageBufferPool = null;
+    private volatile BlockingQueue<SocketWriteMessage> mSocketWriteQueue =
+            new LinkedBlockingDeque<SocketWriteMessage>();
     private final Object mSocketWriteEnqueueLock = new Object();
     private final Object mSocketWriteDrainLock = new Object();
 
@@ -183,6 +197,7 @@ public class ItsService extends Service implements SensorEventListener {
     private boolean mCaptureRawIsStats;
     private int mCaptureStatsGridWidth;
     private int mCaptureStatsGridHeight;
+    private int mCaptureMetadataEncoding = ItsSerializer.METADATA_ENCODING_JSON;
     private CaptureResult mCaptureResults[] = null;
 
     private volatile ConditionVariable mInterlock3A = new ConditionVariable(true);
@@ -216,6 +231,10 @@ public class ItsService extends Service implements SensorEventListener {
 
     private static final int SERIALIZER_SURFACES_ID = 2;
     private static final int SERIALIZER_PHYSICAL_METADATA_ID = 3;
+    private static final int SERIALIZER_METADATA_ENCODING_ID = 4;
+
+    public static final String METADATA_ENCODING_KEY = "metadataEncoding";
+    public static final String METADATA_ENCODING_TLV = "tlv";
 
     public interface CaptureCallback {
         void onCaptureAvailable(Image capture, String physicalCameraId);
@@ -365,6 +384,11 @@ public class ItsService extends Service implements SensorEventListener {
                     if (quota > mMemoryQuota) {
                         mMemoryQuota = quota;
                     }
+                    // At most 2 bytes per pixel, for RAW16.
+                    int frameBytes = maxYuvSize.getWidth() * maxYuvSize.getHeight() * 2;
+                    if (frameBytes > mMaxFrameBytes) {
+                        mMaxFrameBytes = frameBytes;
+                    }
                 }
             }
         } catch (CameraAccessException e) {
@@ -375,6 +399,10 @@ public class ItsService extends Service implements SensorEventListener {
             mCamera = mBlockingCameraManager.openCamera(cameraId, mCameraListener, mCameraHandler);
             mCameraCharacteristics = mCameraManager.getCameraCharacteristics(cameraId);
             mSocketQueueQuota = new Semaphore(mMemoryQuota, true);
+            if (mImageBufferPool == null) {
+                mImageBufferPool = new ItsBufferPool(
+                        (long) mMaxFrameBytes * IMAGE_POOL_FRAMES);
+            }
         } catch (CameraAccessException e) {
             throw new ItsException("Failed to open camera", e);
         } catch (BlockingOpenException e) {
@@ -393,6 +421,10 @@ public class ItsService extends Service implements SensorEventListener {
         } catch (Exception e) {
             throw new ItsException("Failed to close device");
         }
+        // Buffers still queued for the socket return to the pool when written, within its cap.
+        if (mImageBufferPool != null) {
+            mImageBufferPool.trim();
+        }
         mSocketRunnableObj.sendResponse("cameraClosed", "");
     }
 
@@ -407,9 +439,16 @@ public class ItsService extends Service implements SensorEventListener {
                     Object objs[] = mSerializerQueue.take();
                     JSONObject jsonObj = new JSONObject();
                     String tag = null;
+                    ByteBuffer bbuf = null;
+                    int metadataEncoding = ItsSerializer.METADATA_ENCODING_JSON;
+                    if (objs.length > SERIALIZER_METADATA_ENCODING_ID) {
+                        metadataEncoding = (Integer)objs[SERIALIZER_METADATA_ENCODING_ID];
+                    }
                     for (int i = 0; i < objs.length; i++) {
                         Object obj = objs[i];
-                        if (obj instanceof String) {
+                        if (i == SERIALIZER_METADATA_ENCODING_ID) {
+                            continue;
+                        } else if (obj instanceof String) {
                             if (tag != null) {
                                 throw new ItsException("Multiple tags for socket response");
                             }
@@ -421,8 +460,14 @@ public class ItsService extends Service implements SensorEventListener {
                             jsonObj.put("captureRequest", ItsSerializer.serialize(
                                     (CaptureRequest)obj));
                         } else if (obj instanceof CaptureResult) {
-                            jsonObj.put("captureResult", ItsSerializer.serialize(
-                                    (CaptureResult)obj));
+                            if (metadataEncoding == ItsSerializer.METADATA_ENCODING_TLV) {
+                                // Sent as the binary buffer of the response.
+                                bbuf = ItsSerializer.serializeTlv((CaptureResult)obj);
+                                jsonObj.put("captureResultEncoding", METADATA_ENCODING_TLV);
+                            } else {
+                                jsonObj.put("captureResult", ItsSerializer.serialize(
+                                        (CaptureResult)obj));
+                            }
                         } else if (obj instanceof JSONArray) {
                             if (tag == "captureResults") {
                                 if (i == SERIALIZER_SURFACES_ID) {
@@ -443,7 +488,7 @@ public class ItsService extends Service implements SensorEventListener {
                     if (tag == null) {
                         throw new ItsException("No tag provided for socket response");
                     }
-                    mSocketRunnableObj.sendResponse(tag, null, jsonObj, null);
+                    mSocketRunnableObj.sendResponse(tag, null, jsonObj, bbuf);
                     Logt.i(TAG, String.format("Serialized %s", tag));
                 } catch (org.json.JSONException e) {
                     Logt.e(TAG, "Error serializing object", e);
@@ -460,58 +505,152 @@ public class ItsService extends Service implements SensorEventListener {
         }
     }
 
+    static class SocketWriteMessage {
+        // JSON line describing the response.
+        final ByteBuffer header;
+        // Binary data following the header, or null.
+        final ByteBuffer[] payload;
+        // Stream that produced a capture buffer payload, or null for other responses.
+        final String stream;
+        // SystemClock.elapsedRealtimeNanos() when the capture arrived on the device.
+        final long arrivalNs;
+        // Pool to return the payload buffers to once written, or null.
+        final ItsBufferPool pool;
+        final long payloadBytes;
+
+        SocketWriteMessage(ByteBuffer header, ByteBuffer[] payload, String stream,
+                long arrivalNs, ItsBufferPool pool) {
+            this.header = header;
+            this.payload = payload;
+            this.stream = stream;
+            this.arrivalNs = arrivalNs;
+            this.pool = pool;
+            this.payloadBytes = payload == null ? 0 : getSize(payload);
+        }
+
+        static long getSize(ByteBuffer[] buffers) {
+            long bytes = 0;
+            for (ByteBuffer b : buffers) {
+                bytes += b.remaining();
+            }
+            return bytes;
+        }
+    }
+
+    // Returns the memory quota and pooled buffers held by a message that has been written or
+    // dropped.
+    private void recycleSocketWriteMessage(SocketWriteMessage m) {
+        if (m.payload == null) {
+            return;
+        }
+        // Only capture buffers were allocated against the quota.
+        if (m.stream != null && mSocketQueueQuota != null) {
+            mSocketQueueQuota.release((int) m.payloadBytes);
+        }
+        if (m.pool != null) {
+            for (ByteBuffer b : m.payload) {
+                m.pool.release(b);
+            }
+        }
+    }
+
+    private void clearSocketWriteQueue() {
+        SocketWriteMessage m;
+        while ((m = mSocketWriteQueue.poll()) != null) {
+            recycleSocketWriteMessage(m);
+        }
+    }
+
     class SocketWriteRunnable implements Runnable {
 
         // Use a separate thread to service a queue of objects to be written to the socket,
         // writing each sequentially in order. This is needed since different handler functions
         // (called on different threads) will need to send data back to the host script.
+        //
+        // The header and payload buffers of a response are sent with one gathering write on the
+        // socket channel, so that direct image buffers are never copied to the Java heap. Flushing
+        // is adaptive: responses that are already queued when a write starts are coalesced into
+        // the same write, and a write is issued as soon as the queue is empty.
 
-        public Socket mOpenSocket = null;
+        public SocketChannel mOpenChannel = null;
         private Thread mThread = null;
+        private final ItsSocketWriteStats mStats = new ItsSocketWriteStats();
 
-        public SocketWriteRunnable(Socket openSocket) {
-            mOpenSocket = openSocket;
+        public SocketWriteRunnable(SocketChannel openChannel) {
+            mOpenChannel = openChannel;
         }
 
-        public void setOpenSocket(Socket openSocket) {
-            mOpenSocket = openSocket;
+        public void setOpenChannel(SocketChannel openChannel) {
+            mOpenChannel = openChannel;
         }
 
         @Override
         public void run() {
             Logt.i(TAG, "Socket writer thread starting");
+            ArrayList<SocketWriteMessage> batch =
+                    new ArrayList<SocketWriteMessage>(MAX_SOCKET_WRITE_BATCH_MESSAGES);
+            ArrayList<ByteBuffer> gather = new ArrayList<ByteBuffer>();
+            ByteBuffer[] gatherArray = new ByteBuffer[0];
             while (true) {
                 try {
-                    ByteBuffer b = mSocketWriteQueue.take();
+                    SocketWriteMessage m = mSocketWriteQueue.take();
                     synchronized(mSocketWriteDrainLock) {
-                        if (mOpenSocket == null) {
+                        batch.clear();
+                        batch.add(m);
+                        long batchBytes = m.header.remaining() + m.payloadBytes;
+                        while (batch.size() < MAX_SOCKET_WRITE_BATCH_MESSAGES
+                                && batchBytes < MAX_SOCKET_WRITE_BATCH_BYTES
+                                && (m = mSocketWriteQueue.poll()) != null) {
+                            batch.add(m);
+                            batchBytes += m.header.remaining() + m.payloadBytes;
+                        }
+                        if (mOpenChannel == null) {
                             Logt.e(TAG, "No open socket connection!");
+                            for (SocketWriteMessage dropped : batch) {
+                                recycleSocketWriteMessage(dropped);
+                            }
                             continue;
                         }
-                        if (b.hasArray()) {
-                            mOpenSocket.getOutputStream().write(b.array(), 0, b.capacity());
-                        } else {
-                            byte[] barray = new byte[b.capacity()];
-                            b.get(barray);
-                            mOpenSocket.getOutputStream().write(barray);
+
+                        gather.clear();
+                        for (SocketWriteMessage msg : batch) {
+                            gather.add(msg.header);
+                            if (msg.payload != null) {
+                                gather.addAll(Arrays.asList(msg.payload));
+                            }
                         }
-                        mOpenSocket.getOutputStream().flush();
-                        Logt.i(TAG, String.format("Wrote to socket: %d bytes", b.capacity()));
-                        Integer imgBufSize = mInflightImageSizes.peek();
-                        if (imgBufSize != null && imgBufSize == b.capacity()) {
-                            mInflightImageSizes.removeFirst();
-                            if (mSocketQueueQuota != null) {
-                                mSocketQueueQuota.release(imgBufSize);
+                        gatherArray = gather.toArray(gatherArray);
+                        long remaining = batchBytes;
+                        while (remaining > 0) {
+                            remaining -= mOpenChannel.write(gatherArray, 0, gather.size());
+                        }
+                        Arrays.fill(gatherArray, null);
+                        long writtenNs = SystemClock.elapsedRealtimeNanos();
+                        Logt.i(TAG, String.format("Wrote to socket: %d bytes in %d responses",
+                                batchBytes, batch.size()));
+
+                        for (SocketWriteMessage msg : batch) {
+                            if (msg.stream != null) {
+                                mStats.record(msg.stream, msg.payloadBytes, msg.arrivalNs,
+                                        writtenNs);
                             }
+                            recycleSocketWriteMessage(msg);
+                        }
+                        batch.clear();
+                        if (mSocketWriteQueue.isEmpty() && !mStats.isEmpty()) {
+                            mStats.logAndReset();
                         }
                     }
                 } catch (IOException e) {
                     Logt.e(TAG, "Error writing to socket", e);
-                    mOpenSocket = null;
+                    for (SocketWriteMessage dropped : batch) {
+                        recycleSocketWriteMessage(dropped);
+                    }
+                    mOpenChannel = null;
                     break;
                 } catch (java.lang.InterruptedException e) {
                     Logt.e(TAG, "Error writing to socket (interrupted)", e);
-                    mOpenSocket = null;
+                    mOpenChannel = null;
                     break;
                 }
             }
@@ -545,7 +684,9 @@ public class ItsService extends Service implements SensorEventListener {
         public void run() {
             Logt.i(TAG, "Socket thread starting");
             try {
-                mSocket = new ServerSocket(SERVERPORT);
+                ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                serverChannel.socket().bind(new InetSocketAddress(SERVERPORT));
+                mSocket = serverChannel.socket();
             } catch (IOException e) {
                 Logt.e(TAG, "Failed to create socket", e);
             }
@@ -557,14 +698,16 @@ public class ItsService extends Service implements SensorEventListener {
                 // Receive the socket-open request from the host.
                 try {
                     Logt.i(TAG, "Waiting for client to connect to socket");
-                    mOpenSocket = mSocket.accept();
-                    if (mOpenSocket == null) {
+                    SocketChannel openChannel = mSocket.getChannel().accept();
+                    if (openChannel == null) {
                         Logt.e(TAG, "Socket connection error");
                         break;
                     }
-                    mSocketWriteQueue.clear();
-                    mInflightImageSizes.clear();
-                    mSocketWriteRunnable.setOpenSocket(mOpenSocket);
+                    mOpenSocket = openChannel.socket();
+                    // Writes are already batched by the writer thread.
+                    mOpenSocket.setTcpNoDelay(true);
+                    clearSocketWriteQueue();
+                    mSocketWriteRunnable.setOpenChannel(openChannel);
                     mSocketWriteRunnable.checkAndStartThread();
                     Logt.i(TAG, "Socket connected");
                 } catch (IOException e) {
@@ -599,11 +742,10 @@ public class ItsService extends Service implements SensorEventListener {
                 // Close socket and go back to waiting for a new connection.
                 try {
                     synchronized(mSocketWriteDrainLock) {
-                        mSocketWriteQueue.clear();
-                        mInflightImageSizes.clear();
+                        clearSocketWriteQueue();
                         mOpenSocket.close();
                         mOpenSocket = null;
-                        mSocketWriteRunnable.setOpenSocket(null);
+                        mSocketWriteRunnable.setOpenChannel(null);
                         Logt.i(TAG, "Socket disconnected");
                     }
                 } catch (java.io.IOException e) {
@@ -620,7 +762,7 @@ public class ItsService extends Service implements SensorEventListener {
                     if (mOpenSocket != null) {
                         mOpenSocket.close();
                         mOpenSocket = null;
-                        mSocketWriteRunnable.setOpenSocket(null);
+                        mSocketWriteRunnable.setOpenChannel(null);
                     }
                 }
             } catch (java.io.IOException e) {
@@ -678,6 +820,15 @@ public class ItsService extends Service implements SensorEventListener {
 
         public void sendResponse(String tag, String str, JSONObject obj, ByteBuffer bbuf)
                 throws ItsException {
+            sendResponse(tag, str, obj, bbuf == null ? null : new ByteBuffer[] { bbuf },
+                    null, 0, null);
+        }
+
+        // The payload buffers are sent back to back after the JSON line. For capture buffers
+        // (non-null stream), the memory quota of their total size is released once they have
+        // been written.
+        private void sendResponse(String tag, String str, JSONObject obj, ByteBuffer[] payload,
+                String stream, long arrivalNs, ItsBufferPool pool) throws ItsException {
             try {
                 JSONObject jsonObj = new JSONObject();
                 jsonObj.put("tag", tag);
@@ -687,19 +838,14 @@ public class ItsService extends Service implements SensorEventListener {
                 if (obj != null) {
                     jsonObj.put("objValue", obj);
                 }
-                if (bbuf != null) {
-                    jsonObj.put("bufValueSize", bbuf.capacity());
+                if (payload != null) {
+                    jsonObj.put("bufValueSize", SocketWriteMessage.getSize(payload));
                 }
                 ByteBuffer bstr = ByteBuffer.wrap(
                         (jsonObj.toString()+"\n").getBytes(Charset.defaultCharset()));
                 synchronized(mSocketWriteEnqueueLock) {
-                    if (bstr != null) {
-                        mSocketWriteQueue.put(bstr);
-                    }
-                    if (bbuf != null) {
-                        mInflightImageSizes.add(bbuf.capacity());
-                        mSocketWriteQueue.put(bbuf);
-                    }
+                    mSocketWriteQueue.put(
+                            new SocketWriteMessage(bstr, payload, stream, arrivalNs, pool));
                 }
             } catch (org.json.JSONException e) {
                 throw new ItsException("JSON error: ", e);
@@ -718,9 +864,14 @@ public class ItsService extends Service implements SensorEventListener {
             sendResponse(tag, null, obj, null);
         }
 
-        public void sendResponseCaptureBuffer(String tag, ByteBuffer bbuf)
+        public void sendResponseCaptureBuffer(String tag, ByteBuffer bbuf, long arrivalNs)
                 throws ItsException {
-            sendResponse(tag, null, null, bbuf);
+            sendResponse(tag, null, null, new ByteBuffer[] { bbuf }, tag, arrivalNs, null);
+        }
+
+        public void sendResponseCaptureBuffers(String tag, ByteBuffer[] planes, long arrivalNs,
+                ItsBufferPool pool) throws ItsException {
+            sendResponse(tag, null, null, planes, tag, arrivalNs, pool);
         }
 
         public void sendResponse(LinkedList<MySensorEvent> events)
@@ -815,11 +966,12 @@ public class ItsService extends Service implements SensorEventListener {
                     jsonOneMetadata.put(pair.getKey(), ItsSerializer.serialize(pair.getValue()));
                     jsonPhysicalMetadata.put(jsonOneMetadata);
                 }
-                Object objs[] = new Object[4];
+                Object objs[] = new Object[5];
                 objs[0] = "captureResults";
                 objs[1] = result;
                 objs[SERIALIZER_SURFACES_ID] = jsonSurfaces;
                 objs[SERIALIZER_PHYSICAL_METADATA_ID] = jsonPhysicalMetadata;
+                objs[SERIALIZER_METADATA_ENCODING_ID] = mCaptureMetadataEncoding;
                 mSerializerQueue.put(objs);
             } catch (org.json.JSONException e) {
                 throw new ItsException("JSON error: ", e);
@@ -1357,6 +1509,17 @@ public class ItsService extends Service implements SensorEventListener {
         }
     }
 
+    // Selects the encoding of the capture results of a capture command, JSON unless the command
+    // asks for TLV. The key table is sent ahead of the first capture result that refers to it.
+    private void setCaptureMetadataEncoding(JSONObject params) throws ItsException {
+        if (METADATA_ENCODING_TLV.equals(params.optString(METADATA_ENCODING_KEY))) {
+            mCaptureMetadataEncoding = ItsSerializer.METADATA_ENCODING_TLV;
+            mSocketRunnableObj.sendResponse("metadataKeyTable", ItsSerializer.getTlvKeyTable());
+        } else {
+            mCaptureMetadataEncoding = ItsSerializer.METADATA_ENCODING_JSON;
+        }
+    }
+
     private void doCapture(JSONObject params) throws ItsException {
         try {
             // Parse the JSON to get the list of capture requests.
@@ -1382,6 +1545,8 @@ public class ItsService extends Service implements SensorEventListener {
                 mCaptureRawIsStats = false;
                 mCaptureResults = new CaptureResult[requests.size()];
 
+                setCaptureMetadataEncoding(params);
+
                 JSONArray jsonOutputSpecs = ItsUtils.getOutputSpecs(params);
 
                 prepareImageReadersWithOutputSpecs(jsonOutputSpecs, /*inputSize*/null,
@@ -1519,6 +1684,8 @@ public class ItsService extends Service implements SensorEventListener {
         mCaptureRawIsStats = false;
 
         try {
+            setCaptureMetadataEncoding(params);
+
             // Parse the JSON to get the list of capture requests.
             List<CaptureRequest.Builder> inputRequests =
                     ItsSerializer.deserializeRequestList(mCamera, params, "captureRequests");
@@ -1667,42 +1834,47 @@ public class ItsService extends Service implements SensorEventListener {
         @Override
         public void onCaptureAvailable(Image capture, String physicalCameraId) {
             try {
+                long arrivalNs = SystemClock.elapsedRealtimeNanos();
                 int format = capture.getFormat();
                 if (format == ImageFormat.JPEG) {
                     Logt.i(TAG, "Received JPEG capture");
-                    byte[] img = ItsUtils.getDataFromImage(capture, mSocketQueueQuota);
-                    ByteBuffer buf = ByteBuffer.wrap(img);
+                    ByteBuffer[] planes = ItsUtils.getPlaneBuffersFromImage(
+                            capture, mSocketQueueQuota, mImageBufferPool);
                     int count = mCountJpg.getAndIncrement();
-                    mSocketRunnableObj.sendResponseCaptureBuffer("jpegImage", buf);
+                    mSocketRunnableObj.sendResponseCaptureBuffers(
+                            "jpegImage", planes, arrivalNs, mImageBufferPool);
                 } else if (format == ImageFormat.YUV_420_888) {
                     Logt.i(TAG, "Received YUV capture");
-                    byte[] img = ItsUtils.getDataFromImage(capture, mSocketQueueQuota);
-                    ByteBuffer buf = ByteBuffer.wrap(img);
-                    mSocketRunnableObj.sendResponseCaptureBuffer(
-                            "yuvImage"+physicalCameraId, buf);
+                    ByteBuffer[] planes = ItsUtils.getPlaneBuffersFromImage(
+                            capture, mSocketQueueQuota, mImageBufferPool);
+                    mSocketRunnableObj.sendResponseCaptureBuffers(
+                            "yuvImage"+physicalCameraId, planes, arrivalNs, mImageBufferPool);
                 } else if (format == ImageFormat.RAW10) {
                     Logt.i(TAG, "Received RAW10 capture");
-                    byte[] img = ItsUtils.getDataFromImage(capture, mSocketQueueQuota);
-                    ByteBuffer buf = ByteBuffer.wrap(img);
+                    ByteBuffer[] planes = ItsUtils.getPlaneBuffersFromImage(
+                            capture, mSocketQueueQuota, mImageBufferPool);
                     int count = mCountRaw10.getAndIncrement();
-                    mSocketRunnableObj.sendResponseCaptureBuffer(
-                            "raw10Image"+physicalCameraId, buf);
+                    mSocketRunnableObj.sendResponseCaptureBuffers(
+                            "raw10Image"+physicalCameraId, planes, arrivalNs, mImageBufferPool);
                 } else if (format == ImageFormat.RAW12) {
                     Logt.i(TAG, "Received RAW12 capture");
-                    byte[] img = ItsUtils.getDataFromImage(capture, mSocketQueueQuota);
-                    ByteBuffer buf = ByteBuffer.wrap(img);
+                    ByteBuffer[] planes = ItsUtils.getPlaneBuffersFromImage(
+                            capture, mSocketQueueQuota, mImageBufferPool);
                     int count = mCountRaw12.getAndIncrement();
-                    mSocketRunnableObj.sendResponseCaptureBuffer("raw12Image"+physicalCameraId, buf);
+                    mSocketRunnableObj.sendResponseCaptureBuffers(
+                            "raw12Image"+physicalCameraId, planes, arrivalNs, mImageBufferPool);
                 } else if (format == ImageFormat.RAW_SENSOR) {
                     Logt.i(TAG, "Received RAW16 capture");
                     int count = mCountRawOrDng.getAndIncrement();
                     if (! mCaptureRawIsDng) {
-                        byte[] img = ItsUtils.getDataFromImage(capture, mSocketQueueQuota);
                         if (! mCaptureRawIsStats) {
-                            ByteBuffer buf = ByteBuffer.wrap(img);
-                            mSocketRunnableObj.sendResponseCaptureBuffer(
-                                    "rawImage" + physicalCameraId, buf);
+                            ByteBuffer[] planes = ItsUtils.getPlaneBuffersFromImage(
+                                    capture, mSocketQueueQuota, mImageBufferPool);
+                            mSocketRunnableObj.sendResponseCaptureBuffers(
+                                    "rawImage" + physicalCameraId, planes, arrivalNs,
+                                    mImageBufferPool);
                         } else {
+                            byte[] img = ItsUtils.getDataFromImage(capture, mSocketQueueQuota);
                             // Compute the requested stats on the raw frame, and return the results
                             // in a new "stats image".
                             long startTimeMs = SystemClock.elapsedRealtime();
@@ -1740,7 +1912,8 @@ public class ItsService extends Service implements SensorEventListener {
                             FloatBuffer fBuf = bBuf.asFloatBuffer();
                             fBuf.put(stats);
                             fBuf.position(0);
-                            mSocketRunnableObj.sendResponseCaptureBuffer("rawStatsImage", bBuf);
+                            mSocketRunnableObj.sendResponseCaptureBuffer(
+                                    "rawStatsImage", bBuf, arrivalNs);
                         }
                     } else {
                         // Wait until the corresponding capture result is ready, up to a timeout.
@@ -1764,7 +1937,8 @@ public class ItsService extends Service implements SensorEventListener {
                                     mSocketQueueQuota.acquire(dngArray.length);
                                 }
                                 ByteBuffer dngBuf = ByteBuffer.wrap(dngArray);
-                                mSocketRunnableObj.sendResponseCaptureBuffer("dngImage", dngBuf);
+                                mSocketRunnableObj.sendResponseCaptureBuffer(
+                                        "dngImage", dngBuf, arrivalNs);
                                 break;
                             } else {
                                 Thread.sleep(1);
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.verifier.camera.its;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-stream statistics of the capture buffers written to the host socket.
+ *
+ * For each stream (response tag), records the latency from the arrival of the capture on the
+ * device to the end of its socket write, and the throughput from the first arrival to the last
+ * write. Only accessed from the socket writer thread.
+ */
+public class ItsSocketWriteStats {
+    public static final String TAG = ItsSocketWriteStats.class.getSimpleName();
+
+    private static class StreamStats {
+        int count;
+        long bytes;
+        long totalLatencyNs;
+        long maxLatencyNs;
+        long firstArrivalNs;
+        long lastWriteNs;
+    }
+
+    private final Map<String, StreamStats> mStreams = new LinkedHashMap<String, StreamStats>();
+
+    public void record(String stream, long bytes, long arrivalNs, long writtenNs) {
+        StreamStats stats = mStreams.get(stream);
+        if (stats == null) {
+            stats = new StreamStats();
+            stats.firstArrivalNs = arrivalNs;
+            mStreams.put(stream, stats);
+        }
+        long latencyNs = writtenNs - arrivalNs;
+        stats.count++;
+        stats.bytes += bytes;
+        stats.totalLatencyNs += latencyNs;
+        stats.maxLatencyNs = Math.max(stats.maxLatencyNs, latencyNs);
+        stats.lastWriteNs = writtenNs;
+    }
+
+    public boolean isEmpty() {
+        return mStreams.isEmpty();
+    }
+
+    /**
+     * Logs one line per stream recorded since the last call, then forgets them.
+     */
+    public void logAndReset() {
+        for (Map.Entry<String, StreamStats> entry : mStreams.entrySet()) {
+            StreamStats stats = entry.getValue();
+            long spanNs = Math.max(1, stats.lastWriteNs - stats.firstArrivalNs);
+            Logt.i(TAG, String.format(
+                    "Stream %s: %d buffers, %d bytes, capture-to-socket latency avg %.2f ms " +
+                    "max %.2f ms, %.2f MB/s",
+                    entry.getKey(), stats.count, stats.bytes,
+                    stats.totalLatencyNs / 1e6 / stats.count, stats.maxLatencyNs / 1e6,
+                    stats.bytes * 1e3 / spanNs));
+        }
+        mStreams.clear();
+    }
+}
@@ -281,6 +281,110 @@ public class ItsUtils {
         }
     }
 
+    /**
+     * Same as getDataFromImage, but copies each plane into a direct buffer from the given pool
+     * instead of a new byte array, so that the planes can be written to the socket with a single
+     * gathering write. The returned buffers are ready to be read, and their total size is acquired
+     * from the quota.
+     */
+    public static ByteBuffer[] getPlaneBuffersFromImage(Image image, Semaphore quota,
+            ItsBufferPool pool) throws ItsException {
+        int format = image.getFormat();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Plane[] planes = image.getPlanes();
+
+        if (!checkAndroidImageFormat(image)) {
+            throw new ItsException(
+                    "Invalid image format passed to getPlaneBuffersFromImage: " + format);
+        }
+
+        if (format == ImageFormat.JPEG) {
+            // JPEG doesn't have pixelstride and rowstride, treat it as 1D buffer.
+            ByteBuffer src = planes[0].getBuffer().duplicate();
+            src.clear();
+            acquireQuota(quota, src.capacity());
+            ByteBuffer dst = pool.acquire(src.capacity());
+            dst.put(src);
+            dst.flip();
+            return new ByteBuffer[] { dst };
+        } else if (format == ImageFormat.YUV_420_888 || format == ImageFormat.RAW_SENSOR
+                || format == ImageFormat.RAW10 || format == ImageFormat.RAW12) {
+            int bitsPerPixel = ImageFormat.getBitsPerPixel(format);
+            int bytesPerPixel = bitsPerPixel / 8;
+            acquireQuota(quota, width * height * bitsPerPixel / 8);
+            ByteBuffer[] data = new ByteBuffer[planes.length];
+            byte[] rowData = null;
+            byte[] rowPixels = null;
+            for (int i = 0; i < planes.length; i++) {
+                ByteBuffer src = planes[i].getBuffer().duplicate();
+                int rowStride = planes[i].getRowStride();
+                int pixelStride = planes[i].getPixelStride();
+                // For multi-planar yuv images, assuming yuv420 with 2x2 chroma subsampling.
+                int w = (i == 0) ? width : width / 2;
+                int h = (i == 0) ? height : height / 2;
+                int length;
+                if (pixelStride == bytesPerPixel) {
+                    length = w * bytesPerPixel;
+                } else if (pixelStride >= 1) {
+                    length = w;
+                } else {
+                    // PixelStride of 0 can mean pixel isn't a multiple of 8 bits, for example
+                    // with RAW10; the padding at the end of each row is dropped.
+                    length = (w * bitsPerPixel) / 8;
+                }
+                ByteBuffer dst = pool.acquire(length * h);
+                if (pixelStride == bytesPerPixel && rowStride == length) {
+                    // Rows are contiguous, copy the whole plane at once.
+                    src.limit(src.position() + length * h);
+                    dst.put(src);
+                } else if (pixelStride == bytesPerPixel || pixelStride < 1) {
+                    int rowStart = src.position();
+                    for (int row = 0; row < h; row++) {
+                        src.limit(rowStart + length);
+                        src.position(rowStart);
+                        dst.put(src);
+                        rowStart += rowStride;
+                    }
+                } else {
+                    // Interleaved pixels: go through an intermediate array to avoid reading the
+                    // DirectByteBuffer byte-by-byte, and only read the available bytes.
+                    if (rowData == null || rowData.length < rowStride) {
+                        rowData = new byte[rowStride];
+                    }
+                    if (rowPixels == null || rowPixels.length < length) {
+                        rowPixels = new byte[length];
+                    }
+                    for (int row = 0; row < h; row++) {
+                        int readSize = Math.min(rowStride, src.remaining());
+                        src.get(rowData, 0, readSize);
+                        for (int col = 0; col < w; col++) {
+                            rowPixels[col] = rowData[col * pixelStride];
+                        }
+                        dst.put(rowPixels, 0, length);
+                    }
+                }
+                dst.flip();
+                data[i] = dst;
+            }
+            return data;
+        } else {
+            throw new ItsException("Unsupported image format: " + format);
+        }
+    }
+
+    private static void acquireQuota(Semaphore quota, int size) {
+        if (quota != null) {
+            try {
+                Logt.i(TAG, "Start waiting for quota Semaphore");
+                quota.acquire(size);
+                Logt.i(TAG, "Acquired quota Semaphore. Start reading image");
+            } catch (java.lang.InterruptedException e) {
+                Logt.e(TAG, "Error acquiring memory quota. Interrupted", e);
+            }
+        }
+    }
+
     private static boolean checkAndroidImageFormat(Image image) {
         int format = image.getFormat();
         Plane[] planes = image.getPlanes();
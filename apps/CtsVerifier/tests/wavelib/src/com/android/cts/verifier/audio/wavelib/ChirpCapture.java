@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.verifier.audio.wavelib;
+
+/**
+ * A WAV capture holding a chirp at a known offset, over a tone and noise, as the captures that
+ * WavAnalyzer aligns with their prefix.
+ */
+class ChirpCapture {
+    static final String CAPTURE_WAV = "/wav/capture_chirp_48k.wav";
+    static final int CHIRP_OFFSET = 5000;
+    static final int CHIRP_LENGTH = 2048;
+
+    private ChirpCapture() {}
+
+    /**
+     * Returns the chirp of the capture, from 1 to 8 kHz over {@link #CHIRP_LENGTH} samples.
+     */
+    static double[] makeChirp() {
+        double[] chirp = new double[CHIRP_LENGTH];
+        double duration = (double) CHIRP_LENGTH / WavResource.SAMPLING_RATE;
+        for (int i = 0; i < CHIRP_LENGTH; i++) {
+            double t = (double) i / WavResource.SAMPLING_RATE;
+            chirp[i] = Math.sin(2 * Math.PI * (1000 * t + 7000 * t * t / (2 * duration)));
+        }
+        return chirp;
+    }
+
+    /**
+     * |sum(data1[(j + k) % size] * data2[j])| with both signals zero padded or truncated to
+     * size.
+     */
+    static double[] bruteForceCrossCorrelation(double[] data1, double[] data2, int size) {
+        double[] out = new double[size];
+        for (int k = 0; k < size; k++) {
+            double sum = 0;
+            for (int j = 0; j < Math.min(data2.length, size); j++) {
+                int i = (j + k) % size;
+                if (i < data1.length) {
+                    sum += data1[i] * data2[j];
+                }
+            }
+            out[k] = Math.abs(sum);
+        }
+        return out;
+    }
+
+    static int findMaxIndex(double[] data) {
+        int max = 0;
+        for (int i = 1; i < data.length; i++) {
+            if (data[i] > data[max]) {
+                max = i;
+            }
+        }
+        return max;
+    }
+}
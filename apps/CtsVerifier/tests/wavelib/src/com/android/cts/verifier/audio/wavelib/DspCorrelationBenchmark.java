@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.verifier.audio.wavelib;
+
+/**
+ * Times the alignment of the WAV capture of {@link ChirpCapture} with its chirp, by
+ * {@link DspCorrelation} and by brute force, on the host JVM:
+ *
+ * <pre>
+ * java -cp CtsVerifierWavelibHostTests.jar \
+ *         com.android.cts.verifier.audio.wavelib.DspCorrelationBenchmark [iterations]
+ * </pre>
+ */
+public class DspCorrelationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        double[] capture = WavResource.toDouble(
+                WavResource.readSamples(ChirpCapture.CAPTURE_WAV));
+        double[] chirp = ChirpCapture.makeChirp();
+        int size = DspCorrelation.nextPowerOfTwo(capture.length);
+        double[] out = new double[size];
+
+        DspCorrelation correlation = new DspCorrelation();
+        for (int i = 0; i < iterations; i++) {
+            correlation.crossCorrelation(capture, capture.length, chirp, chirp.length, size, out);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            correlation.crossCorrelation(capture, capture.length, chirp, chirp.length, size, out);
+        }
+        double fftMillis = (System.nanoTime() - start) / 1e6 / iterations;
+        int fftOffset = ChirpCapture.findMaxIndex(out);
+
+        start = System.nanoTime();
+        int bruteForceOffset = ChirpCapture.findMaxIndex(
+                ChirpCapture.bruteForceCrossCorrelation(capture, chirp, size));
+        double bruteForceMillis = (System.nanoTime() - start) / 1e6;
+
+        System.out.println(String.format("%d samples, %d point correlation:", capture.length,
+                size));
+        System.out.println(String.format("  DspCorrelation %8.3f ms, offset %d", fftMillis,
+                fftOffset));
+        System.out.println(String.format("  brute force    %8.3f ms, offset %d",
+                bruteForceMillis, bruteForceOffset));
+        if (fftOffset != ChirpCapture.CHIRP_OFFSET
+                || bruteForceOffset != ChirpCapture.CHIRP_OFFSET) {
+            System.err.println("Expected offset " + ChirpCapture.CHIRP_OFFSET);
+            System.exit(1);
+        }
+    }
+}
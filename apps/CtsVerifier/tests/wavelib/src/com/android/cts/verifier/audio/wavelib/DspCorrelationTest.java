@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.verifier.audio.wavelib;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Unit tests of {@link DspCorrelation}, against brute force correlations.
+ */
+public class DspCorrelationTest extends TestCase {
+
+    private static final double TOLERANCE = 1e-9;
+
+    public void testNextPowerOfTwo() {
+        assertEquals(1, DspCorrelation.nextPowerOfTwo(-5));
+        assertEquals(1, DspCorrelation.nextPowerOfTwo(1));
+        assertEquals(2, DspCorrelation.nextPowerOfTwo(2));
+        assertEquals(4, DspCorrelation.nextPowerOfTwo(3));
+        assertEquals(1024, DspCorrelation.nextPowerOfTwo(1024));
+        assertEquals(2048, DspCorrelation.nextPowerOfTwo(1025));
+    }
+
+    public void testAutocorrelation() {
+        DspCorrelation correlation = new DspCorrelation();
+        Random random = new Random(1);
+        for (int length : new int[] {1, 7, 64, 300, 1000}) {
+            double[] data = randomSignal(random, length + 3);
+            double[] out = new double[length];
+            correlation.autocorrelation(data, length, out);
+            for (int i = 0; i < length; i++) {
+                double expected = 0;
+                for (int j = 0; i + j < length; j++) {
+                    expected += data[j] * data[j + i];
+                }
+                assertEquals("length " + length + " lag " + i, expected, out[i], TOLERANCE);
+            }
+        }
+    }
+
+    public void testCrossCorrelation() {
+        DspCorrelation correlation = new DspCorrelation();
+        Random random = new Random(2);
+        // Sizes change between calls, and the signals are padded or truncated.
+        int[][] cases = {{100, 60, 256}, {256, 256, 256}, {300, 40, 256}, {5, 9, 16}};
+        for (int[] c : cases) {
+            double[] data1 = randomSignal(random, c[0]);
+            double[] data2 = randomSignal(random, c[1]);
+            int size = c[2];
+            double[] out = new double[size];
+            correlation.crossCorrelation(data1, data1.length, data2, data2.length, size, out);
+            double[] expected = ChirpCapture.bruteForceCrossCorrelation(data1, data2, size);
+            for (int k = 0; k < size; k++) {
+                assertEquals("size " + size + " lag " + k, expected[k], out[k], TOLERANCE);
+            }
+        }
+    }
+
+    /** Test that the chirp of the capture is found at its offset, as WavAnalyzer aligns data. */
+    public void testCaptureAlignment() throws IOException {
+        double[] capture = WavResource.toDouble(
+                WavResource.readSamples(ChirpCapture.CAPTURE_WAV));
+        double[] chirp = ChirpCapture.makeChirp();
+        int size = DspCorrelation.nextPowerOfTwo(capture.length);
+        double[] out = new double[size];
+        new DspCorrelation().crossCorrelation(capture, capture.length, chirp, chirp.length,
+                size, out);
+
+        assertEquals(ChirpCapture.CHIRP_OFFSET, ChirpCapture.findMaxIndex(out));
+        double[] expected = ChirpCapture.bruteForceCrossCorrelation(capture, chirp, size);
+        for (int k = ChirpCapture.CHIRP_OFFSET - 8; k <= ChirpCapture.CHIRP_OFFSET + 8; k++) {
+            assertEquals("lag " + k, expected[k], out[k], 1e-6);
+        }
+    }
+
+    private static double[] randomSignal(Random random, int length) {
+        double[] data = new double[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = random.nextDouble() * 2 - 1;
+        }
+        return data;
+    }
+}
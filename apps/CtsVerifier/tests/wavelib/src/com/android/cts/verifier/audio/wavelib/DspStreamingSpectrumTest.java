@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.verifier.audio.wavelib;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+
+/**
+ * Unit tests of {@link DspStreamingSpectrum}, fed with the samples of a 1 kHz tone WAV file.
+ */
+public class DspStreamingSpectrumTest extends TestCase {
+
+    private static final String TONE_WAV = "/wav/tone_1khz_48k.wav";
+    private static final int TONE_FREQUENCY = 1000;
+
+    // The settings of AudioFrequencyLineActivity.
+    private static final int SAMPLING_RATE = WavResource.SAMPLING_RATE;
+    private static final int BLOCK_SIZE = 1024;
+    private static final int OVERLAP = BLOCK_SIZE / 2;
+
+    /** Test that the average peaks in the bin of the tone. */
+    public void testPeakBin() throws IOException {
+        short[] samples = WavResource.readSamples(TONE_WAV);
+        DspStreamingSpectrum spectrum =
+                new DspStreamingSpectrum(BLOCK_SIZE, OVERLAP, DspWindow.WINDOW_HANNING);
+        spectrum.addSamples(samples, 0, samples.length);
+
+        int expectedBin = Math.round((float) TONE_FREQUENCY * BLOCK_SIZE / SAMPLING_RATE);
+        assertEquals(expectedBin, getPeakBin(spectrum));
+        assertEquals(1 + (samples.length - BLOCK_SIZE) / (BLOCK_SIZE - OVERLAP),
+                spectrum.getFrameCount());
+    }
+
+    /** Test that adding the samples in pipe sized blocks gives the same average. */
+    public void testBlocks() throws IOException {
+        short[] samples = WavResource.readSamples(TONE_WAV);
+        DspStreamingSpectrum whole =
+                new DspStreamingSpectrum(BLOCK_SIZE, OVERLAP, DspWindow.WINDOW_HANNING);
+        whole.addSamples(samples, 0, samples.length);
+
+        DspStreamingSpectrum blocks =
+                new DspStreamingSpectrum(BLOCK_SIZE, OVERLAP, DspWindow.WINDOW_HANNING);
+        int blockSize = 300;
+        for (int offset = 0; offset < samples.length; offset += blockSize) {
+            blocks.addSamples(samples, offset, Math.min(blockSize, samples.length - offset));
+        }
+
+        assertEquals(whole.getFrameCount(), blocks.getFrameCount());
+        double[] expected = new double[BLOCK_SIZE / 2];
+        double[] actual = new double[BLOCK_SIZE / 2];
+        whole.getAverage().getData(expected, false);
+        blocks.getAverage().getData(actual, false);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("bin " + i, expected[i], actual[i], 1e-12);
+        }
+    }
+
+    /** Test that a reset drops the average. */
+    public void testReset() throws IOException {
+        short[] samples = WavResource.readSamples(TONE_WAV);
+        DspStreamingSpectrum spectrum =
+                new DspStreamingSpectrum(BLOCK_SIZE, OVERLAP, DspWindow.WINDOW_HANNING);
+        spectrum.addSamples(samples, 0, BLOCK_SIZE);
+        assertEquals(1, spectrum.getFrameCount());
+
+        spectrum.reset();
+        assertEquals(0, spectrum.getFrameCount());
+        assertEquals(0, spectrum.getAverage().getCount());
+        spectrum.addSamples(samples, 0, BLOCK_SIZE - 1);
+        assertEquals(0, spectrum.getFrameCount());
+    }
+
+    private static int getPeakBin(DspStreamingSpectrum spectrum) {
+        double[] magnitude = new double[spectrum.getBlockSize() / 2];
+        assertTrue(spectrum.getAverage().getData(magnitude, false) > 0);
+        int peak = 0;
+        for (int i = 1; i < magnitude.length; i++) {
+            if (magnitude[i] > magnitude[peak]) {
+                peak = i;
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.verifier.audio.wavelib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the WAV captures stored as resources of the tests.
+ */
+class WavResource {
+    /** The sampling rate of all the captures. */
+    static final int SAMPLING_RATE = 48000;
+
+    private WavResource() {}
+
+    /**
+     * Reads the samples of a mono 16 bit PCM WAV resource, sampled at {@link #SAMPLING_RATE}.
+     *
+     * @throws IOException if the resource is missing or has another format
+     */
+    static short[] readSamples(String name) throws IOException {
+        ByteBuffer wav = ByteBuffer.wrap(readResource(name)).order(ByteOrder.LITTLE_ENDIAN);
+        if (!readTag(wav).equals("RIFF")) {
+            throw new IOException(name + " is not a RIFF file");
+        }
+        wav.getInt();
+        if (!readTag(wav).equals("WAVE")) {
+            throw new IOException(name + " is not a WAVE file");
+        }
+        while (wav.remaining() >= 8) {
+            String tag = readTag(wav);
+            int size = wav.getInt();
+            if (tag.equals("fmt ")) {
+                int start = wav.position();
+                if (wav.getShort(start) != 1 || wav.getShort(start + 2) != 1
+                        || wav.getInt(start + 4) != SAMPLING_RATE
+                        || wav.getShort(start + 14) != 16) {
+                    throw new IOException(name + " is not mono 16 bit PCM at "
+                            + SAMPLING_RATE + " Hz");
+                }
+            } else if (tag.equals("data")) {
+                short[] samples = new short[Math.min(size, wav.remaining()) / 2];
+                wav.asShortBuffer().get(samples);
+                return samples;
+            }
+            wav.position(wav.position() + size + (size & 1));
+        }
+        throw new IOException("No data in " + name);
+    }
+
+    /**
+     * Converts samples to doubles in [-1, 1).
+     */
+    static double[] toDouble(short[] samples) {
+        double[] result = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            result[i] = samples[i] / 32768.0;
+        }
+        return result;
+    }
+
+    private static String readTag(ByteBuffer buffer) {
+        byte[] tag = new byte[4];
+        buffer.get(tag);
+        return new String(tag, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = WavResource.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing resource " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
 import com.android.ddmlib.testrunner.TestResult.TestStatus;
 import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.device.CollectingByteOutputReceiver;
 import com.android.tradefed.device.CollectingOutputReceiver;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.ITestDevice;
@@ -33,7 +34,6 @@ import com.android.tradefed.testtype.IBuildReceiver;
 
 import java.io.FileNotFoundException;
 import java.util.Map;
-import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -73,65 +73,66 @@ public class BaseDumpsysTest extends DeviceTestCase implements IBuildReceiver {
         }
     }
 
-    protected static long assertNonNegativeInteger(String input) {
+    protected static long assertInteger(CheckinTokenizer tokenizer, int field) {
         try {
-            final long result = Long.parseLong(input);
-            assertTrue("Expected non-negative, but was: " + result, result >= 0);
-
-            return result;
+            return tokenizer.getLong(field);
         } catch (NumberFormatException e) {
-            fail("Expected an integer but found \"" + input + "\"");
+            fail("Expected an integer but found \"" + tokenizer.getField(field) + "\"");
             // Won't be hit, above throws AssertException
             return -1;
         }
     }
 
-    protected static long assertPositiveInteger(String input) {
-        try {
-            final long result = Long.parseLong(input);
-            assertTrue("Expected positive, but was: " + result, result > 0);
-
-            return result;
-        } catch (NumberFormatException e) {
-            fail("Expected an integer but found \"" + input + "\"");
-            // Won't be hit, above throws AssertException
-            return -1;
-        }
+    protected static long assertNonNegativeInteger(CheckinTokenizer tokenizer, int field) {
+        final long result = assertInteger(tokenizer, field);
+        assertTrue("Expected non-negative, but was: " + result, result >= 0);
+        return result;
     }
 
-    protected static void assertMinAvgMax(String min, String avg, String max, boolean checkAvg) {
-        final long lMin = assertNonNegativeInteger(min);
-        final long lAvg = assertNonNegativeInteger(avg);
-        final long lMax = assertNonNegativeInteger(max);
+    protected static void assertMinAvgMax(CheckinTokenizer tokenizer, int minField,
+            boolean checkAvg) {
+        final long lMin = assertNonNegativeInteger(tokenizer, minField);
+        final long lAvg = assertNonNegativeInteger(tokenizer, minField + 1);
+        final long lMax = assertNonNegativeInteger(tokenizer, minField + 2);
 
         if (checkAvg) {
-            assertTrue("min [" + min + "] <= avg [" + avg + "]", lMin <= lAvg);
-            assertTrue("avg [" + avg + "] <= max [" + max + "]", lAvg <= lMax);
+            assertTrue("min [" + lMin + "] <= avg [" + lAvg + "]", lMin <= lAvg);
+            assertTrue("avg [" + lAvg + "] <= max [" + lMax + "]", lAvg <= lMax);
         } else {
             // There was a bug in the average calculation, so we can't check the average
             // from the last N hour stats, which may be generated on with the buggy logic.
-            assertTrue("min [" + min + "] <= max [" + max + "]", lMin <= lMax);
+            assertTrue("min [" + lMin + "] <= max [" + lMax + "]", lMin <= lMax);
         }
     }
 
-    protected static void assertLesserOrEqual(String lesser, String greater) {
-        final long lLesser = assertNonNegativeInteger(lesser);
-        final long lGreater = assertNonNegativeInteger(greater);
+    protected static void assertLesserOrEqual(CheckinTokenizer tokenizer, int lesserField,
+            int greaterField) {
+        final long lLesser = assertNonNegativeInteger(tokenizer, lesserField);
+        final long lGreater = assertNonNegativeInteger(tokenizer, greaterField);
 
-        assertTrue("[" + lesser + "] <= [" + greater + "]", lLesser <= lGreater);
+        assertTrue("[" + lLesser + "] <= [" + lGreater + "]", lLesser <= lGreater);
     }
 
-    protected static double assertDouble(String input) {
+    protected static double assertDouble(CheckinTokenizer tokenizer, int field) {
         try {
-            return Double.parseDouble(input);
+            return tokenizer.getDouble(field);
         } catch (NumberFormatException e) {
-            fail("Expected a double but found \"" + input + "\"");
+            fail("Expected a double but found \"" + tokenizer.getField(field) + "\"");
             return -1;
         }
     }
 
-    protected static void assertSeenTag(Set<String> seenTags, String tag) {
-        assertTrue("No line starting with \"" + tag + ",\"", seenTags.contains(tag));
+    /**
+     * Asserts that the current line of a tokenizer has a field, i.e. at least field + 1 fields.
+     */
+    protected static void assertHasField(CheckinTokenizer tokenizer, int field) {
+        assertTrue("Expected at least " + (field + 1) + " fields, found "
+                + tokenizer.getFieldCount(), field < tokenizer.getFieldCount());
+    }
+
+    protected static void assertSeenTag(CheckinTokenizer.Tags tags, boolean[] seenTags,
+            String tag) {
+        assertTrue("No line starting with \"" + tag + ",\"", seenTags[tags.idOf(tag)]);
     }
 
 
@@ -200,6 +201,15 @@ public class BaseDumpsysTest extends DeviceTestCase implements IBuildReceiver {
         }
     }
 
+    /**
+     * Execute the given command, and return its raw output, e.g. for a {@link CheckinTokenizer}.
+     */
+    protected byte[] execCommandBytes(String command) throws DeviceNotAvailableException {
+        final CollectingByteOutputReceiver receiver = new CollectingByteOutputReceiver();
+        getDevice().executeShellCommand(command, receiver);
+        return receiver.getOutput();
+    }
+
     /**
      * Execute the given command, and find the given pattern and return the resulting
      * {@link Matcher}.
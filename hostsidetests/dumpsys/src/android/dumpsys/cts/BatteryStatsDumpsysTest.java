@@ -23,8 +23,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * Test to check the format of the dumps of the batterystats test.
@@ -33,300 +31,381 @@ public class BatteryStatsDumpsysTest extends BaseDumpsysTest {
    private static final String TEST_APK = "CtsFramestatsTestApp.apk";
     private static final String TEST_PKG = "com.android.cts.framestatstestapp";
 
+    // Section tags of the checkin output, interned for checkBatterystatsOutput().
+    private static final int TAG_VERSION = 0;
+    private static final int TAG_UID = 1;
+    private static final int TAG_APK = 2;
+    private static final int TAG_PROCESS = 3;
+    private static final int TAG_SENSOR = 4;
+    private static final int TAG_VIBRATOR = 5;
+    private static final int TAG_FOREGROUND_ACTIVITY = 6;
+    private static final int TAG_FOREGROUND_SERVICE = 7;
+    private static final int TAG_STATE_TIME = 8;
+    private static final int TAG_WAKELOCK = 9;
+    private static final int TAG_AGGREGATED_WAKELOCK = 10;
+    private static final int TAG_SYNC = 11;
+    private static final int TAG_JOB = 12;
+    private static final int TAG_JOB_COMPLETION = 13;
+    private static final int TAG_JOBS_DEFERRED = 14;
+    private static final int TAG_KERNEL_WAKELOCK = 15;
+    private static final int TAG_WAKEUP_REASON = 16;
+    private static final int TAG_NETWORK = 17;
+    private static final int TAG_USER_ACTIVITY = 18;
+    private static final int TAG_BATTERY = 19;
+    private static final int TAG_BATTERY_DISCHARGE = 20;
+    private static final int TAG_BATTERY_LEVEL = 21;
+    private static final int TAG_WIFI = 22;
+    private static final int TAG_MISC = 23;
+    private static final int TAG_GLOBAL_NETWORK = 24;
+    private static final int TAG_SCREEN_BRIGHTNESS = 25;
+    private static final int TAG_SIGNAL_STRENGTH = 26;
+    private static final int TAG_SIGNAL_SCANNING_TIME = 27;
+    private static final int TAG_DATA_CONNECTION = 28;
+    private static final int TAG_WIFI_STATE = 29;
+    private static final int TAG_WIFI_SUPPL_STATE = 30;
+    private static final int TAG_WIFI_SIGNAL_STRENGTH = 31;
+    private static final int TAG_BLUETOOTH_STATE = 32;
+    private static final int TAG_BLUETOOTH_MISC = 33;
+    private static final int TAG_POWER_USE_SUMMARY = 34;
+    private static final int TAG_POWER_USE_ITEM = 35;
+    private static final int TAG_CHARGE_DISCHARGE_STEP = 36;
+    private static final int TAG_DISCHARGE_TIME_REMAIN = 37;
+    private static final int TAG_CHARGE_TIME_REMAIN = 38;
+    private static final int TAG_UID_CPU_USAGE = 39;
+
+    private static final CheckinTokenizer.Tags TAGS = new CheckinTokenizer.Tags();
+    static {
+        TAGS.add(TAG_VERSION, "vers");
+        TAGS.add(TAG_UID, "uid");
+        TAGS.add(TAG_APK, "apk");
+        TAGS.add(TAG_PROCESS, "pr");
+        TAGS.add(TAG_SENSOR, "sr");
+        TAGS.add(TAG_VIBRATOR, "vib");
+        TAGS.add(TAG_FOREGROUND_ACTIVITY, "fg");
+        TAGS.add(TAG_FOREGROUND_SERVICE, "fgs");
+        TAGS.add(TAG_STATE_TIME, "st");
+        TAGS.add(TAG_WAKELOCK, "wl");
+        TAGS.add(TAG_AGGREGATED_WAKELOCK, "awl");
+        TAGS.add(TAG_SYNC, "sy");
+        TAGS.add(TAG_JOB, "jb");
+        TAGS.add(TAG_JOB_COMPLETION, "jbc");
+        TAGS.add(TAG_JOBS_DEFERRED, "jbd");
+        TAGS.add(TAG_KERNEL_WAKELOCK, "kwl");
+        TAGS.add(TAG_WAKEUP_REASON, "wr");
+        TAGS.add(TAG_NETWORK, "nt");
+        TAGS.add(TAG_USER_ACTIVITY, "ua");
+        TAGS.add(TAG_BATTERY, "bt");
+        TAGS.add(TAG_BATTERY_DISCHARGE, "dc");
+        TAGS.add(TAG_BATTERY_LEVEL, "lv");
+        TAGS.add(TAG_WIFI, "wfl");
+        TAGS.add(TAG_MISC, "m");
+        TAGS.add(TAG_GLOBAL_NETWORK, "gn");
+        TAGS.add(TAG_SCREEN_BRIGHTNESS, "br");
+        TAGS.add(TAG_SIGNAL_STRENGTH, "sgt", "sgc");
+        TAGS.add(TAG_SIGNAL_SCANNING_TIME, "sst");
+        TAGS.add(TAG_DATA_CONNECTION, "dct", "dcc");
+        TAGS.add(TAG_WIFI_STATE, "wst", "wsc");
+        TAGS.add(TAG_WIFI_SUPPL_STATE, "wsst", "wssc");
+        TAGS.add(TAG_WIFI_SIGNAL_STRENGTH, "wsgt", "wsgc");
+        TAGS.add(TAG_BLUETOOTH_STATE, "bst", "bsc");
+        TAGS.add(TAG_BLUETOOTH_MISC, "blem");
+        TAGS.add(TAG_POWER_USE_SUMMARY, "pws");
+        TAGS.add(TAG_POWER_USE_ITEM, "pwi");
+        TAGS.add(TAG_CHARGE_DISCHARGE_STEP, "dsd", "csd");
+        TAGS.add(TAG_DISCHARGE_TIME_REMAIN, "dtr");
+        TAGS.add(TAG_CHARGE_TIME_REMAIN, "ctr");
+        TAGS.add(TAG_UID_CPU_USAGE, "cpu");
+    }
+
     /**
      * Tests the output of "dumpsys batterystats --checkin".
      *
      * @throws Exception
      */
     public void testBatterystatsOutput() throws Exception {
-        String batterystats = mDevice.executeShellCommand("dumpsys batterystats --checkin");
+        byte[] batterystats = execCommandBytes("dumpsys batterystats --checkin");
         assertNotNull(batterystats);
-        assertTrue(batterystats.length() > 0);
+        assertTrue(batterystats.length > 0);
 
-        Set<String> seenTags = new HashSet<>();
-
-        try (BufferedReader reader = new BufferedReader(
-                new StringReader(batterystats))) {
+        checkBatterystatsOutput(batterystats);
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty()) {
+    /**
+     * Checks the format of "dumpsys batterystats --checkin" output. Package visible for
+     * {@link CheckinBenchmark}.
+     */
+    void checkBatterystatsOutput(byte[] batterystats) {
+        // Empty fields are valid values in some cases, so trailing ones are kept, like
+        // String#split(String, int) does with a negative limit.
+        CheckinTokenizer fields = new CheckinTokenizer(batterystats);
+        boolean[] seenTags = new boolean[TAGS.size()];
+
+        while (fields.nextLine()) {
+            try {
+                assertHasField(fields, 3);
+                assertInteger(fields, 0); // old version
+                assertInteger(fields, 1); // UID
+                // aggregation type
+                if (fields.getFieldLength(2) != 1
+                        || "ilcu".indexOf(fields.charAt(2, 0)) < 0) {
+                    fail("malformed stat: " + fields.getField(2));
+                }
+                final int tag = TAGS.idOf(fields, 3);
+                if (tag < 0) {
                     continue;
                 }
-
-
-                try {
-                    // With a default limit of 0, empty strings at the end are discarded.
-                    // We still consider the empty string as a valid value in some cases.
-                    // Using any negative number for the limit will preserve a trailing empty string.
-                    // @see String#split(String, int)
-                    String[] parts = line.split(",", -1);
-                    assertInteger(parts[0]); // old version
-                    assertInteger(parts[1]); // UID
-                    switch (parts[2]) { // aggregation type
-                        case "i":
-                        case "l":
-                        case "c":
-                        case "u":
-                            break;
-                        default:
-                            fail("malformed stat: " + parts[2]);
-                    }
-                    assertNotNull(parts[3]);
-                    seenTags.add(parts[3]);
-
-                    // Note the time fields are measured in milliseconds by default.
-                    switch (parts[3]) {
-                        case "vers":
-                            checkVersion(parts);
-                            break;
-                        case "uid":
-                            checkUid(parts);
-                            break;
-                        case "apk":
-                            checkApk(parts);
-                            break;
-                        case "pr":
-                            checkProcess(parts);
-                            break;
-                        case "sr":
-                            checkSensor(parts);
-                            break;
-                        case "vib":
-                            checkVibrator(parts);
-                            break;
-                        case "fg":
-                            checkForegroundActivity(parts);
-                            break;
-                        case "fgs":
-                            checkForegroundService(parts);
-                            break;
-                        case "st":
-                            checkStateTime(parts);
-                            break;
-                        case "wl":
-                            checkWakelock(parts);
-                            break;
-                        case "awl":
-                            checkAggregatedWakelock(parts);
-                            break;
-                        case "sy":
-                            checkSync(parts);
-                            break;
-                        case "jb":
-                            checkJob(parts);
-                            break;
-                        case "jbc":
-                            checkJobCompletion(parts);
-                            break;
-                        case "jbd":
-                            checkJobsDeferred(parts);
-                            break;
-                        case "kwl":
-                            checkKernelWakelock(parts);
-                            break;
-                        case "wr":
-                            checkWakeupReason(parts);
-                            break;
-                        case "nt":
-                            checkNetwork(parts);
-                            break;
-                        case "ua":
-                            checkUserActivity(parts);
-                            break;
-                        case "bt":
-                            checkBattery(parts);
-                            break;
-                        case "dc":
-                            checkBatteryDischarge(parts);
-                            break;
-                        case "lv":
-                            checkBatteryLevel(parts);
-                            break;
-                        case "wfl":
-                            checkWifi(parts);
-                            break;
-                        case "m":
-                            checkMisc(parts);
-                            break;
-                        case "gn":
-                            checkGlobalNetwork(parts);
-                            break;
-                        case "br":
-                            checkScreenBrightness(parts);
-                            break;
-                        case "sgt":
-                        case "sgc":
-                            checkSignalStrength(parts);
-                            break;
-                        case "sst":
-                            checkSignalScanningTime(parts);
-                            break;
-                        case "dct":
-                        case "dcc":
-                            checkDataConnection(parts);
-                            break;
-                        case "wst":
-                        case "wsc":
-                            checkWifiState(parts);
-                            break;
-                        case "wsst":
-                        case "wssc":
-                            checkWifiSupplState(parts);
-                            break;
-                        case "wsgt":
-                        case "wsgc":
-                            checkWifiSignalStrength(parts);
-                            break;
-                        case "bst":
-                        case "bsc":
-                            checkBluetoothState(parts);
-                            break;
-                        case "blem":
-                            checkBluetoothMisc(parts);
-                            break;
-                        case "pws":
-                            checkPowerUseSummary(parts);
-                            break;
-                        case "pwi":
-                            checkPowerUseItem(parts);
-                            break;
-                        case "dsd":
-                        case "csd":
-                            checkChargeDischargeStep(parts);
-                            break;
-                        case "dtr":
-                            checkDischargeTimeRemain(parts);
-                            break;
-                        case "ctr":
-                            checkChargeTimeRemain(parts);
-                            break;
-                        case "cpu":
-                            checkUidCpuUsage(parts);
-                            break;
-                        default:
-                            break;
-                    }
-                } catch (AssertionError e) {
-                    CLog.e("Assert fail for line <" + line + ">");
-                    throw e;
+                seenTags[tag] = true;
+
+                // Note the time fields are measured in milliseconds by default.
+                switch (tag) {
+                    case TAG_VERSION:
+                        checkVersion(fields);
+                        break;
+                    case TAG_UID:
+                        checkUid(fields);
+                        break;
+                    case TAG_APK:
+                        checkApk(fields);
+                        break;
+                    case TAG_PROCESS:
+                        checkProcess(fields);
+                        break;
+                    case TAG_SENSOR:
+                        checkSensor(fields);
+                        break;
+                    case TAG_VIBRATOR:
+                        checkVibrator(fields);
+                        break;
+                    case TAG_FOREGROUND_ACTIVITY:
+                        checkForegroundActivity(fields);
+                        break;
+                    case TAG_FOREGROUND_SERVICE:
+                        checkForegroundService(fields);
+                        break;
+                    case TAG_STATE_TIME:
+                        checkStateTime(fields);
+                        break;
+                    case TAG_WAKELOCK:
+                        checkWakelock(fields);
+                        break;
+                    case TAG_AGGREGATED_WAKELOCK:
+                        checkAggregatedWakelock(fields);
+                        break;
+                    case TAG_SYNC:
+                        checkSync(fields);
+                        break;
+                    case TAG_JOB:
+                        checkJob(fields);
+                        break;
+                    case TAG_JOB_COMPLETION:
+                        checkJobCompletion(fields);
+                        break;
+                    case TAG_JOBS_DEFERRED:
+                        checkJobsDeferred(fields);
+                        break;
+                    case TAG_KERNEL_WAKELOCK:
+                        checkKernelWakelock(fields);
+                        break;
+                    case TAG_WAKEUP_REASON:
+                        checkWakeupReason(fields);
+                        break;
+                    case TAG_NETWORK:
+                        checkNetwork(fields);
+                        break;
+                    case TAG_USER_ACTIVITY:
+                        checkUserActivity(fields);
+                        break;
+                    case TAG_BATTERY:
+                        checkBattery(fields);
+                        break;
+                    case TAG_BATTERY_DISCHARGE:
+                        checkBatteryDischarge(fields);
+                        break;
+                    case TAG_BATTERY_LEVEL:
+                        checkBatteryLevel(fields);
+                        break;
+                    case TAG_WIFI:
+                        checkWifi(fields);
+                        break;
+                    case TAG_MISC:
+                        checkMisc(fields);
+                        break;
+                    case TAG_GLOBAL_NETWORK:
+                        checkGlobalNetwork(fields);
+                        break;
+                    case TAG_SCREEN_BRIGHTNESS:
+                        checkScreenBrightness(fields);
+                        break;
+                    case TAG_SIGNAL_STRENGTH:
+                        checkSignalStrength(fields);
+                        break;
+                    case TAG_SIGNAL_SCANNING_TIME:
+                        checkSignalScanningTime(fields);
+                        break;
+                    case TAG_DATA_CONNECTION:
+                        checkDataConnection(fields);
+                        break;
+                    case TAG_WIFI_STATE:
+                        checkWifiState(fields);
+                        break;
+                    case TAG_WIFI_SUPPL_STATE:
+                        checkWifiSupplState(fields);
+                        break;
+                    case TAG_WIFI_SIGNAL_STRENGTH:
+                        checkWifiSignalStrength(fields);
+                        break;
+                    case TAG_BLUETOOTH_STATE:
+                        checkBluetoothState(fields);
+                        break;
+                    case TAG_BLUETOOTH_MISC:
+                        checkBluetoothMisc(fields);
+                        break;
+                    case TAG_POWER_USE_SUMMARY:
+                        checkPowerUseSummary(fields);
+                        break;
+                    case TAG_POWER_USE_ITEM:
+                        checkPowerUseItem(fields);
+                        break;
+                    case TAG_CHARGE_DISCHARGE_STEP:
+                        checkChargeDischargeStep(fields);
+                        break;
+                    case TAG_DISCHARGE_TIME_REMAIN:
+                        checkDischargeTimeRemain(fields);
+                        break;
+                    case TAG_CHARGE_TIME_REMAIN:
+                        checkChargeTimeRemain(fields);
+                        break;
+                    case TAG_UID_CPU_USAGE:
+                        checkUidCpuUsage(fields);
+                        break;
+                    default:
+                        break;
                 }
+            } catch (AssertionError e) {
+                CLog.e("Assert fail for line <" + fields.getLine() + ">");
+                throw e;
             }
         }
 
         // spot check a few tags
-        assertSeenTag(seenTags, "vers");
-        assertSeenTag(seenTags, "bt");
-        assertSeenTag(seenTags, "dc");
-        assertSeenTag(seenTags, "m");
+        assertSeenTag(TAGS, seenTags, "vers");
+        assertSeenTag(TAGS, seenTags, "bt");
+        assertSeenTag(TAGS, seenTags, "dc");
+        assertSeenTag(TAGS, seenTags, "m");
+    }
+
+    private static void assertFieldEquals(String expected, CheckinTokenizer fields, int field) {
+        if (!fields.fieldEquals(field, expected)) {
+            assertEquals(expected, fields.getField(field));
+        }
     }
 
-    private void checkVersion(String[] parts) {
-        assertEquals(8, parts.length);
-        assertInteger(parts[4]); // checkinVersion
-        assertInteger(parts[5]); // parcelVersion
-        assertNotNull(parts[6]); // startPlatformVersion
-        assertNotNull(parts[7]); // endPlatformVersion
+    private void checkVersion(CheckinTokenizer fields) {
+        assertEquals(8, fields.getFieldCount());
+        assertInteger(fields, 4); // checkinVersion
+        assertInteger(fields, 5); // parcelVersion
+        assertHasField(fields, 6); // startPlatformVersion
+        assertHasField(fields, 7); // endPlatformVersion
     }
 
-    private void checkUid(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // uid
-        assertNotNull(parts[5]); // pkgName
+    private void checkUid(CheckinTokenizer fields) {
+        assertEquals(6, fields.getFieldCount());
+        assertInteger(fields, 4); // uid
+        assertHasField(fields, 5); // pkgName
     }
 
-    private void checkApk(String[] parts) {
-        assertEquals(10, parts.length);
-        long wakeup_count = assertInteger(parts[4]); // wakeups
-        assertNotNull(parts[5]); // apk
-        assertNotNull(parts[6]); // service
-        assertInteger(parts[7]); // startTime
-        assertInteger(parts[8]); // starts
-        assertInteger(parts[9]); // launches
+    private void checkApk(CheckinTokenizer fields) {
+        assertEquals(10, fields.getFieldCount());
+        long wakeup_count = assertInteger(fields, 4); // wakeups
+        assertHasField(fields, 5); // apk
+        assertHasField(fields, 6); // service
+        assertInteger(fields, 7); // startTime
+        assertInteger(fields, 8); // starts
+        assertInteger(fields, 9); // launches
 
         // Sanity check.
         assertTrue("wakeup count must be >= 0", wakeup_count >= 0);
     }
 
-    private void checkProcess(String[] parts) {
-        assertTrue(parts.length >= 9);
-        assertNotNull(parts[4]); // process
-        assertInteger(parts[5]); // userMillis
-        assertInteger(parts[6]); // systemMillis
-        assertInteger(parts[7]); // foregroundMillis
-        assertInteger(parts[8]); // starts
-    }
-
-    private void checkSensor(String[] parts) {
-        assertEquals(10, parts.length);
-        assertInteger(parts[4]); // sensorNumber
-        assertInteger(parts[5]); // totalTime
-        assertInteger(parts[6]); // count
-        assertInteger(parts[7]); // backgroundCount
-        assertInteger(parts[8]); // actualTime
-        assertInteger(parts[9]); // backgroundActualTime
-    }
-
-    private void checkVibrator(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // totalTime
-        assertInteger(parts[5]); // count
-    }
-
-    private void checkForegroundActivity(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // totalTime
-        assertInteger(parts[5]); // count
-    }
-
-    private void checkForegroundService(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // totalTime
-        assertInteger(parts[5]); // count
-    }
-
-    private void checkStateTime(String[] parts) {
-        assertEquals(11, parts.length);
-        assertInteger(parts[4]);  // top
-        assertInteger(parts[5]);  // foreground_service
-        assertInteger(parts[6]);  // foreground
-        assertInteger(parts[7]);  // background
-        assertInteger(parts[8]);  // top_sleeping
-        assertInteger(parts[9]);  // heavy_weight
-        assertInteger(parts[10]); // cached
-    }
-
-    private void checkWakelock(String[] parts) {
-        assertEquals(29, parts.length);
-        assertNotNull(parts[4]);      // wakelock
-
-        assertInteger(parts[5]);      // full totalTime
-        assertEquals("f", parts[6]);  // full
-        long full_count = assertInteger(parts[7]);      // full count
-        assertInteger(parts[8]);      // current duration
-        assertInteger(parts[9]);      // max duration
-        assertInteger(parts[10]);     // total duration
-
-        assertInteger(parts[11]);      // partial totalTime
-        assertEquals("p", parts[12]);  // partial
-        long partial_count = assertInteger(parts[13]);     // partial count
-        assertInteger(parts[14]);      // current duration
-        assertInteger(parts[15]);      // max duration
-        assertInteger(parts[16]);      // total duration
-
-        assertInteger(parts[17]);      // background partial totalTime
-        assertEquals("bp", parts[18]); // background partial
-        long bg_partial_count = assertInteger(parts[19]);     // background partial count
-        assertInteger(parts[20]);      // current duration
-        assertInteger(parts[21]);      // max duration
-        assertInteger(parts[22]);      // total duration
-
-        assertInteger(parts[23]);      // window totalTime
-        assertEquals("w", parts[24]);  // window
-        long window_count = assertInteger(parts[25]);     // window count
-        assertInteger(parts[26]);      // current duration
-        assertInteger(parts[27]);      // max duration
-        assertInteger(parts[28]);      // total duration
+    private void checkProcess(CheckinTokenizer fields) {
+        assertTrue(fields.getFieldCount() >= 9);
+        assertHasField(fields, 4); // process
+        assertInteger(fields, 5); // userMillis
+        assertInteger(fields, 6); // systemMillis
+        assertInteger(fields, 7); // foregroundMillis
+        assertInteger(fields, 8); // starts
+    }
+
+    private void checkSensor(CheckinTokenizer fields) {
+        assertEquals(10, fields.getFieldCount());
+        assertInteger(fields, 4); // sensorNumber
+        assertInteger(fields, 5); // totalTime
+        assertInteger(fields, 6); // count
+        assertInteger(fields, 7); // backgroundCount
+        assertInteger(fields, 8); // actualTime
+        assertInteger(fields, 9); // backgroundActualTime
+    }
+
+    private void checkVibrator(CheckinTokenizer fields) {
+        assertEquals(6, fields.getFieldCount());
+        assertInteger(fields, 4); // totalTime
+        assertInteger(fields, 5); // count
+    }
+
+    private void checkForegroundActivity(CheckinTokenizer fields) {
+        assertEquals(6, fields.getFieldCount());
+        assertInteger(fields, 4); // totalTime
+        assertInteger(fields, 5); // count
+    }
+
+    private void checkForegroundService(CheckinTokenizer fields) {
+        assertEquals(6, fields.getFieldCount());
+        assertInteger(fields, 4); // totalTime
+        assertInteger(fields, 5); // count
+    }
+
+    private void checkStateTime(CheckinTokenizer fields) {
+        assertEquals(11, fields.getFieldCount());
+        assertInteger(fields, 4);  // top
+        assertInteger(fields, 5);  // foreground_service
+        assertInteger(fields, 6);  // foreground
+        assertInteger(fields, 7);  // background
+        assertInteger(fields, 8);  // top_sleeping
+        assertInteger(fields, 9);  // heavy_weight
+        assertInteger(fields, 10); // cached
+    }
+
+    private void checkWakelock(CheckinTokenizer fields) {
+        assertEquals(29, fields.getFieldCount());
+        assertHasField(fields, 4);      // wakelock
+
+        assertInteger(fields, 5);      // full totalTime
+        assertFieldEquals("f", fields, 6);  // full
+        long full_count = assertInteger(fields, 7);      // full count
+        assertInteger(fields, 8);      // current duration
+        assertInteger(fields, 9);      // max duration
+        assertInteger(fields, 10);     // total duration
+
+        assertInteger(fields, 11);      // partial totalTime
+        assertFieldEquals("p", fields, 12);  // partial
+        long partial_count = assertInteger(fields, 13);     // partial count
+        assertInteger(fields, 14);      // current duration
+        assertInteger(fields, 15);      // max duration
+        assertInteger(fields, 16);      // total duration
+
+        assertInteger(fields, 17);      // background partial totalTime
+        assertFieldEquals("bp", fields, 18); // background partial
+        long bg_partial_count = assertInteger(fields, 19);     // background partial count
+        assertInteger(fields, 20);      // current duration
+        assertInteger(fields, 21);      // max duration
+        assertInteger(fields, 22);      // total duration
+
+        assertInteger(fields, 23);      // window totalTime
+        assertFieldEquals("w", fields, 24);  // window
+        long window_count = assertInteger(fields, 25);     // window count
+        assertInteger(fields, 26);      // current duration
+        assertInteger(fields, 27);      // max duration
+        assertInteger(fields, 28);      // total duration
 
         // Sanity checks.
         assertTrue("full wakelock count must be >= 0", full_count >= 0);
@@ -335,92 +414,92 @@ public class BatteryStatsDumpsysTest extends BaseDumpsysTest {
         assertTrue("window wakelock count must be >= 0", window_count >= 0);
     }
 
-    private void checkAggregatedWakelock(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // total time
-        assertInteger(parts[5]); // background time
+    private void checkAggregatedWakelock(CheckinTokenizer fields) {
+        assertEquals(6, fields.getFieldCount());
+        assertInteger(fields, 4); // total time
+        assertInteger(fields, 5); // background time
     }
 
-    private void checkSync(String[] parts) {
-        assertEquals(9, parts.length);
-        assertNotNull(parts[4]); // sync
-        assertInteger(parts[5]); // totalTime
-        assertInteger(parts[6]); // count
-        assertInteger(parts[7]); // bgTime
-        assertInteger(parts[8]); // bgCount
+    private void checkSync(CheckinTokenizer fields) {
+        assertEquals(9, fields.getFieldCount());
+        assertHasField(fields, 4); // sync
+        assertInteger(fields, 5); // totalTime
+        assertInteger(fields, 6); // count
+        assertInteger(fields, 7); // bgTime
+        assertInteger(fields, 8); // bgCount
     }
 
-    private void checkJob(String[] parts) {
-        assertEquals(9, parts.length);
-        assertNotNull(parts[4]); // job
-        assertInteger(parts[5]); // totalTime
-        assertInteger(parts[6]); // count
-        assertInteger(parts[7]); // bgTime
-        assertInteger(parts[8]); // bgCount
+    private void checkJob(CheckinTokenizer fields) {
+        assertEquals(9, fields.getFieldCount());
+        assertHasField(fields, 4); // job
+        assertInteger(fields, 5); // totalTime
+        assertInteger(fields, 6); // count
+        assertInteger(fields, 7); // bgTime
+        assertInteger(fields, 8); // bgCount
     }
 
-    private void checkJobCompletion(String[] parts) {
-        assertEquals(10, parts.length);
-        assertNotNull(parts[4]); // job
-        assertInteger(parts[5]); // reason_canceled
-        assertInteger(parts[6]); // reason_constraints_not_satisfied
-        assertInteger(parts[7]); // reason_preempt
-        assertInteger(parts[8]); // reason_timeout
-        assertInteger(parts[9]); // reason_device_idle
+    private void checkJobCompletion(CheckinTokenizer fields) {
+        assertEquals(10, fields.getFieldCount());
+        assertHasField(fields, 4); // job
+        assertInteger(fields, 5); // reason_canceled
+        assertInteger(fields, 6); // reason_constraints_not_satisfied
+        assertInteger(fields, 7); // reason_preempt
+        assertInteger(fields, 8); // reason_timeout
+        assertInteger(fields, 9); // reason_device_idle
     }
 
-    private void checkJobsDeferred(String[] parts) {
-        assertEquals(12, parts.length);
-        assertInteger(parts[4]); // jobsDeferredEventCount
-        assertInteger(parts[5]); // jobsDeferredCount
-        assertInteger(parts[6]); // totalLatencyMillis
-        assertInteger(parts[7]); // count at latency < 1 hr
-        assertInteger(parts[8]); // count at latency 1-2 hrs
-        assertInteger(parts[9]); // count at latency 2-4 hrs
-        assertInteger(parts[10]); // count at latency 4-8 hrs
-        assertInteger(parts[11]); // count at latency 8+ hrs
+    private void checkJobsDeferred(CheckinTokenizer fields) {
+        assertEquals(12, fields.getFieldCount());
+        assertInteger(fields, 4); // jobsDeferredEventCount
+        assertInteger(fields, 5); // jobsDeferredCount
+        assertInteger(fields, 6); // totalLatencyMillis
+        assertInteger(fields, 7); // count at latency < 1 hr
+        assertInteger(fields, 8); // count at latency 1-2 hrs
+        assertInteger(fields, 9); // count at latency 2-4 hrs
+        assertInteger(fields, 10); // count at latency 4-8 hrs
+        assertInteger(fields, 11); // count at latency 8+ hrs
     }
 
-    private void checkKernelWakelock(String[] parts) {
-        assertTrue(parts.length >= 7);
-	assertNotNull(parts[4]); // Kernel wakelock
-	assertInteger(parts[parts.length-2]); // totalTime
-        assertInteger(parts[parts.length-1]); // count
+    private void checkKernelWakelock(CheckinTokenizer fields) {
+        assertTrue(fields.getFieldCount() >= 7);
+        assertHasField(fields, 4); // Kernel wakelock
+        assertInteger(fields, fields.getFieldCount() - 2); // totalTime
+        assertInteger(fields, fields.getFieldCount() - 1); // count
     }
 
-    private void checkWakeupReason(String[] parts) {
-        assertTrue(parts.length >= 7);
-        for (int i = 4; i < parts.length-2; i++) {
-            assertNotNull(parts[i]); // part of wakeup
+    private void checkWakeupReason(CheckinTokenizer fields) {
+        assertTrue(fields.getFieldCount() >= 7);
+        for (int i = 4; i < fields.getFieldCount() - 2; i++) {
+            assertHasField(fields, i); // part of wakeup
         }
-        assertInteger(parts[parts.length-2]); // totalTime
-        assertInteger(parts[parts.length-1]); // count
-    }
-
-    private void checkNetwork(String[] parts) {
-        assertEquals(26, parts.length);
-        long mbRx = assertInteger(parts[4]);  // mobileBytesRx
-        long mbTx = assertInteger(parts[5]);  // mobileBytesTx
-        long wbRx = assertInteger(parts[6]);  // wifiBytesRx
-        long wbTx = assertInteger(parts[7]);  // wifiBytesTx
-        long mpRx = assertInteger(parts[8]);  // mobilePacketsRx
-        long mpTx = assertInteger(parts[9]);  // mobilePacketsTx
-        long wpRx = assertInteger(parts[10]); // wifiPacketsRx
-        long wpTx = assertInteger(parts[11]); // wifiPacketsTx
-        assertInteger(parts[12]); // mobileActiveTime (usec)
-        assertInteger(parts[13]); // mobileActiveCount
-        assertInteger(parts[14]); // btBytesRx
-        assertInteger(parts[15]); // btBytesTx
-        assertInteger(parts[16]); // mobileWakeup
-        assertInteger(parts[17]); // wifiWakeup
-        long mbBgRx = assertInteger(parts[18]);  // mobileBytesRx
-        long mbBgTx = assertInteger(parts[19]);  // mobileBytesTx
-        long wbBgRx = assertInteger(parts[20]);  // wifiBytesRx
-        long wbBgTx = assertInteger(parts[21]);  // wifiBytesTx
-        long mpBgRx = assertInteger(parts[22]);  // mobilePacketsRx
-        long mpBgTx = assertInteger(parts[23]);  // mobilePacketsTx
-        long wpBgRx = assertInteger(parts[24]); // wifiPacketsRx
-        long wpBgTx = assertInteger(parts[25]); // wifiPacketsTx
+        assertInteger(fields, fields.getFieldCount() - 2); // totalTime
+        assertInteger(fields, fields.getFieldCount() - 1); // count
+    }
+
+    private void checkNetwork(CheckinTokenizer fields) {
+        assertEquals(26, fields.getFieldCount());
+        long mbRx = assertInteger(fields, 4);  // mobileBytesRx
+        long mbTx = assertInteger(fields, 5);  // mobileBytesTx
+        long wbRx = assertInteger(fields, 6);  // wifiBytesRx
+        long wbTx = assertInteger(fields, 7);  // wifiBytesTx
+        long mpRx = assertInteger(fields, 8);  // mobilePacketsRx
+        long mpTx = assertInteger(fields, 9);  // mobilePacketsTx
+        long wpRx = assertInteger(fields, 10); // wifiPacketsRx
+        long wpTx = assertInteger(fields, 11); // wifiPacketsTx
+        assertInteger(fields, 12); // mobileActiveTime (usec)
+        assertInteger(fields, 13); // mobileActiveCount
+        assertInteger(fields, 14); // btBytesRx
+        assertInteger(fields, 15); // btBytesTx
+        assertInteger(fields, 16); // mobileWakeup
+        assertInteger(fields, 17); // wifiWakeup
+        long mbBgRx = assertInteger(fields, 18);  // mobileBytesRx
+        long mbBgTx = assertInteger(fields, 19);  // mobileBytesTx
+        long wbBgRx = assertInteger(fields, 20);  // wifiBytesRx
+        long wbBgTx = assertInteger(fields, 21);  // wifiBytesTx
+        long mpBgRx = assertInteger(fields, 22);  // mobilePacketsRx
+        long mpBgTx = assertInteger(fields, 23);  // mobilePacketsTx
+        long wpBgRx = assertInteger(fields, 24); // wifiPacketsRx
+        long wpBgTx = assertInteger(fields, 25); // wifiPacketsTx
 
         // Assuming each packet contains some bytes, bytes >= packets >= 0.
         assertTrue("mobileBytesRx must be >= mobilePacketsRx", mbRx >= mpRx);
@@ -442,30 +521,30 @@ public class BatteryStatsDumpsysTest extends BaseDumpsysTest {
         assertTrue("wifiPacketsTx must be >= wifiPacketsBgTx", wpTx >= wpBgTx);
     }
 
-    private void checkUserActivity(String[] parts) {
-        assertEquals(8, parts.length);
-        assertInteger(parts[4]); // other
-        assertInteger(parts[5]); // button
-        assertInteger(parts[6]); // touch
-        assertInteger(parts[7]); // accessibility
+    private void checkUserActivity(CheckinTokenizer fields) {
+        assertEquals(8, fields.getFieldCount());
+        assertInteger(fields, 4); // other
+        assertInteger(fields, 5); // button
+        assertInteger(fields, 6); // touch
+        assertInteger(fields, 7); // accessibility
     }
 
-    private void checkBattery(String[] parts) {
-        assertEquals(16, parts.length);
-        if (!parts[4].equals("N/A")) {
-            assertInteger(parts[4]);  // startCount
+    private void checkBattery(CheckinTokenizer fields) {
+        assertEquals(16, fields.getFieldCount());
+        if (!fields.fieldEquals(4, "N/A")) {
+            assertInteger(fields, 4);  // startCount
         }
-        long bReal = assertInteger(parts[5]);  // batteryRealtime
-        long bUp = assertInteger(parts[6]);  // batteryUptime
-        long tReal = assertInteger(parts[7]);  // totalRealtime
-        long tUp = assertInteger(parts[8]);  // totalUptime
-        assertInteger(parts[9]);  // startClockTime
-        long bOffReal = assertInteger(parts[10]); // batteryScreenOffRealtime
-        long bOffUp = assertInteger(parts[11]); // batteryScreenOffUptime
-        long bEstCap = assertInteger(parts[12]); // batteryEstimatedCapacity
-        assertInteger(parts[13]); // minLearnedBatteryCapacity
-        assertInteger(parts[14]); // maxLearnedBatteryCapacity
-        long bDoze = assertInteger(parts[15]); // screenDozeTime
+        long bReal = assertInteger(fields, 5);  // batteryRealtime
+        long bUp = assertInteger(fields, 6);  // batteryUptime
+        long tReal = assertInteger(fields, 7);  // totalRealtime
+        long tUp = assertInteger(fields, 8);  // totalUptime
+        assertInteger(fields, 9);  // startClockTime
+        long bOffReal = assertInteger(fields, 10); // batteryScreenOffRealtime
+        long bOffUp = assertInteger(fields, 11); // batteryScreenOffUptime
+        long bEstCap = assertInteger(fields, 12); // batteryEstimatedCapacity
+        assertInteger(fields, 13); // minLearnedBatteryCapacity
+        assertInteger(fields, 14); // maxLearnedBatteryCapacity
+        long bDoze = assertInteger(fields, 15); // screenDozeTime
 
         // The device cannot be up more than there are real-world seconds.
         assertTrue("batteryRealtime must be >= batteryUptime", bReal >= bUp);
@@ -485,180 +564,180 @@ public class BatteryStatsDumpsysTest extends BaseDumpsysTest {
         assertTrue("screenDozeTime must be <= batteryScreenOffRealtime", bDoze <= bOffReal);
     }
 
-    private void checkBatteryDischarge(String[] parts) {
-        assertEquals(14, parts.length);
-        assertInteger(parts[4]); // low
-        assertInteger(parts[5]); // high
-        assertInteger(parts[6]); // screenOn
-        assertInteger(parts[7]); // screenOff
-        assertInteger(parts[8]); // dischargeMah
-        assertInteger(parts[9]); // dischargeScreenOffMah
-        assertInteger(parts[10]); // dischargeDozeCount
-        assertInteger(parts[11]); // dischargeDozeMah
-        assertInteger(parts[12]); // dischargeLightDozeMah
-        assertInteger(parts[13]); // dischargeDeepDozeMah
-    }
-
-    private void checkBatteryLevel(String[] parts) {
-        assertEquals(6, parts.length);
-        assertInteger(parts[4]); // startLevel
-        assertInteger(parts[5]); // currentLevel
-    }
-
-    private void checkWifi(String[] parts) {
-        assertEquals(14, parts.length);
-        assertInteger(parts[4]); // fullWifiLockOnTime (usec)
-        assertInteger(parts[5]); // wifiScanTime (usec)
-        assertInteger(parts[6]); // uidWifiRunningTime (usec)
-        assertInteger(parts[7]); // wifiScanCount
-        // Fields for parts[8 and 9 and 10] are deprecated.
-        assertInteger(parts[11]); // wifiScanCountBg
-        assertInteger(parts[12]); // wifiScanActualTimeMs (msec)
-        assertInteger(parts[13]); // wifiScanActualTimeMsBg (msec)
-    }
-
-    private void checkMisc(String[] parts) {
-        assertTrue(parts.length >= 19);
-        assertInteger(parts[4]);      // screenOnTime
-        assertInteger(parts[5]);      // phoneOnTime
-        assertInteger(parts[6]);      // fullWakeLockTimeTotal
-        assertInteger(parts[7]);      // partialWakeLockTimeTotal
-        assertInteger(parts[8]);      // mobileRadioActiveTime
-        assertInteger(parts[9]);      // mobileRadioActiveAdjustedTime
-        assertInteger(parts[10]);     // interactiveTime
-        assertInteger(parts[11]);     // lowPowerModeEnabledTime
-        assertInteger(parts[12]);     // connChanges
-        assertInteger(parts[13]);     // deviceIdleModeEnabledTime
-        assertInteger(parts[14]);     // deviceIdleModeEnabledCount
-        assertInteger(parts[15]);     // deviceIdlingTime
-        assertInteger(parts[16]);     // deviceIdlingCount
-        assertInteger(parts[17]);     // mobileRadioActiveCount
-        assertInteger(parts[18]);     // mobileRadioActiveUnknownTime
-    }
-
-    private void checkGlobalNetwork(String[] parts) {
-        assertEquals(14, parts.length);
-        assertInteger(parts[4]);  // mobileRxTotalBytes
-        assertInteger(parts[5]);  // mobileTxTotalBytes
-        assertInteger(parts[6]);  // wifiRxTotalBytes
-        assertInteger(parts[7]);  // wifiTxTotalBytes
-        assertInteger(parts[8]);  // mobileRxTotalPackets
-        assertInteger(parts[9]);  // mobileTxTotalPackets
-        assertInteger(parts[10]); // wifiRxTotalPackets
-        assertInteger(parts[11]); // wifiTxTotalPackets
-        assertInteger(parts[12]); // btRxTotalBytes
-        assertInteger(parts[13]); // btTxTotalBytes
-    }
-
-    private void checkScreenBrightness(String[] parts) {
-        assertEquals(9, parts.length);
-        assertInteger(parts[4]); // dark
-        assertInteger(parts[5]); // dim
-        assertInteger(parts[6]); // medium
-        assertInteger(parts[7]); // light
-        assertInteger(parts[8]); // bright
-    }
-
-    private void checkSignalStrength(String[] parts) {
-        assertTrue(parts.length >= 9);
-        assertInteger(parts[4]); // none
-        assertInteger(parts[5]); // poor
-        assertInteger(parts[6]); // moderate
-        assertInteger(parts[7]); // good
-        assertInteger(parts[8]); // great
-    }
-
-    private void checkSignalScanningTime(String[] parts) {
-        assertEquals(5, parts.length);
-        assertInteger(parts[4]); // signalScanningTime
-    }
-
-    private void checkDataConnection(String[] parts) {
-        assertEquals(25, parts.length);
-        assertInteger(parts[4]);  // none
-        assertInteger(parts[5]);  // gprs
-        assertInteger(parts[6]);  // edge
-        assertInteger(parts[7]);  // umts
-        assertInteger(parts[8]);  // cdma
-        assertInteger(parts[9]);  // evdo_0
-        assertInteger(parts[10]); // evdo_A
-        assertInteger(parts[11]); // 1xrtt
-        assertInteger(parts[12]); // hsdpa
-        assertInteger(parts[13]); // hsupa
-        assertInteger(parts[14]); // hspa
-        assertInteger(parts[15]); // iden
-        assertInteger(parts[16]); // evdo_b
-        assertInteger(parts[17]); // lte
-        assertInteger(parts[18]); // ehrpd
-        assertInteger(parts[19]); // hspap
-        assertInteger(parts[20]); // gsm
-        assertInteger(parts[21]); // td_scdma
-        assertInteger(parts[22]); // iwlan
-        assertInteger(parts[23]); // lte_ca
-        assertInteger(parts[24]); // other
-    }
-
-    private void checkWifiState(String[] parts) {
-        assertEquals(12, parts.length);
-        assertInteger(parts[4]);  // off
-        assertInteger(parts[5]);  // scanning
-        assertInteger(parts[6]);  // no_net
-        assertInteger(parts[7]);  // disconn
-        assertInteger(parts[8]);  // sta
-        assertInteger(parts[9]);  // p2p
-        assertInteger(parts[10]); // sta_p2p
-        assertInteger(parts[11]); // soft_ap
-    }
-
-    private void checkWifiSupplState(String[] parts) {
-        assertEquals(17, parts.length);
-        assertInteger(parts[4]);  // inv
-        assertInteger(parts[5]);  // dsc
-        assertInteger(parts[6]);  // dis
-        assertInteger(parts[7]);  // inact
-        assertInteger(parts[8]);  // scan
-        assertInteger(parts[9]);  // auth
-        assertInteger(parts[10]); // ascing
-        assertInteger(parts[11]); // asced
-        assertInteger(parts[12]); // 4-way
-        assertInteger(parts[13]); // group
-        assertInteger(parts[14]); // compl
-        assertInteger(parts[15]); // dorm
-        assertInteger(parts[16]); // uninit
-    }
-
-    private void checkWifiSignalStrength(String[] parts) {
-        assertEquals(9, parts.length);
-        assertInteger(parts[4]); // none
-        assertInteger(parts[5]); // poor
-        assertInteger(parts[6]); // moderate
-        assertInteger(parts[7]); // good
-        assertInteger(parts[8]); // great
-    }
-
-    private void checkBluetoothState(String[] parts) {
-        assertEquals(8, parts.length);
-        assertInteger(parts[4]); // inactive
-        assertInteger(parts[5]); // low
-        assertInteger(parts[6]); // med
-        assertInteger(parts[7]); // high
-    }
-
-    private void checkPowerUseSummary(String[] parts) {
-        assertEquals(8, parts.length);
-        assertDouble(parts[4]); // batteryCapacity
-        assertDouble(parts[5]); // computedPower
-        assertDouble(parts[6]); // minDrainedPower
-        assertDouble(parts[7]); // maxDrainedPower
-    }
-
-    private void checkPowerUseItem(String[] parts) {
-        assertEquals(9, parts.length);
-        assertNotNull(parts[4]); // label
-        final double totalPowerMah = assertDouble(parts[5]);  // totalPowerMah
-        final long shouldHide = assertInteger(parts[6]);  // shouldHide (0 or 1)
-        final double screenPowerMah = assertDouble(parts[7]);  // screenPowerMah
-        final double proportionalSmearMah = assertDouble(parts[8]);  // proportionalSmearMah
+    private void checkBatteryDischarge(CheckinTokenizer fields) {
+        assertEquals(14, fields.getFieldCount());
+        assertInteger(fields, 4); // low
+        assertInteger(fields, 5); // high
+        assertInteger(fields, 6); // screenOn
+        assertInteger(fields, 7); // screenOff
+        assertInteger(fields, 8); // dischargeMah
+        assertInteger(fields, 9); // dischargeScreenOffMah
+        assertInteger(fields, 10); // dischargeDozeCount
+        assertInteger(fields, 11); // dischargeDozeMah
+        assertInteger(fields, 12); // dischargeLightDozeMah
+        assertInteger(fields, 13); // dischargeDeepDozeMah
+    }
+
+    private void checkBatteryLevel(CheckinTokenizer fields) {
+        assertEquals(6, fields.getFieldCount());
+        assertInteger(fields, 4); // startLevel
+        assertInteger(fields, 5); // currentLevel
+    }
+
+    private void checkWifi(CheckinTokenizer fields) {
+        assertEquals(14, fields.getFieldCount());
+        assertInteger(fields, 4); // fullWifiLockOnTime (usec)
+        assertInteger(fields, 5); // wifiScanTime (usec)
+        assertInteger(fields, 6); // uidWifiRunningTime (usec)
+        assertInteger(fields, 7); // wifiScanCount
+        // Fields 8, 9 and 10 are deprecated.
+        assertInteger(fields, 11); // wifiScanCountBg
+        assertInteger(fields, 12); // wifiScanActualTimeMs (msec)
+        assertInteger(fields, 13); // wifiScanActualTimeMsBg (msec)
+    }
+
+    private void checkMisc(CheckinTokenizer fields) {
+        assertTrue(fields.getFieldCount() >= 19);
+        assertInteger(fields, 4);      // screenOnTime
+        assertInteger(fields, 5);      // phoneOnTime
+        assertInteger(fields, 6);      // fullWakeLockTimeTotal
+        assertInteger(fields, 7);      // partialWakeLockTimeTotal
+        assertInteger(fields, 8);      // mobileRadioActiveTime
+        assertInteger(fields, 9);      // mobileRadioActiveAdjustedTime
+        assertInteger(fields, 10);     // interactiveTime
+        assertInteger(fields, 11);     // lowPowerModeEnabledTime
+        assertInteger(fields, 12);     // connChanges
+        assertInteger(fields, 13);     // deviceIdleModeEnabledTime
+        assertInteger(fields, 14);     // deviceIdleModeEnabledCount
+        assertInteger(fields, 15);     // deviceIdlingTime
+        assertInteger(fields, 16);     // deviceIdlingCount
+        assertInteger(fields, 17);     // mobileRadioActiveCount
+        assertInteger(fields, 18);     // mobileRadioActiveUnknownTime
+    }
+
+    private void checkGlobalNetwork(CheckinTokenizer fields) {
+        assertEquals(14, fields.getFieldCount());
+        assertInteger(fields, 4);  // mobileRxTotalBytes
+        assertInteger(fields, 5);  // mobileTxTotalBytes
+        assertInteger(fields, 6);  // wifiRxTotalBytes
+        assertInteger(fields, 7);  // wifiTxTotalBytes
+        assertInteger(fields, 8);  // mobileRxTotalPackets
+        assertInteger(fields, 9);  // mobileTxTotalPackets
+        assertInteger(fields, 10); // wifiRxTotalPackets
+        assertInteger(fields, 11); // wifiTxTotalPackets
+        assertInteger(fields, 12); // btRxTotalBytes
+        assertInteger(fields, 13); // btTxTotalBytes
+    }
+
+    private void checkScreenBrightness(CheckinTokenizer fields) {
+        assertEquals(9, fields.getFieldCount());
+        assertInteger(fields, 4); // dark
+        assertInteger(fields, 5); // dim
+        assertInteger(fields, 6); // medium
+        assertInteger(fields, 7); // light
+        assertInteger(fields, 8); // bright
+    }
+
+    private void checkSignalStrength(CheckinTokenizer fields) {
+        assertTrue(fields.getFieldCount() >= 9);
+        assertInteger(fields, 4); // none
+        assertInteger(fields, 5); // poor
+        assertInteger(fields, 6); // moderate
+        assertInteger(fields, 7); // good
+        assertInteger(fields, 8); // great
+    }
+
+    private void checkSignalScanningTime(CheckinTokenizer fields) {
+        assertEquals(5, fields.getFieldCount());
+        assertInteger(fields, 4); // signalScanningTime
+    }
+
+    private void checkDataConnection(CheckinTokenizer fields) {
+        assertEquals(25, fields.getFieldCount());
+        assertInteger(fields, 4);  // none
+        assertInteger(fields, 5);  // gprs
+        assertInteger(fields, 6);  // edge
+        assertInteger(fields, 7);  // umts
+        assertInteger(fields, 8);  // cdma
+        assertInteger(fields, 9);  // evdo_0
+        assertInteger(fields, 10); // evdo_A
+        assertInteger(fields, 11); // 1xrtt
+        assertInteger(fields, 12); // hsdpa
+        assertInteger(fields, 13); // hsupa
+        assertInteger(fields, 14); // hspa
+        assertInteger(fields, 15); // iden
+        assertInteger(fields, 16); // evdo_b
+        assertInteger(fields, 17); // lte
+        assertInteger(fields, 18); // ehrpd
+        assertInteger(fields, 19); // hspap
+        assertInteger(fields, 20); // gsm
+        assertInteger(fields, 21); // td_scdma
+        assertInteger(fields, 22); // iwlan
+        assertInteger(fields, 23); // lte_ca
+        assertInteger(fields, 24); // other
+    }
+
+    private void checkWifiState(CheckinTokenizer fields) {
+        assertEquals(12, fields.getFieldCount());
+        assertInteger(fields, 4);  // off
+        assertInteger(fields, 5);  // scanning
+        assertInteger(fields, 6);  // no_net
+        assertInteger(fields, 7);  // disconn
+        assertInteger(fields, 8);  // sta
+        assertInteger(fields, 9);  // p2p
+        assertInteger(fields, 10); // sta_p2p
+        assertInteger(fields, 11); // soft_ap
+    }
+
+    private void checkWifiSupplState(CheckinTokenizer fields) {
+        assertEquals(17, fields.getFieldCount());
+        assertInteger(fields, 4);  // inv
+        assertInteger(fields, 5);  // dsc
+        assertInteger(fields, 6);  // dis
+        assertInteger(fields, 7);  // inact
+        assertInteger(fields, 8);  // scan
+        assertInteger(fields, 9);  // auth
+        assertInteger(fields, 10); // ascing
+        assertInteger(fields, 11); // asced
+        assertInteger(fields, 12); // 4-way
+        assertInteger(fields, 13); // group
+        assertInteger(fields, 14); // compl
+        assertInteger(fields, 15); // dorm
+        assertInteger(fields, 16); // uninit
+    }
+
+    private void checkWifiSignalStrength(CheckinTokenizer fields) {
+        assertEquals(9, fields.getFieldCount());
+        assertInteger(fields, 4); // none
+        assertInteger(fields, 5); // poor
+        assertInteger(fields, 6); // moderate
+        assertInteger(fields, 7); // good
+        assertInteger(fields, 8); // great
+    }
+
+    private void checkBluetoothState(CheckinTokenizer fields) {
+        assertEquals(8, fields.getFieldCount());
+        assertInteger(fields, 4); // inactive
+        assertInteger(fields, 5); // low
+        assertInteger(fields, 6); // med
+        assertInteger(fields, 7); // high
+    }
+
+    private void checkPowerUseSummary(CheckinTokenizer fields) {
+        assertEquals(8, fields.getFieldCount());
+        assertDouble(fields, 4); // batteryCapacity
+        assertDouble(fields, 5); // computedPower
+        assertDouble(fields, 6); // minDrainedPower
+        assertDouble(fields, 7); // maxDrainedPower
+    }
+
+    private void checkPowerUseItem(CheckinTokenizer fields) {
+        assertEquals(9, fields.getFieldCount());
+        assertHasField(fields, 4); // label
+        final double totalPowerMah = assertDouble(fields, 5);  // totalPowerMah
+        final long shouldHide = assertInteger(fields, 6);  // shouldHide (0 or 1)
+        final double screenPowerMah = assertDouble(fields, 7);  // screenPowerMah
+        final double proportionalSmearMah = assertDouble(fields, 8);  // proportionalSmearMah
 
         assertTrue("powerUseItem totalPowerMah must be >= 0", totalPowerMah >= 0);
         assertTrue("powerUseItem screenPowerMah must be >= 0", screenPowerMah >= 0);
@@ -669,46 +748,46 @@ public class BatteryStatsDumpsysTest extends BaseDumpsysTest {
         assertTrue("powerUseItem totalPowerMah is expected to be <= 100000", totalPowerMah <= 100000);
     }
 
-    private void checkChargeDischargeStep(String[] parts) {
-        assertEquals(9, parts.length);
-        assertInteger(parts[4]); // duration
-        if (!parts[5].equals("?")) {
-            assertInteger(parts[5]); // level
+    private void checkChargeDischargeStep(CheckinTokenizer fields) {
+        assertEquals(9, fields.getFieldCount());
+        assertInteger(fields, 4); // duration
+        if (!fields.fieldEquals(5, "?")) {
+            assertInteger(fields, 5); // level
         }
-        assertNotNull(parts[6]); // screen
-        assertNotNull(parts[7]); // power-save
-        assertNotNull(parts[8]); // device-idle
+        assertHasField(fields, 6); // screen
+        assertHasField(fields, 7); // power-save
+        assertHasField(fields, 8); // device-idle
     }
 
-    private void checkDischargeTimeRemain(String[] parts) {
-        assertEquals(5, parts.length);
-        assertInteger(parts[4]); // batteryTimeRemaining
+    private void checkDischargeTimeRemain(CheckinTokenizer fields) {
+        assertEquals(5, fields.getFieldCount());
+        assertInteger(fields, 4); // batteryTimeRemaining
     }
 
-    private void checkChargeTimeRemain(String[] parts) {
-        assertEquals(5, parts.length);
-        assertInteger(parts[4]); // chargeTimeRemaining
+    private void checkChargeTimeRemain(CheckinTokenizer fields) {
+        assertEquals(5, fields.getFieldCount());
+        assertInteger(fields, 4); // chargeTimeRemaining
     }
 
-    private void checkUidCpuUsage(String[] parts) {
-        assertTrue(parts.length >= 6);
-        assertInteger(parts[4]); // user time
-        assertInteger(parts[5]); // system time
+    private void checkUidCpuUsage(CheckinTokenizer fields) {
+        assertTrue(fields.getFieldCount() >= 6);
+        assertInteger(fields, 4); // user time
+        assertInteger(fields, 5); // system time
     }
 
-    private void checkBluetoothMisc(String[] parts) {
-        assertEquals(15, parts.length);
-        assertInteger(parts[4]); // totalTime
-        assertInteger(parts[5]); // count
-        assertInteger(parts[6]); // countBg
-        assertInteger(parts[7]); // actualTime
-        assertInteger(parts[8]); // actualTimeBg
-        assertInteger(parts[9]); // resultsCount
-        assertInteger(parts[10]); // resultsCountBg
-        assertInteger(parts[11]); // unoptimizedScanTotalTime
-        assertInteger(parts[12]); // unoptimizedScanTotalTimeBg
-        assertInteger(parts[13]); // unoptimizedScanMaxTime
-        assertInteger(parts[14]); // unoptimizedScanMaxTimeBg
+    private void checkBluetoothMisc(CheckinTokenizer fields) {
+        assertEquals(15, fields.getFieldCount());
+        assertInteger(fields, 4); // totalTime
+        assertInteger(fields, 5); // count
+        assertInteger(fields, 6); // countBg
+        assertInteger(fields, 7); // actualTime
+        assertInteger(fields, 8); // actualTimeBg
+        assertInteger(fields, 9); // resultsCount
+        assertInteger(fields, 10); // resultsCountBg
+        assertInteger(fields, 11); // unoptimizedScanTotalTime
+        assertInteger(fields, 12); // unoptimizedScanTotalTimeBg
+        assertInteger(fields, 13); // unoptimizedScanMaxTime
+        assertInteger(fields, 14); // unoptimizedScanMaxTimeBg
     }
 
     /**
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.dumpsys.cts;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Benchmark of {@link CheckinTokenizer} on captured "dumpsys batterystats --checkin" dumps.
+ *
+ * <p>For each dump, compares splitting every line with {@code String.split} and parsing the
+ * numeric fields with {@link Long#parseLong}, as the tests used to, with tokenizing and parsing
+ * the same fields in place, and times the complete check of
+ * {@link BatteryStatsDumpsysTest#testBatterystatsOutput}. Dumps can be captured with:
+ *
+ * <pre>
+ * adb shell dumpsys batterystats --checkin &gt; batterystats.txt
+ * java -cp $ANDROID_HOST_OUT/framework/CtsDumpsysHostTestCases.jar:\
+ *     $ANDROID_HOST_OUT/framework/tradefed.jar \
+ *     android.dumpsys.cts.CheckinBenchmark batterystats.txt
+ * </pre>
+ */
+public class CheckinBenchmark {
+    private static final int WARMUP_PASSES = 5;
+    private static final int PASSES = 20;
+
+    /** Receives the result of a pass, so that it is not optimized away. */
+    private static long sSink;
+
+    private interface Pass {
+        long run(byte[] dump) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: CheckinBenchmark <batterystats checkin dump>...");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            final byte[] dump = Files.readAllBytes(Paths.get(arg));
+            final long lines = countLines(dump);
+            System.out.println(arg + ": " + dump.length + " bytes, " + lines + " lines");
+            report("split", lines, time(dump, CheckinBenchmark::splitPass));
+            report("tokenizer", lines, time(dump, CheckinBenchmark::tokenizerPass));
+            report("check", lines, time(dump, d -> {
+                new BatteryStatsDumpsysTest().checkBatterystatsOutput(d);
+                return 0;
+            }));
+        }
+    }
+
+    private static long countLines(byte[] dump) {
+        final CheckinTokenizer tokenizer = new CheckinTokenizer(dump);
+        long lines = 0;
+        while (tokenizer.nextLine()) {
+            lines++;
+        }
+        return lines;
+    }
+
+    /** Returns the average time of a pass, in nanoseconds. */
+    private static long time(byte[] dump, Pass pass) throws IOException {
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            sSink += pass.run(dump);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < PASSES; i++) {
+            sSink += pass.run(dump);
+        }
+        return (System.nanoTime() - start) / PASSES;
+    }
+
+    private static void report(String name, long lines, long nanos) {
+        System.out.println(String.format("  %-10s %8.2f ms/pass %10.0f lines/s",
+                name, nanos / 1e6, lines * 1e9 / Math.max(nanos, 1)));
+    }
+
+    private static boolean isNumberStart(char c) {
+        return (c >= '0' && c <= '9') || c == '-';
+    }
+
+    private static long splitPass(byte[] dump) throws IOException {
+        long sum = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new StringReader(new String(dump, StandardCharsets.UTF_8)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                for (String part : line.split(",", -1)) {
+                    if (!part.isEmpty() && isNumberStart(part.charAt(0))) {
+                        try {
+                            sum += Long.parseLong(part);
+                        } catch (NumberFormatException e) {
+                            // Not an integer field.
+                        }
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static long tokenizerPass(byte[] dump) {
+        final CheckinTokenizer fields = new CheckinTokenizer(dump);
+        long sum = 0;
+        while (fields.nextLine()) {
+            for (int i = 0; i < fields.getFieldCount(); i++) {
+                if (fields.getFieldLength(i) > 0 && isNumberStart(fields.charAt(i, 0))) {
+                    try {
+                        sum += fields.getLong(i);
+                    } catch (NumberFormatException e) {
+                        // Not an integer field.
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+}
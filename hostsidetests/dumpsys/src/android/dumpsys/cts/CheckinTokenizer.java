@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.dumpsys.cts;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Tokenizer for checkin style dumps, e.g. "dumpsys batterystats --checkin".
+ *
+ * <p>Scans the raw output of a command line by line, and records the offsets of the fields of
+ * the current line instead of splitting it into strings. Fields are compared, and parsed as
+ * numbers, in place; strings are only created by {@link #getField} and {@link #getLine}, which
+ * are meant for failure messages. Lines are ended by '\n' or '\r', and empty lines are skipped.
+ *
+ * <p>Like {@code String.split(separator, -1)}, every line has at least one field, and empty
+ * fields are kept, including trailing ones, unless trailing empty fields are dropped as
+ * {@code String.split(separator)} does.
+ */
+public class CheckinTokenizer {
+    private static final int INITIAL_FIELD_CAPACITY = 32;
+
+    /** Longest decimal whose digits are exactly representable as a double. */
+    private static final int MAX_FAST_DOUBLE_DIGITS = 15;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+        1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+    };
+
+    private final byte[] mData;
+    private final int mEnd;
+    private final byte mSeparator;
+    private final boolean mKeepTrailingEmptyFields;
+
+    private int mNext;
+    private int mLineStart;
+    private int mLineEnd;
+    private int[] mFieldStarts = new int[INITIAL_FIELD_CAPACITY];
+    private int[] mFieldEnds = new int[INITIAL_FIELD_CAPACITY];
+    private int mFieldCount;
+
+    /**
+     * Creates a tokenizer of comma separated lines that keeps trailing empty fields.
+     */
+    public CheckinTokenizer(byte[] data) {
+        this(data, 0, data.length, ',', true);
+    }
+
+    /**
+     * @param data the command output
+     * @param offset start of the output in data
+     * @param length length of the output in data
+     * @param separator field separator, an ASCII character
+     * @param keepTrailingEmptyFields whether to keep trailing empty fields
+     */
+    public CheckinTokenizer(byte[] data, int offset, int length, char separator,
+            boolean keepTrailingEmptyFields) {
+        if (separator >= 0x80) {
+            throw new IllegalArgumentException("Separator must be ASCII: " + separator);
+        }
+        mData = data;
+        mNext = offset;
+        mEnd = offset + length;
+        mSeparator = (byte) separator;
+        mKeepTrailingEmptyFields = keepTrailingEmptyFields;
+    }
+
+    /**
+     * Creates a tokenizer over the same output, e.g. to split fields of this tokenizer further
+     * with {@link #tokenize}.
+     */
+    public CheckinTokenizer withSeparator(char separator, boolean keepTrailingEmptyFields) {
+        return new CheckinTokenizer(mData, 0, 0, separator, keepTrailingEmptyFields);
+    }
+
+    /**
+     * Moves to the next non-empty line.
+     *
+     * @return false if there are no more lines
+     */
+    public boolean nextLine() {
+        int start = mNext;
+        while (start < mEnd && (mData[start] == '\n' || mData[start] == '\r')) {
+            start++;
+        }
+        if (start == mEnd) {
+            mNext = mEnd;
+            mFieldCount = 0;
+            return false;
+        }
+        int end = start;
+        while (end < mEnd && mData[end] != '\n' && mData[end] != '\r') {
+            end++;
+        }
+        mNext = end;
+        tokenize(start, end);
+        return true;
+    }
+
+    /**
+     * Makes the bytes in [start, end) the current line, e.g. a field of another tokenizer over
+     * the same output.
+     */
+    public void tokenize(int start, int end) {
+        mLineStart = start;
+        mLineEnd = end;
+        mFieldCount = 0;
+        int fieldStart = start;
+        for (int i = start; i < end; i++) {
+            if (mData[i] == mSeparator) {
+                addField(fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+        addField(fieldStart, end);
+        if (!mKeepTrailingEmptyFields) {
+            while (mFieldCount > 1
+                    && mFieldStarts[mFieldCount - 1] == mFieldEnds[mFieldCount - 1]) {
+                mFieldCount--;
+            }
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (mFieldCount == mFieldStarts.length) {
+            mFieldStarts = Arrays.copyOf(mFieldStarts, mFieldCount * 2);
+            mFieldEnds = Arrays.copyOf(mFieldEnds, mFieldCount * 2);
+        }
+        mFieldStarts[mFieldCount] = start;
+        mFieldEnds[mFieldCount] = end;
+        mFieldCount++;
+    }
+
+    public int getFieldCount() {
+        return mFieldCount;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= mFieldCount) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "Field " + field + " of a line with " + mFieldCount + " fields");
+        }
+    }
+
+    /** Returns the offset of the first byte of a field in the output. */
+    public int getFieldStart(int field) {
+        checkField(field);
+        return mFieldStarts[field];
+    }
+
+    /** Returns the offset after the last byte of a field in the output. */
+    public int getFieldEnd(int field) {
+        checkField(field);
+        return mFieldEnds[field];
+    }
+
+    public int getFieldLength(int field) {
+        checkField(field);
+        return mFieldEnds[field] - mFieldStarts[field];
+    }
+
+    /** Returns a byte of a field, as a char. */
+    public char charAt(int field, int index) {
+        if (index < 0 || index >= getFieldLength(field)) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return (char) (mData[mFieldStarts[field] + index] & 0xFF);
+    }
+
+    /** Returns whether a field is the given ASCII string. */
+    public boolean fieldEquals(int field, String value) {
+        final int start = getFieldStart(field);
+        final int length = mFieldEnds[field] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mData[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field like {@link Long#parseLong(String)}.
+     *
+     * @throws NumberFormatException if the field is not a decimal long
+     */
+    public long getLong(int field) {
+        final int start = getFieldStart(field);
+        final int end = mFieldEnds[field];
+        int i = start;
+        boolean negative = false;
+        if (i < end && (mData[i] == '-' || mData[i] == '+')) {
+            negative = mData[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Not an integer: field " + field);
+        }
+        // Accumulate negatively, since Long.MIN_VALUE has no positive counterpart.
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        final long multiplyLimit = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            final int digit = mData[i] - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                throw new NumberFormatException("Not an integer: field " + field);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw new NumberFormatException("Not an integer: field " + field);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parses a field like {@link Double#parseDouble(String)}. Plain decimals of up to 15 digits,
+     * which is what dumps print, are parsed in place; anything else falls back to
+     * {@link Double#parseDouble(String)}.
+     *
+     * @throws NumberFormatException if the field is not a double
+     */
+    public double getDouble(int field) {
+        final int start = getFieldStart(field);
+        final int end = mFieldEnds[field];
+        int i = start;
+        boolean negative = false;
+        if (i < end && (mData[i] == '-' || mData[i] == '+')) {
+            negative = mData[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        for (; i < end; i++) {
+            final byte b = mData[i];
+            if (b == '.' && !inFraction) {
+                inFraction = true;
+            } else if (b >= '0' && b <= '9' && digits < MAX_FAST_DOUBLE_DIGITS) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (inFraction) {
+                    fractionDigits++;
+                }
+            } else {
+                break;
+            }
+        }
+        if (i < end || digits == 0) {
+            // Exponents, long mantissas, NaN, Infinity, hex and malformed input.
+            return Double.parseDouble(getField(field));
+        }
+        // Both operands are exact, so the quotient is correctly rounded.
+        final double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    /** Returns a field as a string. Allocates; meant for failure messages. */
+    public String getField(int field) {
+        final int start = getFieldStart(field);
+        return new String(mData, start, mFieldEnds[field] - start, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the current line as a string. Allocates; meant for failure messages. */
+    public String getLine() {
+        return new String(mData, mLineStart, mLineEnd - mLineStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the offset of the first occurrence of an ASCII marker in data at or after
+     * fromIndex, or -1.
+     */
+    public static int indexOf(byte[] data, String marker, int fromIndex) {
+        final int last = data.length - marker.length();
+        outer:
+        for (int i = Math.max(fromIndex, 0); i <= last; i++) {
+            for (int j = 0; j < marker.length(); j++) {
+                if (data[i + j] != marker.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Table of ASCII tags, e.g. the section names of a dump, interned to small ids so that
+     * fields can be dispatched with a switch on int constants, without creating strings.
+     */
+    public static final class Tags {
+        private byte[][] mKeys = new byte[64][];
+        private int[] mIds = new int[64];
+        private int mKeyCount;
+        private int mSize;
+
+        /**
+         * Interns tags to an id; all of them map to it.
+         *
+         * @param id a small non-negative id, e.g. an index of a per-tag array
+         */
+        public void add(int id, String... tags) {
+            if (id < 0) {
+                throw new IllegalArgumentException("Negative id: " + id);
+            }
+            mSize = Math.max(mSize, id + 1);
+            for (String tag : tags) {
+                final byte[] key = tag.getBytes(StandardCharsets.US_ASCII);
+                if (find(key, 0, key.length) >= 0) {
+                    throw new IllegalArgumentException("Duplicate tag: " + tag);
+                }
+                if ((mKeyCount + 1) * 2 > mKeys.length) {
+                    grow();
+                }
+                put(key, id);
+            }
+        }
+
+        /** Returns the largest id plus one. */
+        public int size() {
+            return mSize;
+        }
+
+        /** Returns the id of a tag, or -1 if it was not added. */
+        public int idOf(String tag) {
+            final byte[] key = tag.getBytes(StandardCharsets.US_ASCII);
+            return find(key, 0, key.length);
+        }
+
+        /** Returns the id of a field of the current line, or -1 if it was not added. */
+        public int idOf(CheckinTokenizer tokenizer, int field) {
+            final int start = tokenizer.getFieldStart(field);
+            return find(tokenizer.mData, start, tokenizer.mFieldEnds[field]);
+        }
+
+        private static int hash(byte[] data, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + data[i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private int find(byte[] data, int start, int end) {
+            final int mask = mKeys.length - 1;
+            final int length = end - start;
+            outer:
+            for (int slot = hash(data, start, end) & mask; mKeys[slot] != null;
+                    slot = (slot + 1) & mask) {
+                final byte[] key = mKeys[slot];
+                if (key.length != length) {
+                    continue;
+                }
+                for (int i = 0; i < length; i++) {
+                    if (key[i] != data[start + i]) {
+                        continue outer;
+                    }
+                }
+                return mIds[slot];
+            }
+            return -1;
+        }
+
+        private void put(byte[] key, int id) {
+            final int mask = mKeys.length - 1;
+            int slot = hash(key, 0, key.length) & mask;
+            while (mKeys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            mKeys[slot] = key;
+            mIds[slot] = id;
+            mKeyCount++;
+        }
+
+        private void grow() {
+            final byte[][] keys = mKeys;
+            final int[] ids = mIds;
+            mKeys = new byte[keys.length * 2][];
+            mIds = new int[keys.length * 2];
+            mKeyCount = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    put(keys[i], ids[i]);
+                }
+            }
+        }
+    }
+}
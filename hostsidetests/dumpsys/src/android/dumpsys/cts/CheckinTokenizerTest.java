@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.dumpsys.cts;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Host-side tests of {@link CheckinTokenizer}, against String.split and the parse methods of
+ * Long and Double. They need no device.
+ */
+public class CheckinTokenizerTest extends TestCase {
+
+    /** Test that lines are split like String.split, with and without trailing empty fields. */
+    public void testFieldSplitting() {
+        final String[] lines = {
+            "9,0,i,vers,32",
+            "a,,b",
+            "x",
+            "trailing,,",
+            ",leading",
+            "a,b,,,",
+        };
+        for (String line : lines) {
+            assertFields(line.split(",", -1), tokenize(line, ',', true));
+            assertFields(line.split(","), tokenize(line, ',', false));
+        }
+        // Unlike String.split, a line always keeps its first field.
+        assertFields(new String[] {"", ""}, tokenize(",", ',', true));
+        assertFields(new String[] {""}, tokenize(",,", ',', false));
+    }
+
+    /** Test that '\n' and '\r' end lines, that empty lines are skipped, and fields grow. */
+    public void testLines() {
+        final StringBuilder longLine = new StringBuilder("0");
+        for (int i = 1; i < 100; i++) {
+            longLine.append(',').append(i);
+        }
+        final CheckinTokenizer tokenizer = new CheckinTokenizer(
+                bytes("\n\r\na,b\r\n\n" + longLine + "\rlast"));
+
+        assertTrue(tokenizer.nextLine());
+        assertEquals("a,b", tokenizer.getLine());
+        assertEquals(2, tokenizer.getFieldCount());
+        assertTrue(tokenizer.nextLine());
+        assertEquals(100, tokenizer.getFieldCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, tokenizer.getLong(i));
+        }
+        assertTrue(tokenizer.nextLine());
+        assertEquals("last", tokenizer.getField(0));
+        assertFalse(tokenizer.nextLine());
+        assertEquals(0, tokenizer.getFieldCount());
+        assertFalse(tokenizer.nextLine());
+
+        assertFalse(new CheckinTokenizer(bytes("")).nextLine());
+        assertFalse(new CheckinTokenizer(bytes("\n\n\r")).nextLine());
+    }
+
+    /** Test the tokenizer over a slice of the data, and splitting a field further. */
+    public void testSubranges() {
+        final byte[] data = bytes("skip|k=1;l=2;;|skip");
+        final CheckinTokenizer outer = new CheckinTokenizer(data, 5, data.length - 10, '|', true);
+        assertTrue(outer.nextLine());
+        assertEquals(1, outer.getFieldCount());
+        assertEquals("k=1;l=2;;", outer.getField(0));
+
+        final CheckinTokenizer inner = outer.withSeparator(';', false);
+        inner.tokenize(outer.getFieldStart(0), outer.getFieldEnd(0));
+        assertFalse(outer.nextLine());
+        assertFields(new String[] {"k=1", "l=2"}, inner);
+        assertEquals("k=1;l=2;;", inner.getLine());
+
+        final CheckinTokenizer pair = inner.withSeparator('=', true);
+        pair.tokenize(inner.getFieldStart(1), inner.getFieldEnd(1));
+        assertTrue(pair.fieldEquals(0, "l"));
+        assertEquals(2, pair.getLong(1));
+
+        try {
+            new CheckinTokenizer(data, 0, data.length, '\u00e9', true);
+            fail("Accepted a non-ASCII separator");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /** Test field accessors and their bounds. */
+    public void testFieldAccess() {
+        final CheckinTokenizer tokenizer = tokenize("uid,,caf\u00e9", ',', true);
+        assertTrue(tokenizer.fieldEquals(0, "uid"));
+        assertFalse(tokenizer.fieldEquals(0, "ui"));
+        assertFalse(tokenizer.fieldEquals(0, "uix"));
+        assertTrue(tokenizer.fieldEquals(1, ""));
+        assertEquals(0, tokenizer.getFieldLength(1));
+        assertEquals('d', tokenizer.charAt(0, 2));
+        assertEquals("caf\u00e9", tokenizer.getField(2));
+        assertEquals(5, tokenizer.getFieldLength(2));
+
+        try {
+            tokenizer.getField(3);
+            fail("Read past the last field");
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+        try {
+            tokenizer.getLong(-1);
+            fail("Read a negative field");
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+        try {
+            tokenizer.charAt(0, 3);
+            fail("Read past the end of a field");
+        } catch (StringIndexOutOfBoundsException expected) {
+        }
+    }
+
+    /** Test that getLong agrees with Long.parseLong, including its failures. */
+    public void testGetLong() {
+        final String[] fields = {
+            "0", "-0", "+7", "42", "-42", "007",
+            Long.toString(Long.MAX_VALUE), Long.toString(Long.MIN_VALUE),
+            "9223372036854775808", "-9223372036854775809", "99999999999999999999",
+            "", "-", "+", "1.5", "1e3", " 1", "1 ", "0x10", "--1", "abc",
+        };
+        final CheckinTokenizer tokenizer = tokenize(String.join(",", fields), ',', true);
+        for (int i = 0; i < fields.length; i++) {
+            Long expected;
+            try {
+                expected = Long.parseLong(fields[i]);
+            } catch (NumberFormatException e) {
+                expected = null;
+            }
+            try {
+                final long actual = tokenizer.getLong(i);
+                assertNotNull("Parsed \"" + fields[i] + "\"", expected);
+                assertEquals(fields[i], expected.longValue(), actual);
+            } catch (NumberFormatException e) {
+                assertNull("Failed to parse \"" + fields[i] + "\"", expected);
+            }
+        }
+    }
+
+    /** Test that getDouble agrees bit for bit with Double.parseDouble, including its failures. */
+    public void testGetDouble() {
+        final String[] fields = {
+            "0", "-0", "-0.0", "1", "0.1", "0.3", "-2.5", "+3.25", "1.", ".5", "100.125",
+            "123456789012345", "0.123456789012345", "1234567890123456789", "0.1234567890123456",
+            "1e3", "-2.5E-3", "NaN", "Infinity", "-Infinity", "0x1p3",
+            "", "-", ".", "1.2.3", "abc", "1,5",
+        };
+        final CheckinTokenizer tokenizer = tokenize(String.join(";", fields), ';', true);
+        for (int i = 0; i < fields.length; i++) {
+            Double expected;
+            try {
+                expected = Double.parseDouble(fields[i]);
+            } catch (NumberFormatException e) {
+                expected = null;
+            }
+            try {
+                final double actual = tokenizer.getDouble(i);
+                assertNotNull("Parsed \"" + fields[i] + "\"", expected);
+                assertEquals(fields[i], Double.doubleToRawLongBits(expected),
+                        Double.doubleToRawLongBits(actual));
+            } catch (NumberFormatException e) {
+                assertNull("Failed to parse \"" + fields[i] + "\"", expected);
+            }
+        }
+    }
+
+    public void testIndexOf() {
+        final byte[] data = bytes("abc,dumpsys,abc");
+        assertEquals(0, CheckinTokenizer.indexOf(data, "abc", 0));
+        assertEquals(0, CheckinTokenizer.indexOf(data, "abc", -5));
+        assertEquals(12, CheckinTokenizer.indexOf(data, "abc", 1));
+        assertEquals(4, CheckinTokenizer.indexOf(data, "dumpsys", 0));
+        assertEquals(-1, CheckinTokenizer.indexOf(data, "abcd", 0));
+        assertEquals(-1, CheckinTokenizer.indexOf(data, "abc", 13));
+    }
+
+    /** Test tag lookup, including across the growth of the hash table. */
+    public void testTags() {
+        final CheckinTokenizer.Tags tags = new CheckinTokenizer.Tags();
+        tags.add(0, "vers");
+        tags.add(3, "uid", "u");
+        assertEquals(4, tags.size());
+        assertEquals(0, tags.idOf("vers"));
+        assertEquals(3, tags.idOf("uid"));
+        assertEquals(3, tags.idOf("u"));
+        assertEquals(-1, tags.idOf("ui"));
+        assertEquals(-1, tags.idOf(""));
+
+        // Far more tags than the initial table, with many hash collisions of short keys.
+        for (int i = 0; i < 500; i++) {
+            tags.add(10 + i, "t" + i);
+        }
+        assertEquals(510, tags.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(10 + i, tags.idOf("t" + i));
+        }
+        assertEquals(0, tags.idOf("vers"));
+        assertEquals(-1, tags.idOf("t500"));
+
+        final CheckinTokenizer tokenizer = tokenize("9,0,l,vers,t42,,uid", ',', true);
+        assertEquals(-1, tags.idOf(tokenizer, 2));
+        assertEquals(0, tags.idOf(tokenizer, 3));
+        assertEquals(52, tags.idOf(tokenizer, 4));
+        assertEquals(-1, tags.idOf(tokenizer, 5));
+        assertEquals(3, tags.idOf(tokenizer, 6));
+
+        try {
+            tags.add(1, "uid");
+            fail("Added a duplicate tag");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            tags.add(-1, "neg");
+            fail("Added a negative id");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertFields(String[] expected, CheckinTokenizer tokenizer) {
+        final String[] actual = new String[tokenizer.getFieldCount()];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = tokenizer.getField(i);
+        }
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    private static CheckinTokenizer tokenize(String line, char separator,
+            boolean keepTrailingEmptyFields) {
+        final byte[] data = bytes(line);
+        final CheckinTokenizer tokenizer =
+                new CheckinTokenizer(data, 0, data.length, separator, keepTrailingEmptyFields);
+        tokenizer.tokenize(0, data.length);
+        return tokenizer;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -18,10 +18,6 @@ package android.dumpsys.cts;
 
 import com.android.tradefed.log.LogUtil.CLog;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,6 +42,39 @@ public class ProcessStatsDumpsysTest extends BaseDumpsysTest {
      */
     private static final double DURATION_TIME_MAX_FACTOR = 2;
 
+    // Line tags of the checkin output, interned for checkProcStateOutput().
+    private static final int TAG_VERSION = 0;
+    private static final int TAG_PERIOD = 1;
+    private static final int TAG_PKG_PROC = 2;
+    private static final int TAG_PKG_PSS = 3;
+    private static final int TAG_PKG_SVC = 4;
+    private static final int TAG_PKG_KILLS = 5;
+    private static final int TAG_PROC = 6;
+    private static final int TAG_PSS = 7;
+    private static final int TAG_KILLS = 8;
+    private static final int TAG_TOTAL = 9;
+    private static final int TAG_WEIGHTS = 10;
+    private static final int TAG_AVAILABLE_PAGES = 11;
+
+    private static final CheckinTokenizer.Tags TAGS = new CheckinTokenizer.Tags();
+    private static final CheckinTokenizer.Tags PERIOD_FLAGS = new CheckinTokenizer.Tags();
+    static {
+        TAGS.add(TAG_VERSION, "vers");
+        TAGS.add(TAG_PERIOD, "period");
+        TAGS.add(TAG_PKG_PROC, "pkgproc");
+        TAGS.add(TAG_PKG_PSS, "pkgpss");
+        TAGS.add(TAG_PKG_SVC, "pkgsvc-bound", "pkgsvc-exec", "pkgsvc-run", "pkgsvc-start");
+        TAGS.add(TAG_PKG_KILLS, "pkgkills");
+        TAGS.add(TAG_PROC, "proc");
+        TAGS.add(TAG_PSS, "pss");
+        TAGS.add(TAG_KILLS, "kills");
+        TAGS.add(TAG_TOTAL, "total");
+        TAGS.add(TAG_WEIGHTS, "weights");
+        TAGS.add(TAG_AVAILABLE_PAGES, "availablepages");
+
+        PERIOD_FLAGS.add(0, "shutdown", "sysprops", "complete", "partial", "swapped-out-pss");
+    }
+
     /**
      * Tests the output of "dumpsys procstats -c". This is a proxy for testing "dumpsys procstats
      * --checkin", since the latter is not idempotent.
@@ -57,24 +86,24 @@ public class ProcessStatsDumpsysTest extends BaseDumpsysTest {
         // First, run the helper app so that we have some interesting records in the output.
         checkWithProcStatsApp();
 
-        String procstats = mDevice.executeShellCommand("dumpsys procstats -c");
+        byte[] procstats = execCommandBytes("dumpsys procstats -c");
         assertNotNull(procstats);
-        assertTrue(procstats.length() > 0);
+        assertTrue(procstats.length > 0);
 
-        final int sep24h = procstats.indexOf("AGGREGATED OVER LAST 24 HOURS:");
-        final int sep3h = procstats.indexOf("AGGREGATED OVER LAST 3 HOURS:");
+        final int sep24h = CheckinTokenizer.indexOf(procstats, "AGGREGATED OVER LAST 24 HOURS:", 0);
+        final int sep3h = CheckinTokenizer.indexOf(procstats, "AGGREGATED OVER LAST 3 HOURS:", 0);
 
         assertTrue("24 hour stats not found.", sep24h > 1);
         assertTrue("3 hour stats not found.", sep3h > 1);
 
         // Current
-        checkProcStateOutput(procstats.substring(0, sep24h), /*checkAvg=*/ true);
+        checkProcStateOutput(procstats, 0, sep24h, /*checkAvg=*/ true);
 
         // Last 24 hours
-        checkProcStateOutput(procstats.substring(sep24h, sep3h), /*checkAvg=*/ false);
+        checkProcStateOutput(procstats, sep24h, sep3h, /*checkAvg=*/ false);
 
         // Last 3 hours
-        checkProcStateOutput(procstats.substring(sep3h), /*checkAvg=*/ false);
+        checkProcStateOutput(procstats, sep3h, procstats.length, /*checkAvg=*/ false);
     }
 
     private static String[] commaSplit(String line) {
@@ -88,236 +117,236 @@ public class ProcessStatsDumpsysTest extends BaseDumpsysTest {
         return values;
     }
 
-    private void checkProcStateOutput(String text, boolean checkAvg) throws Exception {
-        final Set<String> seenTags = new HashSet<>();
-
-        try (BufferedReader reader = new BufferedReader(
-                new StringReader(text))) {
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty()) {
-                    continue;
-                }
-                CLog.d("Checking line: " + line);
-
-                String[] parts = commaSplit(line);
-                seenTags.add(parts[0]);
-
-                switch (parts[0]) {
-                    case "vers":
-                        assertEquals(2, parts.length);
-                        assertEquals(5, Integer.parseInt(parts[1]));
-                        break;
-                    case "period":
-                        checkPeriod(parts);
-                        break;
-                    case "pkgproc":
-                        checkPkgProc(parts);
-                        break;
-                    case "pkgpss":
-                        checkPkgPss(parts, checkAvg);
-                        break;
-                    case "pkgsvc-bound":
-                    case "pkgsvc-exec":
-                    case "pkgsvc-run":
-                    case "pkgsvc-start":
-                        checkPkgSvc(parts);
-                        break;
-                    case "pkgkills":
-                        checkPkgKills(parts, checkAvg);
-                        break;
-                    case "proc":
-                        checkProc(parts);
-                        break;
-                    case "pss":
-                        checkPss(parts, checkAvg);
-                        break;
-                    case "kills":
-                        checkKills(parts, checkAvg);
-                        break;
-                    case "total":
-                        checkTotal(parts);
-                        break;
-                    default:
-                        break;
-                }
+    private void checkProcStateOutput(byte[] procstats, int start, int end, boolean checkAvg)
+            throws Exception {
+        final boolean[] seenTags = new boolean[TAGS.size()];
+
+        // Like commaSplit(), keeps a trailing empty field.
+        final CheckinTokenizer parts = new CheckinTokenizer(procstats, start, end - start, ',',
+                /* keepTrailingEmptyFields= */ true);
+        final CheckinTokenizer subparts = parts.withSeparator(':',
+                /* keepTrailingEmptyFields= */ false);
+
+        while (parts.nextLine()) {
+            CLog.d("Checking line: " + parts.getLine());
+
+            final int tag = TAGS.idOf(parts, 0);
+            if (tag < 0) {
+                continue;
+            }
+            seenTags[tag] = true;
+
+            switch (tag) {
+                case TAG_VERSION:
+                    assertEquals(2, parts.getFieldCount());
+                    assertEquals(5, parts.getLong(1));
+                    break;
+                case TAG_PERIOD:
+                    checkPeriod(parts);
+                    break;
+                case TAG_PKG_PROC:
+                    checkPkgProc(parts, subparts);
+                    break;
+                case TAG_PKG_PSS:
+                    checkPkgPss(parts, subparts, checkAvg);
+                    break;
+                case TAG_PKG_SVC:
+                    checkPkgSvc(parts, subparts);
+                    break;
+                case TAG_PKG_KILLS:
+                    checkPkgKills(parts, subparts, checkAvg);
+                    break;
+                case TAG_PROC:
+                    checkProc(parts, subparts);
+                    break;
+                case TAG_PSS:
+                    checkPss(parts, subparts, checkAvg);
+                    break;
+                case TAG_KILLS:
+                    checkKills(parts, subparts, checkAvg);
+                    break;
+                case TAG_TOTAL:
+                    checkTotal(parts, subparts);
+                    break;
+                default:
+                    break;
             }
         }
 
-        assertSeenTag(seenTags, "vers");
-        assertSeenTag(seenTags, "period");
-        assertSeenTag(seenTags, "pkgproc");
-        assertSeenTag(seenTags, "proc");
-        assertSeenTag(seenTags, "pss");
-        assertSeenTag(seenTags, "total");
-        assertSeenTag(seenTags, "weights");
-        assertSeenTag(seenTags, "availablepages");
+        assertSeenTag(TAGS, seenTags, "vers");
+        assertSeenTag(TAGS, seenTags, "period");
+        assertSeenTag(TAGS, seenTags, "pkgproc");
+        assertSeenTag(TAGS, seenTags, "proc");
+        assertSeenTag(TAGS, seenTags, "pss");
+        assertSeenTag(TAGS, seenTags, "total");
+        assertSeenTag(TAGS, seenTags, "weights");
+        assertSeenTag(TAGS, seenTags, "availablepages");
     }
 
-    private void checkPeriod(String[] parts) {
-        assertTrue("Length should be >= 5, found: " + parts.length,
-                parts.length >= 5);
-        assertNotNull(parts[1]); // date
-        assertLesserOrEqual(parts[2], parts[3]); // start time and end time (msec)
-        for (int i = 4; i < parts.length; i++) {
-            switch (parts[i]) {
-                case "shutdown":
-                case "sysprops":
-                case "complete":
-                case "partial":
-                case "swapped-out-pss":
-                    continue;
+    private void checkPeriod(CheckinTokenizer parts) {
+        assertTrue("Length should be >= 5, found: " + parts.getFieldCount(),
+                parts.getFieldCount() >= 5);
+        assertHasField(parts, 1); // date
+        assertLesserOrEqual(parts, 2, 3); // start time and end time (msec)
+        for (int i = 4; i < parts.getFieldCount(); i++) {
+            if (PERIOD_FLAGS.idOf(parts, i) < 0) {
+                fail("Invalid value '" + parts.getField(i) + "' found.");
             }
-            fail("Invalid value '" + parts[i] + "' found.");
         }
     }
 
-    private void checkPkgProc(String[] parts) {
+    /** Splits a field of parts into subparts. */
+    private static void split(CheckinTokenizer parts, int field, CheckinTokenizer subparts) {
+        subparts.tokenize(parts.getFieldStart(field), parts.getFieldEnd(field));
+    }
+
+    private void checkPkgProc(CheckinTokenizer parts, CheckinTokenizer subparts) {
         int statesStartIndex;
 
-        assertTrue(parts.length >= 5);
-        assertNotNull(parts[1]); // package name
-        assertNonNegativeInteger(parts[2]); // uid
-        assertNonNegativeInteger(parts[3]); // app version
-        assertNotNull(parts[4]); // process
+        assertTrue(parts.getFieldCount() >= 5);
+        assertHasField(parts, 1); // package name
+        assertNonNegativeInteger(parts, 2); // uid
+        assertNonNegativeInteger(parts, 3); // app version
+        assertHasField(parts, 4); // process
         statesStartIndex = 5;
 
-        for (int i = statesStartIndex; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(2, subparts.length);
-            checkTag(subparts[0], true); // tag
-            assertNonNegativeInteger(subparts[1]); // duration (msec)
+        for (int i = statesStartIndex; i < parts.getFieldCount(); i++) {
+            split(parts, i, subparts);
+            assertEquals(2, subparts.getFieldCount());
+            checkTag(subparts, true); // tag
+            assertNonNegativeInteger(subparts, 1); // duration (msec)
         }
     }
 
-    private void checkTag(String tag, boolean hasProcess) {
-        assertEquals(hasProcess ? 3 : 2, tag.length());
+    /** Checks the tag in the first field of subparts. */
+    private void checkTag(CheckinTokenizer subparts, boolean hasProcess) {
+        assertEquals(hasProcess ? 3 : 2, subparts.getFieldLength(0));
 
         // screen: 0 = off, 1 = on
-        char s = tag.charAt(0);
+        char s = subparts.charAt(0, 0);
         if (s != '0' && s != '1') {
-            fail("malformed tag: " + tag);
+            fail("malformed tag: " + subparts.getField(0));
         }
 
         // memory: n = normal, m = moderate, l = low, c = critical
-        char m = tag.charAt(1);
+        char m = subparts.charAt(0, 1);
         if (m != 'n' && m != 'm' && m != 'l' && m != 'c') {
-            fail("malformed tag: " + tag);
+            fail("malformed tag: " + subparts.getField(0));
         }
 
         if (hasProcess) {
-            char p = tag.charAt(2);
-            assertTrue("malformed tag: " + tag, "ptfbuwsxrhlace".indexOf(p) >= 0);
+            char p = subparts.charAt(0, 2);
+            if ("ptfbuwsxrhlace".indexOf(p) < 0) {
+                fail("malformed tag: " + subparts.getField(0));
+            }
         }
     }
 
-    private void checkPkgPss(String[] parts, boolean checkAvg) {
+    private void checkPkgPss(CheckinTokenizer parts, CheckinTokenizer subparts,
+            boolean checkAvg) {
         int statesStartIndex;
 
-        assertTrue(parts.length >= 5);
-        assertNotNull(parts[1]); // package name
-        assertNonNegativeInteger(parts[2]); // uid
-        assertNonNegativeInteger(parts[3]); // app version
-        assertNotNull(parts[4]); // process
+        assertTrue(parts.getFieldCount() >= 5);
+        assertHasField(parts, 1); // package name
+        assertNonNegativeInteger(parts, 2); // uid
+        assertNonNegativeInteger(parts, 3); // app version
+        assertHasField(parts, 4); // process
         statesStartIndex = 5;
 
-        for (int i = statesStartIndex; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(8, subparts.length);
-            checkTag(subparts[0], true); // tag
-            assertNonNegativeInteger(subparts[1]); // sample size
-            assertMinAvgMax(subparts[2], subparts[3], subparts[4], checkAvg); // pss
-            assertMinAvgMax(subparts[5], subparts[6], subparts[7], checkAvg); // uss
+        for (int i = statesStartIndex; i < parts.getFieldCount(); i++) {
+            split(parts, i, subparts);
+            assertEquals(8, subparts.getFieldCount());
+            checkTag(subparts, true); // tag
+            assertNonNegativeInteger(subparts, 1); // sample size
+            assertMinAvgMax(subparts, 2, checkAvg); // pss
+            assertMinAvgMax(subparts, 5, checkAvg); // uss
         }
     }
 
-    private void checkPkgSvc(String[] parts) {
+    private void checkPkgSvc(CheckinTokenizer parts, CheckinTokenizer subparts) {
         int statesStartIndex;
 
-        assertTrue(parts.length >= 6);
-        assertNotNull(parts[1]); // package name
-        assertNonNegativeInteger(parts[2]); // uid
-        assertNonNegativeInteger(parts[3]); // app version
-        assertNotNull(parts[4]); // service name
-        assertNonNegativeInteger(parts[5]); // count
+        assertTrue(parts.getFieldCount() >= 6);
+        assertHasField(parts, 1); // package name
+        assertNonNegativeInteger(parts, 2); // uid
+        assertNonNegativeInteger(parts, 3); // app version
+        assertHasField(parts, 4); // service name
+        assertNonNegativeInteger(parts, 5); // count
         statesStartIndex = 6;
 
-        for (int i = statesStartIndex; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(2, subparts.length);
-            checkTag(subparts[0], false); // tag
-            assertNonNegativeInteger(subparts[1]); // duration (msec)
+        for (int i = statesStartIndex; i < parts.getFieldCount(); i++) {
+            split(parts, i, subparts);
+            assertEquals(2, subparts.getFieldCount());
+            checkTag(subparts, false); // tag
+            assertNonNegativeInteger(subparts, 1); // duration (msec)
         }
     }
 
-    private void checkPkgKills(String[] parts, boolean checkAvg) {
-        String pssStr;
-
-        assertEquals(9, parts.length);
-        assertNotNull(parts[1]); // package name
-        assertNonNegativeInteger(parts[2]); // uid
-        assertNonNegativeInteger(parts[3]); // app version
-        assertNotNull(parts[4]); // process
-        assertNonNegativeInteger(parts[5]); // wakes
-        assertNonNegativeInteger(parts[6]); // cpu
-        assertNonNegativeInteger(parts[7]); // cached
-        pssStr = parts[8];
-
-        String[] subparts = pssStr.split(":");
-        assertEquals(3, subparts.length);
-        assertMinAvgMax(subparts[0], subparts[1], subparts[2], checkAvg); // pss
+    private void checkPkgKills(CheckinTokenizer parts, CheckinTokenizer subparts,
+            boolean checkAvg) {
+        assertEquals(9, parts.getFieldCount());
+        assertHasField(parts, 1); // package name
+        assertNonNegativeInteger(parts, 2); // uid
+        assertNonNegativeInteger(parts, 3); // app version
+        assertHasField(parts, 4); // process
+        assertNonNegativeInteger(parts, 5); // wakes
+        assertNonNegativeInteger(parts, 6); // cpu
+        assertNonNegativeInteger(parts, 7); // cached
+
+        split(parts, 8, subparts);
+        assertEquals(3, subparts.getFieldCount());
+        assertMinAvgMax(subparts, 0, checkAvg); // pss
     }
 
-    private void checkProc(String[] parts) {
-        assertTrue(parts.length >= 3);
-        assertNotNull(parts[1]); // package name
-        assertNonNegativeInteger(parts[2]); // uid
+    private void checkProc(CheckinTokenizer parts, CheckinTokenizer subparts) {
+        assertTrue(parts.getFieldCount() >= 3);
+        assertHasField(parts, 1); // package name
+        assertNonNegativeInteger(parts, 2); // uid
 
-        for (int i = 3; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(2, subparts.length);
-            checkTag(subparts[0], true); // tag
-            assertNonNegativeInteger(subparts[1]); // duration (msec)
+        for (int i = 3; i < parts.getFieldCount(); i++) {
+            split(parts, i, subparts);
+            assertEquals(2, subparts.getFieldCount());
+            checkTag(subparts, true); // tag
+            assertNonNegativeInteger(subparts, 1); // duration (msec)
         }
     }
 
-    private void checkPss(String[] parts, boolean checkAvg) {
-        assertTrue(parts.length >= 3);
-        assertNotNull(parts[1]); // package name
-        assertNonNegativeInteger(parts[2]); // uid
-
-        for (int i = 3; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            assertEquals(8, subparts.length);
-            checkTag(subparts[0], true); // tag
-            assertNonNegativeInteger(subparts[1]); // sample size
-            assertMinAvgMax(subparts[2], subparts[3], subparts[4], checkAvg); // pss
-            assertMinAvgMax(subparts[5], subparts[6], subparts[7], checkAvg); // uss
+    private void checkPss(CheckinTokenizer parts, CheckinTokenizer subparts, boolean checkAvg) {
+        assertTrue(parts.getFieldCount() >= 3);
+        assertHasField(parts, 1); // package name
+        assertNonNegativeInteger(parts, 2); // uid
+
+        for (int i = 3; i < parts.getFieldCount(); i++) {
+            split(parts, i, subparts);
+            assertEquals(8, subparts.getFieldCount());
+            checkTag(subparts, true); // tag
+            assertNonNegativeInteger(subparts, 1); // sample size
+            assertMinAvgMax(subparts, 2, checkAvg); // pss
+            assertMinAvgMax(subparts, 5, checkAvg); // uss
         }
     }
 
-    private void checkKills(String[] parts, boolean checkAvg) {
-        assertEquals(7, parts.length);
-        assertNotNull(parts[1]); // package name
-        assertNonNegativeInteger(parts[2]); // uid
-        assertNonNegativeInteger(parts[3]); // wakes
-        assertNonNegativeInteger(parts[4]); // cpu
-        assertNonNegativeInteger(parts[5]); // cached
-        String pssStr = parts[6];
-
-        String[] subparts = pssStr.split(":");
-        assertEquals(3, subparts.length);
-        assertMinAvgMax(subparts[0], subparts[1], subparts[2], checkAvg); // pss
+    private void checkKills(CheckinTokenizer parts, CheckinTokenizer subparts,
+            boolean checkAvg) {
+        assertEquals(7, parts.getFieldCount());
+        assertHasField(parts, 1); // package name
+        assertNonNegativeInteger(parts, 2); // uid
+        assertNonNegativeInteger(parts, 3); // wakes
+        assertNonNegativeInteger(parts, 4); // cpu
+        assertNonNegativeInteger(parts, 5); // cached
+
+        split(parts, 6, subparts);
+        assertEquals(3, subparts.getFieldCount());
+        assertMinAvgMax(subparts, 0, checkAvg); // pss
     }
 
-    private void checkTotal(String[] parts) {
-        assertTrue(parts.length >= 2);
-        for (int i = 1; i < parts.length; i++) {
-            String[] subparts = parts[i].split(":");
-            checkTag(subparts[0], false); // tag
+    private void checkTotal(CheckinTokenizer parts, CheckinTokenizer subparts) {
+        assertTrue(parts.getFieldCount() >= 2);
+        for (int i = 1; i < parts.getFieldCount(); i++) {
+            split(parts, i, subparts);
+            checkTag(subparts, false); // tag
 
-            assertNonNegativeInteger(subparts[1]); // duration (msec)
+            assertNonNegativeInteger(subparts, 1); // duration (msec)
         }
     }
 
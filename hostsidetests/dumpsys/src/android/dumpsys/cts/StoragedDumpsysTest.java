@@ -18,8 +18,6 @@ package android.dumpsys.cts;
 
 import com.android.compatibility.common.tradefed.build.CompatibilityBuildHelper;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
 import java.util.Date;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -90,70 +88,63 @@ public class StoragedDumpsysTest extends BaseDumpsysTest {
                 "com.android.server.cts.storaged.StoragedTest",
                 "testForegroundIO");
 
-        String output = mDevice.executeShellCommand("dumpsys storaged --force --hours 0.01");
+        byte[] output = execCommandBytes("dumpsys storaged --force --hours 0.01");
         assertNotNull(output);
-        assertTrue(output.length() > 0);
+        assertTrue(output.length > 0);
 
         boolean hasTestIO = false;
-        try (BufferedReader reader = new BufferedReader(
-                new StringReader(output))) {
-
-            String line;
-            String[] parts;
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty()) {
-                    continue;
-                }
-
-                if (line.contains(",")) {
-                    parts = line.split(",");
-                    assertTrue(parts.length == 2);
-                    if (!parts[0].isEmpty()) {
-                        assertInteger(parts[0]);
-                    }
-                    assertInteger(parts[1]);
-                    continue;
+        // Like String#split(String), drops trailing empty fields.
+        CheckinTokenizer lines = new CheckinTokenizer(output, 0, output.length, ',',
+                /* keepTrailingEmptyFields= */ false);
+        CheckinTokenizer parts = lines.withSeparator(' ', /* keepTrailingEmptyFields= */ false);
+        while (lines.nextLine()) {
+            if (lines.getFieldCount() > 1) {
+                assertTrue(lines.getFieldCount() == 2);
+                if (lines.getFieldLength(0) > 0) {
+                    assertInteger(lines, 0);
                 }
+                assertInteger(lines, 1);
+                continue;
+            }
 
-                parts = line.split(" ");
-                assertTrue(parts.length == 9);
-                for (int i = 1; i < parts.length; i++) {
-                    assertInteger(parts[i]);
-                }
+            parts.tokenize(lines.getFieldStart(0), lines.getFieldEnd(0));
+            assertTrue(parts.getFieldCount() == 9);
+            for (int i = 1; i < parts.getFieldCount(); i++) {
+                assertInteger(parts, i);
+            }
 
-                if (parts[0].equals(DEVICE_SIDE_TEST_PACKAGE)) {
-                    /*
-                     * order of parts in StoragedService::dumpUidRecords
-                     *  [0] DEVICE_SIDE_TEST_PACKAGE
-                     *  [1] read foreground charger_off
-                     *  [2] write foreground charger_off
-                     *  [3] read background charger_off
-                     *  [4] write background charger_off
-                     *  [5] read foreground charger_on
-                     *  [6] write foreground charger_on
-                     *  [7] read background charger_on
-                     *  [8] write background charger_on
-                     */
-                    if ((Integer.parseInt(parts[6]) >= 8192 && Integer.parseInt(parts[8]) == 0) ||
-                        (Integer.parseInt(parts[2]) >= 8192 && Integer.parseInt(parts[4]) == 0)) {
-                        System.out.print("WARNING: Background I/O was attributed to the "
-                                + "foreground. This could indicate a broken or malfunctioning "
-                                + "ActivityManager or UsageStatsService.\n");
-                    } else if ((Integer.parseInt(parts[2]) >= 4096 && Integer.parseInt(parts[4]) >= 4096) ||
-                                    Integer.parseInt(parts[4]) >= 8192) {
-                        System.out.print("WARNING: charger on I/O was attributed to "
-                                + "charger off. This could indicate a broken or malfunctioning "
-                                + "ADB USB connection, or device that refuses to charge at the "
-                                + "typical 500mA because it is less than 0.05C.\n");
-                    } else {
-                        assertTrue((Integer.parseInt(parts[6]) >= 4096 && Integer.parseInt(parts[8]) >= 4096) ||
-                                    Integer.parseInt(parts[8]) >= 8192);
-                    }
-                    hasTestIO = true;
+            if (parts.fieldEquals(0, DEVICE_SIDE_TEST_PACKAGE)) {
+                /*
+                 * order of parts in StoragedService::dumpUidRecords
+                 *  [0] DEVICE_SIDE_TEST_PACKAGE
+                 *  [1] read foreground charger_off
+                 *  [2] write foreground charger_off
+                 *  [3] read background charger_off
+                 *  [4] write background charger_off
+                 *  [5] read foreground charger_on
+                 *  [6] write foreground charger_on
+                 *  [7] read background charger_on
+                 *  [8] write background charger_on
+                 */
+                if ((parts.getLong(6) >= 8192 && parts.getLong(8) == 0) ||
+                    (parts.getLong(2) >= 8192 && parts.getLong(4) == 0)) {
+                    System.out.print("WARNING: Background I/O was attributed to the "
+                            + "foreground. This could indicate a broken or malfunctioning "
+                            + "ActivityManager or UsageStatsService.\n");
+                } else if ((parts.getLong(2) >= 4096 && parts.getLong(4) >= 4096) ||
+                                parts.getLong(4) >= 8192) {
+                    System.out.print("WARNING: charger on I/O was attributed to "
+                            + "charger off. This could indicate a broken or malfunctioning "
+                            + "ADB USB connection, or device that refuses to charge at the "
+                            + "typical 500mA because it is less than 0.05C.\n");
+                } else {
+                    assertTrue((parts.getLong(6) >= 4096 && parts.getLong(8) >= 4096) ||
+                                parts.getLong(8) >= 8192);
                 }
+                hasTestIO = true;
             }
-
-            assertTrue(hasTestIO);
         }
+
+        assertTrue(hasTestIO);
     }
 }
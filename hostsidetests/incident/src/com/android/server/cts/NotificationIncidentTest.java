@@ -96,7 +96,7 @@ public class NotificationIncidentTest extends ProtoDumpTestCase {
 
     /** Test valid values from the RankingHelper. */
     public void testRankingConfig() throws Exception {
-        final NotificationServiceDumpProto dump = getDump(NotificationServiceDumpProto.parser(),
+        final NotificationServiceDumpProto dump = getCachedDump(NotificationServiceDumpProto.parser(),
                 "dumpsys notification --proto");
 
         verifyRankingHelperProto(dump.getRankingConfig(), PRIVACY_NONE);
@@ -126,7 +126,7 @@ public class NotificationIncidentTest extends ProtoDumpTestCase {
 
     // Tests default state: zen mode is a valid/expected value
     public void testZenMode() throws Exception {
-        final NotificationServiceDumpProto dump = getDump(NotificationServiceDumpProto.parser(),
+        final NotificationServiceDumpProto dump = getCachedDump(NotificationServiceDumpProto.parser(),
                 "dumpsys notification --proto");
 
         verifyZenModeProto(dump.getZen(), PRIVACY_NONE);
@@ -21,7 +21,6 @@ import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
 import com.android.ddmlib.testrunner.TestResult.TestStatus;
 import com.android.tradefed.build.IBuildInfo;
-import com.android.tradefed.device.CollectingByteOutputReceiver;
 import com.android.tradefed.device.CollectingOutputReceiver;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.log.LogUtil.CLog;
@@ -37,7 +36,12 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.MessageLite;
 import com.google.protobuf.Parser;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -72,11 +76,32 @@ public class ProtoDumpTestCase extends DeviceTestCase implements IBuildReceiver
 
     private static final String TEST_RUNNER = "androidx.test.runner.AndroidJUnitRunner";
 
+    /**
+     * System property naming a directory of recorded dumps. When set, {@link #getDump} parses
+     * the file named {@link #getFixtureName}(command) from it, if it exists, instead of running
+     * the command on the device.
+     */
+    public static final String FIXTURE_DIR_PROPERTY = "cts.incident.dump.fixtures";
+
+    /**
+     * Dumps parsed by {@link #getCachedDump}, shared by the tests of a class while the device
+     * state epoch does not change.
+     */
+    private static final Map<String, MessageLite> sDumpCache = new HashMap<>();
+    private static String sDumpCacheClass;
+    private static int sDumpEpoch;
+
     @Override
     protected void setUp() throws Exception {
         super.setUp();
 
         assertNotNull(mCtsBuild);
+        synchronized (sDumpCache) {
+            if (!getClass().getName().equals(sDumpCacheClass)) {
+                sDumpCacheClass = getClass().getName();
+                invalidateDumps();
+            }
+        }
     }
 
     @Override
@@ -97,9 +122,72 @@ public class ProtoDumpTestCase extends DeviceTestCase implements IBuildReceiver
      *      the proto. Note that a 0 length buffer is not necessarily an error.
      */
     public <T extends MessageLite> T getDump(Parser<T> parser, String command) throws Exception {
-        final CollectingByteOutputReceiver receiver = new CollectingByteOutputReceiver();
-        getDevice().executeShellCommand(command, receiver);
-        return parser.parseFrom(receiver.getOutput());
+        final File fixture = getFixture(command);
+        if (fixture != null) {
+            CLog.d("Replaying " + fixture + " for \"" + command + "\"");
+            try (InputStream in = new BufferedInputStream(new FileInputStream(fixture))) {
+                return StreamingProtoReceiver.parse(parser, in);
+            }
+        }
+
+        final StreamingProtoReceiver<T> receiver = new StreamingProtoReceiver<>(parser);
+        try {
+            getDevice().executeShellCommand(command, receiver);
+        } catch (Exception e) {
+            receiver.cancel();
+            throw e;
+        }
+        return receiver.getResult();
+    }
+
+    /**
+     * Like {@link #getDump}, but returns the dump parsed earlier in this test class for the same
+     * command and parser, unless the device state epoch changed since. Callers must not use it
+     * for state they changed without calling {@link #invalidateDumps}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends MessageLite> T getCachedDump(Parser<T> parser, String command)
+            throws Exception {
+        final String key;
+        synchronized (sDumpCache) {
+            key = sDumpEpoch + "|" + getDevice().getSerialNumber() + "|"
+                    + parser.getClass().getName() + "|" + command;
+            final MessageLite cached = sDumpCache.get(key);
+            if (cached != null) {
+                return (T) cached;
+            }
+        }
+        final T dump = getDump(parser, command);
+        synchronized (sDumpCache) {
+            sDumpCache.put(key, dump);
+        }
+        return dump;
+    }
+
+    /**
+     * Starts a new device state epoch, dropping the dumps cached by {@link #getCachedDump}. Called
+     * when installing packages and running device side tests; tests that change the device state
+     * in other ways should call it too.
+     */
+    protected static void invalidateDumps() {
+        synchronized (sDumpCache) {
+            sDumpEpoch++;
+            sDumpCache.clear();
+        }
+    }
+
+    /** Returns the file name under which the output of a command is recorded. */
+    public static String getFixtureName(String command) {
+        return command.trim().replaceAll("[^A-Za-z0-9._-]+", "_") + ".pb";
+    }
+
+    private static File getFixture(String command) {
+        final String dir = System.getProperty(FIXTURE_DIR_PROPERTY);
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        final File fixture = new File(dir, getFixtureName(command));
+        return fixture.isFile() ? fixture : null;
     }
 
     /**
@@ -111,6 +199,7 @@ public class ProtoDumpTestCase extends DeviceTestCase implements IBuildReceiver
     protected void installPackage(String appFileName, boolean grantPermissions)
             throws FileNotFoundException, DeviceNotAvailableException {
         CLog.d("Installing app " + appFileName);
+        invalidateDumps();
         CompatibilityBuildHelper buildHelper = new CompatibilityBuildHelper(mCtsBuild);
         final String result = getDevice().installPackage(
                 buildHelper.getTestFile(appFileName), true, grantPermissions);
@@ -128,6 +217,7 @@ public class ProtoDumpTestCase extends DeviceTestCase implements IBuildReceiver
     protected void runDeviceTests(@Nonnull String pkgName,
             @Nullable String testClassName, @Nullable String testMethodName)
             throws DeviceNotAvailableException {
+        invalidateDumps();
         if (testClassName != null && testClassName.startsWith(".")) {
             testClassName = pkgName + testClassName;
         }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.cts;
+
+import com.android.ddmlib.IShellOutputReceiver;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shell output receiver that parses a proto while the output arrives.
+ *
+ * <p>Output chunks are handed to a parser thread through a bounded queue and read with a
+ * {@link CodedInputStream}, so a dump is never held in memory as a whole, and parsing overlaps
+ * with the transfer from the device.
+ */
+public class StreamingProtoReceiver<T extends MessageLite> implements IShellOutputReceiver {
+    /** Number of output chunks that may be queued ahead of the parser. */
+    private static final int MAX_PENDING_CHUNKS = 64;
+
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> mChunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+    private final FutureTask<T> mResult;
+    private volatile boolean mCancelled;
+    private boolean mFinished;
+
+    public StreamingProtoReceiver(final Parser<T> parser) {
+        mResult = new FutureTask<>(() -> parse(parser, new ChunkInputStream()));
+        final Thread thread = new Thread(mResult, "StreamingProtoReceiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Parses a proto of unbounded size from a stream.
+     */
+    public static <T extends MessageLite> T parse(Parser<T> parser, InputStream in)
+            throws InvalidProtocolBufferException {
+        final CodedInputStream coded = CodedInputStream.newInstance(in);
+        coded.setSizeLimit(Integer.MAX_VALUE);
+        return parser.parseFrom(coded);
+    }
+
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+        if (mCancelled || length == 0) {
+            return;
+        }
+        // The caller reuses its buffer.
+        final byte[] chunk = new byte[length];
+        System.arraycopy(data, offset, chunk, 0, length);
+        put(chunk);
+    }
+
+    @Override
+    public void flush() {
+        if (!mFinished) {
+            mFinished = true;
+            put(END);
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void put(byte[] chunk) {
+        try {
+            while (!mCancelled && !mResult.isDone()) {
+                if (mChunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mCancelled = true;
+        }
+    }
+
+    /**
+     * Waits for the end of the output and returns the parsed proto.
+     *
+     * @throws InvalidProtocolBufferException If there was an error parsing the proto.
+     */
+    public T getResult() throws InvalidProtocolBufferException, InterruptedException {
+        // The command may have ended without a flush, e.g. on a device error.
+        flush();
+        try {
+            return mResult.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InvalidProtocolBufferException) {
+                throw (InvalidProtocolBufferException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Stops receiving, and makes the parser fail if it is still waiting for output. */
+    public void cancel() {
+        mCancelled = true;
+        mResult.cancel(true);
+    }
+
+    /** Reads the queued chunks in order, until the end marker. */
+    private class ChunkInputStream extends InputStream {
+        private byte[] mChunk = new byte[0];
+        private int mPosition;
+
+        /** Returns false at the end of the output. */
+        private boolean fill() throws IOException {
+            while (mPosition == mChunk.length) {
+                if (mChunk == END) {
+                    return false;
+                }
+                try {
+                    mChunk = mChunks.take();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while waiting for shell output", e);
+                }
+                mPosition = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? mChunk[mPosition++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int count = Math.min(len, mChunk.length - mPosition);
+            System.arraycopy(mChunk, mPosition, b, off, count);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mChunk.length - mPosition;
+        }
+    }
+}
@@ -52,7 +52,6 @@ import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -180,28 +179,26 @@ public class AtomTestCase extends BaseTestCase {
 
     /** Gets the statsd report and sorts it. Note that this also deletes that report from statsd. */
     protected List<EventMetricData> getEventMetricDataList() throws Exception {
-        ConfigMetricsReportList reportList = getReportList();
-        assertTrue("Expected one report", reportList.getReportsCount() == 1);
-        ConfigMetricsReport report = reportList.getReports(0);
+        ReportCache reports = getReportCache();
+        assertTrue("Expected one report", reports.getReports().size() == 1);
 
-        List<EventMetricData> data = new ArrayList<>();
-        for (StatsLogReport metric : report.getMetricsList()) {
-            data.addAll(metric.getEventMetrics().getDataList());
-        }
-        data.sort(Comparator.comparing(EventMetricData::getElapsedTimestampNanos));
+        List<EventMetricData> data = new ArrayList<>(reports.getEventMetricDataList());
+        logEventMetricData(data);
+        return data;
+    }
 
+    private static void logEventMetricData(List<EventMetricData> data) {
         LogUtil.CLog.d("Get EventMetricDataList as following:\n");
         for (EventMetricData d : data) {
             LogUtil.CLog.d("Atom at " + d.getElapsedTimestampNanos() + ":\n" + d.getAtom().toString());
         }
-        return data;
     }
 
     protected List<Atom> getGaugeMetricDataList() throws Exception {
-        ConfigMetricsReportList reportList = getReportList();
-        assertTrue(reportList.getReportsCount() == 1);
+        ReportCache reports = getReportCache();
+        assertTrue(reports.getReports().size() == 1);
         // only config
-        ConfigMetricsReport report = reportList.getReports(0);
+        ConfigMetricsReport report = reports.getReports().get(0);
 
         List<Atom> data = new ArrayList<>();
         for (GaugeMetricData gaugeMetricData :
@@ -219,9 +216,9 @@ public class AtomTestCase extends BaseTestCase {
     }
 
     protected StatsLogReport getStatsLogReport() throws Exception {
-        ConfigMetricsReportList reportList = getReportList();
-        assertTrue(reportList.getReportsCount() == 1);
-        ConfigMetricsReport report = reportList.getReports(0);
+        ReportCache reports = getReportCache();
+        assertTrue(reports.getReports().size() == 1);
+        ConfigMetricsReport report = reports.getReports().get(0);
         assertTrue(report.hasUidMap());
         assertEquals(1, report.getMetricsCount());
         return report.getMetrics(0);
@@ -230,18 +227,52 @@ public class AtomTestCase extends BaseTestCase {
     /** Gets the statsd report. Note that this also deletes that report from statsd. */
     protected ConfigMetricsReportList getReportList() throws Exception {
         try {
-            ConfigMetricsReportList reportList = getDump(ConfigMetricsReportList.parser(),
-                    String.join(" ", DUMP_REPORT_CMD, String.valueOf(CONFIG_ID),
-                            "--proto"));
-            return reportList;
+            return ConfigMetricsReportList.parseFrom(getReportBytes());
+        } catch (com.google.protobuf.InvalidProtocolBufferException e) {
+            logReportParseFailure();
+            throw (e);
+        }
+    }
+
+    /**
+     * Gets the statsd report, parsed once and indexed by atom id, uid and timestamp. Note that
+     * this also deletes that report from statsd.
+     */
+    protected ReportCache getReportCache() throws Exception {
+        try {
+            return ReportCache.parseFrom(getReportBytes());
         } catch (com.google.protobuf.InvalidProtocolBufferException e) {
-            LogUtil.CLog.e("Failed to fetch and parse the statsd output report. "
-                    + "Perhaps there is not a valid statsd config for the requested "
-                    + "uid=" + CONFIG_UID + ", id=" + CONFIG_ID + ".");
+            logReportParseFailure();
             throw (e);
         }
     }
 
+    /**
+     * Polls the statsd report with exponential backoff until it holds count events of the atom,
+     * or timeoutMs elapsed. Note that this also deletes the reports from statsd.
+     *
+     * @return the events of all the polled reports, sorted by elapsed timestamp
+     */
+    protected List<EventMetricData> waitForAtoms(int atomId, int count, long timeoutMs)
+            throws Exception {
+        ReportCache reports = ReportCache.waitForAtoms(this::getReportBytes, atomId, count,
+                timeoutMs);
+        List<EventMetricData> data = new ArrayList<>(reports.getEventMetricDataList());
+        logEventMetricData(data);
+        return data;
+    }
+
+    private byte[] getReportBytes() throws DeviceNotAvailableException {
+        return getDumpBytes(String.join(" ", DUMP_REPORT_CMD, String.valueOf(CONFIG_ID),
+                "--proto"));
+    }
+
+    private static void logReportParseFailure() {
+        LogUtil.CLog.e("Failed to fetch and parse the statsd output report. "
+                + "Perhaps there is not a valid statsd config for the requested "
+                + "uid=" + CONFIG_UID + ", id=" + CONFIG_ID + ".");
+    }
+
     protected BatteryStatsProto getBatteryStatsProto() throws Exception {
         try {
             BatteryStatsProto batteryStatsProto = getDump(BatteryStatsServiceDumpProto.parser(),
@@ -72,9 +72,21 @@ public class BaseTestCase extends DeviceTestCase implements IBuildReceiver {
      */
     public <T extends MessageLite> T getDump(Parser<T> parser, String command)
             throws DeviceNotAvailableException, InvalidProtocolBufferException {
+        return parser.parseFrom(getDumpBytes(command));
+    }
+
+    /**
+     * Call onto the device with an adb shell command and get its raw output.
+     *
+     * @param command The adb shell command to run. e.g. "dumpsys fingerprint --proto"
+     *
+     * @throws DeviceNotAvailableException If there was a problem communicating with
+     *      the test device.
+     */
+    public byte[] getDumpBytes(String command) throws DeviceNotAvailableException {
         final CollectingByteOutputReceiver receiver = new CollectingByteOutputReceiver();
         getDevice().executeShellCommand(command, receiver);
-        return parser.parseFrom(receiver.getOutput());
+        return receiver.getOutput();
     }
 
     /**
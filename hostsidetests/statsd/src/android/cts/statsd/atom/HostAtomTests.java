@@ -94,10 +94,9 @@ public class HostAtomTests extends AtomTestCase {
         turnScreenOn();
         Thread.sleep(WAIT_TIME_LONG);
         turnScreenOff();
-        Thread.sleep(WAIT_TIME_LONG);
 
         // Sorted list of events in order in which they occurred.
-        List<EventMetricData> data = getEventMetricDataList();
+        List<EventMetricData> data = waitForAtoms(atomTag, stateSet.size(), WAIT_TIME_LONG);
         // reset screen to on
         turnScreenOn();
         // Restores AoD to initial state.
@@ -145,10 +144,9 @@ public class HostAtomTests extends AtomTestCase {
         setChargingState(4);
         Thread.sleep(WAIT_TIME_SHORT);
         setChargingState(5);
-        Thread.sleep(WAIT_TIME_SHORT);
 
         // Sorted list of events in order in which they occurred.
-        List<EventMetricData> data = getEventMetricDataList();
+        List<EventMetricData> data = waitForAtoms(atomTag, stateSet.size(), WAIT_TIME_SHORT);
 
         // Unfreeze battery state after test
         resetBatteryStatus();
@@ -197,10 +195,9 @@ public class HostAtomTests extends AtomTestCase {
         plugInWireless();
         Thread.sleep(WAIT_TIME_SHORT);
         unplugDevice();
-        Thread.sleep(WAIT_TIME_SHORT);
 
         // Sorted list of events in order in which they occurred.
-        List<EventMetricData> data = getEventMetricDataList();
+        List<EventMetricData> data = waitForAtoms(atomTag, stateSet.size(), WAIT_TIME_SHORT);
 
         // Unfreeze battery state after test
         resetBatteryStatus();
@@ -244,10 +241,9 @@ public class HostAtomTests extends AtomTestCase {
         setBatteryLevel(75);
         Thread.sleep(WAIT_TIME_SHORT);
         setBatteryLevel(100);
-        Thread.sleep(WAIT_TIME_SHORT);
 
         // Sorted list of events in order in which they occurred.
-        List<EventMetricData> data = getEventMetricDataList();
+        List<EventMetricData> data = waitForAtoms(atomTag, stateSet.size(), WAIT_TIME_SHORT);
 
         // Unfreeze battery state after test
         resetBatteryStatus();
@@ -287,10 +283,9 @@ public class HostAtomTests extends AtomTestCase {
         enterDozeModeDeep();
         Thread.sleep(WAIT_TIME_SHORT);
         leaveDozeMode();
-        Thread.sleep(WAIT_TIME_SHORT);
 
         // Sorted list of events in order in which they occurred.
-        List<EventMetricData> data = getEventMetricDataList();;
+        List<EventMetricData> data = waitForAtoms(atomTag, stateSet.size(), WAIT_TIME_SHORT);
 
         // Assert that the events happened in the expected order.
         assertStatesOccurred(stateSet, data, WAIT_TIME_SHORT,
@@ -322,10 +317,9 @@ public class HostAtomTests extends AtomTestCase {
         turnBatterySaverOn();
         Thread.sleep(WAIT_TIME_LONG);
         turnBatterySaverOff();
-        Thread.sleep(WAIT_TIME_LONG);
 
         // Sorted list of events in order in which they occurred.
-        List<EventMetricData> data = getEventMetricDataList();
+        List<EventMetricData> data = waitForAtoms(atomTag, stateSet.size(), WAIT_TIME_LONG);
 
         // Assert that the events happened in the expected order.
         assertStatesOccurred(stateSet, data, WAIT_TIME_LONG,
@@ -463,9 +457,8 @@ public class HostAtomTests extends AtomTestCase {
         Thread.sleep(WAIT_TIME_SHORT);
 
         doAppBreadcrumbReportedStart(1);
-        Thread.sleep(WAIT_TIME_SHORT);
 
-        List<EventMetricData> data = getEventMetricDataList();
+        List<EventMetricData> data = waitForAtoms(atomTag, 1, WAIT_TIME_SHORT);
         AppBreadcrumbReported atom = data.get(0).getAtom().getAppBreadcrumbReported();
         assertTrue(atom.getLabel() == 1);
         assertTrue(atom.getState().getNumber() == AppBreadcrumbReported.State.START_VALUE);
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.cts.statsd.atom;
+
+import com.android.os.AtomsProto.Atom;
+import com.android.os.StatsLog.ConfigMetricsReport;
+import com.android.os.StatsLog.ConfigMetricsReportList;
+import com.android.os.StatsLog.EventMetricData;
+import com.android.os.StatsLog.StatsLogReport;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Statsd report data, parsed once and indexed for queries.
+ *
+ * <p>Event metric data is flattened and sorted by elapsed timestamp once, and indexed by atom id
+ * and by uid, so that queries do not walk the report again. Since dumping a report deletes it from
+ * statsd, successive dumps can be merged with {@link #add}; {@link #waitForAtoms} does so while
+ * polling.
+ *
+ * <p>Only depends on the report bytes, so it can be used with recorded reports on the host.
+ */
+public class ReportCache {
+    /** Source of successive serialized {@link ConfigMetricsReportList}s. */
+    public interface ReportSource {
+        byte[] fetch() throws Exception;
+    }
+
+    /** First interval between polls of {@link #waitForAtoms}. */
+    public static final long INITIAL_POLL_INTERVAL_MS = 50;
+    /** Longest interval between polls of {@link #waitForAtoms}. */
+    public static final long MAX_POLL_INTERVAL_MS = 1_000;
+
+    private static final Comparator<EventMetricData> BY_TIMESTAMP =
+            Comparator.comparingLong(EventMetricData::getElapsedTimestampNanos);
+
+    private final List<ConfigMetricsReport> mReports = new ArrayList<>();
+    private final List<EventMetricData> mEvents = new ArrayList<>();
+    private final Map<Integer, List<EventMetricData>> mEventsByAtomId = new HashMap<>();
+    private final Map<Integer, List<EventMetricData>> mEventsByUid = new HashMap<>();
+
+    public ReportCache() {
+    }
+
+    public ReportCache(ConfigMetricsReportList reportList) {
+        add(reportList);
+    }
+
+    /** Parses a serialized {@link ConfigMetricsReportList}. */
+    public static ReportCache parseFrom(byte[] reportListBytes)
+            throws InvalidProtocolBufferException {
+        return new ReportCache(ConfigMetricsReportList.parseFrom(reportListBytes));
+    }
+
+    /** Adds the data of a later dump, keeping the indices sorted by timestamp. */
+    public void add(ConfigMetricsReportList reportList) {
+        final List<EventMetricData> added = new ArrayList<>();
+        for (ConfigMetricsReport report : reportList.getReportsList()) {
+            mReports.add(report);
+            for (StatsLogReport metric : report.getMetricsList()) {
+                added.addAll(metric.getEventMetrics().getDataList());
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        added.sort(BY_TIMESTAMP);
+
+        final Map<Integer, List<EventMetricData>> addedByAtomId = new HashMap<>();
+        final Map<Integer, List<EventMetricData>> addedByUid = new HashMap<>();
+        for (EventMetricData data : added) {
+            final FieldDescriptor field = getAtomField(data.getAtom());
+            if (field == null) {
+                continue;
+            }
+            addedByAtomId.computeIfAbsent(field.getNumber(), k -> new ArrayList<>()).add(data);
+            final int uid = getUid((Message) data.getAtom().getField(field));
+            if (uid >= 0) {
+                addedByUid.computeIfAbsent(uid, k -> new ArrayList<>()).add(data);
+            }
+        }
+        merge(mEvents, added);
+        for (Map.Entry<Integer, List<EventMetricData>> e : addedByAtomId.entrySet()) {
+            merge(mEventsByAtomId.computeIfAbsent(e.getKey(), k -> new ArrayList<>()),
+                    e.getValue());
+        }
+        for (Map.Entry<Integer, List<EventMetricData>> e : addedByUid.entrySet()) {
+            merge(mEventsByUid.computeIfAbsent(e.getKey(), k -> new ArrayList<>()), e.getValue());
+        }
+    }
+
+    /**
+     * Merges sorted added into sorted list. Later dumps usually only hold later events, in which
+     * case this is an append.
+     */
+    private static void merge(List<EventMetricData> list, List<EventMetricData> added) {
+        if (list.isEmpty() || BY_TIMESTAMP.compare(list.get(list.size() - 1), added.get(0)) <= 0) {
+            list.addAll(added);
+            return;
+        }
+        final List<EventMetricData> merged = new ArrayList<>(list.size() + added.size());
+        int i = 0;
+        int j = 0;
+        while (i < list.size() && j < added.size()) {
+            // Ties keep the earlier dump first.
+            if (BY_TIMESTAMP.compare(added.get(j), list.get(i)) < 0) {
+                merged.add(added.get(j++));
+            } else {
+                merged.add(list.get(i++));
+            }
+        }
+        merged.addAll(list.subList(i, list.size()));
+        merged.addAll(added.subList(j, added.size()));
+        list.clear();
+        list.addAll(merged);
+    }
+
+    /** Returns the field of the atom set in an {@link Atom}, or {@code null} if none is. */
+    private static FieldDescriptor getAtomField(Atom atom) {
+        final Iterator<FieldDescriptor> fields = atom.getAllFields().keySet().iterator();
+        return fields.hasNext() ? fields.next() : null;
+    }
+
+    /** Returns the id of the atom set in an {@link Atom}, or 0 if none is. */
+    public static int getAtomId(Atom atom) {
+        final FieldDescriptor field = getAtomField(atom);
+        return field == null ? 0 : field.getNumber();
+    }
+
+    /**
+     * Returns the uid of an atom: its uid field, or the uid of the first node of its attribution
+     * chain. Returns -1 if it has neither.
+     */
+    private static int getUid(Message atom) {
+        final FieldDescriptor uid = atom.getDescriptorForType().findFieldByName("uid");
+        if (uid != null && !uid.isRepeated()
+                && uid.getJavaType() == FieldDescriptor.JavaType.INT) {
+            return atom.hasField(uid) ? (Integer) atom.getField(uid) : -1;
+        }
+        final FieldDescriptor chain =
+                atom.getDescriptorForType().findFieldByName("attribution_node");
+        if (chain != null && chain.isRepeated() && atom.getRepeatedFieldCount(chain) > 0) {
+            final Message node = (Message) atom.getRepeatedField(chain, 0);
+            final FieldDescriptor nodeUid = node.getDescriptorForType().findFieldByName("uid");
+            if (nodeUid != null && node.hasField(nodeUid)) {
+                return (Integer) node.getField(nodeUid);
+            }
+        }
+        return -1;
+    }
+
+    public List<ConfigMetricsReport> getReports() {
+        return Collections.unmodifiableList(mReports);
+    }
+
+    /** Returns all event metric data, sorted by elapsed timestamp. */
+    public List<EventMetricData> getEventMetricDataList() {
+        return Collections.unmodifiableList(mEvents);
+    }
+
+    /** Returns the event metric data of an atom, sorted by elapsed timestamp. */
+    public List<EventMetricData> getEvents(int atomId) {
+        final List<EventMetricData> events = mEventsByAtomId.get(atomId);
+        return events == null ? Collections.emptyList() : Collections.unmodifiableList(events);
+    }
+
+    /**
+     * Returns the event metric data of an atom with an elapsed timestamp in [startNs, endNs),
+     * sorted by elapsed timestamp.
+     */
+    public List<EventMetricData> getEvents(int atomId, long startNs, long endNs) {
+        final List<EventMetricData> events = getEvents(atomId);
+        return events.subList(lowerBound(events, startNs), lowerBound(events, endNs));
+    }
+
+    /** Returns the event metric data attributed to a uid, sorted by elapsed timestamp. */
+    public List<EventMetricData> getEventsForUid(int uid) {
+        final List<EventMetricData> events = mEventsByUid.get(uid);
+        return events == null ? Collections.emptyList() : Collections.unmodifiableList(events);
+    }
+
+    /** Returns the index of the first event at or after timestampNs. */
+    private static int lowerBound(List<EventMetricData> events, long timestampNs) {
+        int low = 0;
+        int high = events.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (events.get(mid).getElapsedTimestampNanos() < timestampNs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Polls source, with intervals doubling from {@link #INITIAL_POLL_INTERVAL_MS} up to
+     * {@link #MAX_POLL_INTERVAL_MS}, until the merged dumps hold at least count events of the
+     * atom or timeoutMs elapsed.
+     *
+     * @return the merged dumps, which may hold fewer events than requested on timeout
+     */
+    public static ReportCache waitForAtoms(ReportSource source, int atomId, int count,
+            long timeoutMs) throws Exception {
+        final ReportCache cache = new ReportCache();
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        long interval = INITIAL_POLL_INTERVAL_MS;
+        while (true) {
+            cache.add(ConfigMetricsReportList.parseFrom(source.fetch()));
+            final long remaining = deadline - System.currentTimeMillis();
+            if (cache.getEvents(atomId).size() >= count || remaining <= 0) {
+                return cache;
+            }
+            Thread.sleep(Math.min(interval, remaining));
+            interval = Math.min(interval * 2, MAX_POLL_INTERVAL_MS);
+        }
+    }
+}
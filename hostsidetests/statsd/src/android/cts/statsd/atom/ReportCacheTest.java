@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.cts.statsd.atom;
+
+import com.android.os.AtomsProto.AppBreadcrumbReported;
+import com.android.os.AtomsProto.Atom;
+import com.android.os.AtomsProto.AttributionNode;
+import com.android.os.AtomsProto.ScreenStateChanged;
+import com.android.os.AtomsProto.WakelockStateChanged;
+import com.android.os.StatsLog.ConfigMetricsReport;
+import com.android.os.StatsLog.ConfigMetricsReportList;
+import com.android.os.StatsLog.EventMetricData;
+import com.android.os.StatsLog.StatsLogReport;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Host-side tests of {@link ReportCache}, on reports built here. They need no device.
+ */
+public class ReportCacheTest extends TestCase {
+    private static final int BREADCRUMB = Atom.APP_BREADCRUMB_REPORTED_FIELD_NUMBER;
+    private static final int WAKELOCK = Atom.WAKELOCK_STATE_CHANGED_FIELD_NUMBER;
+    private static final int SCREEN = Atom.SCREEN_STATE_CHANGED_FIELD_NUMBER;
+
+    /** Test queries by atom id, uid and timestamp range on a report with two metrics. */
+    public void testQueries() throws Exception {
+        ReportCache cache = ReportCache.parseFrom(reportList(
+                report(breadcrumb(40, 2000), screen(30)),
+                report(wakelock(20, 2000), breadcrumb(10, 1000))).toByteArray());
+
+        assertEquals(2, cache.getReports().size());
+        assertTimestamps(cache.getEventMetricDataList(), 10, 20, 30, 40);
+        assertTimestamps(cache.getEvents(BREADCRUMB), 10, 40);
+        assertTimestamps(cache.getEvents(WAKELOCK), 20);
+        assertTimestamps(cache.getEvents(SCREEN), 30);
+        assertTimestamps(cache.getEvents(Atom.PLUGGED_STATE_CHANGED_FIELD_NUMBER));
+
+        // Ranges are [start, end).
+        assertTimestamps(cache.getEvents(BREADCRUMB, 10, 40), 10);
+        assertTimestamps(cache.getEvents(BREADCRUMB, 11, 41), 40);
+        assertTimestamps(cache.getEvents(BREADCRUMB, 0, 100), 10, 40);
+        assertTimestamps(cache.getEvents(BREADCRUMB, 41, 100));
+
+        // Uids come from the uid field or the attribution chain, the screen has neither.
+        assertTimestamps(cache.getEventsForUid(1000), 10);
+        assertTimestamps(cache.getEventsForUid(2000), 20, 40);
+        assertTimestamps(cache.getEventsForUid(-1));
+
+        assertEquals(BREADCRUMB, ReportCache.getAtomId(cache.getEvents(BREADCRUMB).get(0)
+                .getAtom()));
+        assertEquals(0, ReportCache.getAtomId(Atom.getDefaultInstance()));
+    }
+
+    /** Test that the events of later dumps are merged in timestamp order. */
+    public void testAdd() throws Exception {
+        ReportCache cache = new ReportCache(reportList(report(breadcrumb(10, 1000),
+                breadcrumb(30, 1000))));
+        cache.add(reportList(report(breadcrumb(40, 1000), screen(50))));
+        cache.add(reportList(report(breadcrumb(20, 1000), breadcrumb(30, 2000))));
+        cache.add(reportList());
+
+        assertEquals(3, cache.getReports().size());
+        assertTimestamps(cache.getEventMetricDataList(), 10, 20, 30, 30, 40, 50);
+        assertTimestamps(cache.getEvents(BREADCRUMB), 10, 20, 30, 30, 40);
+        assertTimestamps(cache.getEvents(BREADCRUMB, 20, 40), 20, 30, 30);
+        assertTimestamps(cache.getEventsForUid(1000), 10, 20, 30, 40);
+        // Ties keep the earlier dump first.
+        assertEquals(1000, cache.getEvents(BREADCRUMB).get(2).getAtom()
+                .getAppBreadcrumbReported().getUid());
+    }
+
+    /** Test that waitForAtoms merges the polled dumps and doubles the interval between polls. */
+    public void testWaitForAtoms() throws Exception {
+        final List<Long> pollTimes = new ArrayList<>();
+        final byte[][] dumps = {
+            reportList(report()).toByteArray(),
+            reportList(report(breadcrumb(10, 1000), screen(20))).toByteArray(),
+            reportList(report()).toByteArray(),
+            reportList(report(breadcrumb(30, 1000))).toByteArray(),
+        };
+        ReportCache cache = ReportCache.waitForAtoms(() -> {
+            pollTimes.add(System.nanoTime());
+            return dumps[pollTimes.size() - 1];
+        }, BREADCRUMB, 2, 10_000);
+
+        assertEquals(4, pollTimes.size());
+        assertTimestamps(cache.getEvents(BREADCRUMB), 10, 30);
+        assertTimestamps(cache.getEventMetricDataList(), 10, 20, 30);
+        long interval = ReportCache.INITIAL_POLL_INTERVAL_MS;
+        for (int i = 1; i < pollTimes.size(); i++) {
+            long elapsedMs = (pollTimes.get(i) - pollTimes.get(i - 1)) / 1_000_000;
+            assertTrue("Poll " + i + " after " + elapsedMs + " ms", elapsedMs >= interval);
+            interval *= 2;
+        }
+    }
+
+    /** Test that waitForAtoms returns what arrived when the timeout elapses. */
+    public void testWaitForAtomsTimeout() throws Exception {
+        final long timeoutMs = 500;
+        final int[] polls = {0};
+        long start = System.currentTimeMillis();
+        ReportCache cache = ReportCache.waitForAtoms(() -> {
+            polls[0]++;
+            return reportList(report(breadcrumb(polls[0], 1000))).toByteArray();
+        }, BREADCRUMB, 100, timeoutMs);
+        long elapsedMs = System.currentTimeMillis() - start;
+
+        assertTrue("Returned after " + elapsedMs + " ms", elapsedMs >= timeoutMs);
+        // Polls at 0, 50, 150, 350 and 500 ms.
+        assertTrue("Polled " + polls[0] + " times", polls[0] >= 2 && polls[0] <= 5);
+        assertEquals(polls[0], cache.getEvents(BREADCRUMB).size());
+    }
+
+    private static void assertTimestamps(List<EventMetricData> events, long... timestamps) {
+        assertEquals(events.toString(), timestamps.length, events.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], events.get(i).getElapsedTimestampNanos());
+        }
+    }
+
+    private static ConfigMetricsReportList reportList(ConfigMetricsReport... reports) {
+        ConfigMetricsReportList.Builder builder = ConfigMetricsReportList.newBuilder();
+        for (ConfigMetricsReport report : reports) {
+            builder.addReports(report);
+        }
+        return builder.build();
+    }
+
+    /** Returns a report with one event metric, holding the events in the given order. */
+    private static ConfigMetricsReport report(EventMetricData... events) {
+        StatsLogReport.EventMetricDataWrapper.Builder wrapper =
+                StatsLogReport.EventMetricDataWrapper.newBuilder();
+        for (EventMetricData event : events) {
+            wrapper.addData(event);
+        }
+        return ConfigMetricsReport.newBuilder()
+                .addMetrics(StatsLogReport.newBuilder().setEventMetrics(wrapper))
+                .build();
+    }
+
+    private static EventMetricData breadcrumb(long timestampNs, int uid) {
+        return event(timestampNs, Atom.newBuilder().setAppBreadcrumbReported(
+                AppBreadcrumbReported.newBuilder()
+                        .setUid(uid)
+                        .setLabel(1)
+                        .setState(AppBreadcrumbReported.State.START)));
+    }
+
+    private static EventMetricData wakelock(long timestampNs, int uid) {
+        return event(timestampNs, Atom.newBuilder().setWakelockStateChanged(
+                WakelockStateChanged.newBuilder()
+                        .addAttributionNode(AttributionNode.newBuilder().setUid(uid))
+                        .addAttributionNode(AttributionNode.newBuilder().setUid(uid + 1))
+                        .setState(WakelockStateChanged.State.ACQUIRE)));
+    }
+
+    private static EventMetricData screen(long timestampNs) {
+        return event(timestampNs, Atom.newBuilder().setScreenStateChanged(
+                ScreenStateChanged.getDefaultInstance()));
+    }
+
+    private static EventMetricData event(long timestampNs, Atom.Builder atom) {
+        return EventMetricData.newBuilder()
+                .setElapsedTimestampNanos(timestampNs)
+                .setAtom(atom)
+                .build();
+    }
+}
@@ -662,9 +662,8 @@ public class UidAtomTests extends DeviceAtomTestCase {
 
         runDeviceTests(DEVICE_SIDE_TEST_PACKAGE, ".AtomTests", name);
 
-        Thread.sleep(WAIT_TIME_SHORT);
         // Sorted list of events in order in which they occurred.
-        List<EventMetricData> data = getEventMetricDataList();
+        List<EventMetricData> data = waitForAtoms(atomTag, stateSet.size(), WAIT_TIME_SHORT);
 
         // AudioStateChanged timestamp is fuzzed to 5min buckets
         assertStatesOccurred(stateSet, data, 0,
@@ -742,9 +741,8 @@ public class UidAtomTests extends DeviceAtomTestCase {
 
         runActivity("StatsdCtsForegroundActivity", "action", "action.crash");
 
-        Thread.sleep(WAIT_TIME_SHORT);
         // Sorted list of events in order in which they occurred.
-        List<EventMetricData> data = getEventMetricDataList();
+        List<EventMetricData> data = waitForAtoms(atomTag, 1, WAIT_TIME_SHORT);
 
         AppCrashOccurred atom = data.get(0).getAtom().getAppCrashOccurred();
         assertEquals("crash", atom.getEventType());
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.sustainedPerformance.cts;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming analysis of the samples of a sustained performance workload, e.g. the DMIPS of
+ * Dhrystone runs or the frame times of the shader app.
+ *
+ * Samples are added as they arrive, and grouped into windows of consecutive samples. The median
+ * of a window is its value, so that a single slow or fast sample does not count. For the window
+ * values, the analyzer keeps:
+ * <ul>
+ * <li>the rolling mean over the last few windows, the rolling throughput,</li>
+ * <li>the variation between the best and the worst window, the metric the test checks,</li>
+ * <li>the onset of throttling, found by a one-sided CUSUM change-point detector that compares
+ * each window to the baseline of the first windows,</li>
+ * <li>whether the last windows are steady, and how fast the last windows change, e.g. whether
+ * the device reached a thermal steady state.</li>
+ * </ul>
+ *
+ * A recorded trace of "time-millis value" lines can be replayed with {@link #replay} or
+ * {@link #main}, to check the analysis off device.
+ */
+public class SustainedPerformanceAnalyzer {
+
+    /** Number of windows of the rolling mean. */
+    public static final int ROLLING_WINDOWS = 5;
+
+    /** Number of windows the throttling baseline is computed from. */
+    private static final int BASELINE_WINDOWS = 3;
+    /** Shift of the mean that is tolerated before the CUSUM sum grows, in baseline sigmas. */
+    private static final double CUSUM_SLACK_SIGMAS = 0.5;
+    /** CUSUM sum at which throttling is detected, in baseline sigmas. */
+    private static final double CUSUM_THRESHOLD_SIGMAS = 5;
+    /**
+     * Lower bound of the baseline sigma, as a fraction of the baseline mean, so that a very
+     * stable baseline does not turn noise into throttling.
+     */
+    private static final double MIN_SIGMA_FRACTION = 0.01;
+
+    /** The summary of a window of consecutive samples. */
+    public static class Window {
+        public final int index;
+        public final long startMillis;
+        public final long endMillis;
+        public final double median;
+        public final double min;
+        public final double max;
+        /** Mean of the medians of this window and the previous ones, up to ROLLING_WINDOWS. */
+        public final double rollingMean;
+
+        Window(int index, long startMillis, long endMillis, double median, double min,
+                double max, double rollingMean) {
+            this.index = index;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.median = median;
+            this.min = min;
+            this.max = max;
+            this.rollingMean = rollingMean;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("window %d [%d ms, %d ms]: median %.2f, min %.2f, max %.2f,"
+                    + " rolling %.2f", index, startMillis, endMillis, median, min, max,
+                    rollingMean);
+        }
+    }
+
+    private final String mName;
+    private final boolean mHigherIsBetter;
+    private final int mWindowSize;
+    private int mSkipWindows;
+
+    private final double[] mSamples;
+    private int mSampleCount;
+    private long mWindowStartMillis;
+
+    private final List<Window> mWindows = new ArrayList<Window>();
+    private double mMin = Double.MAX_VALUE;
+    private double mMax = -Double.MAX_VALUE;
+
+    private double mBaselineMean;
+    private double mBaselineSigma;
+    private double mCusum;
+    private int mCusumStart = -1;
+    private int mThrottlingOnset = -1;
+
+    /**
+     * @param name the name of the metric, for logs
+     * @param higherIsBetter whether higher values are better, e.g. for DMIPS but not frame times
+     * @param windowSize the number of samples of a window
+     * @param skipWindows the number of first windows to ignore, e.g. while the workload warms up
+     */
+    public SustainedPerformanceAnalyzer(String name, boolean higherIsBetter, int windowSize,
+            int skipWindows) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("window size must be positive: " + windowSize);
+        }
+        mName = name;
+        mHigherIsBetter = higherIsBetter;
+        mWindowSize = windowSize;
+        mSkipWindows = skipWindows;
+        mSamples = new double[windowSize];
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Adds a sample.
+     *
+     * @return the window the sample completed, or null
+     */
+    public synchronized Window addSample(long timeMillis, double value) {
+        if (mSampleCount == 0) {
+            mWindowStartMillis = timeMillis;
+        }
+        mSamples[mSampleCount++] = value;
+        if (mSampleCount < mWindowSize) {
+            return null;
+        }
+        mSampleCount = 0;
+        if (mSkipWindows > 0) {
+            mSkipWindows--;
+            return null;
+        }
+
+        double[] sorted = Arrays.copyOf(mSamples, mWindowSize);
+        Arrays.sort(sorted);
+        double median = sorted[mWindowSize / 2];
+        int index = mWindows.size();
+        double rollingSum = median;
+        int rollingCount = 1;
+        for (int i = Math.max(0, index - ROLLING_WINDOWS + 1); i < index; i++) {
+            rollingSum += mWindows.get(i).median;
+            rollingCount++;
+        }
+        Window window = new Window(index, mWindowStartMillis, timeMillis, median, sorted[0],
+                sorted[mWindowSize - 1], rollingSum / rollingCount);
+        mWindows.add(window);
+        mMin = Math.min(mMin, median);
+        mMax = Math.max(mMax, median);
+        detectThrottling(window);
+        return window;
+    }
+
+    /**
+     * Runs the CUSUM detector on a new window. The first windows set the baseline, after that
+     * the sum grows by how much worse than the baseline each window is, beyond a slack, and
+     * throttling is detected when it crosses the threshold. The onset is the first window of
+     * the run of growth that crossed it.
+     */
+    private void detectThrottling(Window window) {
+        if (window.index < BASELINE_WINDOWS) {
+            if (window.index == BASELINE_WINDOWS - 1) {
+                double sum = 0;
+                for (Window w : mWindows) {
+                    sum += w.median;
+                }
+                mBaselineMean = sum / BASELINE_WINDOWS;
+                double squares = 0;
+                for (Window w : mWindows) {
+                    squares += (w.median - mBaselineMean) * (w.median - mBaselineMean);
+                }
+                mBaselineSigma = Math.max(Math.sqrt(squares / BASELINE_WINDOWS),
+                        Math.abs(mBaselineMean) * MIN_SIGMA_FRACTION);
+            }
+            return;
+        }
+        if (mThrottlingOnset >= 0 || mBaselineSigma == 0) {
+            return;
+        }
+        double worse = mHigherIsBetter
+                ? mBaselineMean - window.median : window.median - mBaselineMean;
+        mCusum = Math.max(0, mCusum + worse / mBaselineSigma - CUSUM_SLACK_SIGMAS);
+        if (mCusum == 0) {
+            mCusumStart = -1;
+        } else if (mCusumStart < 0) {
+            mCusumStart = window.index;
+        }
+        if (mCusum > CUSUM_THRESHOLD_SIGMAS) {
+            mThrottlingOnset = mCusumStart;
+        }
+    }
+
+    /** Returns the number of windows so far. */
+    public synchronized int getWindowCount() {
+        return mWindows.size();
+    }
+
+    /** Returns the windows so far. */
+    public synchronized List<Window> getWindows() {
+        return new ArrayList<Window>(mWindows);
+    }
+
+    /** Returns the medians of the windows so far. */
+    public synchronized double[] getWindowMedians() {
+        double[] medians = new double[mWindows.size()];
+        for (int i = 0; i < medians.length; i++) {
+            medians[i] = mWindows.get(i).median;
+        }
+        return medians;
+    }
+
+    /** Returns the rolling means of the windows so far. */
+    public synchronized double[] getRollingMeans() {
+        double[] means = new double[mWindows.size()];
+        for (int i = 0; i < means.length; i++) {
+            means[i] = mWindows.get(i).rollingMean;
+        }
+        return means;
+    }
+
+    /** Returns the lowest window median, or NaN if there is no window. */
+    public synchronized double getMin() {
+        return mWindows.isEmpty() ? Double.NaN : mMin;
+    }
+
+    /** Returns the highest window median, or NaN if there is no window. */
+    public synchronized double getMax() {
+        return mWindows.isEmpty() ? Double.NaN : mMax;
+    }
+
+    /**
+     * Returns the difference between the highest and the lowest window median, in percent of
+     * the highest, or NaN if there is no window.
+     */
+    public synchronized double getVariationPercent() {
+        return getVariationPercent(getMin(), getMax());
+    }
+
+    /** Returns the difference between max and min, in percent of max. */
+    public static double getVariationPercent(double min, double max) {
+        return (max - min) * 100 / max;
+    }
+
+    /** Returns the index of the window throttling started at, or -1 if none was detected. */
+    public synchronized int getThrottlingOnset() {
+        return mThrottlingOnset;
+    }
+
+    /**
+     * Returns whether the medians of the last windowCount windows differ by at most
+     * tolerancePercent of the highest of them.
+     */
+    public synchronized boolean isSteady(int windowCount, double tolerancePercent) {
+        if (mWindows.size() < windowCount) {
+            return false;
+        }
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (Window window : mWindows.subList(mWindows.size() - windowCount, mWindows.size())) {
+            min = Math.min(min, window.median);
+            max = Math.max(max, window.median);
+        }
+        return getVariationPercent(min, max) <= tolerancePercent;
+    }
+
+    /**
+     * Returns the least squares slope of the medians of the last windowCount windows against
+     * their end times, in value units per minute, or NaN if there are fewer windows or they all
+     * end at the same time.
+     */
+    public synchronized double getSlopePerMinute(int windowCount) {
+        if (windowCount < 2 || mWindows.size() < windowCount) {
+            return Double.NaN;
+        }
+        List<Window> windows = mWindows.subList(mWindows.size() - windowCount, mWindows.size());
+        double meanMinutes = 0;
+        double meanValue = 0;
+        for (Window window : windows) {
+            meanMinutes += window.endMillis / 60000.0;
+            meanValue += window.median;
+        }
+        meanMinutes /= windowCount;
+        meanValue /= windowCount;
+        double covariance = 0;
+        double variance = 0;
+        for (Window window : windows) {
+            double minutes = window.endMillis / 60000.0 - meanMinutes;
+            covariance += minutes * (window.median - meanValue);
+            variance += minutes * minutes;
+        }
+        return variance == 0 ? Double.NaN : covariance / variance;
+    }
+
+    /**
+     * Adds the samples of a trace, one "time-millis value" per line. Empty lines and lines
+     * starting with '#' are skipped.
+     */
+    public void replay(Reader trace) throws IOException {
+        BufferedReader in = new BufferedReader(trace);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 2) {
+                throw new IOException("expected \"time-millis value\": " + line);
+            }
+            addSample(Long.parseLong(fields[0]), Double.parseDouble(fields[1]));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d windows, min %.2f, max %.2f, variation %.2f%%,"
+                + " throttling onset %d", mName, mWindows.size(), getMin(), getMax(),
+                getVariationPercent(), mThrottlingOnset);
+    }
+
+    /**
+     * Replays a trace and prints its windows and summary.
+     *
+     * <pre>
+     * SustainedPerformanceAnalyzer [--lower-is-better] window-size skip-windows trace
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        boolean higherIsBetter = true;
+        int arg = 0;
+        if (args.length > 0 && args[0].equals("--lower-is-better")) {
+            higherIsBetter = false;
+            arg++;
+        }
+        if (args.length - arg != 3) {
+            System.err.println("usage: SustainedPerformanceAnalyzer [--lower-is-better]"
+                    + " window-size skip-windows trace");
+            System.exit(1);
+        }
+        SustainedPerformanceAnalyzer analyzer = new SustainedPerformanceAnalyzer(args[arg + 2],
+                higherIsBetter, Integer.parseInt(args[arg]), Integer.parseInt(args[arg + 1]));
+        try (Reader trace = new FileReader(args[arg + 2])) {
+            analyzer.replay(trace);
+        }
+        for (Window window : analyzer.getWindows()) {
+            System.out.println(window);
+        }
+        System.out.println(analyzer);
+    }
+}
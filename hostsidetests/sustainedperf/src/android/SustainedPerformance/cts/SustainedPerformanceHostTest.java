@@ -16,12 +16,20 @@
 
 package android.sustainedPerformance.cts;
 
+import android.sustainedPerformance.cts.SustainedPerformanceAnalyzer.Window;
 import com.android.compatibility.common.util.CddTest;
+import com.android.compatibility.common.util.MetricsReportLog;
+import com.android.compatibility.common.util.ResultType;
+import com.android.compatibility.common.util.ResultUnit;
 import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.MultiLineReceiver;
+import com.android.tradefed.build.IBuildInfo;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.testtype.DeviceTestCase;
+import com.android.tradefed.testtype.IAbi;
+import com.android.tradefed.testtype.IAbiReceiver;
+import com.android.tradefed.testtype.IBuildReceiver;
 import java.util.*;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -29,9 +37,13 @@ import java.util.Scanner;
 import java.util.concurrent.TimeUnit;
 /**
  * Test to check if device implements Sustained Performance Mode
+ *
+ * The results are analyzed while the workloads run, by a {@link SustainedPerformanceAnalyzer}
+ * per workload, and the metrics of each window are reported when the run ends.
  */
 @CddTest(requirement="8.5/C-0-1,C-1-1,C-1-2")
-public class SustainedPerformanceHostTest extends DeviceTestCase {
+public class SustainedPerformanceHostTest extends DeviceTestCase
+        implements IAbiReceiver, IBuildReceiver {
 
     ITestDevice device;
     private static final String PACKAGE = "com.android.gputest";
@@ -51,29 +63,54 @@ public class SustainedPerformanceHostTest extends DeviceTestCase {
             TEST_PACKAGE, TEST_PACKAGE, TEST_CLASS);
     private static final String DHRYSTONE = "/data/local/tmp/";
     private static final String LOG_TAG = "sustainedPerfTest";
+    private static final String REPORT_LOG_NAME = "CtsSustainedPerformanceHostTestCases";
+
+    /** Dhrystone runs per window, and frame times per window of the app. */
+    private static final int DHRYSTONE_WINDOW = 3;
+    private static final int APP_WINDOW = 10;
+
+    /**
+     * Cooldown before the run: at most 10 minutes, and at least until the temperature changes by
+     * less than 0.2 degrees Celsius per minute over the last 2 minutes.
+     */
+    private static final long MAX_COOLDOWN_MILLIS = 600000;
+    private static final long MIN_COOLDOWN_MILLIS = 60000;
+    private static final long COOLDOWN_POLL_MILLIS = 15000;
+    private static final int COOLDOWN_STEADY_POLLS = 9;
+    private static final double COOLDOWN_MAX_CELSIUS_PER_MINUTE = 0.2;
+    private static final String THERMAL_ZONES_TEMP = "cat /sys/class/thermal/thermal_zone*/temp";
+    /** Thermal zone readings from which on they are taken as millidegrees Celsius. */
+    private static final double MIN_MILLIDEGREES = 1000;
 
-    private static ArrayList<Double> appResultsWithMode = new ArrayList<Double>();
-    private static ArrayList<Double> appResultsWithoutMode = new ArrayList<Double>();
-    private static ArrayList<Double> dhrystoneResultsWithMode = new ArrayList<Double>();
-    private static ArrayList<Double> dhrystoneResultsWithoutMode = new ArrayList<Double>();
-    private double dhryMin = Double.MAX_VALUE, dhryMax = Double.MIN_VALUE;
     private static long testDuration = 1800000; //30 minutes
 
+    private IAbi mAbi;
+    private IBuildInfo mBuildInfo;
+
+    @Override
+    public void setAbi(IAbi abi) {
+        mAbi = abi;
+    }
+
+    @Override
+    public void setBuild(IBuildInfo buildInfo) {
+        mBuildInfo = buildInfo;
+    }
+
     public class Dhrystone implements Runnable {
-        private boolean modeEnabled;
+        private final SustainedPerformanceAnalyzer analyzer;
+        private volatile Exception error;
         private long startTime;
         private long loopCount = 300000000;
         private long cpumask = 1;
 
-        public Dhrystone(boolean enabled, long cm) {
+        public Dhrystone(SustainedPerformanceAnalyzer analyzer, long cm) {
             cpumask = cm;
-            modeEnabled = enabled;
+            this.analyzer = analyzer;
             startTime = System.currentTimeMillis();
         }
 
         public void run() {
-            double[] testSet = new double[3];
-            int index = 0;
             try {
                 device.executeShellCommand("cd " + DHRYSTONE + " ; chmod 777 dhry");
                 while (true) {
@@ -84,84 +121,147 @@ public class SustainedPerformanceHostTest extends DeviceTestCase {
                     } else if (result.contains("Measured time too small")) {
                          loopCount = loopCount*10;
                     } else if (!result.isEmpty()){
-                         double dmips = Double.parseDouble(result);
-                         testSet[index++] = dmips;
-                         if (index == 3) {
-                             synchronized(this) {
-                                 if (modeEnabled) {
-                                     dhrystoneResultsWithMode.add(testSet[1]);
-                                 } else {
-                                     dhrystoneResultsWithoutMode.add(testSet[1]);
-                                 }
-                                 if (testSet[1] > dhryMax) {
-                                     dhryMax = testSet[1];
-                                 }
-                                 if (testSet[1] < dhryMin) {
-                                     dhryMin = testSet[1];
-                                 }
-                                 index = 0;
-                             }
-                        }
+                         double dmips = Double.parseDouble(result.trim());
+                         logWindow(analyzer,
+                                 analyzer.addSample(System.currentTimeMillis(), dmips));
                     }
                }
            } catch (Exception e) {
                Log.e(LOG_TAG, e.toString());
-
+               error = e;
            }
         }
+
+        /** Throws the exception that stopped the run, if any. */
+        public void checkError() throws Exception {
+            if (error != null) {
+                throw error;
+            }
+        }
     }
 
-    public void analyzeResults(String logs, boolean mode) {
-        Double[] testSet = new Double[10];
-        int index = 0;
-        double min = Double.MAX_VALUE, max = Double.MIN_VALUE;
-        boolean first = true;
+    /**
+     * Feeds the frame times the app logs to an analyzer while it runs. The first window is
+     * skipped while the app warms up.
+     */
+    private class FrameTimeReceiver extends MultiLineReceiver {
+        private final SustainedPerformanceAnalyzer analyzer;
+        private volatile boolean cancelled;
+        private volatile Exception error;
 
-        Scanner in = new Scanner(logs);
+        FrameTimeReceiver(SustainedPerformanceAnalyzer analyzer) {
+            this.analyzer = analyzer;
+        }
+
+        @Override
+        public void processNewLines(String[] lines) {
+            for (String line : lines) {
+                if (line.startsWith("I/" + CLASS)) {
+                    double time = Double.parseDouble(line.split(":")[1]);
+                    logWindow(analyzer, analyzer.addSample(System.currentTimeMillis(), time));
+                }
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /** Throws the exception that stopped reading the frame times, if any. */
+        public void checkError() throws Exception {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    private static void logWindow(SustainedPerformanceAnalyzer analyzer, Window window) {
+        if (window != null) {
+            Log.i(LOG_TAG, analyzer.getName() + " " + window);
+        }
+    }
+
+    /**
+     * Waits until the device cooled down: until the highest temperature of its thermal zones
+     * changes by less than 0.2 degrees Celsius per minute, or 10 minutes passed. The rate is the
+     * least squares slope over the last 2 minutes of polls, which smooths the steps of sensors
+     * that report whole degrees. Waits the whole 10 minutes if the
+     * temperatures cannot be read.
+     */
+    private void coolDown() throws Exception {
+        long start = System.currentTimeMillis();
+        SustainedPerformanceAnalyzer temperature =
+                new SustainedPerformanceAnalyzer("temperature", false, 1, 0);
+        while (true) {
+            long elapsed = System.currentTimeMillis() - start;
+            if (elapsed >= MAX_COOLDOWN_MILLIS) {
+                break;
+            }
+            double maxTemp = readMaxTemperature();
+            if (Double.isNaN(maxTemp)) {
+                Thread.sleep(MAX_COOLDOWN_MILLIS - elapsed);
+                break;
+            }
+            temperature.addSample(elapsed, maxTemp);
+            double celsiusPerMinute = temperature.getSlopePerMinute(COOLDOWN_STEADY_POLLS);
+            if (elapsed >= MIN_COOLDOWN_MILLIS
+                    && Math.abs(celsiusPerMinute) < COOLDOWN_MAX_CELSIUS_PER_MINUTE) {
+                break;
+            }
+            Thread.sleep(Math.min(COOLDOWN_POLL_MILLIS, MAX_COOLDOWN_MILLIS - elapsed));
+        }
+        Log.i(LOG_TAG, "Cooled down for " + (System.currentTimeMillis() - start) + " ms, "
+                + temperature.getSlopePerMinute(COOLDOWN_STEADY_POLLS) + " C/min, "
+                + temperature);
+    }
+
+    /**
+     * Returns the highest temperature of the thermal zones in degrees Celsius, or NaN if none
+     * can be read. Zones report millidegrees, but some report whole degrees.
+     */
+    private double readMaxTemperature() throws Exception {
+        double max = Double.NaN;
+        Scanner in = new Scanner(device.executeShellCommand(THERMAL_ZONES_TEMP));
         while (in.hasNextLine()) {
-            String line = in.nextLine();
-            if(line.startsWith("I/"+CLASS)) {
-                Double time = Double.parseDouble(line.split(":")[1]);
-                testSet[index++] = time;
-                if (index == 10) {
-                    if (first) {
-                        first = false;
-                        index = 0;
-                        continue;
-                    }
-                    Arrays.sort(testSet);
-                    if (mode) {
-                        appResultsWithMode.add(testSet[5]);
-                    } else {
-                        appResultsWithoutMode.add(testSet[5]);
-                    }
-                    if (testSet[5] > max) {
-                        max = testSet[5];
-                    }
-                    if (testSet[5] < min) {
-                        min = testSet[5];
-                    }
-                    index = 0;
+            try {
+                double temp = Double.parseDouble(in.nextLine().trim());
+                if (Math.abs(temp) >= MIN_MILLIDEGREES) {
+                    temp /= 1000;
+                }
+                if (Double.isNaN(max) || temp > max) {
+                    max = temp;
                 }
+            } catch (NumberFormatException e) {
+                // Not a temperature, e.g. a zone that cannot be read.
             }
         }
         in.close();
-        double diff = (max - min)*100/max;
-        if (mode) {
-            appResultsWithMode.add(0, min);
-            appResultsWithMode.add(1, max);
-            appResultsWithMode.add(2, diff);
-        } else {
-            appResultsWithoutMode.add(0, min);
-            appResultsWithoutMode.add(1, max);
-            appResultsWithoutMode.add(2, diff);
-        }
+        return max;
+    }
+
+    private void reportResults(String streamName, SustainedPerformanceAnalyzer analyzer,
+            ResultType type, ResultUnit unit) {
+        MetricsReportLog report = new MetricsReportLog(mBuildInfo, mAbi.getName(),
+                String.format("%s#testShader", getClass().getName()), REPORT_LOG_NAME,
+                streamName);
+        report.addValues("window_medians", analyzer.getWindowMedians(), type, unit);
+        report.addValues("rolling_means", analyzer.getRollingMeans(), type, unit);
+        report.addValue("min", analyzer.getMin(), type, unit);
+        report.addValue("max", analyzer.getMax(), type, unit);
+        report.addValue("throttling_onset_window", analyzer.getThrottlingOnset(),
+                ResultType.NEUTRAL, ResultUnit.NONE);
+        report.setSummary("variation", analyzer.getVariationPercent(), ResultType.LOWER_BETTER,
+                ResultUnit.NONE);
+        report.submit();
     }
 
     private void setUpEnvironment() throws Exception {
-        dhryMin = Double.MAX_VALUE;
-        dhryMax = Double.MIN_VALUE;
-        Thread.sleep(600000);
+        coolDown();
         device.executeAdbCommand("logcat", "-c");
         device.executeShellCommand("settings put global airplane_mode_on 1");
         device.executeShellCommand("am broadcast -a android.intent.action.AIRPLANE_MODE --ez state true");
@@ -191,38 +291,69 @@ public class SustainedPerformanceHostTest extends DeviceTestCase {
             return;
         }
 
-        appResultsWithoutMode.clear();
-        appResultsWithMode.clear();
-        dhrystoneResultsWithoutMode.clear();
-        dhrystoneResultsWithMode.clear();
-
         /*
          * Run the test with the mode.
          * Start the application and collect stats.
          * Run two threads of dhrystone and collect stats.
          */
         setUpEnvironment();
+        SustainedPerformanceAnalyzer app =
+                new SustainedPerformanceAnalyzer("app", false, APP_WINDOW, 1);
+        final FrameTimeReceiver frameTimes = new FrameTimeReceiver(app);
+        Thread logcat = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    device.executeShellCommand("logcat -v brief " + CLASS + ":I *:S",
+                            frameTimes, testDuration * 2, TimeUnit.MILLISECONDS, 0);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, e.toString());
+                    frameTimes.error = e;
+                }
+            }
+        });
+        logcat.start();
         device.executeShellCommand(START_COMMAND_MODE);
-        Thread dhrystone = new Thread(new Dhrystone(true, 1));
-        Thread dhrystone1 = new Thread(new Dhrystone(true, 2));
+        SustainedPerformanceAnalyzer dhry0 =
+                new SustainedPerformanceAnalyzer("dhrystone_cpu0", true, DHRYSTONE_WINDOW, 0);
+        SustainedPerformanceAnalyzer dhry1 =
+                new SustainedPerformanceAnalyzer("dhrystone_cpu1", true, DHRYSTONE_WINDOW, 0);
+        Dhrystone dhrystoneRun = new Dhrystone(dhry0, 1);
+        Dhrystone dhrystoneRun1 = new Dhrystone(dhry1, 2);
+        Thread dhrystone = new Thread(dhrystoneRun);
+        Thread dhrystone1 = new Thread(dhrystoneRun1);
         dhrystone.start();
         dhrystone1.start();
         Thread.sleep(testDuration);
         device.executeShellCommand(STOP_COMMAND);
         dhrystone.join();
         dhrystone1.join();
-        logs = device.executeAdbCommand("logcat", "-v", "brief", "-d", CLASS + ":I", "*:S");
-        analyzeResults(logs, true);
-        double diff = (dhryMax - dhryMin)*100/dhryMax;
-        dhrystoneResultsWithMode.add(0, dhryMin);
-        dhrystoneResultsWithMode.add(1, dhryMax);
-        dhrystoneResultsWithMode.add(2, diff);
+        frameTimes.cancel();
+        logcat.join();
 
         device.executeShellCommand("settings put global airplane_mode_on 0");
         device.executeShellCommand("am broadcast -a android.intent.action.AIRPLANE_MODE --ez state false");
 
-        double resDhry = dhrystoneResultsWithMode.get(2);
-        double resApp = appResultsWithMode.get(2);
+        /* A workload that failed or produced no window would pass the checks below. */
+        frameTimes.checkError();
+        dhrystoneRun.checkError();
+        dhrystoneRun1.checkError();
+        for (SustainedPerformanceAnalyzer analyzer : new SustainedPerformanceAnalyzer[] {
+                dhry0, dhry1, app}) {
+            assertTrue("No results for " + analyzer.getName(), analyzer.getWindowCount() > 0);
+        }
+
+        reportResults("dhrystone_cpu0_with_mode", dhry0, ResultType.HIGHER_BETTER,
+                ResultUnit.SCORE);
+        reportResults("dhrystone_cpu1_with_mode", dhry1, ResultType.HIGHER_BETTER,
+                ResultUnit.SCORE);
+        reportResults("app_with_mode", app, ResultType.LOWER_BETTER, ResultUnit.MS);
+        Log.i(LOG_TAG, dhry0 + "; " + dhry1 + "; " + app);
+
+        /* The variation of the two dhrystone threads together. */
+        double resDhry = SustainedPerformanceAnalyzer.getVariationPercent(
+                Math.min(dhry0.getMin(), dhry1.getMin()),
+                Math.max(dhry0.getMax(), dhry1.getMax()));
+        double resApp = app.getVariationPercent();
 
         /* Report if performance is below 5% margin for both dhrystone and shader */
         if ((resDhry > 5) || (resApp > 5)) {
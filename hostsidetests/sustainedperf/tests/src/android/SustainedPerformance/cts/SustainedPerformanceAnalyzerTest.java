@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.sustainedPerformance.cts;
+
+import android.sustainedPerformance.cts.SustainedPerformanceAnalyzer.Window;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit tests of {@link SustainedPerformanceAnalyzer}, replaying recorded Dhrystone traces.
+ */
+public class SustainedPerformanceAnalyzerTest extends TestCase {
+
+    private static final int WINDOW_SIZE = 3;
+
+    /** Test that the windows are the medians of their samples, with a rolling mean. */
+    public void testWindows() {
+        SustainedPerformanceAnalyzer analyzer =
+                new SustainedPerformanceAnalyzer("test", true, WINDOW_SIZE, 1);
+        double[] samples = {1, 1, 1, 30, 10, 20, 50, 40, 60};
+        Window window = null;
+        for (int i = 0; i < samples.length; i++) {
+            window = analyzer.addSample(i, samples[i]);
+            if (i == 5) {
+                assertNotNull(window);
+                assertEquals(20.0, window.median);
+                assertEquals(10.0, window.min);
+                assertEquals(30.0, window.max);
+                assertEquals(20.0, window.rollingMean);
+            } else if (i < samples.length - 1) {
+                assertNull(window);
+            }
+        }
+        assertEquals(1, window.index);
+        assertEquals(6, window.startMillis);
+        assertEquals(8, window.endMillis);
+        assertEquals(50.0, window.median);
+        assertEquals(35.0, window.rollingMean);
+        assertEquals(2, analyzer.getWindowCount());
+        assertEquals(60.0, analyzer.getVariationPercent(), 1e-9);
+    }
+
+    /** Test that the onset of throttling is found, and that the throttled run is steady. */
+    public void testThrottlingTrace() throws IOException {
+        SustainedPerformanceAnalyzer analyzer = replay("throttling.trace");
+        assertEquals(16, analyzer.getWindowCount());
+        assertEquals(8, analyzer.getThrottlingOnset());
+        assertEquals(20.0, analyzer.getVariationPercent(), 1.0);
+        assertFalse(analyzer.isSteady(analyzer.getWindowCount(), 5));
+        assertTrue(analyzer.isSteady(8, 1));
+    }
+
+    /** Test that no throttling is found in a steady run. */
+    public void testSteadyTrace() throws IOException {
+        SustainedPerformanceAnalyzer analyzer = replay("steady.trace");
+        assertEquals(16, analyzer.getWindowCount());
+        assertEquals(-1, analyzer.getThrottlingOnset());
+        assertTrue(analyzer.getVariationPercent() < 1);
+        assertTrue(analyzer.isSteady(analyzer.getWindowCount(), 1));
+    }
+
+    /** Test the rate of change of the last windows, as the cooldown uses it. */
+    public void testSlopePerMinute() {
+        SustainedPerformanceAnalyzer analyzer =
+                new SustainedPerformanceAnalyzer("temperature", false, 1, 0);
+        assertTrue(Double.isNaN(analyzer.getSlopePerMinute(2)));
+        // Cooling by 1 degree per 15 s poll, then flat with one reading stepped by a degree.
+        double[] samples = {45, 44, 43, 42, 41, 40, 40, 40, 41, 40, 40};
+        for (int i = 0; i < samples.length; i++) {
+            analyzer.addSample(i * 15000L, samples[i]);
+            if (i == 5) {
+                assertEquals(-4.0, analyzer.getSlopePerMinute(6), 1e-9);
+            }
+        }
+        assertEquals(0.0, analyzer.getSlopePerMinute(2), 1e-9);
+        // 40, 41, 40, 40
+        assertEquals(-0.4, analyzer.getSlopePerMinute(4), 1e-9);
+        assertTrue(Double.isNaN(analyzer.getSlopePerMinute(1)));
+        assertTrue(Double.isNaN(analyzer.getSlopePerMinute(samples.length + 1)));
+
+        SustainedPerformanceAnalyzer sameTime =
+                new SustainedPerformanceAnalyzer("temperature", false, 1, 0);
+        sameTime.addSample(0, 1);
+        sameTime.addSample(0, 2);
+        assertTrue(Double.isNaN(sameTime.getSlopePerMinute(2)));
+    }
+
+    private SustainedPerformanceAnalyzer replay(String traceName) throws IOException {
+        SustainedPerformanceAnalyzer analyzer =
+                new SustainedPerformanceAnalyzer(traceName, true, WINDOW_SIZE, 0);
+        InputStream in = getClass().getResourceAsStream("/traces/" + traceName);
+        assertNotNull("Missing trace " + traceName, in);
+        try (Reader trace = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            analyzer.replay(trace);
+        }
+        return analyzer;
+    }
+}
@@ -22,15 +22,21 @@ import com.android.tradefed.util.Pair;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.lang.String;
+import java.util.Arrays;
 import java.util.concurrent.Callable;
 
 import javax.imageio.ImageIO;
 
 /**
  * Compares the images generated by the device with the reference images.
+ *
+ * <p>The reference image is looked up in a {@link ReferenceImageStore}, which caches decoded
+ * images, and the generated image is decoded from its PNG bytes, as read from the zip file. Both
+ * are compared as row-major ARGB rasters.
  */
 public class ComparisonTask implements Callable<Pair<String, File>> {
     private static final String TAG = "ComparisonTask";
@@ -44,22 +50,25 @@ public class ComparisonTask implements Callable<Pair<String, File>> {
     private static final int MAX_CONSECUTIVE_FAILURES = 2;
 
     private final String mName;
-    private final File mExpected;
-    private final File mActual;
+    private final ReferenceImageStore mReferences;
+    private final String mReferenceName;
+    private final byte[] mActual;
 
-    public ComparisonTask(String name, File expected, File actual) {
+    public ComparisonTask(String name, ReferenceImageStore references, String referenceName,
+            byte[] actualPng) {
         mName = name;
-        mExpected = expected;
-        mActual = actual;
+        mReferences = references;
+        mReferenceName = referenceName;
+        mActual = actualPng;
     }
 
     public Pair<String, File> call() {
         try {
-            final BufferedImage expected = ImageIO.read(mExpected);
-            final BufferedImage actual = ImageIO.read(mActual);
+            final ReferenceImageStore.Image expected = mReferences.getImage(mReferenceName);
+            final BufferedImage actual = decode(mActual);
             if (!compare(expected, actual, IMAGE_THRESHOLD)) {
-                final File diff = File.createTempFile("diff_" + mExpected.getName(), ".png");
-                createDiff(expected, actual, diff);
+                final File diff = File.createTempFile("diff_" + mName, ".png");
+                createDiff(expected.toBufferedImage(), actual, diff);
                 return new Pair<>(mName, diff);
             }
         } catch (IOException e) {
@@ -87,28 +96,49 @@ public class ComparisonTask implements Callable<Pair<String, File>> {
         return (color & 0xFF000000) >>> 24;
     }
 
-    private static boolean checkNeighbors(int x, int y, BufferedImage reference,
-            BufferedImage generated, int threshold) {
-        final int w = generated.getWidth();
-        final int h = generated.getHeight();
-        for (int i = x - MAX_CONSECUTIVE_FAILURES; i <= x + MAX_CONSECUTIVE_FAILURES; i++) {
-            if (i >= 0 && i != x && i < w) {
-                for (int j = y - MAX_CONSECUTIVE_FAILURES; j <= y + MAX_CONSECUTIVE_FAILURES; j++) {
-                    if (j >= 0 && j != y && j < h) {
-                        final int p1 = reference.getRGB(i, j);
-                        final int p2 = generated.getRGB(i, j);
-
-                        final int dr = getAlphaScaledRed(p1) - getAlphaScaledRed(p2);
-                        final int dg = getAlphaScaledGreen(p1) - getAlphaScaledGreen(p2);
-                        final int db = getAlphaScaledBlue(p1) - getAlphaScaledBlue(p2);
-
-                        if (Math.abs(db) <= threshold &&
-                            Math.abs(dg) <= threshold &&
-                            Math.abs(dr) <= threshold) {
-                            // If we find at least one matching neighbor, we assume the difference
-                            // is in antialiasing.
-                            return true;
-                        }
+    private static BufferedImage decode(byte[] png) throws IOException {
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null) {
+            throw new IOException("Not a supported image");
+        }
+        return image;
+    }
+
+    private static int[] getPixels(BufferedImage image) {
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        return image.getRGB(0, 0, w, h, null, 0, w);
+    }
+
+    /** Packs the alpha-scaled red, green and blue channels of every pixel. */
+    private static int[] getAlphaScaledPixels(int[] pixels) {
+        final int[] scaled = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            final int color = pixels[i];
+            scaled[i] = (getAlphaScaledRed(color) << 16) | (getAlphaScaledGreen(color) << 8)
+                    | getAlphaScaledBlue(color);
+        }
+        return scaled;
+    }
+
+    private static boolean isWithinThreshold(int scaled1, int scaled2, int threshold) {
+        return Math.abs((scaled1 & 0xFF) - (scaled2 & 0xFF)) <= threshold
+                && Math.abs(((scaled1 >> 8) & 0xFF) - ((scaled2 >> 8) & 0xFF)) <= threshold
+                && Math.abs((scaled1 >> 16) - (scaled2 >> 16)) <= threshold;
+    }
+
+    private static boolean checkNeighbors(int x, int y, int[] reference, int[] generated,
+            int w, int h, int threshold) {
+        for (int j = y - MAX_CONSECUTIVE_FAILURES; j <= y + MAX_CONSECUTIVE_FAILURES; j++) {
+            if (j >= 0 && j != y && j < h) {
+                final int row = j * w;
+                for (int i = x - MAX_CONSECUTIVE_FAILURES; i <= x + MAX_CONSECUTIVE_FAILURES; i++) {
+                    if (i >= 0 && i != x && i < w
+                            && isWithinThreshold(reference[row + i], generated[row + i],
+                                    threshold)) {
+                        // If we find at least one matching neighbor, we assume the difference
+                        // is in antialiasing.
+                        return true;
                     }
                 }
             }
@@ -126,30 +156,34 @@ public class ComparisonTask implements Callable<Pair<String, File>> {
      * @param threshold maximum difference per channel
      * @return {@code true} if the images are similar, false otherwise
      */
-    private static boolean compare(BufferedImage reference, BufferedImage generated,
-            int threshold) {
+    private static boolean compare(ReferenceImageStore.Image reference,
+            BufferedImage generated, int threshold) {
         final int w = generated.getWidth();
         final int h = generated.getHeight();
-        if (w != reference.getWidth() || h != reference.getHeight()) {
+        if (w != reference.width || h != reference.height) {
             return false;
         }
 
-        double maxDist = 0;
-        for (int i = 0; i < w; i++) {
-
-            for (int j = 0; j < h; j++) {
-                final int p1 = reference.getRGB(i, j);
-                final int p2 = generated.getRGB(i, j);
-
-                final int dr = getAlphaScaledRed(p1) - getAlphaScaledRed(p2);
-                final int dg = getAlphaScaledGreen(p1) - getAlphaScaledGreen(p2);
-                final int db = getAlphaScaledBlue(p1) - getAlphaScaledBlue(p2);
+        final int[] referencePixels = reference.getPixels();
+        final int[] generatedPixels = getPixels(generated);
+        if (Arrays.equals(referencePixels, generatedPixels)) {
+            return true;
+        }
 
-                if (Math.abs(db) > threshold ||
-                    Math.abs(dg) > threshold ||
-                    Math.abs(dr) > threshold) {
+        final int[] referenceScaled = getAlphaScaledPixels(referencePixels);
+        final int[] generatedScaled = getAlphaScaledPixels(generatedPixels);
+        for (int j = 0; j < h; j++) {
+            final int row = j * w;
+            for (int i = 0; i < w; i++) {
+                final int p1 = referenceScaled[row + i];
+                final int p2 = generatedScaled[row + i];
+                if (p1 != p2 && !isWithinThreshold(p1, p2, threshold)) {
+                    final int dr = (p1 >> 16) - (p2 >> 16);
+                    final int dg = ((p1 >> 8) & 0xFF) - ((p2 >> 8) & 0xFF);
+                    final int db = (p1 & 0xFF) - (p2 & 0xFF);
                     System.err.println("fail dr=" + dr+ " dg=" + dg+ " db=" + db);
-                    if (!checkNeighbors(i, j, reference, generated, threshold)) {
+                    if (!checkNeighbors(i, j, referenceScaled, generatedScaled, w, h,
+                            threshold)) {
                         System.err.println("consecutive fail");
                         return false;
                     }
@@ -0,0 +1,624 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.theme.cts;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Content-addressed store of reference images.
+ *
+ * <p>Each distinct image is kept once as a PNG blob keyed by the SHA-1 of its content, so
+ * references that are identical across themes share a blob. A packed store (see
+ * {@link Builder#setDeltaEncoding}) additionally stores near-duplicates as a delta against a base
+ * image of the same size: the tiles that differ, XORed with the base and encoded side by side as a
+ * PNG, which is mostly zero and compresses well.
+ *
+ * <p>Decoded images are returned from an LRU cache bounded by pixel count, so a base shared by
+ * several references is decoded once. Safe for use from several comparison threads.
+ *
+ * <p>To pack the reference zip of a density into a store, run this class with the zip and the
+ * output file as arguments:
+ *
+ * <pre>java -cp CtsThemeHostTestCases.jar android.theme.cts.ReferenceImageStore xhdpi.zip
+ * xhdpi.store</pre>
+ */
+public class ReferenceImageStore {
+    /** File name extension of packed stores, used instead of .zip for the density asset. */
+    public static final String EXTENSION = ".store";
+
+    private static final int MAGIC = 0x43525331; // "CRS1"
+
+    /** Width and height of the tiles of delta encoded images. */
+    private static final int TILE_SIZE = 32;
+
+    /** Largest fraction of differing tiles for which an image is stored as a delta. */
+    private static final double MAX_DELTA_TILE_FRACTION = 0.25;
+
+    /** Largest number of differing tiles of a delta, the tiles of an 8192x8192 image. */
+    private static final int MAX_DELTA_TILES = 1 << 16;
+
+    /** Default bound of the decoded image cache, 128 MB of ARGB pixels. */
+    private static final long DEFAULT_CACHE_PIXELS = 32L * 1024 * 1024;
+
+    /** Decoded reference image; the pixel array is shared and must not be modified. */
+    public static final class Image {
+        public final int width;
+        public final int height;
+        private final int[] mPixels;
+
+        Image(int width, int height, int[] pixels) {
+            this.width = width;
+            this.height = height;
+            mPixels = pixels;
+        }
+
+        /** Returns the ARGB pixels in row-major order. Callers must not modify them. */
+        public int[] getPixels() {
+            return mPixels;
+        }
+
+        /** Returns a copy of this image, for writing as a PNG. */
+        public BufferedImage toBufferedImage() {
+            final BufferedImage image = new BufferedImage(width, height,
+                    BufferedImage.TYPE_INT_ARGB);
+            image.setRGB(0, 0, width, height, mPixels, 0, width);
+            return image;
+        }
+    }
+
+    /** Reference to a blob, plus the differing tiles if the entry is a delta. */
+    private static final class Entry {
+        final String blob;
+        final int[] tileIndices;
+        /** PNG of the differing tiles XOR the base, in order, TILE_SIZE pixels apart. */
+        final byte[] deltaPng;
+
+        Entry(String blob, int[] tileIndices, byte[] deltaPng) {
+            this.blob = blob;
+            this.tileIndices = tileIndices;
+            this.deltaPng = deltaPng;
+        }
+
+        boolean isDelta() {
+            return tileIndices != null;
+        }
+    }
+
+    private final Map<String, byte[]> mBlobs;
+    private final Map<String, Entry> mEntries;
+    private final long mMaxCachePixels;
+    /** Decoded images, keyed by blob hash for bases and by {@link Entry} for deltas. */
+    private final LinkedHashMap<Object, Image> mCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long mCachePixels;
+
+    private ReferenceImageStore(Map<String, byte[]> blobs, Map<String, Entry> entries,
+            long maxCachePixels) {
+        mBlobs = blobs;
+        mEntries = entries;
+        mMaxCachePixels = maxCachePixels;
+    }
+
+    public boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    public boolean contains(String name) {
+        return mEntries.containsKey(name);
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(mEntries.keySet());
+    }
+
+    /** Returns the number of distinct blobs backing the images. */
+    public int getBlobCount() {
+        return mBlobs.size();
+    }
+
+    /** Returns the number of images stored as deltas against another image. */
+    public int getDeltaCount() {
+        int count = 0;
+        for (Entry entry : mEntries.values()) {
+            if (entry.isDelta()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the decoded image with the given name, or {@code null} if there is none.
+     *
+     * @throws IOException if the image cannot be decoded
+     */
+    public Image getImage(String name) throws IOException {
+        final Entry entry = mEntries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.isDelta()) {
+            return getBlobImage(entry.blob);
+        }
+
+        Image image = getCached(entry);
+        if (image == null) {
+            final Image base = getBlobImage(entry.blob);
+            final Image delta = decode(entry.deltaPng);
+            final int tileCount = getTileCount(base.width, base.height);
+            if (delta.width < entry.tileIndices.length * TILE_SIZE || delta.height < TILE_SIZE) {
+                throw new IOException("Corrupt delta for " + name);
+            }
+            final int[] pixels = base.getPixels().clone();
+            for (int i = 0; i < entry.tileIndices.length; i++) {
+                if (entry.tileIndices[i] < 0 || entry.tileIndices[i] >= tileCount) {
+                    throw new IOException("Corrupt delta for " + name);
+                }
+                xorTile(delta.getPixels(), delta.width, i, pixels, base.width, base.height,
+                        entry.tileIndices[i]);
+            }
+            image = putCached(entry, new Image(base.width, base.height, pixels));
+        }
+        return image;
+    }
+
+    private Image getBlobImage(String blob) throws IOException {
+        final Image cached = getCached(blob);
+        if (cached != null) {
+            return cached;
+        }
+        return putCached(blob, decode(mBlobs.get(blob)));
+    }
+
+    private synchronized Image getCached(Object key) {
+        return mCache.get(key);
+    }
+
+    /** Adds an image to the cache, or returns the one added concurrently by another thread. */
+    private synchronized Image putCached(Object key, Image image) {
+        final Image existing = mCache.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        mCache.put(key, image);
+        mCachePixels += image.getPixels().length;
+        final Iterator<Image> eldest = mCache.values().iterator();
+        while (mCachePixels > mMaxCachePixels && mCache.size() > 1) {
+            mCachePixels -= eldest.next().getPixels().length;
+            eldest.remove();
+        }
+        return image;
+    }
+
+    private static Image decode(byte[] png) throws IOException {
+        final BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(png));
+        } catch (RuntimeException e) {
+            // Some decoders fail on corrupt data with unchecked exceptions.
+            throw new IOException("Corrupt image", e);
+        }
+        if (image == null) {
+            throw new IOException("Not a supported image");
+        }
+        final int w = image.getWidth();
+        final int h = image.getHeight();
+        return new Image(w, h, image.getRGB(0, 0, w, h, null, 0, w));
+    }
+
+    /**
+     * XORs the pixels of the slot-th tile of a strip of tiles into a tile of an image. Edge tiles
+     * are clipped to the image and use the top left of their slot.
+     */
+    private static void xorTile(int[] strip, int stripWidth, int slot, int[] pixels, int width,
+            int height, int tileIndex) {
+        final int tilesPerRow = (width + TILE_SIZE - 1) / TILE_SIZE;
+        final int x0 = (tileIndex % tilesPerRow) * TILE_SIZE;
+        final int y0 = (tileIndex / tilesPerRow) * TILE_SIZE;
+        final int w = Math.min(TILE_SIZE, width - x0);
+        final int h = Math.min(TILE_SIZE, height - y0);
+        for (int y = 0; y < h; y++) {
+            final int row = (y0 + y) * width + x0;
+            final int stripRow = y * stripWidth + slot * TILE_SIZE;
+            for (int x = 0; x < w; x++) {
+                pixels[row + x] ^= strip[stripRow + x];
+            }
+        }
+    }
+
+    /** Returns whether a tile of two images of the same size has the same pixels. */
+    private static boolean isTileEqual(Image a, Image b, int tileIndex) {
+        final int tilesPerRow = (a.width + TILE_SIZE - 1) / TILE_SIZE;
+        final int x0 = (tileIndex % tilesPerRow) * TILE_SIZE;
+        final int y0 = (tileIndex / tilesPerRow) * TILE_SIZE;
+        final int w = Math.min(TILE_SIZE, a.width - x0);
+        final int h = Math.min(TILE_SIZE, a.height - y0);
+        for (int y = 0; y < h; y++) {
+            final int row = (y0 + y) * a.width + x0;
+            for (int x = 0; x < w; x++) {
+                if (a.mPixels[row + x] != b.mPixels[row + x]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int getTileCount(int width, int height) {
+        return ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    /** Returns a hash of the pixels of each tile of an image. */
+    private static long[] getTileHashes(Image image) {
+        final int tilesPerRow = (image.width + TILE_SIZE - 1) / TILE_SIZE;
+        final long[] hashes = new long[getTileCount(image.width, image.height)];
+        final int[] pixels = image.getPixels();
+        for (int y = 0; y < image.height; y++) {
+            final int tileRow = (y / TILE_SIZE) * tilesPerRow;
+            final int row = y * image.width;
+            for (int x = 0; x < image.width; x++) {
+                final int tile = tileRow + x / TILE_SIZE;
+                hashes[tile] = hashes[tile] * 0x100000001B3L + pixels[row + x];
+            }
+        }
+        return hashes;
+    }
+
+    private static String sha1(byte[] data) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String sha1(Image image) {
+        final int[] pixels = image.getPixels();
+        final byte[] data = new byte[8 + pixels.length * 4];
+        putInt(data, 0, image.width);
+        putInt(data, 4, image.height);
+        for (int i = 0; i < pixels.length; i++) {
+            putInt(data, 8 + i * 4, pixels[i]);
+        }
+        return sha1(data);
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /** Writes the store. */
+    public void write(OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(TILE_SIZE);
+        data.writeInt(mBlobs.size());
+        for (Map.Entry<String, byte[]> blob : mBlobs.entrySet()) {
+            data.writeUTF(blob.getKey());
+            writeBytes(data, blob.getValue());
+        }
+        data.writeInt(mEntries.size());
+        for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+            final Entry entry = e.getValue();
+            data.writeUTF(e.getKey());
+            data.writeUTF(entry.blob);
+            if (entry.isDelta()) {
+                data.writeInt(entry.tileIndices.length);
+                for (int tileIndex : entry.tileIndices) {
+                    data.writeInt(tileIndex);
+                }
+                writeBytes(data, entry.deltaPng);
+            } else {
+                data.writeInt(-1);
+            }
+        }
+        data.flush();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads bytes written by {@link #writeBytes}. The buffer grows as data arrives, so that a
+     * corrupt length fails on the end of the stream rather than on allocation.
+     */
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt reference image store");
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(length, 65536));
+        final byte[] buffer = new byte[8192];
+        for (int remaining = length; remaining > 0; ) {
+            final int count = in.read(buffer, 0, Math.min(remaining, buffer.length));
+            if (count < 0) {
+                throw new EOFException("Truncated reference image store");
+            }
+            out.write(buffer, 0, count);
+            remaining -= count;
+        }
+        return out.toByteArray();
+    }
+
+    /** Reads a store written by {@link #write}. */
+    public static ReferenceImageStore read(InputStream in) throws IOException {
+        return read(in, DEFAULT_CACHE_PIXELS);
+    }
+
+    public static ReferenceImageStore read(InputStream in, long maxCachePixels)
+            throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a reference image store");
+        }
+        if (data.readInt() != TILE_SIZE) {
+            throw new IOException("Unsupported tile size");
+        }
+        final Map<String, byte[]> blobs = new TreeMap<>();
+        for (int i = data.readInt(); i > 0; i--) {
+            final String hash = data.readUTF();
+            blobs.put(hash, readBytes(data));
+        }
+        final Map<String, Entry> entries = new TreeMap<>();
+        for (int i = data.readInt(); i > 0; i--) {
+            final String name = data.readUTF();
+            final String blob = data.readUTF();
+            if (!blobs.containsKey(blob)) {
+                throw new IOException("Missing blob for " + name);
+            }
+            final int tileCount = data.readInt();
+            if (tileCount > MAX_DELTA_TILES) {
+                throw new IOException("Corrupt delta for " + name);
+            }
+            if (tileCount >= 0) {
+                final int[] tileIndices = new int[tileCount];
+                for (int t = 0; t < tileCount; t++) {
+                    tileIndices[t] = data.readInt();
+                }
+                entries.put(name, new Entry(blob, tileIndices, readBytes(data)));
+            } else {
+                entries.put(name, new Entry(blob, null, null));
+            }
+        }
+        return new ReferenceImageStore(blobs, entries, maxCachePixels);
+    }
+
+    /**
+     * Builds a store from named PNG images.
+     */
+    public static class Builder {
+        private final Map<String, byte[]> mBlobs = new TreeMap<>();
+        private final Map<String, String> mNames = new TreeMap<>();
+        private boolean mDeltaEncoding;
+        private long mMaxCachePixels = DEFAULT_CACHE_PIXELS;
+
+        /**
+         * Sets whether to decode all images while building, to merge images with identical
+         * pixels and to store near-duplicates as deltas. Disabled by default, in which case only
+         * byte-identical PNGs are merged and nothing is decoded until requested.
+         */
+        public Builder setDeltaEncoding(boolean deltaEncoding) {
+            mDeltaEncoding = deltaEncoding;
+            return this;
+        }
+
+        public Builder setMaxCachePixels(long maxCachePixels) {
+            mMaxCachePixels = maxCachePixels;
+            return this;
+        }
+
+        public Builder addImage(String name, byte[] png) {
+            final String hash = sha1(png);
+            if (!mBlobs.containsKey(hash)) {
+                mBlobs.put(hash, png);
+            }
+            mNames.put(name, hash);
+            return this;
+        }
+
+        /** Adds every entry of a zip of PNG images, such as a density reference zip. */
+        public Builder addZip(InputStream zipStream) throws IOException {
+            final ZipInputStream in = new ZipInputStream(zipStream);
+            final byte[] buffer = new byte[8192];
+            for (ZipEntry ze; (ze = in.getNextEntry()) != null; ) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                for (int count; (count = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, count);
+                }
+                addImage(ze.getName(), out.toByteArray());
+            }
+            return this;
+        }
+
+        public ReferenceImageStore build() throws IOException {
+            final Map<String, Entry> entries = new TreeMap<>();
+            if (!mDeltaEncoding) {
+                for (Map.Entry<String, String> name : mNames.entrySet()) {
+                    entries.put(name.getKey(), new Entry(name.getValue(), null, null));
+                }
+                return new ReferenceImageStore(new TreeMap<>(mBlobs), entries, mMaxCachePixels);
+            }
+
+            // Blobs with identical pixels map to the first of them.
+            final Map<String, String> canonical = new TreeMap<>();
+            final Map<String, Image> images = new TreeMap<>();
+            final Map<String, String> byPixels = new TreeMap<>();
+            for (Map.Entry<String, byte[]> blob : mBlobs.entrySet()) {
+                final Image image = decode(blob.getValue());
+                final String pixelHash = sha1(image);
+                final String existing = byPixels.get(pixelHash);
+                if (existing != null) {
+                    canonical.put(blob.getKey(), existing);
+                } else {
+                    byPixels.put(pixelHash, blob.getKey());
+                    canonical.put(blob.getKey(), blob.getKey());
+                    images.put(blob.getKey(), image);
+                }
+            }
+
+            // Each remaining image is either a base, or a delta against the earlier base of the
+            // same size with which it shares the most tiles.
+            final Map<String, byte[]> blobs = new TreeMap<>();
+            final List<String> bases = new ArrayList<>();
+            final Map<String, long[]> tileHashes = new TreeMap<>();
+            final Map<String, Entry> blobEntries = new TreeMap<>();
+            for (Map.Entry<String, Image> e : images.entrySet()) {
+                final String blob = e.getKey();
+                final Image image = e.getValue();
+                final long[] hashes = getTileHashes(image);
+                String bestBase = null;
+                int bestDiffering = Integer.MAX_VALUE;
+                for (String base : bases) {
+                    final Image baseImage = images.get(base);
+                    if (baseImage.width != image.width || baseImage.height != image.height) {
+                        continue;
+                    }
+                    final long[] baseHashes = tileHashes.get(base);
+                    int differing = 0;
+                    for (int t = 0; t < hashes.length && differing < bestDiffering; t++) {
+                        if (hashes[t] != baseHashes[t]) {
+                            differing++;
+                        }
+                    }
+                    if (differing < bestDiffering) {
+                        bestBase = base;
+                        bestDiffering = differing;
+                    }
+                }
+
+                Entry delta = null;
+                if (bestBase != null && bestDiffering <= hashes.length * MAX_DELTA_TILE_FRACTION) {
+                    delta = makeDelta(bestBase, images.get(bestBase), image,
+                            mBlobs.get(blob).length);
+                }
+                if (delta != null) {
+                    blobEntries.put(blob, delta);
+                } else {
+                    bases.add(blob);
+                    tileHashes.put(blob, hashes);
+                    blobs.put(blob, mBlobs.get(blob));
+                    blobEntries.put(blob, new Entry(blob, null, null));
+                }
+            }
+
+            for (Map.Entry<String, String> name : mNames.entrySet()) {
+                entries.put(name.getKey(), blobEntries.get(canonical.get(name.getValue())));
+            }
+            return new ReferenceImageStore(blobs, entries, mMaxCachePixels);
+        }
+
+        /**
+         * Returns a delta entry for the tiles of image that differ from base, or {@code null} if
+         * its encoding is not smaller than maxBytes.
+         */
+        private static Entry makeDelta(String baseBlob, Image base, Image image, int maxBytes)
+                throws IOException {
+            final int tileCount = getTileCount(image.width, image.height);
+            final List<Integer> indices = new ArrayList<>();
+            for (int t = 0; t < tileCount; t++) {
+                if (!isTileEqual(base, image, t)) {
+                    indices.add(t);
+                }
+            }
+            final int[] tileIndices = new int[indices.size()];
+            for (int i = 0; i < tileIndices.length; i++) {
+                tileIndices[i] = indices.get(i);
+            }
+
+            final int stripWidth = Math.max(1, tileIndices.length) * TILE_SIZE;
+            final int[] strip = new int[stripWidth * TILE_SIZE];
+            final int tilesPerRow = (image.width + TILE_SIZE - 1) / TILE_SIZE;
+            for (int i = 0; i < tileIndices.length; i++) {
+                final int x0 = (tileIndices[i] % tilesPerRow) * TILE_SIZE;
+                final int y0 = (tileIndices[i] / tilesPerRow) * TILE_SIZE;
+                final int w = Math.min(TILE_SIZE, image.width - x0);
+                final int h = Math.min(TILE_SIZE, image.height - y0);
+                for (int y = 0; y < h; y++) {
+                    final int row = (y0 + y) * image.width + x0;
+                    final int stripRow = y * stripWidth + i * TILE_SIZE;
+                    for (int x = 0; x < w; x++) {
+                        strip[stripRow + x] = image.mPixels[row + x] ^ base.mPixels[row + x];
+                    }
+                }
+            }
+
+            final BufferedImage stripImage = new BufferedImage(stripWidth, TILE_SIZE,
+                    BufferedImage.TYPE_INT_ARGB);
+            stripImage.setRGB(0, 0, stripWidth, TILE_SIZE, strip, 0, stripWidth);
+            final ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(stripImage, "png", png);
+            if (png.size() >= maxBytes) {
+                return null;
+            }
+            return new Entry(baseBlob, tileIndices, png.toByteArray());
+        }
+    }
+
+    /** Packs a reference zip into a store: {@code <input.zip> <output.store>}. */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ReferenceImageStore <input.zip> <output" + EXTENSION + ">");
+            System.exit(1);
+        }
+        final ReferenceImageStore store;
+        try (InputStream in = new FileInputStream(args[0])) {
+            store = new Builder().setDeltaEncoding(true).addZip(in).build();
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]))) {
+            store.write(out);
+        }
+        System.out.println(store.getNames().size() + " images, " + store.getBlobCount()
+                + " blobs, " + store.getDeltaCount() + " deltas");
+    }
+}
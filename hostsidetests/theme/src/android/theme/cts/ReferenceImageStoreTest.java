@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.theme.cts;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Host-side round trip tests of {@link ReferenceImageStore}. They need no device.
+ */
+public class ReferenceImageStoreTest extends TestCase {
+    private static final int SIZE = 96;
+
+    private final Random mRandom = new Random(37);
+
+    /** Test that byte-identical and pixel-identical images share one blob. */
+    public void testDuplicates() throws Exception {
+        final int[] pixels = noise(SIZE, SIZE);
+        final byte[] png = png(SIZE, SIZE, pixels);
+        // Bytes after IEND change the hash but not the pixels.
+        final byte[] padded = Arrays.copyOf(png, png.length + 4);
+        final byte[] other = png(SIZE, SIZE, noise(SIZE, SIZE));
+
+        final ReferenceImageStore plain = new ReferenceImageStore.Builder()
+                .addImage("a.png", png)
+                .addImage("b.png", png.clone())
+                .addImage("c.png", padded)
+                .addImage("d.png", other)
+                .build();
+        assertEquals(4, plain.getNames().size());
+        assertEquals(3, plain.getBlobCount());
+        assertSame(plain.getImage("a.png"), plain.getImage("b.png"));
+
+        final ReferenceImageStore packed = roundTrip(new ReferenceImageStore.Builder()
+                .setDeltaEncoding(true)
+                .addImage("a.png", png)
+                .addImage("b.png", png.clone())
+                .addImage("c.png", padded)
+                .addImage("d.png", other)
+                .build());
+        assertEquals(2, packed.getBlobCount());
+        assertEquals(0, packed.getDeltaCount());
+        assertPixels(pixels, packed.getImage("a.png"));
+        assertPixels(pixels, packed.getImage("c.png"));
+        assertSame(packed.getImage("a.png"), packed.getImage("c.png"));
+        assertNull(packed.getImage("missing.png"));
+    }
+
+    /** Test that near-duplicates are stored as deltas and decoded bit-exact. */
+    public void testDeltas() throws Exception {
+        // Not a multiple of the tile size, so that edge tiles are clipped.
+        final int width = SIZE + 7;
+        final int height = SIZE + 13;
+        final int[] base = noise(width, height);
+        final int[] changed = base.clone();
+        // Changes in a middle tile and in the bottom right edge tile.
+        for (int y = 40; y < 50; y++) {
+            for (int x = 40; x < 50; x++) {
+                changed[y * width + x] = 0xFF00FF00;
+            }
+        }
+        changed[width * height - 1] ^= 0x01000001;
+        final int[] shifted = noise(width, height);
+
+        final ReferenceImageStore store = roundTrip(new ReferenceImageStore.Builder()
+                .setDeltaEncoding(true)
+                .addImage("base.png", png(width, height, base))
+                .addImage("changed.png", png(width, height, changed))
+                .addImage("other.png", png(width, height, shifted))
+                .build());
+        assertEquals(1, store.getDeltaCount());
+        assertEquals(2, store.getBlobCount());
+        assertPixels(base, store.getImage("base.png"));
+        assertPixels(changed, store.getImage("changed.png"));
+        assertPixels(shifted, store.getImage("other.png"));
+    }
+
+    /** Test that the least recently used images are evicted past the pixel bound. */
+    public void testLruEviction() throws Exception {
+        final ReferenceImageStore store = roundTrip(new ReferenceImageStore.Builder()
+                .addImage("a.png", png(SIZE, SIZE, noise(SIZE, SIZE)))
+                .addImage("b.png", png(SIZE, SIZE, noise(SIZE, SIZE)))
+                .addImage("c.png", png(SIZE, SIZE, noise(SIZE, SIZE)))
+                .build(), 2 * SIZE * SIZE);
+
+        final ReferenceImageStore.Image a = store.getImage("a.png");
+        final ReferenceImageStore.Image b = store.getImage("b.png");
+        assertSame(a, store.getImage("a.png"));
+        // a was used after b, so c evicts b.
+        final ReferenceImageStore.Image c = store.getImage("c.png");
+        assertSame(a, store.getImage("a.png"));
+        assertSame(c, store.getImage("c.png"));
+        final ReferenceImageStore.Image b2 = store.getImage("b.png");
+        assertNotSame(b, b2);
+        assertPixels(b.getPixels(), b2);
+    }
+
+    /** Test that truncated and corrupt stores fail with an IOException. */
+    public void testCorruptStore() throws Exception {
+        final int[] base = noise(SIZE, SIZE);
+        final int[] changed = base.clone();
+        changed[0] = 0;
+        final byte[] bytes = write(new ReferenceImageStore.Builder()
+                .setDeltaEncoding(true)
+                .addImage("base.png", png(SIZE, SIZE, base))
+                .addImage("changed.png", png(SIZE, SIZE, changed))
+                .build());
+
+        for (int length = 0; length < bytes.length; length += length < 64 ? 1 : 97) {
+            try {
+                ReferenceImageStore.read(new ByteArrayInputStream(bytes, 0, length));
+                fail("Read a store truncated to " + length + " bytes");
+            } catch (IOException expected) {
+            }
+        }
+
+        final byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 1;
+        assertReadFails(badMagic);
+
+        // The length of the first blob, after the magic, tile size, blob count and hash.
+        final int blobLength = 12 + 2 + 40;
+        final byte[] hugeBlob = bytes.clone();
+        ByteBuffer.wrap(hugeBlob).putInt(blobLength, Integer.MAX_VALUE);
+        assertReadFails(hugeBlob);
+        final byte[] negativeBlob = bytes.clone();
+        ByteBuffer.wrap(negativeBlob).putInt(blobLength, -2);
+        assertReadFails(negativeBlob);
+
+        // The tile count of the delta entry, after its name and base blob hash.
+        final int tileCount = indexOf(bytes, "changed.png") + "changed.png".length() + 2 + 40;
+        assertEquals(1, ByteBuffer.wrap(bytes).getInt(tileCount));
+        final byte[] hugeTileCount = bytes.clone();
+        ByteBuffer.wrap(hugeTileCount).putInt(tileCount, Integer.MAX_VALUE);
+        assertReadFails(hugeTileCount);
+
+        final byte[] badTile = bytes.clone();
+        ByteBuffer.wrap(badTile).putInt(tileCount + 4, 1000);
+        final ReferenceImageStore badTileStore = read(badTile, Long.MAX_VALUE);
+        assertPixels(base, badTileStore.getImage("base.png"));
+        assertImageFails(badTileStore, "changed.png");
+
+        // Garbage in the middle of the base blob, which is a PNG.
+        final byte[] badPng = bytes.clone();
+        Arrays.fill(badPng, blobLength + 4 + 40, blobLength + 4 + 200, (byte) 0x5A);
+        assertImageFails(read(badPng, Long.MAX_VALUE), "base.png");
+    }
+
+    private static void assertReadFails(byte[] bytes) {
+        try {
+            read(bytes, Long.MAX_VALUE);
+            fail("Read a corrupt store");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void assertImageFails(ReferenceImageStore store, String name) {
+        try {
+            store.getImage(name);
+            fail("Decoded corrupt " + name);
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void assertPixels(int[] expected, ReferenceImageStore.Image image) {
+        assertNotNull(image);
+        assertTrue(Arrays.equals(expected, image.getPixels()));
+    }
+
+    private static int indexOf(byte[] bytes, String text) {
+        final byte[] pattern = text.getBytes(StandardCharsets.UTF_8);
+        outer:
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError(text + " not found");
+    }
+
+    private static ReferenceImageStore roundTrip(ReferenceImageStore store) throws IOException {
+        return roundTrip(store, Long.MAX_VALUE);
+    }
+
+    private static ReferenceImageStore roundTrip(ReferenceImageStore store, long maxCachePixels)
+            throws IOException {
+        return read(write(store), maxCachePixels);
+    }
+
+    private static byte[] write(ReferenceImageStore store) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.write(out);
+        return out.toByteArray();
+    }
+
+    private static ReferenceImageStore read(byte[] bytes, long maxCachePixels)
+            throws IOException {
+        return ReferenceImageStore.read(new ByteArrayInputStream(bytes), maxCachePixels);
+    }
+
+    /** Returns opaque pixels of a few colors, so that images compress a little. */
+    private int[] noise(int width, int height) {
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (mRandom.nextInt(4) * 0x3F3F3F);
+        }
+        return pixels;
+    }
+
+    private static byte[] png(int width, int height, int[] pixels) throws IOException {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -28,16 +28,16 @@ import com.android.tradefed.testtype.DeviceTestCase;
 import com.android.tradefed.util.Pair;
 import com.android.tradefed.util.StreamUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -73,8 +73,8 @@ public class ThemeHostTest extends DeviceTestCase {
     /** Overall test timeout is 30 minutes. Should only take about 5. */
     private static final int TEST_RESULT_TIMEOUT = 30 * 60 * 1000;
 
-    /** Map of reference image names and files. */
-    private Map<String, File> mReferences;
+    /** Reference images, by name. */
+    private ReferenceImageStore mReferences;
 
     /** A reference to the device under test. */
     private ITestDevice mDevice;
@@ -83,6 +83,12 @@ public class ThemeHostTest extends DeviceTestCase {
 
     private ExecutorCompletionService<Pair<String, File>> mCompletionService;
 
+    /**
+     * Bounds the number of comparisons submitted but not yet finished, and so the number of
+     * generated images held in memory while the zip file is being read.
+     */
+    private Semaphore mPendingComparisons;
+
     // Density to which the device should be restored, or -1 if unnecessary.
     private int mRestoreDensity;
 
@@ -94,32 +100,35 @@ public class ThemeHostTest extends DeviceTestCase {
         mRestoreDensity = resetDensityIfNeeded(mDevice);
         mDevice.executeShellCommand("settings put system font_scale 1.0");
         final String density = getDensityBucketForDevice(mDevice);
-        final String referenceZipAssetPath = String.format("/%s.zip", density);
-        mReferences = extractReferenceImages(referenceZipAssetPath);
+        mReferences = loadReferenceImages(density);
 
         final int numCores = Runtime.getRuntime().availableProcessors();
         mExecutionService = Executors.newFixedThreadPool(numCores * 2);
         mCompletionService = new ExecutorCompletionService<>(mExecutionService);
+        mPendingComparisons = new Semaphore(numCores * 4);
     }
 
-    private Map<String, File> extractReferenceImages(String zipFile) throws Exception {
-        final Map<String, File> references = new HashMap<>();
+    /**
+     * Loads the packed reference image store of the density if there is one, and the reference
+     * zip otherwise.
+     */
+    private ReferenceImageStore loadReferenceImages(String density) throws Exception {
+        final String storeFile = String.format("/%s%s", density, ReferenceImageStore.EXTENSION);
+        final InputStream storeStream = ThemeHostTest.class.getResourceAsStream(storeFile);
+        if (storeStream != null) {
+            try (InputStream in = storeStream) {
+                return ReferenceImageStore.read(in);
+            } catch (IOException e) {
+                fail("Failed to read assets: " + storeFile);
+            }
+        }
+
+        final String zipFile = String.format("/%s.zip", density);
+        final ReferenceImageStore.Builder references = new ReferenceImageStore.Builder();
         final InputStream zipStream = ThemeHostTest.class.getResourceAsStream(zipFile);
         if (zipStream != null) {
-            try (ZipInputStream in = new ZipInputStream(zipStream)) {
-                final byte[] buffer = new byte[1024];
-                for (ZipEntry ze; (ze = in.getNextEntry()) != null; ) {
-                    final String name = ze.getName();
-                    final File tmp = File.createTempFile("ref_" + name, ".png");
-                    tmp.deleteOnExit();
-                    try (FileOutputStream out = new FileOutputStream(tmp)) {
-                        for (int count; (count = in.read(buffer)) != -1; ) {
-                            out.write(buffer, 0, count);
-                        }
-                    }
-
-                    references.put(name, tmp);
-                }
+            try (InputStream in = zipStream) {
+                references.addZip(in);
             } catch (IOException e) {
                 fail("Failed to unzip assets: " + zipFile);
             }
@@ -132,7 +141,7 @@ public class ThemeHostTest extends DeviceTestCase {
             }
         }
 
-        return references;
+        return references.build();
     }
 
     @Override
@@ -186,28 +195,31 @@ public class ThemeHostTest extends DeviceTestCase {
         assertTrue(failureCount + " failures in theme test", failureCount == 0);
     }
 
-    private int extractGeneratedImages(File localZip, Map<String, File> references)
-            throws IOException {
+    private int extractGeneratedImages(File localZip, ReferenceImageStore references)
+            throws IOException, InterruptedException {
         int numTasks = 0;
 
-        // Extract generated images to temporary files.
-        final byte[] data = new byte[8192];
+        // Read generated images into memory, waiting for earlier comparisons to finish when too
+        // many are pending.
         try (ZipInputStream zipInput = new ZipInputStream(new FileInputStream(localZip))) {
             for (ZipEntry entry; (entry = zipInput.getNextEntry()) != null; ) {
                 final String name = entry.getName();
-                final File expected = references.get(name);
-                if (expected != null && expected.exists()) {
-                    final File actual = File.createTempFile("actual_" + name, ".png");
-                    actual.deleteOnExit();
-
-                    try (FileOutputStream pngOutput = new FileOutputStream(actual)) {
-                        for (int count; (count = zipInput.read(data, 0, data.length)) != -1; ) {
-                            pngOutput.write(data, 0, count);
-                        }
-                    }
-
+                if (references.contains(name)) {
+                    final byte[] actual = readEntry(zipInput, entry);
                     final String shortName = name.substring(0, name.indexOf('.'));
-                    mCompletionService.submit(new ComparisonTask(shortName, expected, actual));
+                    final ComparisonTask task =
+                            new ComparisonTask(shortName, references, name, actual);
+                    mPendingComparisons.acquire();
+                    mCompletionService.submit(new Callable<Pair<String, File>>() {
+                        @Override
+                        public Pair<String, File> call() throws Exception {
+                            try {
+                                return task.call();
+                            } finally {
+                                mPendingComparisons.release();
+                            }
+                        }
+                    });
                     numTasks++;
                 } else {
                     Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
@@ -221,6 +233,17 @@ public class ThemeHostTest extends DeviceTestCase {
         return numTasks;
     }
 
+    private static byte[] readEntry(ZipInputStream in, ZipEntry entry) throws IOException {
+        final long size = entry.getSize();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(
+                size > 0 && size < Integer.MAX_VALUE ? (int) size : 8192);
+        final byte[] buffer = new byte[8192];
+        for (int count; (count = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
     private boolean generateDeviceImages() throws Exception {
         // Stop any existing instances.
         mDevice.executeShellCommand(STOP_CMD);
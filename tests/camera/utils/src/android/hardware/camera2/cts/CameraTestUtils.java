@@ -31,6 +31,7 @@ import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.cts.helpers.CameraErrorCollector;
+import android.hardware.camera2.cts.helpers.ImagePlaneBufferPool;
 import android.hardware.camera2.cts.helpers.StaticMetadata;
 import android.hardware.camera2.params.InputConfiguration;
 import android.hardware.camera2.TotalCaptureResult;
@@ -93,6 +94,7 @@ public class CameraTestUtils extends Assert {
     private static final String TAG = "CameraTestUtils";
     private static final boolean VERBOSE = Log.isLoggable(TAG, Log.VERBOSE);
     private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+    private static final ImagePlaneBufferPool sImagePlaneBufferPool = new ImagePlaneBufferPool();
     public static final Size SIZE_BOUND_1080P = new Size(1920, 1088);
     public static final Size SIZE_BOUND_2160P = new Size(3840, 2160);
     // Only test the preview size that is no larger than 1080p.
@@ -1011,6 +1013,38 @@ public class CameraTestUtils extends Assert {
      * <p>For JPEG, it returns a 1-D byte array contains a complete JPEG image.</p>
      */
     public static byte[] getDataFromImage(Image image) {
+        return getDataFromImage(image, /*pooled*/false);
+    }
+
+    /**
+     * <p>Read data from all planes of an Image like {@link #getDataFromImage(Image)}, into a
+     * buffer of the image plane buffer pool instead of a new byte array.</p>
+     *
+     * <p>The buffer must be given back with {@link #releasePooledData} once the data is no longer
+     * used. JPEG, DEPTH_POINT_CLOUD and RAW_PRIVATE images have a variable size, their data is
+     * still read into a new byte array.</p>
+     */
+    public static byte[] getPooledDataFromImage(Image image) {
+        return getDataFromImage(image, /*pooled*/true);
+    }
+
+    /**
+     * Give back the data returned by {@link #getPooledDataFromImage} to the image plane buffer
+     * pool.
+     */
+    public static void releasePooledData(byte[] data) {
+        sImagePlaneBufferPool.release(data);
+    }
+
+    /**
+     * Get the pool of the buffers image data is read into, e.g. to check its allocation and
+     * copy time counters.
+     */
+    public static ImagePlaneBufferPool getImagePlaneBufferPool() {
+        return sImagePlaneBufferPool;
+    }
+
+    private static byte[] getDataFromImage(Image image, boolean pooled) {
         assertNotNull("Invalid image:", image);
         int format = image.getFormat();
         int width = image.getWidth();
@@ -1032,21 +1066,28 @@ public class CameraTestUtils extends Assert {
                 format == ImageFormat.RAW_PRIVATE) {
             buffer = planes[0].getBuffer();
             assertNotNull("Fail to get jpeg or depth ByteBuffer", buffer);
+            long startNs = System.nanoTime();
             data = new byte[buffer.remaining()];
             buffer.get(data);
             buffer.rewind();
+            sImagePlaneBufferPool.recordCopy(data.length, System.nanoTime() - startNs);
             return data;
         }
 
+        long startNs = System.nanoTime();
         int offset = 0;
-        data = new byte[width * height * ImageFormat.getBitsPerPixel(format) / 8];
+        if (pooled) {
+            data = sImagePlaneBufferPool.acquire(format, width, height);
+        } else {
+            data = new byte[ImagePlaneBufferPool.getPackedSize(format, width, height)];
+        }
         int maxRowSize = planes[0].getRowStride();
         for (int i = 0; i < planes.length; i++) {
             if (maxRowSize < planes[i].getRowStride()) {
                 maxRowSize = planes[i].getRowStride();
             }
         }
-        byte[] rowData = new byte[maxRowSize];
+        byte[] rowData = sImagePlaneBufferPool.getScratchRow(0, maxRowSize);
         if(VERBOSE) Log.v(TAG, "get data from " + planes.length + " planes");
         for (int i = 0; i < planes.length; i++) {
             buffer = planes[i].getBuffer();
@@ -1090,6 +1131,7 @@ public class CameraTestUtils extends Assert {
             if (VERBOSE) Log.v(TAG, "Finished reading data from plane " + i);
             buffer.rewind();
         }
+        sImagePlaneBufferPool.recordCopy(offset, System.nanoTime() - startNs);
         return data;
     }
 
@@ -1512,7 +1554,19 @@ public class CameraTestUtils extends Assert {
          * 2. timestamps should be monotonically increasing for different requests
          */
         if(VERBOSE) Log.v(TAG, "validating Image");
-        byte[] data = getDataFromImage(image);
+        byte[] data = getPooledDataFromImage(image);
+        try {
+            validateImageData(data, width, height, format, image.getTimestamp(), filePath);
+        } finally {
+            // Variable size data, e.g. JPEG, is not read into a pooled buffer.
+            if (ImageFormat.getBitsPerPixel(format) > 0) {
+                releasePooledData(data);
+            }
+        }
+    }
+
+    private static void validateImageData(byte[] data, int width, int height, int format,
+            long ts, String filePath) {
         assertTrue("Invalid image data", data != null && data.length > 0);
 
         switch (format) {
@@ -1521,19 +1575,19 @@ public class CameraTestUtils extends Assert {
                 break;
             case ImageFormat.YUV_420_888:
             case ImageFormat.YV12:
-                validateYuvData(data, width, height, format, image.getTimestamp(), filePath);
+                validateYuvData(data, width, height, format, ts, filePath);
                 break;
             case ImageFormat.RAW_SENSOR:
-                validateRaw16Data(data, width, height, format, image.getTimestamp(), filePath);
+                validateRaw16Data(data, width, height, format, ts, filePath);
                 break;
             case ImageFormat.DEPTH16:
-                validateDepth16Data(data, width, height, format, image.getTimestamp(), filePath);
+                validateDepth16Data(data, width, height, format, ts, filePath);
                 break;
             case ImageFormat.DEPTH_POINT_CLOUD:
-                validateDepthPointCloudData(data, width, height, format, image.getTimestamp(), filePath);
+                validateDepthPointCloudData(data, width, height, format, ts, filePath);
                 break;
             case ImageFormat.RAW_PRIVATE:
-                validateRawPrivateData(data, width, height, image.getTimestamp(), filePath);
+                validateRawPrivateData(data, width, height, ts, filePath);
                 break;
             default:
                 throw new UnsupportedOperationException("Unsupported format for validation: "
@@ -1896,6 +1950,8 @@ public class CameraTestUtils extends Assert {
         Plane[] dstPlanes = dst.getPlanes();
         ByteBuffer srcBuffer = null;
         ByteBuffer dstBuffer = null;
+        long startNs = System.nanoTime();
+        long copiedBytes = 0;
         for (int i = 0; i < srcPlanes.length; i++) {
             srcBuffer = srcPlanes[i].getBuffer();
             dstBuffer = dstPlanes[i].getBuffer();
@@ -1915,14 +1971,16 @@ public class CameraTestUtils extends Assert {
 
             if (srcRowStride == dstRowStride && srcPixStride == dstPixStride) {
                 // Fast path, just copy the content in the byteBuffer all together.
+                copiedBytes += srcBuffer.remaining();
                 dstBuffer.put(srcBuffer);
             } else {
                 Size effectivePlaneSize = getEffectivePlaneSizeForImage(src, i);
                 int srcRowByteCount = srcRowStride;
-                byte[] srcDataRow = new byte[srcRowByteCount];
 
                 if (srcPixStride == dstPixStride) {
-                    // Row by row copy case
+                    // Row by row copy case, copy each row directly between the byteBuffers by
+                    // limiting the source to the row.
+                    int srcLimit = srcBuffer.limit();
                     for (int row = 0; row < effectivePlaneSize.getHeight(); row++) {
                         if (row == effectivePlaneSize.getHeight() - 1) {
                             // Special case for interleaved planes: need handle the last row
@@ -1933,13 +1991,16 @@ public class CameraTestUtils extends Assert {
                                 srcRowByteCount = remainingBytes;
                             }
                         }
-                        srcBuffer.get(srcDataRow, /*offset*/0, srcRowByteCount);
-                        dstBuffer.put(srcDataRow, /*offset*/0, srcRowByteCount);
+                        srcBuffer.limit(srcBuffer.position() + srcRowByteCount);
+                        dstBuffer.put(srcBuffer);
+                        srcBuffer.limit(srcLimit);
+                        copiedBytes += srcRowByteCount;
                     }
                 } else {
                     // Row by row per pixel copy case
+                    byte[] srcDataRow = sImagePlaneBufferPool.getScratchRow(0, srcRowByteCount);
                     int dstRowByteCount = dstRowStride;
-                    byte[] dstDataRow = new byte[dstRowByteCount];
+                    byte[] dstDataRow = sImagePlaneBufferPool.getScratchRow(1, dstRowByteCount);
                     for (int row = 0; row < effectivePlaneSize.getHeight(); row++) {
                         if (row == effectivePlaneSize.getHeight() - 1) {
                             // Special case for interleaved planes: need handle the last row
@@ -1962,12 +2023,14 @@ public class CameraTestUtils extends Assert {
                             dstDataRow[x * dstPixStride] = srcDataRow[x * srcPixStride];
                         }
                         dstBuffer.put(dstDataRow, /*offset*/0, dstRowByteCount);
+                        copiedBytes += effectivePlaneSize.getWidth();
                     }
                 }
             }
             srcBuffer.position(srcPos);
             dstBuffer.rewind();
         }
+        sImagePlaneBufferPool.recordCopy(copiedBytes, System.nanoTime() - startNs);
     }
 
     private static Size getEffectivePlaneSizeForImage(Image image, int planeIdx) {
@@ -2059,14 +2122,24 @@ public class CameraTestUtils extends Assert {
             rhsBuffer.rewind();
             // Special case for YUV420_888 buffer with different chroma layout
             if (lhsImg.getFormat() == ImageFormat.YUV_420_888 && (i != 0) &&
+                    lhsPlanes[i].getPixelStride() == 1 && rhsPlanes[i].getPixelStride() == 1 &&
+                    lhsPlanes[i].getRowStride() != rhsPlanes[i].getRowStride()) {
+                // Planar chroma with different row padding, compare the rows in place.
+                if (!isPlaneRowsEqual(lhsBuffer, lhsPlanes[i].getRowStride(), rhsBuffer,
+                        rhsPlanes[i].getRowStride(), lhsImg.getWidth() / 2,
+                        lhsImg.getHeight() / 2)) {
+                    Log.i(TAG, "byte buffers for plane " +  i + " don't match.");
+                    return false;
+                }
+            } else if (lhsImg.getFormat() == ImageFormat.YUV_420_888 && (i != 0) &&
                     (lhsPlanes[i].getPixelStride() != rhsPlanes[i].getPixelStride() ||
                      lhsPlanes[i].getRowStride() != rhsPlanes[i].getRowStride())) {
                 int width = lhsImg.getWidth() / 2;
                 int height = lhsImg.getHeight() / 2;
                 int rowSizeL = lhsPlanes[i].getRowStride();
                 int rowSizeR = rhsPlanes[i].getRowStride();
-                byte[] lhsRow = new byte[rowSizeL];
-                byte[] rhsRow = new byte[rowSizeR];
+                byte[] lhsRow = sImagePlaneBufferPool.getScratchRow(0, rowSizeL);
+                byte[] rhsRow = sImagePlaneBufferPool.getScratchRow(1, rowSizeR);
                 int pixStrideL = lhsPlanes[i].getPixelStride();
                 int pixStrideR = rhsPlanes[i].getPixelStride();
                 for (int r = 0; r < height; r++) {
@@ -2097,6 +2170,37 @@ public class CameraTestUtils extends Assert {
         return true;
     }
 
+    /**
+     * Compare the rows of two planes with a pixel stride of 1 but different row strides, with
+     * bulk comparisons of the byteBuffers. The padding at the end of the rows is not compared.
+     * The buffers are rewound afterwards.
+     */
+    private static boolean isPlaneRowsEqual(ByteBuffer lhsBuffer, int rowStrideL,
+            ByteBuffer rhsBuffer, int rowStrideR, int width, int height) {
+        int limitL = lhsBuffer.limit();
+        int limitR = rhsBuffer.limit();
+        try {
+            for (int r = 0; r < height; r++) {
+                int posL = r * rowStrideL;
+                int posR = r * rowStrideR;
+                if (posL + width > limitL || posR + width > limitR) {
+                    return false;
+                }
+                lhsBuffer.limit(posL + width).position(posL);
+                rhsBuffer.limit(posR + width).position(posR);
+                if (!lhsBuffer.equals(rhsBuffer)) {
+                    return false;
+                }
+                lhsBuffer.limit(limitL);
+                rhsBuffer.limit(limitR);
+            }
+        } finally {
+            lhsBuffer.limit(limitL).rewind();
+            rhsBuffer.limit(limitR).rewind();
+        }
+        return true;
+    }
+
     /**
      * Set jpeg related keys in a capture request builder.
      *
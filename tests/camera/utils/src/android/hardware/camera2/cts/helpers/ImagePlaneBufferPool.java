@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.hardware.camera2.cts.helpers;
+
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of the byte arrays the image data is copied into, so that burst and high frame rate
+ * tests that read every image don't allocate a new array, and trigger garbage collections that
+ * skew the frame timing checks, per image.
+ *
+ * <p>Buffers are handed out with the exact packed size of a (format, size), and are kept by
+ * size, so that the formats of the same packed size share them. The pool keeps a few buffers per
+ * size, and drops the least recently used sizes beyond a total number of bytes. Each thread also
+ * gets scratch rows, used to read strided rows of image planes.</p>
+ *
+ * <p>The pool counts the buffers it allocates and reuses, and the bytes copied out of images
+ * and the time spent copying, so that tests can check and report the cost of image reads.</p>
+ */
+public class ImagePlaneBufferPool {
+    private static final String TAG = "ImagePlaneBufferPool";
+
+    private static final int MAX_BUFFERS_PER_SIZE = 2;
+    private static final long MAX_POOLED_BYTES = 64L * 1024 * 1024;
+    private static final int SCRATCH_ROW_COUNT = 2;
+
+    // Buffers by size, in least recently used order.
+    private final LinkedHashMap<Integer, ArrayDeque<byte[]>> mBuffers =
+            new LinkedHashMap<>(16, 0.75f, /*accessOrder*/true);
+    private long mPooledBytes;
+
+    private final ThreadLocal<byte[][]> mScratchRows = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[SCRATCH_ROW_COUNT][];
+        }
+    };
+
+    private final AtomicLong mAllocationCount = new AtomicLong();
+    private final AtomicLong mAllocatedBytes = new AtomicLong();
+    private final AtomicLong mReuseCount = new AtomicLong();
+    private final AtomicLong mCopiedBytes = new AtomicLong();
+    private final AtomicLong mCopyTimeNs = new AtomicLong();
+
+    /**
+     * Get the packed size of an image, with no padding between rows and pixels.
+     *
+     * @param format The image format, it must have a fixed number of bits per pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @return The size in bytes.
+     * @throws IllegalArgumentException If the format has no fixed size.
+     */
+    public static int getPackedSize(int format, int width, int height) {
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(format);
+        if (bitsPerPixel <= 0) {
+            throw new IllegalArgumentException("Format " + format + " has no fixed size");
+        }
+        return width * height * bitsPerPixel / 8;
+    }
+
+    /**
+     * Get a buffer for the packed data of an image.
+     *
+     * <p>The content of the buffer is undefined. It must be given back with {@link #release}
+     * once the data is no longer used.</p>
+     *
+     * @param format The image format, it must have a fixed number of bits per pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @return A buffer of exactly the packed size of the image.
+     */
+    public byte[] acquire(int format, int width, int height) {
+        return acquire(getPackedSize(format, width, height));
+    }
+
+    /**
+     * Get a buffer of a given size.
+     *
+     * @param size The size of the buffer, in bytes.
+     * @return A buffer of exactly this size, with undefined content.
+     */
+    public byte[] acquire(int size) {
+        synchronized (mBuffers) {
+            ArrayDeque<byte[]> buffers = mBuffers.get(size);
+            if (buffers != null && !buffers.isEmpty()) {
+                mPooledBytes -= size;
+                mReuseCount.incrementAndGet();
+                return buffers.pop();
+            }
+        }
+        return allocate(size);
+    }
+
+    /**
+     * Give back a buffer, so that it can be reused.
+     *
+     * @param buffer A buffer from {@link #acquire}. It must not be used after this call.
+     * @throws IllegalStateException If the buffer is already in the pool.
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length == 0 || buffer.length > MAX_POOLED_BYTES) {
+            return;
+        }
+        synchronized (mBuffers) {
+            ArrayDeque<byte[]> buffers = mBuffers.get(buffer.length);
+            if (buffers == null) {
+                buffers = new ArrayDeque<>(MAX_BUFFERS_PER_SIZE);
+                mBuffers.put(buffer.length, buffers);
+            }
+            for (byte[] pooled : buffers) {
+                if (pooled == buffer) {
+                    throw new IllegalStateException("Buffer is released twice");
+                }
+            }
+            if (buffers.size() >= MAX_BUFFERS_PER_SIZE) {
+                return;
+            }
+            buffers.push(buffer);
+            mPooledBytes += buffer.length;
+            trimLocked();
+        }
+    }
+
+    // Drop the buffers of the least recently used sizes until the pool fits in its budget.
+    private void trimLocked() {
+        Iterator<Map.Entry<Integer, ArrayDeque<byte[]>>> it = mBuffers.entrySet().iterator();
+        while (mPooledBytes > MAX_POOLED_BYTES && it.hasNext()) {
+            Map.Entry<Integer, ArrayDeque<byte[]>> entry = it.next();
+            ArrayDeque<byte[]> buffers = entry.getValue();
+            while (mPooledBytes > MAX_POOLED_BYTES && !buffers.isEmpty()) {
+                buffers.removeLast();
+                mPooledBytes -= entry.getKey();
+            }
+            if (buffers.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Get a scratch row of the calling thread.
+     *
+     * <p>The row is only valid until the next call with the same index on this thread, so each
+     * row of a method that reads several planes at once must use its own index.</p>
+     *
+     * @param index The index of the row, 0 or 1.
+     * @param minSize The minimum size of the row, in bytes.
+     * @return A row of at least minSize bytes, with undefined content.
+     */
+    public byte[] getScratchRow(int index, int minSize) {
+        byte[][] rows = mScratchRows.get();
+        if (rows[index] == null || rows[index].length < minSize) {
+            rows[index] = allocate(minSize);
+        }
+        return rows[index];
+    }
+
+    private byte[] allocate(int size) {
+        mAllocationCount.incrementAndGet();
+        mAllocatedBytes.addAndGet(size);
+        return new byte[size];
+    }
+
+    /**
+     * Count a copy of image data.
+     *
+     * @param bytes The number of bytes copied.
+     * @param timeNs The time spent copying, in nanoseconds.
+     */
+    public void recordCopy(long bytes, long timeNs) {
+        mCopiedBytes.addAndGet(bytes);
+        mCopyTimeNs.addAndGet(timeNs);
+    }
+
+    /**
+     * Get the number of buffers and scratch rows allocated by the pool.
+     */
+    public long getAllocationCount() {
+        return mAllocationCount.get();
+    }
+
+    /**
+     * Get the number of bytes allocated by the pool.
+     */
+    public long getAllocatedBytes() {
+        return mAllocatedBytes.get();
+    }
+
+    /**
+     * Get the number of buffers handed out again instead of being allocated.
+     */
+    public long getReuseCount() {
+        return mReuseCount.get();
+    }
+
+    /**
+     * Get the number of bytes of image data copied.
+     */
+    public long getCopiedBytes() {
+        return mCopiedBytes.get();
+    }
+
+    /**
+     * Get the time spent copying image data, in nanoseconds.
+     */
+    public long getCopyTimeNs() {
+        return mCopyTimeNs.get();
+    }
+
+    /**
+     * Reset the counters, e.g. before a test. The pooled buffers are kept.
+     */
+    public void resetCounters() {
+        mAllocationCount.set(0);
+        mAllocatedBytes.set(0);
+        mReuseCount.set(0);
+        mCopiedBytes.set(0);
+        mCopyTimeNs.set(0);
+    }
+
+    /**
+     * Drop all the pooled buffers.
+     */
+    public void clear() {
+        synchronized (mBuffers) {
+            mBuffers.clear();
+            mPooledBytes = 0;
+        }
+    }
+
+    /**
+     * Log the counters.
+     */
+    public void logCounters() {
+        Log.i(TAG, toString());
+    }
+
+    @Override
+    public String toString() {
+        long pooledBytes;
+        synchronized (mBuffers) {
+            pooledBytes = mPooledBytes;
+        }
+        return String.format("%d allocations (%d bytes), %d reuses, %d bytes pooled,"
+                + " %d bytes copied in %.3f ms", getAllocationCount(), getAllocatedBytes(),
+                getReuseCount(), pooledBytes, getCopiedBytes(), getCopyTimeNs() / 1e6);
+    }
+}
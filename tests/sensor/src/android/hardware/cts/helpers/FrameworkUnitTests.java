@@ -40,6 +40,8 @@ public class FrameworkUnitTests extends TestSuite {
 
         // helpers
         addTestSuite(SensorCtsHelperTest.class);
+        addTestSuite(SensorEventDispatcherTest.class);
+        addTestSuite(SensorEventTimelineTest.class);
         addTestSuite(SensorStatsTest.class);
 
         // sensorverification
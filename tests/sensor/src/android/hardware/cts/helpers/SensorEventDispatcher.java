@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware.cts.helpers;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves the recording of sensor events off the thread the events are delivered on.
+ *
+ * The events are posted to a lock-free queue, and recorded by a worker thread of the dispatcher,
+ * in the order they were posted. So the thread the {@link android.hardware.SensorManager}
+ * delivers the events on only copies them, and is not slowed down by the test harness.
+ *
+ * The dispatcher keeps the maximum depth of the queue, and the latency between the time an event
+ * was received and the time it was recorded.
+ */
+public class SensorEventDispatcher {
+
+    /**
+     * Records the events posted to a {@link SensorEventDispatcher}, on its worker thread.
+     */
+    public interface Recorder {
+        /**
+         * Records a sensor event, or a flush complete event if event is null.
+         */
+        void record(TestSensorEvent event, long receivedTimestampNs);
+    }
+
+    // The worker parks for at most this long, so that it notices a lost wake-up.
+    private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final ConcurrentLinkedQueue<Pending> mQueue = new ConcurrentLinkedQueue<>();
+    private final Recorder mRecorder;
+    private final Thread mWorker;
+
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final AtomicLong mPostedCount = new AtomicLong();
+    private volatile long mRecordedCount;
+    private volatile boolean mQuit;
+
+    // Only written by the worker.
+    private volatile long mTotalLatencyNs;
+    private volatile long mMaxLatencyNs;
+
+    /**
+     * Creates a dispatcher and starts its worker thread.
+     *
+     * @param name the name of the worker thread
+     * @param recorder records the posted events on the worker thread
+     */
+    public SensorEventDispatcher(String name, Recorder recorder) {
+        mRecorder = recorder;
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchEvents();
+            }
+        }, name);
+        mWorker.start();
+    }
+
+    /**
+     * Posts a sensor event, or a flush complete event if event is null, to be recorded.
+     */
+    public void post(TestSensorEvent event, long receivedTimestampNs) {
+        mQueue.offer(new Pending(event, receivedTimestampNs));
+        mPostedCount.incrementAndGet();
+        int depth = mQueueDepth.incrementAndGet();
+        while (true) {
+            int maxDepth = mMaxQueueDepth.get();
+            if (depth <= maxDepth || mMaxQueueDepth.compareAndSet(maxDepth, depth)) {
+                break;
+            }
+        }
+        LockSupport.unpark(mWorker);
+    }
+
+    /**
+     * Waits until the events posted so far are recorded.
+     */
+    public void drain() throws InterruptedException {
+        long postedCount = mPostedCount.get();
+        synchronized (this) {
+            while (mRecordedCount < postedCount) {
+                if (!mWorker.isAlive()) {
+                    throw new IllegalStateException("The sensor event dispatcher is stopped");
+                }
+                wait(TimeUnit.NANOSECONDS.toMillis(IDLE_PARK_NS));
+            }
+        }
+    }
+
+    /**
+     * Records the events posted so far, and stops the worker thread. Events posted afterwards
+     * are not recorded.
+     */
+    public void stop() throws InterruptedException {
+        mQuit = true;
+        LockSupport.unpark(mWorker);
+        mWorker.join();
+    }
+
+    /**
+     * @return The maximum number of events that were waiting to be recorded.
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return The mean time between the reception and the recording of the events, in
+     * nanoseconds, or 0 if no event was recorded.
+     */
+    public long getMeanDispatchLatencyNs() {
+        long recordedCount = mRecordedCount;
+        return recordedCount == 0 ? 0 : mTotalLatencyNs / recordedCount;
+    }
+
+    /**
+     * @return The maximum time between the reception and the recording of an event, in
+     * nanoseconds.
+     */
+    public long getMaxDispatchLatencyNs() {
+        return mMaxLatencyNs;
+    }
+
+    private void dispatchEvents() {
+        while (true) {
+            Pending pending = mQueue.poll();
+            if (pending == null) {
+                if (mQuit) {
+                    return;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NS);
+                continue;
+            }
+            mQueueDepth.decrementAndGet();
+            long latencyNs = SystemClock.elapsedRealtimeNanos() - pending.receivedTimestampNs;
+            mTotalLatencyNs += latencyNs;
+            if (latencyNs > mMaxLatencyNs) {
+                mMaxLatencyNs = latencyNs;
+            }
+            try {
+                mRecorder.record(pending.event, pending.receivedTimestampNs);
+            } finally {
+                synchronized (this) {
+                    mRecordedCount++;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private static class Pending {
+        final TestSensorEvent event;
+        final long receivedTimestampNs;
+
+        Pending(TestSensorEvent event, long receivedTimestampNs) {
+            this.event = event;
+            this.receivedTimestampNs = receivedTimestampNs;
+        }
+    }
+}
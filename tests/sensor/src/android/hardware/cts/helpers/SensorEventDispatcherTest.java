@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware.cts.helpers;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Unit tests for the {@link SensorEventDispatcher} class.
+ */
+public class SensorEventDispatcherTest extends TestCase {
+
+    /**
+     * Test that the events are recorded in the order they were posted, and that
+     * {@link SensorEventDispatcher#drain()} waits for them.
+     */
+    public void testRecordInOrder() throws InterruptedException {
+        final List<Long> recorded = new ArrayList<>();
+        SensorEventDispatcher dispatcher = new SensorEventDispatcher("test",
+                new SensorEventDispatcher.Recorder() {
+                    @Override
+                    public void record(TestSensorEvent event, long receivedTimestampNs) {
+                        synchronized (recorded) {
+                            recorded.add(event == null ? -receivedTimestampNs : event.timestamp);
+                        }
+                    }
+                });
+        try {
+            for (long i = 1; i <= 1000; i++) {
+                if (i % 100 == 0) {
+                    dispatcher.post(null /* event */, i);
+                } else {
+                    dispatcher.post(new TestSensorEvent(null, i, 0, null), i);
+                }
+            }
+            dispatcher.drain();
+            synchronized (recorded) {
+                assertEquals(1000, recorded.size());
+                for (int i = 1; i <= 1000; i++) {
+                    long expected = i % 100 == 0 ? -i : i;
+                    assertEquals(expected, (long) recorded.get(i - 1));
+                }
+            }
+        } finally {
+            dispatcher.stop();
+        }
+        assertTrue(dispatcher.getMaxQueueDepth() >= 1);
+    }
+
+    /**
+     * Test that the events posted before {@link SensorEventDispatcher#stop()} are recorded, while
+     * the recorder is slower than the events are posted.
+     */
+    public void testStopRecordsQueuedEvents() throws InterruptedException {
+        final CountDownLatch firstRecorded = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int[] recordedCount = new int[1];
+        SensorEventDispatcher dispatcher = new SensorEventDispatcher("test",
+                new SensorEventDispatcher.Recorder() {
+                    @Override
+                    public void record(TestSensorEvent event, long receivedTimestampNs) {
+                        firstRecorded.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new AssertionError(e);
+                        }
+                        recordedCount[0]++;
+                    }
+                });
+        dispatcher.post(null /* event */, 0);
+        firstRecorded.await();
+        for (int i = 0; i < 10; i++) {
+            dispatcher.post(null /* event */, 0);
+        }
+        assertEquals(10, dispatcher.getMaxQueueDepth());
+        release.countDown();
+        dispatcher.stop();
+        assertEquals(11, recordedCount[0]);
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware.cts.helpers;
+
+import android.hardware.Sensor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * A compact binary log of the {@link TestSensorEvent}s and flush complete events received by a
+ * listener, in the order they were received.
+ *
+ * The timeline is kept in a file, so that long tests run in bounded memory, or in memory. It is
+ * read back with a {@link Reader}, while it is written or after it was closed, e.g. to run the
+ * verifications or for post-mortem analysis of a test run with {@link #openReader(File, Sensor)}.
+ * Sensors are not recorded, the events read back are attributed to the sensor of the timeline.
+ *
+ * The format is a header of a magic number and a version, followed by the records. An event
+ * record is a type byte, the timestamp, the received timestamp, the accuracy, the number of
+ * values and the values. A flush complete record is a type byte and the received timestamp.
+ */
+public class SensorEventTimeline implements Closeable {
+    private static final int MAGIC = 0x53455446; // "SETF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte TYPE_EVENT = 0;
+    private static final byte TYPE_FLUSH_COMPLETE = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Sensor mSensor;
+    private final File mFile;
+    private FileOutputStream mFileStream;
+    private ByteArrayOutputStream mMemoryStream;
+    private DataOutputStream mOut;
+
+    private long mSize;
+    private int mEventCount;
+    private int mFlushCompleteCount;
+    private boolean mClosed;
+
+    /**
+     * Creates a timeline kept in memory.
+     *
+     * @param sensor the sensor of the events, or {@code null}
+     */
+    public SensorEventTimeline(Sensor sensor) {
+        mSensor = sensor;
+        mFile = null;
+        mMemoryStream = new ByteArrayOutputStream();
+        mOut = new DataOutputStream(mMemoryStream);
+        try {
+            writeHeader();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw.
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Creates a timeline kept in a file. The file is overwritten if it exists.
+     *
+     * @param sensor the sensor of the events, or {@code null}
+     */
+    public SensorEventTimeline(Sensor sensor, File file) throws IOException {
+        mSensor = sensor;
+        mFile = file;
+        mFileStream = new FileOutputStream(file, false /* append */);
+        mOut = new DataOutputStream(new BufferedOutputStream(mFileStream, BUFFER_SIZE));
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        mOut.writeInt(MAGIC);
+        mOut.writeInt(VERSION);
+        mSize = HEADER_SIZE;
+    }
+
+    /**
+     * @return The file the timeline is kept in, or {@code null} if it is kept in memory.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Appends a sensor event.
+     */
+    public synchronized void addEvent(TestSensorEvent event) throws IOException {
+        checkNotClosed();
+        mOut.writeByte(TYPE_EVENT);
+        mOut.writeLong(event.timestamp);
+        mOut.writeLong(event.receivedTimestamp);
+        mOut.writeInt(event.accuracy);
+        mOut.writeShort(event.values.length);
+        for (float value : event.values) {
+            mOut.writeFloat(value);
+        }
+        mSize += 1 + 8 + 8 + 4 + 2 + 4 * event.values.length;
+        mEventCount++;
+    }
+
+    /**
+     * Appends a flush complete event.
+     *
+     * @param receivedTimestamp the time the flush complete event was received, in nanoseconds
+     */
+    public synchronized void addFlushComplete(long receivedTimestamp) throws IOException {
+        checkNotClosed();
+        mOut.writeByte(TYPE_FLUSH_COMPLETE);
+        mOut.writeLong(receivedTimestamp);
+        mSize += 1 + 8;
+        mFlushCompleteCount++;
+    }
+
+    /**
+     * Removes all the events of the timeline.
+     */
+    public synchronized void clear() throws IOException {
+        checkNotClosed();
+        mOut.flush();
+        if (mFile != null) {
+            mFileStream.getChannel().truncate(HEADER_SIZE);
+        } else {
+            mMemoryStream.reset();
+            writeHeader();
+        }
+        mSize = HEADER_SIZE;
+        mEventCount = 0;
+        mFlushCompleteCount = 0;
+    }
+
+    /**
+     * @return The number of sensor events in the timeline.
+     */
+    public synchronized int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * @return The number of flush complete events in the timeline.
+     */
+    public synchronized int getFlushCompleteCount() {
+        return mFlushCompleteCount;
+    }
+
+    /**
+     * Opens a reader of the events added so far. Events added after the reader was opened are not
+     * read.
+     */
+    public synchronized Reader openReader() throws IOException {
+        mOut.flush();
+        InputStream in;
+        if (mFile != null) {
+            in = new BufferedInputStream(new FileInputStream(mFile), BUFFER_SIZE);
+        } else {
+            in = new ByteArrayInputStream(mMemoryStream.toByteArray());
+        }
+        return new Reader(in, mSize, mSensor);
+    }
+
+    /**
+     * Opens a reader of a timeline file written by a previous test run.
+     *
+     * @param sensor the sensor to attribute the events to, or {@code null}
+     */
+    public static Reader openReader(File file, Sensor sensor) throws IOException {
+        return new Reader(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE),
+                file.length(), sensor);
+    }
+
+    /**
+     * Opens a reader of events kept in a list instead of a timeline, merged with the flush
+     * complete events received between them. The lists must not change while they are read.
+     *
+     * @param events the sensor events, in the order they were received
+     * @param flushCompleteEventCounts the number of sensor events received before each flush
+     *        complete event, in the order they were received
+     * @param flushCompleteTimestamps the time each flush complete event was received, in
+     *        nanoseconds
+     */
+    public static Reader openReader(List<TestSensorEvent> events,
+            List<Integer> flushCompleteEventCounts, List<Long> flushCompleteTimestamps) {
+        if (flushCompleteEventCounts.size() != flushCompleteTimestamps.size()) {
+            throw new IllegalArgumentException("Each flush complete event needs a timestamp");
+        }
+        return new Reader(events, flushCompleteEventCounts, flushCompleteTimestamps);
+    }
+
+    /**
+     * Closes the timeline. The events of a timeline kept in a file can still be read with
+     * {@link #openReader(File, Sensor)}.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mFile != null) {
+            mOut.close();
+        } else {
+            // Keep the events in memory, so that they can still be read.
+            mOut.flush();
+        }
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (mClosed) {
+            throw new IOException("The timeline is closed");
+        }
+    }
+
+    /**
+     * An entry of a timeline: either a sensor event or a flush complete event.
+     */
+    public static class Entry {
+        /** The sensor event, or {@code null} for a flush complete event. */
+        public final TestSensorEvent event;
+        /** The time the event was received, in nanoseconds. */
+        public final long receivedTimestamp;
+
+        private Entry(TestSensorEvent event, long receivedTimestamp) {
+            this.event = event;
+            this.receivedTimestamp = receivedTimestamp;
+        }
+
+        public boolean isFlushComplete() {
+            return event == null;
+        }
+    }
+
+    /**
+     * Reads the entries of a timeline in the order they were added.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream mIn;
+        private final long mLimit;
+        private final Sensor mSensor;
+        private long mPosition;
+
+        // Set if the entries are read from lists instead of a stream.
+        private final List<TestSensorEvent> mEvents;
+        private final List<Integer> mFlushCompleteEventCounts;
+        private final List<Long> mFlushCompleteTimestamps;
+        private int mEventIndex;
+        private int mFlushCompleteIndex;
+
+        private Reader(InputStream in, long limit, Sensor sensor) throws IOException {
+            mIn = new DataInputStream(in);
+            mLimit = limit;
+            mSensor = sensor;
+            mEvents = null;
+            mFlushCompleteEventCounts = null;
+            mFlushCompleteTimestamps = null;
+            try {
+                if (mIn.readInt() != MAGIC) {
+                    throw new IOException("Not a sensor event timeline");
+                }
+                int version = mIn.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported sensor event timeline version " + version);
+                }
+            } catch (IOException e) {
+                mIn.close();
+                throw e;
+            }
+            mPosition = HEADER_SIZE;
+        }
+
+        private Reader(List<TestSensorEvent> events, List<Integer> flushCompleteEventCounts,
+                List<Long> flushCompleteTimestamps) {
+            mIn = null;
+            mLimit = 0;
+            mSensor = null;
+            mEvents = events;
+            mFlushCompleteEventCounts = flushCompleteEventCounts;
+            mFlushCompleteTimestamps = flushCompleteTimestamps;
+        }
+
+        /**
+         * @return The next entry, or {@code null} at the end of the timeline.
+         */
+        public Entry next() throws IOException {
+            if (mEvents != null) {
+                return nextFromLists();
+            }
+            if (mPosition >= mLimit) {
+                return null;
+            }
+            byte type = mIn.readByte();
+            switch (type) {
+                case TYPE_EVENT:
+                    long timestamp = mIn.readLong();
+                    long receivedTimestamp = mIn.readLong();
+                    int accuracy = mIn.readInt();
+                    float[] values = new float[mIn.readUnsignedShort()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = mIn.readFloat();
+                    }
+                    mPosition += 1 + 8 + 8 + 4 + 2 + 4 * values.length;
+                    TestSensorEvent event = new TestSensorEvent(mSensor, timestamp,
+                            receivedTimestamp, accuracy, values);
+                    return new Entry(event, receivedTimestamp);
+                case TYPE_FLUSH_COMPLETE:
+                    mPosition += 1 + 8;
+                    return new Entry(null /* event */, mIn.readLong());
+                default:
+                    throw new IOException("Unknown sensor event timeline record type " + type);
+            }
+        }
+
+        private Entry nextFromLists() {
+            if (mFlushCompleteIndex < mFlushCompleteEventCounts.size()
+                    && mFlushCompleteEventCounts.get(mFlushCompleteIndex) <= mEventIndex) {
+                return new Entry(null /* event */,
+                        mFlushCompleteTimestamps.get(mFlushCompleteIndex++));
+            }
+            if (mEventIndex < mEvents.size()) {
+                TestSensorEvent event = mEvents.get(mEventIndex++);
+                return new Entry(event, event.receivedTimestamp);
+            }
+            return null;
+        }
+
+        /**
+         * @return The next sensor event, skipping flush complete events, or {@code null} at the
+         * end of the timeline.
+         */
+        public TestSensorEvent nextEvent() throws IOException {
+            Entry entry;
+            do {
+                entry = next();
+            } while (entry != null && entry.isFlushComplete());
+            return entry == null ? null : entry.event;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mIn != null) {
+                mIn.close();
+            }
+        }
+    }
+}
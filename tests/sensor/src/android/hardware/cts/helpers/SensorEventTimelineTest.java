@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware.cts.helpers;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for the {@link SensorEventTimeline} class.
+ */
+public class SensorEventTimelineTest extends TestCase {
+
+    /**
+     * Test that events and flush complete events are read back in the order they were added.
+     */
+    public void testReadInMemory() throws IOException {
+        SensorEventTimeline timeline = new SensorEventTimeline(null /* sensor */);
+        addEntries(timeline);
+        assertEquals(2, timeline.getEventCount());
+        assertEquals(1, timeline.getFlushCompleteCount());
+
+        try (SensorEventTimeline.Reader reader = timeline.openReader()) {
+            assertEntries(reader);
+        }
+    }
+
+    /**
+     * Test that a timeline file is read back while it is written and after it was closed.
+     */
+    public void testReadFile() throws IOException {
+        File file = File.createTempFile("SensorEventTimelineTest", ".timeline");
+        try {
+            SensorEventTimeline timeline = new SensorEventTimeline(null /* sensor */, file);
+            addEntries(timeline);
+            try (SensorEventTimeline.Reader reader = timeline.openReader()) {
+                assertEntries(reader);
+            }
+            timeline.close();
+
+            try (SensorEventTimeline.Reader reader =
+                    SensorEventTimeline.openReader(file, null /* sensor */)) {
+                assertEntries(reader);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test that a reader does not read the events added after it was opened.
+     */
+    public void testReaderEndsAtOpen() throws IOException {
+        SensorEventTimeline timeline = new SensorEventTimeline(null /* sensor */);
+        timeline.addFlushComplete(1);
+        try (SensorEventTimeline.Reader reader = timeline.openReader()) {
+            timeline.addFlushComplete(2);
+            assertEquals(1, reader.next().receivedTimestamp);
+            assertNull(reader.next());
+        }
+    }
+
+    /**
+     * Test that {@link SensorEventTimeline#clear()} removes all the events.
+     */
+    public void testClear() throws IOException {
+        File file = File.createTempFile("SensorEventTimelineTest", ".timeline");
+        try {
+            SensorEventTimeline[] timelines = {
+                    new SensorEventTimeline(null /* sensor */),
+                    new SensorEventTimeline(null /* sensor */, file)};
+            for (SensorEventTimeline timeline : timelines) {
+                addEntries(timeline);
+                timeline.clear();
+                assertEquals(0, timeline.getEventCount());
+                assertEquals(0, timeline.getFlushCompleteCount());
+                try (SensorEventTimeline.Reader reader = timeline.openReader()) {
+                    assertNull(reader.next());
+                }
+
+                addEntries(timeline);
+                try (SensorEventTimeline.Reader reader = timeline.openReader()) {
+                    assertEntries(reader);
+                }
+                timeline.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test that events kept in a list are read back merged with the flush complete events.
+     */
+    public void testReadLists() throws IOException {
+        List<TestSensorEvent> events = Arrays.asList(
+                new TestSensorEvent(null, 1000, 1500, 3, new float[] {1, 2, 3}),
+                new TestSensorEvent(null, 2000, 2500, 2, new float[] {4}));
+        try (SensorEventTimeline.Reader reader = SensorEventTimeline.openReader(events,
+                Arrays.asList(1, 2), Arrays.asList(1800L, 2800L))) {
+            SensorEventTimeline.Entry entry = reader.next();
+            assertSame(events.get(0), entry.event);
+            assertEquals(1500, entry.receivedTimestamp);
+
+            entry = reader.next();
+            assertTrue(entry.isFlushComplete());
+            assertEquals(1800, entry.receivedTimestamp);
+
+            assertSame(events.get(1), reader.nextEvent());
+
+            entry = reader.next();
+            assertTrue(entry.isFlushComplete());
+            assertEquals(2800, entry.receivedTimestamp);
+            assertNull(reader.next());
+        }
+    }
+
+    private static void addEntries(SensorEventTimeline timeline) throws IOException {
+        timeline.addEvent(new TestSensorEvent(null, 1000, 1500, 3, new float[] {1, 2, 3}));
+        timeline.addFlushComplete(1800);
+        timeline.addEvent(new TestSensorEvent(null, 2000, 2500, 2, new float[] {4}));
+    }
+
+    private static void assertEntries(SensorEventTimeline.Reader reader) throws IOException {
+        SensorEventTimeline.Entry entry = reader.next();
+        assertFalse(entry.isFlushComplete());
+        assertEquals(1000, entry.event.timestamp);
+        assertEquals(1500, entry.event.receivedTimestamp);
+        assertEquals(1500, entry.receivedTimestamp);
+        assertEquals(3, entry.event.accuracy);
+        assertTrue(Arrays.equals(new float[] {1, 2, 3}, entry.event.values));
+
+        entry = reader.next();
+        assertTrue(entry.isFlushComplete());
+        assertEquals(1800, entry.receivedTimestamp);
+
+        TestSensorEvent event = reader.nextEvent();
+        assertEquals(2000, event.timestamp);
+        assertEquals(2500, event.receivedTimestamp);
+        assertEquals(2, event.accuracy);
+        assertTrue(Arrays.equals(new float[] {4}, event.values));
+
+        assertNull(reader.next());
+    }
+}
@@ -60,6 +60,10 @@ public class SensorStats {
     public static final String EVENT_COUNT_EXPECTED_KEY = "event_count_expected";
     public static final String EVENT_NOT_SANITIZED_KEY = "event_not_sanitized";
     public static final String EVENT_LOG_FILENAME = "event_log_filename";
+    public static final String EVENT_QUEUE_MAX_DEPTH_KEY = "event_queue_max_depth";
+    public static final String EVENT_DISPATCH_LATENCY_MEAN_US_KEY =
+            "event_dispatch_latency_mean_us";
+    public static final String EVENT_DISPATCH_LATENCY_MAX_US_KEY = "event_dispatch_latency_max_us";
     public static final String WRONG_SENSOR_KEY = "wrong_sensor_observed";
     public static final String FREQUENCY_KEY = "frequency";
     public static final String JITTER_95_PERCENTILE_PERCENT_KEY = "jitter_95_percentile_percent";
@@ -46,6 +46,16 @@ import java.util.concurrent.atomic.AtomicInteger;
  * events or for a specific time, or waiting for a flush to complete. This class performs
  * verifications and will throw {@link AssertionError}s if there are any errors. It may also wrap
  * another {@link SensorEventListener2}.
+ *
+ * The events and flush complete events received are recorded in the order they arrive, and read
+ * back with a {@link SensorEventTimeline.Reader}. They are kept in memory, in the list of
+ * collected events and a list of the flush complete events, unless
+ * {@link #recordTimelineToFile(File)} is called: then they are only written to a
+ * {@link SensorEventTimeline} file, so that long tests run in bounded memory.
+ *
+ * After {@link #startDispatcher(String)}, the events are recorded by the worker thread of a
+ * {@link SensorEventDispatcher}, so that the thread they are delivered on only copies them and
+ * counts down the latches.
  */
 public class TestSensorEventListener implements SensorEventListener2 {
     public static final String LOG_TAG = "TestSensorEventListener";
@@ -54,7 +64,19 @@ public class TestSensorEventListener implements SensorEventListener2 {
     private static final long FLUSH_TIMEOUT_US = TimeUnit.SECONDS.toMicros(10);
 
     private final ArrayList<TestSensorEvent> mCollectedEvents = new ArrayList<>();
-    private final ArrayList<Long> mTimeStampFlushCompleteEvents = new ArrayList<>();
+    // Guarded by mCollectedEvents, like the following fields.
+    // The flush complete events kept in memory, by the number of events received before them.
+    private final ArrayList<Integer> mFlushCompleteEventCounts = new ArrayList<>();
+    private final ArrayList<Long> mFlushCompleteTimestamps = new ArrayList<>();
+    // The number of events kept in memory before the timeline was closed.
+    private int mTimelineEventCount;
+    // The timeline file, or null if the events are kept in memory.
+    private SensorEventTimeline mTimeline;
+    private IOException mTimelineError;
+    private boolean mTimelineClosed;
+
+    private volatile SensorEventDispatcher mDispatcher;
+
     private final List<CountDownLatch> mEventLatches = new ArrayList<>();
     private final List<CountDownLatch> mFlushLatches = new ArrayList<>();
     private final AtomicInteger mEventsReceivedOutsideHandler = new AtomicInteger();
@@ -93,6 +115,139 @@ public class TestSensorEventListener implements SensorEventListener2 {
                                                 "TestSensorEventListenerWakeLock");
     }
 
+    /**
+     * Records the events to a timeline file instead of keeping them in memory. It must be called
+     * before the listener is registered. The file is overwritten if it exists.
+     */
+    public void recordTimelineToFile(File file) throws IOException {
+        SensorEventTimeline timeline = new SensorEventTimeline(mEnvironment.getSensor(), file);
+        synchronized (mCollectedEvents) {
+            mTimeline = timeline;
+            mCollectedEvents.clear();
+            mFlushCompleteEventCounts.clear();
+            mFlushCompleteTimestamps.clear();
+            mTimelineEventCount = 0;
+        }
+    }
+
+    /**
+     * Records the events on the worker thread of a {@link SensorEventDispatcher} instead of the
+     * thread they are delivered on. It must be called before the listener is registered.
+     *
+     * @param name the name of the worker thread
+     */
+    public void startDispatcher(String name) {
+        mDispatcher = new SensorEventDispatcher(name, new SensorEventDispatcher.Recorder() {
+            @Override
+            public void record(TestSensorEvent event, long receivedTimestampNs) {
+                recordEvent(event, receivedTimestampNs);
+            }
+        });
+    }
+
+    /**
+     * Records the events received so far, and stops the dispatcher started by
+     * {@link #startDispatcher(String)}. Events received afterwards are recorded on the thread they
+     * are delivered on.
+     *
+     * @return The stopped dispatcher, or {@code null} if none was started.
+     */
+    public SensorEventDispatcher stopDispatcher() throws InterruptedException {
+        SensorEventDispatcher dispatcher = mDispatcher;
+        if (dispatcher != null) {
+            // Drained while it is still set, so that readers of the events wait for it too.
+            dispatcher.drain();
+            mDispatcher = null;
+            // Records the events posted between the drain and now.
+            dispatcher.stop();
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Waits until the events received so far are recorded by the dispatcher, if any.
+     */
+    private void drainDispatcher() {
+        SensorEventDispatcher dispatcher = mDispatcher;
+        if (dispatcher == null) {
+            return;
+        }
+        try {
+            dispatcher.drain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recording sensor events", e);
+        }
+    }
+
+    /**
+     * Opens a reader of the timeline of the events received so far.
+     *
+     * @throws IOException if the timeline cannot be read, or if writing an event to it failed
+     */
+    public SensorEventTimeline.Reader openTimelineReader() throws IOException {
+        drainDispatcher();
+        synchronized (mCollectedEvents) {
+            if (mTimelineError != null) {
+                throw mTimelineError;
+            }
+            if (mTimeline == null) {
+                return SensorEventTimeline.openReader(
+                        new ArrayList<>(mCollectedEvents.subList(0, mTimelineEventCount)),
+                        new ArrayList<>(mFlushCompleteEventCounts),
+                        new ArrayList<>(mFlushCompleteTimestamps));
+            }
+            return mTimeline.openReader();
+        }
+    }
+
+    /**
+     * Closes the timeline. Events received after it are not recorded.
+     */
+    public void closeTimeline() throws IOException {
+        synchronized (mCollectedEvents) {
+            mTimelineClosed = true;
+            if (mTimeline != null) {
+                mTimeline.close();
+            }
+        }
+    }
+
+    /**
+     * Records an event, or a flush complete event if event is null. Timeline errors are kept and
+     * reported by {@link #openTimelineReader()}, so that they do not throw in the thread the
+     * events are recorded in.
+     */
+    private void recordEvent(TestSensorEvent event, long receivedTimestampNs) {
+        synchronized (mCollectedEvents) {
+            if (mTimeline == null) {
+                if (event != null) {
+                    mCollectedEvents.add(event);
+                    if (!mTimelineClosed) {
+                        mTimelineEventCount++;
+                    }
+                } else if (!mTimelineClosed) {
+                    mFlushCompleteEventCounts.add(mTimelineEventCount);
+                    mFlushCompleteTimestamps.add(receivedTimestampNs);
+                }
+                return;
+            }
+            if (mTimelineError != null || mTimelineClosed) {
+                return;
+            }
+            try {
+                if (event != null) {
+                    mTimeline.addEvent(event);
+                } else {
+                    mTimeline.addFlushComplete(receivedTimestampNs);
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to record sensor event to timeline", e);
+                mTimelineError = e;
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -100,8 +255,12 @@ public class TestSensorEventListener implements SensorEventListener2 {
     public void onSensorChanged(SensorEvent event) {
         long timestampNs = SystemClock.elapsedRealtimeNanos();
         checkHandler();
-        synchronized (mCollectedEvents) {
-            mCollectedEvents.add(new TestSensorEvent(event, timestampNs));
+        TestSensorEvent testEvent = new TestSensorEvent(event, timestampNs);
+        SensorEventDispatcher dispatcher = mDispatcher;
+        if (dispatcher != null) {
+            dispatcher.post(testEvent, timestampNs);
+        } else {
+            recordEvent(testEvent, timestampNs);
         }
         synchronized (mEventLatches) {
             for (CountDownLatch latch : mEventLatches) {
@@ -153,8 +312,11 @@ public class TestSensorEventListener implements SensorEventListener2 {
     public void onFlushCompleted(Sensor sensor) {
         checkHandler();
         long timestampNs = SystemClock.elapsedRealtimeNanos();
-        synchronized (mTimeStampFlushCompleteEvents) {
-           mTimeStampFlushCompleteEvents.add(timestampNs);
+        SensorEventDispatcher dispatcher = mDispatcher;
+        if (dispatcher != null) {
+            dispatcher.post(null /* event */, timestampNs);
+        } else {
+            recordEvent(null /* event */, timestampNs);
         }
         synchronized (mFlushLatches) {
             for (CountDownLatch latch : mFlushLatches) {
@@ -171,20 +333,60 @@ public class TestSensorEventListener implements SensorEventListener2 {
     }
 
     /**
-     * @return A list of {@link TestSensorEvent}s collected by the listener.
+     * @return A list of {@link TestSensorEvent}s collected by the listener. If the events are
+     * recorded to a timeline file, they are all read back from it.
      */
     public List<TestSensorEvent> getCollectedEvents() {
+        drainDispatcher();
         synchronized (mCollectedEvents){
-            return Collections.unmodifiableList((List<TestSensorEvent>) mCollectedEvents.clone());
+            if (mTimeline == null) {
+                return Collections.unmodifiableList(
+                        (List<TestSensorEvent>) mCollectedEvents.clone());
+            }
+        }
+        ArrayList<TestSensorEvent> events = new ArrayList<>();
+        try (SensorEventTimeline.Reader reader = openTimelineReader()) {
+            TestSensorEvent event;
+            while ((event = reader.nextEvent()) != null) {
+                events.add(event);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read the sensor event timeline", e);
+        }
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * @return The number of {@link TestSensorEvent}s collected by the listener, the size of the
+     * list returned by {@link #getCollectedEvents()}.
+     */
+    public int getCollectedEventCount() {
+        drainDispatcher();
+        synchronized (mCollectedEvents) {
+            return mTimeline == null ? mCollectedEvents.size() : mTimeline.getEventCount();
         }
     }
 
     /**
-     * Clears the internal list of collected {@link TestSensorEvent}s.
+     * Clears the collected {@link TestSensorEvent}s, and the flush complete events of the
+     * timeline.
      */
     public void clearEvents() {
+        drainDispatcher();
         synchronized (mCollectedEvents) {
             mCollectedEvents.clear();
+            mFlushCompleteEventCounts.clear();
+            mFlushCompleteTimestamps.clear();
+            mTimelineEventCount = 0;
+            if (mTimeline == null) {
+                return;
+            }
+            try {
+                mTimeline.clear();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Unable to clear sensor event timeline", e);
+                mTimelineError = e;
+            }
         }
     }
 
@@ -209,12 +411,22 @@ public class TestSensorEventListener implements SensorEventListener2 {
                 .append(testStartTimeMs).append("ms, ");
         builder.append("StoppedTimestamp=")
                 .append(testStopTimeMs).append("ms");
-        synchronized (mCollectedEvents) {
-            int i = 0, j = 0;
-            while (i < mCollectedEvents.size() && j < mTimeStampFlushCompleteEvents.size()) {
-                if (mCollectedEvents.get(i).receivedTimestamp <
-                        mTimeStampFlushCompleteEvents.get(j)) {
-                    TestSensorEvent event = mCollectedEvents.get(i);
+
+        File eventsDirectory = SensorCtsHelper.getSensorTestDataDirectory("events/");
+        File logFile = new File(eventsDirectory, fileName);
+        FileWriter fileWriter = new FileWriter(logFile, false /* append */);
+        try (BufferedWriter writer = new BufferedWriter(fileWriter);
+                SensorEventTimeline.Reader reader = openTimelineReader()) {
+            writer.write(builder.toString());
+            SensorEventTimeline.Entry entry;
+            while ((entry = reader.next()) != null) {
+                builder.setLength(0);
+                if (entry.isFlushComplete()) {
+                    builder.append("\n");
+                    builder.append("ReceivedTimestamp=").append(entry.receivedTimestamp/1000)
+                        .append("us Flush complete Event");
+                } else {
+                    TestSensorEvent event = entry.event;
                     if (deviceWakeUpTimeMs != -1 && deviceWakeUpTimeMs <
                             event.receivedTimestamp/1000000) {
                         builder.append("\n");
@@ -227,44 +439,10 @@ public class TestSensorEventListener implements SensorEventListener2 {
                         append("us, ");
                     builder.append("Accuracy=").append(event.accuracy).append(", ");
                     builder.append("Values=").append(Arrays.toString(event.values));
-                    ++i;
-                } else {
-                    builder.append("\n");
-                    builder.append("ReceivedTimestamp=")
-                    .append(mTimeStampFlushCompleteEvents.get(j)/1000)
-                    .append("us Flush complete Event");
-                    ++j;
-                }
-            }
-            for (;i < mCollectedEvents.size(); ++i) {
-                TestSensorEvent event = mCollectedEvents.get(i);
-                if (deviceWakeUpTimeMs != -1 && deviceWakeUpTimeMs <
-                        event.receivedTimestamp/1000000) {
-                    builder.append("\n");
-                    builder.append("AP wake-up time=").append(deviceWakeUpTimeMs).append("ms");
-                    deviceWakeUpTimeMs = -1;
                 }
-                builder.append("\n");
-                builder.append("Timestamp=").append(event.timestamp/1000).append("us, ");
-                builder.append("ReceivedTimestamp=").append(event.receivedTimestamp/1000).
-                    append("us, ");
-                builder.append("Accuracy=").append(event.accuracy).append(", ");
-                builder.append("Values=").append(Arrays.toString(event.values));
-            }
-            for (;j < mTimeStampFlushCompleteEvents.size(); ++j) {
-                builder.append("\n");
-                builder.append("ReceivedTimestamp=")
-                    .append(mTimeStampFlushCompleteEvents.get(j)/1000)
-                    .append("us Flush complete Event");
+                writer.write(builder.toString());
             }
         }
-
-        File eventsDirectory = SensorCtsHelper.getSensorTestDataDirectory("events/");
-        File logFile = new File(eventsDirectory, fileName);
-        FileWriter fileWriter = new FileWriter(logFile, false /* append */);
-        try (BufferedWriter writer = new BufferedWriter(fileWriter)) {
-            writer.write(builder.toString());
-        }
     }
 
     /**
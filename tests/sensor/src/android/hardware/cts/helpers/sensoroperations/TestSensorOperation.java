@@ -16,13 +16,17 @@
 
 package android.hardware.cts.helpers.sensoroperations;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import android.hardware.cts.helpers.SensorCtsHelper;
+import android.hardware.cts.helpers.SensorEventDispatcher;
+import android.hardware.cts.helpers.SensorEventTimeline;
 import android.hardware.cts.helpers.SensorStats;
 import android.hardware.cts.helpers.SensorTestPlatformException;
 import android.hardware.cts.helpers.TestSensorEnvironment;
@@ -43,6 +47,7 @@ import android.hardware.cts.helpers.sensorverification.MeanVerification;
 import android.hardware.cts.helpers.sensorverification.InitialValueVerification;
 import android.hardware.cts.helpers.sensorverification.StandardDeviationVerification;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.SystemClock;
 import android.os.PowerManager.WakeLock;
 import android.util.Log;
@@ -56,10 +61,24 @@ import junit.framework.Assert;
  * depending on sensor type.  When {{@link #execute(ISensorTestNode)} is called, the sensor will
  * collect the events and then run all the tests.
  * </p>
+ * <p>
+ * The events are recorded to a timeline file while they are collected, and then streamed from it
+ * to the verifications, so that long tests run in bounded memory. The timeline file is kept for
+ * post-mortem analysis if the operation fails.
+ * </p>
+ * <p>
+ * Unless a {@link Handler} is given, the events of each operation are delivered on a thread of its
+ * own, so that operations run in parallel do not wait for each other's events. The events are
+ * recorded on the worker thread of a {@link SensorEventDispatcher}, whose queue depth and dispatch
+ * latency are added to the stats.
+ * </p>
  */
 public class TestSensorOperation extends SensorOperation {
     private static final String TAG = "TestSensorOperation";
 
+    // Number of events streamed from the timeline to the verifications at a time.
+    private static final int VERIFICATION_CHUNK_SIZE = 1000;
+
     private final HashSet<ISensorVerification> mVerifications = new HashSet<>();
 
     private final TestSensorManager mSensorManager;
@@ -125,34 +144,58 @@ public class TestSensorOperation extends SensorOperation {
      */
     @Override
     public void execute(ISensorTestNode parent) throws Exception {
-        getStats().addValue("sensor_name", mEnvironment.getSensor().getName());
-        TestSensorEventListener listener = new TestSensorEventListener(mEnvironment, mHandler);
-
-        mStartTimeMs = SystemClock.elapsedRealtime();
-        if (mEnvironment.isDeviceSuspendTest()) {
-            SuspendStateMonitor suspendStateMonitor = new SuspendStateMonitor();
-            // Device should go into suspend here.
-            mExecutor.execute(mSensorManager, listener);
-            mStopTimeMs = SystemClock.elapsedRealtime();
-            // Check if the device has gone into suspend during test execution.
-            mDeviceWakeUpTimeMs = suspendStateMonitor.getLastWakeUpTime();
-            suspendStateMonitor.cancel();
-            Assert.assertTrue("Device did not go into suspend during test execution",
-                                       mStartTimeMs < mDeviceWakeUpTimeMs &&
-                                       mDeviceWakeUpTimeMs < mStopTimeMs);
-        } else {
-            mExecutor.execute(mSensorManager, listener);
-            mStopTimeMs = SystemClock.elapsedRealtime();
+        String sensorName = mEnvironment.getSensor().getName();
+        getStats().addValue("sensor_name", sensorName);
+        HandlerThread handlerThread = null;
+        Handler handler = mHandler;
+        if (handler == null) {
+            handlerThread = new HandlerThread(TAG + "-" + sensorName);
+            handlerThread.start();
+            handler = new Handler(handlerThread.getLooper());
         }
+        TestSensorEventListener listener = new TestSensorEventListener(mEnvironment, handler);
+        String eventLogName = getEventLogName(parent);
+        File timelineFile = tryRecordTimelineToFile(eventLogName, listener);
+        listener.startDispatcher(TAG + "-dispatch-" + sensorName);
 
-        boolean failed = false;
-        StringBuilder sb = new StringBuilder();
-        List<TestSensorEvent> collectedEvents = listener.getCollectedEvents();
-        for (ISensorVerification verification : mVerifications) {
-            failed |= evaluateResults(collectedEvents, verification, sb);
+        try {
+            mStartTimeMs = SystemClock.elapsedRealtime();
+            if (mEnvironment.isDeviceSuspendTest()) {
+                SuspendStateMonitor suspendStateMonitor = new SuspendStateMonitor();
+                // Device should go into suspend here.
+                mExecutor.execute(mSensorManager, listener);
+                mStopTimeMs = SystemClock.elapsedRealtime();
+                // Check if the device has gone into suspend during test execution.
+                mDeviceWakeUpTimeMs = suspendStateMonitor.getLastWakeUpTime();
+                suspendStateMonitor.cancel();
+                Assert.assertTrue("Device did not go into suspend during test execution",
+                                           mStartTimeMs < mDeviceWakeUpTimeMs &&
+                                           mDeviceWakeUpTimeMs < mStopTimeMs);
+            } else {
+                mExecutor.execute(mSensorManager, listener);
+                mStopTimeMs = SystemClock.elapsedRealtime();
+            }
+        } finally {
+            SensorEventDispatcher dispatcher = listener.stopDispatcher();
+            if (handlerThread != null) {
+                handlerThread.quitSafely();
+            }
+            getStats().addValue(SensorStats.EVENT_QUEUE_MAX_DEPTH_KEY,
+                    dispatcher.getMaxQueueDepth());
+            getStats().addValue(SensorStats.EVENT_DISPATCH_LATENCY_MEAN_US_KEY,
+                    TimeUnit.NANOSECONDS.toMicros(dispatcher.getMeanDispatchLatencyNs()));
+            getStats().addValue(SensorStats.EVENT_DISPATCH_LATENCY_MAX_US_KEY,
+                    TimeUnit.NANOSECONDS.toMicros(dispatcher.getMaxDispatchLatencyNs()));
+            listener.closeTimeline();
         }
 
-        trySaveCollectedEvents(parent, listener);
+        StringBuilder sb = new StringBuilder();
+        boolean failed = evaluateResults(listener, sb);
+
+        trySaveCollectedEvents(eventLogName, listener);
+        if (timelineFile != null && !failed) {
+            timelineFile.delete();
+        }
         if (failed) {
             String msg = SensorCtsHelper
                     .formatAssertionMessage("VerifySensorOperation", mEnvironment, sb.toString());
@@ -175,47 +218,117 @@ public class TestSensorOperation extends SensorOperation {
 
     /**
      * Evaluate the results of a test, aggregate the stats, and build the error message.
+     *
+     * The collected events are streamed to all the verifications in chunks. A verification that
+     * fails while events are added is not evaluated further.
      */
-    private boolean evaluateResults(
-            List<TestSensorEvent> events,
-            ISensorVerification verification,
-            StringBuilder sb) {
-        try {
-            // this is an intermediate state in refactoring, at some point verifications might
-            // become stateless
-            verification.addSensorEvents(events);
-            verification.verify(mEnvironment, getStats());
-        } catch (AssertionError e) {
-            if (sb.length() > 0) {
-                sb.append(", ");
+    private boolean evaluateResults(TestSensorEventListener listener, StringBuilder sb)
+            throws IOException {
+        HashSet<ISensorVerification> verifications = new HashSet<>(mVerifications);
+        boolean failed = false;
+        try (SensorEventTimeline.Reader reader = listener.openTimelineReader()) {
+            List<TestSensorEvent> chunk = new ArrayList<>(VERIFICATION_CHUNK_SIZE);
+            TestSensorEvent event;
+            do {
+                event = reader.nextEvent();
+                if (event != null) {
+                    chunk.add(event);
+                }
+                if (chunk.size() == VERIFICATION_CHUNK_SIZE
+                        || (event == null && !chunk.isEmpty())) {
+                    for (ISensorVerification verification : mVerifications) {
+                        if (!verifications.contains(verification)) {
+                            continue;
+                        }
+                        try {
+                            // this is an intermediate state in refactoring, at some point
+                            // verifications might become stateless
+                            verification.addSensorEvents(chunk);
+                        } catch (AssertionError e) {
+                            appendError(sb, e);
+                            verifications.remove(verification);
+                            failed = true;
+                        }
+                    }
+                    chunk.clear();
+                }
+            } while (event != null);
+        }
+        for (ISensorVerification verification : verifications) {
+            try {
+                verification.verify(mEnvironment, getStats());
+            } catch (AssertionError e) {
+                appendError(sb, e);
+                failed = true;
             }
-            sb.append(e.getMessage());
-            return true;
         }
-        return false;
+        return failed;
+    }
+
+    private static void appendError(StringBuilder sb, AssertionError e) {
+        if (sb.length() > 0) {
+            sb.append(", ");
+        }
+        sb.append(e.getMessage());
     }
 
     /**
-     * Tries to save collected {@link TestSensorEvent}s to a file.
-     *
-     * NOTE: it is more important to handle verifications and its results, than failing if the file
-     * cannot be created. So we silently fail if necessary.
+     * Returns the name of the files the collected {@link TestSensorEvent}s are saved to, without
+     * an extension, or null if it cannot be generated.
      */
-    private void trySaveCollectedEvents(ISensorTestNode parent, TestSensorEventListener listener) {
-        String sanitizedFileName;
+    private String getEventLogName(ISensorTestNode parent) {
         try {
             String fileName = asTestNode(parent).getName();
-            sanitizedFileName = String.format(
-                    "%s-%s-%s_%dus.txt",
+            return String.format(
+                    "%s-%s-%s_%dus",
                     SensorCtsHelper.sanitizeStringForFileName(fileName),
                     SensorStats.getSanitizedSensorName(mEnvironment.getSensor()),
                     mEnvironment.getFrequencyString(),
                     mEnvironment.getMaxReportLatencyUs());
-            getStats().addValue(SensorStats.EVENT_LOG_FILENAME, sanitizedFileName);
         } catch (SensorTestPlatformException e) {
             Log.w(TAG, "Unable to generate file name to save collected events", e);
+            return null;
+        }
+    }
+
+    /**
+     * Tries to record the collected {@link TestSensorEvent}s to a timeline file, named after the
+     * event log but unique, since operations with the same name may run in parallel.
+     *
+     * @return the timeline file, or null if the events are kept in memory
+     */
+    private File tryRecordTimelineToFile(String eventLogName, TestSensorEventListener listener) {
+        if (eventLogName == null) {
+            return null;
+        }
+        File timelineFile = null;
+        try {
+            File eventsDirectory = SensorCtsHelper.getSensorTestDataDirectory("events/");
+            timelineFile = File.createTempFile(eventLogName + "-", ".timeline", eventsDirectory);
+            listener.recordTimelineToFile(timelineFile);
+            return timelineFile;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to record collected events to a timeline file, keeping them in"
+                    + " memory", e);
+            if (timelineFile != null) {
+                timelineFile.delete();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Tries to save collected {@link TestSensorEvent}s to a file.
+     *
+     * NOTE: it is more important to handle verifications and its results, than failing if the file
+     * cannot be created. So we silently fail if necessary.
+     */
+    private void trySaveCollectedEvents(String eventLogName, TestSensorEventListener listener) {
+        if (eventLogName == null) {
             return;
         }
+        String sanitizedFileName = eventLogName + ".txt";
+        getStats().addValue(SensorStats.EVENT_LOG_FILENAME, sanitizedFileName);
 
         try {
             listener.logCollectedEventsToFile(sanitizedFileName, mDeviceWakeUpTimeMs,
@@ -269,20 +382,20 @@ public class TestSensorOperation extends SensorOperation {
                 try {
                     sensorManager.registerListener(listener);
                     if (flushBeforeAfterSuspend) {
-                        int initialNumEvents1 = listener.getCollectedEvents().size();
+                        int initialNumEvents1 = listener.getCollectedEventCount();
                         SensorCtsHelper.sleep(2, TimeUnit.SECONDS);
                         CountDownLatch flushLatch1 = sensorManager.requestFlush();
                         listener.waitForFlushComplete(flushLatch1, false);
                         Assert.assertTrue("1.No sensor events collected on calling flush " +
                                 environment.toString(),
-                                listener.getCollectedEvents().size() - initialNumEvents1 > 0);
+                                listener.getCollectedEventCount() - initialNumEvents1 > 0);
                     }
                     // acknowledge waitForFlushComplete
                     listener.releaseWakeLock();
 
                     Log.i(TAG, "Collected sensor events size1=" +
-                            listener.getCollectedEvents().size());
-                    int initialNumEvents2 = listener.getCollectedEvents().size();
+                            listener.getCollectedEventCount());
+                    int initialNumEvents2 = listener.getCollectedEventCount();
 
                     // allow device to go to sleep
                     if (wakeLock.isHeld()) {
@@ -304,9 +417,9 @@ public class TestSensorOperation extends SensorOperation {
                     listener.waitForFlushComplete(flushLatch2, false);
 
                     Log.i(TAG, "Collected sensor events size2=" +
-                            listener.getCollectedEvents().size());
+                            listener.getCollectedEventCount());
 
-                    if (listener.getCollectedEvents().size() - initialNumEvents2 <= 0 &&
+                    if (listener.getCollectedEventCount() - initialNumEvents2 <= 0 &&
                             suspendMonitor.getLastWakeUpTime() > 0) {
                         // Fail
                         String str = String.format("No Sensor events collected by calling flush " +
@@ -317,16 +430,16 @@ public class TestSensorOperation extends SensorOperation {
                         Assert.fail(str);
                     }
                     if (flushBeforeAfterSuspend) {
-                        int initialNumEvents3 = listener.getCollectedEvents().size();
+                        int initialNumEvents3 = listener.getCollectedEventCount();
                         SensorCtsHelper.sleep(2, TimeUnit.SECONDS);
                         CountDownLatch flushLatch3 = sensorManager.requestFlush();
                         listener.waitForFlushComplete(flushLatch3, false);
                         Assert.assertTrue("3.No sensor events collected on calling flush " +
                                 environment.toString(),
-                                listener.getCollectedEvents().size() - initialNumEvents3 > 0);
+                                listener.getCollectedEventCount() - initialNumEvents3 > 0);
                     }
                     Log.i(TAG, "Collected sensor events size3=" +
-                            listener.getCollectedEvents().size());
+                            listener.getCollectedEventCount());
                 } finally {
                     // make sure the device can run until the test activity take over.
                     if(!wakeLock.isHeld()) {
@@ -25,8 +25,6 @@ import android.hardware.cts.helpers.TestSensorEnvironment;
 import android.hardware.cts.helpers.TestSensorEvent;
 import android.util.Log;
 
-import java.util.LinkedList;
-
 /**
  * A {@link ISensorVerification} which verifies that each batch of events has the FIFO
  *  length within the 5% of the expected value.
@@ -39,9 +37,14 @@ public class FifoLengthVerification extends AbstractSensorVerification {
     private final int mExpectedFifoLength;
 
     private int mIndex = 0;
-    private LinkedList<Long> mRecvdTimeStampDiffs = new LinkedList<>();
     private long mPrevRecvdTimeStampMs = -1,  mExpectedReportLatencyUs;
 
+    // The batches are counted as the events are added, so that long tests run in bounded memory.
+    private int mRecvdTimeStampDiffCount = 0;
+    private int mBatchCount = 0;
+    private boolean mEndOfBatch = false;
+    private long mMaxTsDiff = -1;
+
     /**
      * Construct a {@link FifoLengthVerification}
      *
@@ -96,26 +99,12 @@ public class FifoLengthVerification extends AbstractSensorVerification {
             stats.addValue(PASSED_KEY, "skipped (no fifo length requirements)");
             return;
         }
-        int batchCount = 0;
-        int maxBatchCount = 0;
-        boolean success, endofbatch = false;
-        long maxTsDiff = -1;
-        for (long timestampDiff : mRecvdTimeStampDiffs) {
-            if (maxTsDiff < timestampDiff) maxTsDiff = timestampDiff;
-            // Any event that arrives within before 0.5*expectedReportLatency is considered
-            // to be in the same batch of events, else it is considered as the beginning of a new
-            // batch.
-            if (timestampDiff < mExpectedReportLatencyUs/1000/2) {
-                batchCount++;
-            } else {
-                endofbatch = true;
-                maxBatchCount = (maxBatchCount >= batchCount) ? maxBatchCount : batchCount;
-                batchCount = 0;
-            }
-        }
+        int batchCount = mBatchCount;
+        boolean success, endofbatch = mEndOfBatch;
+        long maxTsDiff = mMaxTsDiff;
         Log.v("SensorFifoLengthVerification", "batchCount =" +batchCount + " mExpected=" +
                 mExpectedFifoLength + " maxTsDiff=" + maxTsDiff + " expectedReportLatency=" +
-                mExpectedReportLatencyUs/1000 + " recvdEventCount=" + mRecvdTimeStampDiffs.size());
+                mExpectedReportLatencyUs/1000 + " recvdEventCount=" + mRecvdTimeStampDiffCount);
         // Fifo length must be at least 80% of the advertized FIFO length.
         success = endofbatch && (batchCount >= mExpectedFifoLength * FIFO_LENGTH_TOLERANCE);
 
@@ -156,9 +145,23 @@ public class FifoLengthVerification extends AbstractSensorVerification {
             mPrevRecvdTimeStampMs = (long)event.receivedTimestamp/(1000 * 1000);
         } else {
             long currRecvdTimeStampMs = (long) event.receivedTimestamp/(1000 * 1000);
-            mRecvdTimeStampDiffs.add(currRecvdTimeStampMs - mPrevRecvdTimeStampMs);
+            addTimeStampDiff(currRecvdTimeStampMs - mPrevRecvdTimeStampMs);
             mPrevRecvdTimeStampMs = currRecvdTimeStampMs;
         }
         mIndex++;
     }
+
+    private void addTimeStampDiff(long timestampDiff) {
+        mRecvdTimeStampDiffCount++;
+        if (mMaxTsDiff < timestampDiff) mMaxTsDiff = timestampDiff;
+        // Any event that arrives within before 0.5*expectedReportLatency is considered
+        // to be in the same batch of events, else it is considered as the beginning of a new
+        // batch.
+        if (timestampDiff < mExpectedReportLatencyUs/1000/2) {
+            mBatchCount++;
+        } else {
+            mEndOfBatch = true;
+            mBatchCount = 0;
+        }
+    }
 }
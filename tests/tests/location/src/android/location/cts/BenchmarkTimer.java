@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Times the loops of the throughput tests of the location codecs and solvers, and logs the
+ * results.
+ */
+public final class BenchmarkTimer {
+    public static final int DEFAULT_WARMUP_ITERATIONS = 20;
+    public static final int DEFAULT_MEASURED_ITERATIONS = 200;
+
+    /** The code under test, run once per iteration. */
+    public interface Body {
+        void run() throws Exception;
+    }
+
+    private BenchmarkTimer() {
+    }
+
+    /**
+     * Returns the mean time in microseconds of {@link #DEFAULT_MEASURED_ITERATIONS} runs of
+     * {@code body}, after {@link #DEFAULT_WARMUP_ITERATIONS} untimed runs.
+     */
+    public static double measureMicros(Body body) throws Exception {
+        return measureMicros(DEFAULT_WARMUP_ITERATIONS, DEFAULT_MEASURED_ITERATIONS, body);
+    }
+
+    /**
+     * Returns the mean time in microseconds of {@code measuredIterations} runs of {@code body},
+     * after {@code warmupIterations} untimed runs.
+     */
+    public static double measureMicros(int warmupIterations, int measuredIterations, Body body)
+            throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            body.run();
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < measuredIterations; i++) {
+            body.run();
+        }
+        return (System.nanoTime() - startNanos) / 1000.0 / measuredIterations;
+    }
+
+    /** Logs a result, formatted the same way whatever the default locale of the device. */
+    public static void log(String tag, String format, Object... args) {
+        Log.i(tag, String.format(Locale.US, format, args));
+    }
+}
@@ -25,6 +25,8 @@ import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.Collection;
 
+import javax.annotation.Nullable;
+
 /**
  * Implements ASN.1 functionality.
  * as an asn1 BIT STRING does.
@@ -52,6 +54,14 @@ public class Asn1BitString extends Asn1Object {
     maximumSize = max;
   }
 
+  int getMinSize() {
+    return minimumSize;
+  }
+
+  @Nullable Integer getMaxSize() {
+    return maximumSize;
+  }
+
   public BitSet getValue() {
     return value;
   }
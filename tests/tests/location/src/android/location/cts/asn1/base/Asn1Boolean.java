@@ -76,6 +76,10 @@ public class Asn1Boolean extends Asn1Object {
     return encodePerImpl();
   }
 
+  @Override public void encodePer(PacketBuilder builder, boolean aligned) {
+    builder.appendBit(value);
+  }
+
   @Override public void decodePerUnaligned(BitStreamReader reader) {
     value = reader.readBit();
   }
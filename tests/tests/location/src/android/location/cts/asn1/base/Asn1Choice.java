@@ -197,49 +197,72 @@ public abstract class Asn1Choice extends Asn1Object {
       listBuilder.add(extensionMarker);
     }
 
+    listBuilder.addAll(encodeSelection(aligned));
+
+    if (getOptionCount() > 0) {
+      Asn1Object value = getValue();
+      if (hasExtensionValue()) {
+        listBuilder.addAll(encodeOpenTypeField(value, aligned));
+      } else {
+        if (aligned) {
+          listBuilder.addAll(value.encodePerAligned());
+        } else {
+          listBuilder.addAll(value.encodePerUnaligned());
+        }
+      }
+    }
+    return listBuilder.build();
+  }
+
+  @Override public void encodePer(PacketBuilder builder, boolean aligned) {
+    if (isExtensible()) {
+      builder.appendBit(hasExtensionValue());
+    }
+
+    builder.appendAll(encodeSelection(aligned));
+
+    if (getOptionCount() > 0) {
+      Asn1Object value = getValue();
+      if (hasExtensionValue()) {
+        builder.appendAll(encodeOpenTypeField(value, aligned));
+      } else {
+        value.encodePer(builder, aligned);
+      }
+    }
+  }
+
+  /** Encodes the ordinal of the selected option. */
+  private Iterable<BitStream> encodeSelection(boolean aligned) {
     int optionCount = getOptionCount();
     Integer selectionOrdinal = getSelectionOrdinal();
     Preconditions.checkState(optionCount == 0 || selectionOrdinal != null,
                              "No value set.");
     if (hasExtensionValue()) {
       if (aligned) {
-        listBuilder.addAll(
-            PerAlignedUtils.encodeNormallySmallWholeNumber(selectionOrdinal));
+        return PerAlignedUtils.encodeNormallySmallWholeNumber(selectionOrdinal);
       } else {
-        listBuilder.addAll(
-            PerUnalignedUtils.encodeNormallySmallWholeNumber(
-              selectionOrdinal));
+        return PerUnalignedUtils.encodeNormallySmallWholeNumber(
+            selectionOrdinal);
       }
     } else if (optionCount > 1) {
       if (aligned) {
-        listBuilder.add(
+        return ImmutableList.of(
             PerAlignedUtils.encodeSmallConstrainedWholeNumber(
                 selectionOrdinal, 0, optionCount - 1));
       } else {
-        listBuilder.add(
+        return ImmutableList.of(
             PerUnalignedUtils.encodeConstrainedWholeNumber(
                 selectionOrdinal, 0, optionCount - 1));
       }
     }
+    return ImmutableList.of();
+  }
 
-    if (optionCount > 0) {
-      Asn1Object value = getValue();
-      if (hasExtensionValue()) {
-        if (aligned) {
-          listBuilder.addAll(PerAlignedUtils.encodeOpenTypeField(value));
-        } else {
-          listBuilder.addAll(
-              PerUnalignedUtils.encodeOpenTypeField(value));
-        }
-      } else {
-        if (aligned) {
-          listBuilder.addAll(value.encodePerAligned());
-        } else {
-          listBuilder.addAll(value.encodePerUnaligned());
-        }
-      }
-    }
-    return listBuilder.build();
+  private static Iterable<BitStream> encodeOpenTypeField(Asn1Object value,
+                                                         boolean aligned) {
+    return aligned
+        ? PerAlignedUtils.encodeOpenTypeField(value)
+        : PerUnalignedUtils.encodeOpenTypeField(value);
   }
 
   @Override public Iterable<BitStream> encodePerUnaligned() {
@@ -0,0 +1,568 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.asn1.base;
+
+import static android.location.cts.asn1.base.PerAlignedUtils.SIXTEEN_K;
+import static android.location.cts.asn1.base.PerAlignedUtils.SIXTYFOUR_K;
+
+import com.google.common.base.Preconditions;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+
+/**
+ * Aligned and unaligned PER encoding and decoding, ASN.1 X.691-0207, driven by
+ * {@link Asn1TypeDescriptor} tables rather than per-type generated code.
+ *
+ * <p>Values are represented as plain objects:
+ * <ul>
+ * <li>INTEGER: {@link Long}
+ * <li>BOOLEAN: {@link Boolean}
+ * <li>NULL: any non-null object, decoded as {@link Boolean#TRUE}
+ * <li>ENUMERATED: {@link Integer} ordinal of the root value
+ * <li>OCTET STRING: {@code byte[]}
+ * <li>BIT STRING: {@link BitSet}
+ * <li>SEQUENCE: {@code Object[]} indexed like the descriptor's components,
+ *     null for absent optional components
+ * <li>SEQUENCE OF: {@code Object[]} of elements
+ * <li>CHOICE: {@link Selection}
+ * </ul>
+ *
+ * <p>The produced bits are identical to those of the corresponding generated
+ * {@link Asn1Object} classes. Extension values of CHOICE and ENUMERATED types
+ * are not supported.
+ *
+ * <p>This class is thread-safe.
+ *
+ */
+public final class Asn1DescriptorCodec {
+
+  private static final int BITS_IN_BYTE = 8;
+
+  private Asn1DescriptorCodec() {
+  }
+
+  /**
+   * The selected alternative of a CHOICE.
+   */
+  public static final class Selection {
+    public final int ordinal;
+    public final Object value;
+
+    public Selection(int ordinal, Object value) {
+      this.ordinal = ordinal;
+      this.value = value;
+    }
+  }
+
+  public static byte[] encodePerAligned(Asn1TypeDescriptor type, Object value) {
+    BitStream out = new BitStream();
+    encode(type, value, out, true);
+    return out.getPaddedBytes();
+  }
+
+  public static byte[] encodePerUnaligned(Asn1TypeDescriptor type, Object value) {
+    BitStream out = new BitStream();
+    encode(type, value, out, false);
+    return out.getPaddedBytes();
+  }
+
+  public static Object decodePerAligned(Asn1TypeDescriptor type, byte[] encodedBytes) {
+    return decode(type, new BitStreamReader(encodedBytes), true);
+  }
+
+  public static Object decodePerUnaligned(Asn1TypeDescriptor type, byte[] encodedBytes) {
+    return decode(type, new BitStreamReader(encodedBytes), false);
+  }
+
+  /**
+   * Appends the encoding of {@code value} to {@code out}, so that a whole
+   * message can be encoded into one buffer.
+   */
+  public static void encode(Asn1TypeDescriptor type, Object value, BitStream out,
+                            boolean aligned) {
+    Preconditions.checkNotNull(value, "No value set for %s.", type.name);
+    switch (type.kind) {
+      case INTEGER:
+        encodeInteger(type, (Long) value, out, aligned);
+        return;
+      case BOOLEAN:
+        out.appendBit((Boolean) value);
+        return;
+      case NULL:
+        return;
+      case ENUMERATED:
+        if (type.extensible) {
+          out.appendBit(false);
+        }
+        encodeConstrainedWholeNumber((Integer) value, type.upperBound, out, aligned);
+        return;
+      case OCTET_STRING:
+        encodeOctetString(type, (byte[]) value, out, aligned);
+        return;
+      case BIT_STRING:
+        encodeBitString(type, (BitSet) value, out, aligned);
+        return;
+      case SEQUENCE:
+        encodeSequence(type, (Object[]) value, out, aligned);
+        return;
+      case SEQUENCE_OF:
+        encodeSequenceOf(type, (Object[]) value, out, aligned);
+        return;
+      case CHOICE:
+        Selection selection = (Selection) value;
+        Preconditions.checkState(selection.ordinal >= 0 && selection.ordinal <= type.upperBound,
+            "No alternative %s in %s.", selection.ordinal, type.name);
+        if (type.extensible) {
+          out.appendBit(false);
+        }
+        if (type.upperBound > 0) {
+          encodeConstrainedWholeNumber(selection.ordinal, type.upperBound, out, aligned);
+        }
+        encode(type.componentTypes[selection.ordinal], selection.value, out, aligned);
+        return;
+      default:
+        throw new AssertionError(type.kind);
+    }
+  }
+
+  /**
+   * Decodes the next value of the given type from {@code reader}.
+   */
+  public static Object decode(Asn1TypeDescriptor type, BitStreamReader reader, boolean aligned) {
+    switch (type.kind) {
+      case INTEGER:
+        return decodeInteger(type, reader, aligned);
+      case BOOLEAN:
+        return reader.readBit();
+      case NULL:
+        return Boolean.TRUE;
+      case ENUMERATED:
+        if (type.extensible && reader.readBit()) {
+          throw new UnsupportedOperationException(
+              "Extension values of " + type.name + " unimplemented");
+        }
+        return (int) decodeConstrainedWholeNumber(type.upperBound, reader, aligned);
+      case OCTET_STRING:
+        return decodeOctetString(type, reader, aligned);
+      case BIT_STRING:
+        return decodeBitString(type, reader, aligned);
+      case SEQUENCE:
+        return decodeSequence(type, reader, aligned);
+      case SEQUENCE_OF:
+        return decodeSequenceOf(type, reader, aligned);
+      case CHOICE:
+        if (type.extensible && reader.readBit()) {
+          throw new UnsupportedOperationException(
+              "Extension alternatives of " + type.name + " unimplemented");
+        }
+        int ordinal = type.upperBound > 0
+            ? (int) decodeConstrainedWholeNumber(type.upperBound, reader, aligned)
+            : 0;
+        return new Selection(ordinal, decode(type.componentTypes[ordinal], reader, aligned));
+      default:
+        throw new AssertionError(type.kind);
+    }
+  }
+
+  private static void encodeInteger(Asn1TypeDescriptor type, long value, BitStream out,
+                                    boolean aligned) {
+    Preconditions.checkState(!type.hasLowerBound || value >= type.lowerBound,
+                             "Too small value %s", value);
+    Preconditions.checkState(!type.hasUpperBound || value <= type.upperBound,
+                             "Too large value %s", value);
+    if (type.hasLowerBound && type.hasUpperBound) {
+      long normalizedValue = value - type.lowerBound;
+      long range = type.upperBound - type.lowerBound;
+      if (aligned && range >= SIXTYFOUR_K) {
+        append(out, PerAlignedUtils.encodeConstrainedLengthOfBytes(
+            PerAlignedUtils.encodeBigNonNegativeWholeNumber(BigInteger.valueOf(normalizedValue)),
+            1,
+            PerAlignedUtils.encodeBigNonNegativeWholeNumber(BigInteger.valueOf(range)).length));
+      } else {
+        encodeConstrainedWholeNumber(normalizedValue, range, out, aligned);
+      }
+    } else if (type.hasLowerBound) {
+      byte[] bytes = PerAlignedUtils.encodeBigNonNegativeWholeNumber(
+          BigInteger.valueOf(value).subtract(BigInteger.valueOf(type.lowerBound)));
+      encodeLengthOfBytes(bytes, out, aligned);
+    } else {
+      encodeLengthOfBytes(BigInteger.valueOf(value).toByteArray(), out, aligned);
+    }
+  }
+
+  private static Long decodeInteger(Asn1TypeDescriptor type, BitStreamReader reader,
+                                    boolean aligned) {
+    if (type.hasLowerBound && type.hasUpperBound) {
+      long range = type.upperBound - type.lowerBound;
+      if (aligned && range >= SIXTYFOUR_K) {
+        byte[] bytes = PerAlignedUtils.decodeConstrainedLengthOfBytes(
+            reader, 1,
+            PerAlignedUtils.encodeBigNonNegativeWholeNumber(BigInteger.valueOf(range)).length);
+        return type.lowerBound + new BigInteger(1, bytes).longValue();
+      }
+      return type.lowerBound + decodeConstrainedWholeNumber(range, reader, aligned);
+    } else if (type.hasLowerBound) {
+      byte[] bytes = decodeLengthOfBytes(reader, aligned);
+      return type.lowerBound + new BigInteger(1, bytes).longValue();
+    } else {
+      return new BigInteger(decodeLengthOfBytes(reader, aligned)).longValue();
+    }
+  }
+
+  private static void encodeOctetString(Asn1TypeDescriptor type, byte[] value, BitStream out,
+                                        boolean aligned) {
+    Preconditions.checkState(!type.hasUpperBound || value.length <= type.upperBound,
+                             "Too large %s", value.length);
+    if (!type.hasUpperBound) {
+      encodeLengthOfBytes(value, out, aligned);
+      return;
+    }
+    int minimumSize = (int) type.lowerBound;
+    int maximumSize = (int) type.upperBound;
+    if (minimumSize == maximumSize && maximumSize < SIXTYFOUR_K) {
+      if (aligned && maximumSize > 2) {
+        out.spoolToByteBoundary();
+      }
+      out.appendBytes(value, 0, maximumSize);
+    } else if (maximumSize >= SIXTYFOUR_K) {
+      encodeLengthOfBytes(value, out, aligned);
+    } else {
+      encodeConstrainedWholeNumber(value.length - minimumSize, maximumSize - minimumSize, out,
+                                   aligned);
+      if (value.length > 0) {
+        if (aligned) {
+          out.spoolToByteBoundary();
+        }
+        out.appendBytes(value);
+      }
+    }
+  }
+
+  private static byte[] decodeOctetString(Asn1TypeDescriptor type, BitStreamReader reader,
+                                          boolean aligned) {
+    if (!type.hasUpperBound) {
+      return decodeLengthOfBytes(reader, aligned);
+    }
+    int minimumSize = (int) type.lowerBound;
+    int maximumSize = (int) type.upperBound;
+    if (minimumSize == maximumSize && maximumSize < SIXTYFOUR_K) {
+      byte[] value = new byte[maximumSize];
+      if (aligned && maximumSize > 2) {
+        reader.spoolToByteBoundary();
+      }
+      reader.readBytes(value, 0, maximumSize);
+      return value;
+    } else if (maximumSize >= SIXTYFOUR_K) {
+      return decodeLengthOfBytes(reader, aligned);
+    }
+    int length = minimumSize
+        + (int) decodeConstrainedWholeNumber(maximumSize - minimumSize, reader, aligned);
+    byte[] value = new byte[length];
+    if (length > 0) {
+      if (aligned) {
+        reader.spoolToByteBoundary();
+      }
+      reader.readBytes(value, 0, length);
+    }
+    return value;
+  }
+
+  private static void encodeBitString(Asn1TypeDescriptor type, BitSet value, BitStream out,
+                                      boolean aligned) {
+    if (!type.hasUpperBound || type.upperBound >= SIXTYFOUR_K) {
+      throw new UnsupportedOperationException("unconstrained or large " + type.name
+                                              + " unimplemented");
+    }
+    Preconditions.checkState(value.length() <= type.upperBound, "Too large %s", value.length());
+    int minimumSize = (int) type.lowerBound;
+    int maximumSize = (int) type.upperBound;
+    int bitsToEncode;
+    if (minimumSize == maximumSize) {
+      if (aligned && maximumSize > 16) {
+        out.spoolToByteBoundary();
+      }
+      bitsToEncode = maximumSize;
+    } else {
+      bitsToEncode = Math.max(minimumSize, value.length());
+      encodeConstrainedWholeNumber(bitsToEncode - minimumSize, maximumSize - minimumSize, out,
+                                   aligned);
+      if (aligned) {
+        out.spoolToByteBoundary();
+      }
+    }
+    for (int i = 0; i < bitsToEncode; i++) {
+      out.appendBit(value.get(i));
+    }
+  }
+
+  private static BitSet decodeBitString(Asn1TypeDescriptor type, BitStreamReader reader,
+                                        boolean aligned) {
+    if (!type.hasUpperBound || type.upperBound >= SIXTYFOUR_K) {
+      throw new UnsupportedOperationException("unconstrained or large " + type.name
+                                              + " unimplemented");
+    }
+    int minimumSize = (int) type.lowerBound;
+    int maximumSize = (int) type.upperBound;
+    int length;
+    if (minimumSize == maximumSize) {
+      if (aligned && maximumSize > 16) {
+        reader.spoolToByteBoundary();
+      }
+      length = maximumSize;
+    } else {
+      length = minimumSize
+          + (int) decodeConstrainedWholeNumber(maximumSize - minimumSize, reader, aligned);
+      if (aligned) {
+        reader.spoolToByteBoundary();
+      }
+    }
+    BitSet value = new BitSet(length);
+    for (int i = 0; i < length; i++) {
+      value.set(i, reader.readBit());
+    }
+    return value;
+  }
+
+  private static void encodeSequence(Asn1TypeDescriptor type, Object[] values, BitStream out,
+                                     boolean aligned) {
+    Preconditions.checkArgument(values.length == type.componentTypes.length,
+        "%s expects %s components, got %s", type.name, type.componentTypes.length,
+        values.length);
+    int rootCount = type.rootComponentCount;
+    boolean hasExtensionValues = false;
+    for (int i = rootCount; i < values.length; i++) {
+      hasExtensionValues |= values[i] != null;
+    }
+    if (type.extensible) {
+      out.appendBit(hasExtensionValues);
+    }
+    for (int i = 0; i < rootCount; i++) {
+      if (type.componentOptional[i]) {
+        out.appendBit(values[i] != null);
+      } else if (values[i] == null) {
+        throw new IllegalStateException("Mandatory component " + type.componentNames[i]
+                                        + " of " + type.name + " not set.");
+      }
+    }
+    for (int i = 0; i < rootCount; i++) {
+      if (values[i] != null) {
+        encode(type.componentTypes[i], values[i], out, aligned);
+      }
+    }
+    if (!hasExtensionValues) {
+      return;
+    }
+
+    int extensionCount = values.length - rootCount;
+    if (extensionCount <= 64) {
+      out.appendBit(false);
+      out.appendBits(6, extensionCount - 1);
+    } else {
+      out.appendBit(true);
+      encodeLength(extensionCount, out, aligned);
+    }
+    for (int i = rootCount; i < values.length; i++) {
+      out.appendBit(values[i] != null);
+    }
+    for (int i = rootCount; i < values.length; i++) {
+      if (values[i] != null) {
+        BitStream openType = new BitStream();
+        encode(type.componentTypes[i], values[i], openType, aligned);
+        encodeLengthOfBytes(openType.getPaddedBytes(), out, aligned);
+      }
+    }
+  }
+
+  private static Object[] decodeSequence(Asn1TypeDescriptor type, BitStreamReader reader,
+                                         boolean aligned) {
+    Object[] values = new Object[type.componentTypes.length];
+    boolean hasExtensionValues = type.extensible && reader.readBit();
+    int rootCount = type.rootComponentCount;
+    // Presence is recorded with a placeholder until the values are decoded.
+    for (int i = 0; i < rootCount; i++) {
+      if (!type.componentOptional[i] || reader.readBit()) {
+        values[i] = Boolean.TRUE;
+      }
+    }
+    for (int i = 0; i < rootCount; i++) {
+      if (values[i] != null) {
+        values[i] = decode(type.componentTypes[i], reader, aligned);
+      }
+    }
+    if (!hasExtensionValues) {
+      return values;
+    }
+
+    int extensionBitFieldSize;
+    if (reader.readBit()) {
+      extensionBitFieldSize = decodeLength(reader, aligned);
+    } else {
+      extensionBitFieldSize = 1 + reader.readLowBits(6);
+    }
+    int unknownExtensionCount = 0;
+    for (int i = 0; i < extensionBitFieldSize; i++) {
+      boolean present = reader.readBit();
+      if (rootCount + i < values.length) {
+        values[rootCount + i] = present ? Boolean.TRUE : null;
+      } else if (present) {
+        unknownExtensionCount++;
+      }
+    }
+    for (int i = rootCount; i < values.length; i++) {
+      if (values[i] != null) {
+        byte[] encodedComponent = decodeLengthOfBytes(reader, aligned);
+        values[i] = decode(type.componentTypes[i], new BitStreamReader(encodedComponent),
+                           aligned);
+      }
+    }
+    for (; unknownExtensionCount > 0; --unknownExtensionCount) {
+      decodeLengthOfBytes(reader, aligned);
+    }
+    return values;
+  }
+
+  private static void encodeSequenceOf(Asn1TypeDescriptor type, Object[] elements,
+                                       BitStream out, boolean aligned) {
+    Preconditions.checkState(elements.length >= type.lowerBound, "Too few components.");
+    Preconditions.checkState(!type.hasUpperBound || elements.length <= type.upperBound,
+                             "Too many components.");
+    if (!type.hasUpperBound || type.upperBound >= SIXTYFOUR_K) {
+      encodeLength(elements.length, out, aligned);
+    } else if (type.upperBound != type.lowerBound) {
+      encodeConstrainedWholeNumber(elements.length - type.lowerBound,
+                                   type.upperBound - type.lowerBound, out, aligned);
+    }
+    Asn1TypeDescriptor elementType = type.componentTypes[0];
+    for (Object element : elements) {
+      encode(elementType, element, out, aligned);
+    }
+  }
+
+  private static Object[] decodeSequenceOf(Asn1TypeDescriptor type, BitStreamReader reader,
+                                           boolean aligned) {
+    int size = (int) type.lowerBound;
+    if (!type.hasUpperBound || type.upperBound >= SIXTYFOUR_K) {
+      size = decodeLength(reader, aligned);
+    } else if (type.upperBound != type.lowerBound) {
+      size += (int) decodeConstrainedWholeNumber(type.upperBound - type.lowerBound, reader,
+                                                 aligned);
+    }
+    Asn1TypeDescriptor elementType = type.componentTypes[0];
+    Object[] elements = new Object[size];
+    for (int i = 0; i < size; i++) {
+      elements[i] = decode(elementType, reader, aligned);
+    }
+    return elements;
+  }
+
+  /**
+   * Encodes a normalized constrained whole number, X.691-0207, 10.5. Aligned
+   * ranges must be below 64K.
+   */
+  private static void encodeConstrainedWholeNumber(long normalizedValue, long range,
+                                                   BitStream out, boolean aligned) {
+    Preconditions.checkArgument(normalizedValue >= 0, "negative normalized value");
+    if (!aligned) {
+      out.appendBits(unalignedBitsToEncode(range), normalizedValue);
+    } else if (range == 0) {
+      return;
+    } else if (range < 128) {
+      out.appendBits(64 - Long.numberOfLeadingZeros(range), normalizedValue);
+    } else {
+      if (range >= 255) {
+        out.spoolToByteBoundary();
+      }
+      out.appendBits(range < 256 ? BITS_IN_BYTE : 2 * BITS_IN_BYTE, normalizedValue);
+    }
+  }
+
+  private static long decodeConstrainedWholeNumber(long range, BitStreamReader reader,
+                                                   boolean aligned) {
+    if (!aligned) {
+      return reader.readBits(unalignedBitsToEncode(range));
+    } else if (range == 0) {
+      return 0;
+    } else if (range < 128) {
+      return reader.readBits(64 - Long.numberOfLeadingZeros(range));
+    }
+    if (range >= 255) {
+      reader.spoolToByteBoundary();
+    }
+    return reader.readBits(range < 256 ? BITS_IN_BYTE : 2 * BITS_IN_BYTE);
+  }
+
+  /**
+   * Matches {@link PerUnalignedUtils}, which spends one bit even on a range of
+   * zero.
+   */
+  private static int unalignedBitsToEncode(long range) {
+    return Math.max(1, 64 - Long.numberOfLeadingZeros(range));
+  }
+
+  /**
+   * Encodes a length determinant, X.691-0207, 10.9.3.6.
+   */
+  private static void encodeLength(int length, BitStream out, boolean aligned) {
+    if (aligned) {
+      out.spoolToByteBoundary();
+    }
+    if (length <= 127) {
+      out.appendBits(BITS_IN_BYTE, length);
+    } else if (length < SIXTEEN_K) {
+      out.appendBits(2 * BITS_IN_BYTE, 0x8000 | length);
+    } else {
+      throw new UnsupportedOperationException("Length values > " + SIXTEEN_K
+                                              + "unimplemented");
+    }
+  }
+
+  private static int decodeLength(BitStreamReader reader, boolean aligned) {
+    if (aligned) {
+      reader.spoolToByteBoundary();
+    }
+    if (!reader.readBit()) {
+      return reader.readLowBits(7);
+    } else if (!reader.readBit()) {
+      return reader.readLowBits(14);
+    }
+    throw new UnsupportedOperationException("Length values > " + SIXTEEN_K + "unimplemented");
+  }
+
+  /**
+   * Encodes a semi-constrained length byte[], X.691-0207, 10.9.3.5.
+   */
+  private static void encodeLengthOfBytes(byte[] bytes, BitStream out, boolean aligned) {
+    encodeLength(bytes.length, out, aligned);
+    out.appendBytes(bytes);
+  }
+
+  private static byte[] decodeLengthOfBytes(BitStreamReader reader, boolean aligned) {
+    byte[] bytes = new byte[decodeLength(reader, aligned)];
+    reader.readBytes(bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  private static void append(BitStream out, Iterable<BitStream> bitStreams) {
+    for (BitStream bitStream : bitStreams) {
+      if (bitStream.beginsByteAligned()) {
+        out.spoolToByteBoundary();
+      }
+      out.appendBitStream(bitStream);
+    }
+  }
+}
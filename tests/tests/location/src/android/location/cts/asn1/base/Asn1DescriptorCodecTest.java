@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.asn1.base;
+
+import android.location.cts.BenchmarkTimer;
+import android.location.cts.asn1.supl2.rrlp_components.NavModelElement;
+import android.location.cts.asn1.supl2.rrlp_components.NavModel_KeplerianSet;
+import android.location.cts.asn1.supl2.rrlp_components.NavigationModel;
+import android.location.cts.asn1.supl2.rrlp_components.RrlpNavigationModelDescriptors;
+import android.location.cts.asn1.supl2.rrlp_components.SeqOfNavModelElement;
+import android.location.cts.asn1.supl2.supl_init.Notification;
+import android.location.cts.asn1.supl2.supl_start.PosTechnology;
+import android.location.cts.asn1.supl2.ulp_version_2_message_extensions.ProtectionLevel;
+
+import junit.framework.TestCase;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Checks that {@link Asn1DescriptorCodec} produces the same bits as the
+ * generated classes, and logs the throughput of both.
+ */
+public class Asn1DescriptorCodecTest extends TestCase {
+  private static final String TAG = "Asn1DescriptorCodecTest";
+
+  private static final int SATELLITE_COUNT = 16;
+
+  public void testGeneratedDescriptorsMatchClasses() {
+    assertSameShape(Asn1DescriptorGenerator.describe(NavigationModel.class),
+                    RrlpNavigationModelDescriptors.NAVIGATION_MODEL);
+    assertSameShape(Asn1DescriptorGenerator.describe(NavModel_KeplerianSet.class),
+                    RrlpNavigationModelDescriptors.NAV_MODEL_KEPLERIAN_SET);
+  }
+
+  public void testNavigationModelMatchesGeneratedClasses() {
+    NavigationModel navigationModel = new NavigationModel();
+    Object value = populateNavigationModel(navigationModel);
+    Asn1TypeDescriptor type = RrlpNavigationModelDescriptors.NAVIGATION_MODEL;
+
+    for (boolean aligned : new boolean[] {false, true}) {
+      byte[] expected = encode(navigationModel, aligned);
+      byte[] actual = aligned
+          ? Asn1DescriptorCodec.encodePerAligned(type, value)
+          : Asn1DescriptorCodec.encodePerUnaligned(type, value);
+      assertTrue(Arrays.equals(expected, actual));
+
+      Object decoded = aligned
+          ? Asn1DescriptorCodec.decodePerAligned(type, expected)
+          : Asn1DescriptorCodec.decodePerUnaligned(type, expected);
+      assertTrue(Arrays.deepEquals((Object[]) normalize(value), (Object[]) normalize(decoded)));
+    }
+  }
+
+  public void testKeplerianSetMatchesGeneratedClasses() {
+    NavModel_KeplerianSet keplerianSet = new NavModel_KeplerianSet();
+    Object[] value = Asn1TestValues.populate(keplerianSet, 3);
+    Asn1TypeDescriptor type = RrlpNavigationModelDescriptors.NAV_MODEL_KEPLERIAN_SET;
+
+    for (boolean aligned : new boolean[] {false, true}) {
+      byte[] expected = encode(keplerianSet, aligned);
+      byte[] actual = aligned
+          ? Asn1DescriptorCodec.encodePerAligned(type, value)
+          : Asn1DescriptorCodec.encodePerUnaligned(type, value);
+      assertTrue(Arrays.equals(expected, actual));
+      Object[] decoded = (Object[]) (aligned
+          ? Asn1DescriptorCodec.decodePerAligned(type, expected)
+          : Asn1DescriptorCodec.decodePerUnaligned(type, expected));
+      assertTrue(Arrays.equals(value, decoded));
+    }
+  }
+
+  /**
+   * BOOLEAN and BIT STRING components, and an extensible SEQUENCE whose
+   * extension addition is itself an extensible SEQUENCE.
+   */
+  public void testPosTechnologyMatchesGeneratedClasses() {
+    assertMatchesGeneratedClasses(PosTechnology.class);
+  }
+
+  /**
+   * ENUMERATED and variable size OCTET STRING components, and an extensible
+   * SEQUENCE with an extension addition.
+   */
+  public void testNotificationMatchesGeneratedClasses() {
+    assertMatchesGeneratedClasses(Notification.class);
+  }
+
+  /**
+   * ENUMERATED, fixed size OCTET STRING and fixed size BIT STRING components.
+   */
+  public void testProtectionLevelMatchesGeneratedClasses() {
+    assertMatchesGeneratedClasses(ProtectionLevel.class);
+  }
+
+  public void testMissingMandatoryComponentThrows() {
+    Object[] value = new Object[RrlpNavigationModelDescriptors.NAVIGATION_MODEL
+        .getComponentCount()];
+    try {
+      Asn1DescriptorCodec.encodePerUnaligned(RrlpNavigationModelDescriptors.NAVIGATION_MODEL,
+                                             value);
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException expected) {
+      // expected
+    }
+  }
+
+  public void testThroughput() throws Exception {
+    final NavigationModel navigationModel = new NavigationModel();
+    final Object value = populateNavigationModel(navigationModel);
+    final Asn1TypeDescriptor type = RrlpNavigationModelDescriptors.NAVIGATION_MODEL;
+
+    for (final boolean aligned : new boolean[] {false, true}) {
+      final byte[] encoded = encode(navigationModel, aligned);
+      double classEncodeMicros = BenchmarkTimer.measureMicros(
+          () -> encodeDirect(navigationModel, aligned));
+      double classDecodeMicros = BenchmarkTimer.measureMicros(
+          () -> decodeWithClasses(encoded, aligned));
+      double tableEncodeMicros = BenchmarkTimer.measureMicros(
+          () -> Asn1DescriptorCodec.encode(type, value, new BitStream(encoded.length), aligned));
+      double tableDecodeMicros = BenchmarkTimer.measureMicros(
+          () -> Asn1DescriptorCodec.decode(type, new BitStreamReader(encoded), aligned));
+
+      BenchmarkTimer.log(TAG,
+          "NavigationModel x%d (%s, %d bytes): classes encode %.1f us, decode %.1f us; "
+              + "descriptors encode %.1f us, decode %.1f us",
+          SATELLITE_COUNT, aligned ? "aligned" : "unaligned", encoded.length,
+          classEncodeMicros, classDecodeMicros, tableEncodeMicros, tableDecodeMicros);
+    }
+  }
+
+  /**
+   * Encodes random values of {@code type} with optional components and
+   * extension additions each present and absent, and checks that the
+   * descriptor codec produces the bits of the generated class and decodes
+   * them back to the same value.
+   */
+  private static void assertMatchesGeneratedClasses(Class<? extends Asn1Object> type) {
+    Asn1TypeDescriptor descriptor = Asn1DescriptorGenerator.describe(type);
+    Random random = new Random(type.getName().hashCode());
+    for (int seed = 0; seed < 8; seed++) {
+      for (boolean optionals : new boolean[] {false, true}) {
+        for (boolean extensions : new boolean[] {false, true}) {
+          Asn1Object object = newInstance(type);
+          Object value = populate(object, descriptor, random, optionals, extensions);
+          for (boolean aligned : new boolean[] {false, true}) {
+            String message = type.getSimpleName() + " optionals " + optionals + " extensions "
+                + extensions + " aligned " + aligned;
+            byte[] expected = encode(object, aligned);
+            if (descriptor.extensible) {
+              boolean hasAdditions = descriptor.rootComponentCount < descriptor.getComponentCount();
+              assertEquals(message, extensions && hasAdditions, (expected[0] & 0x80) != 0);
+            }
+            byte[] actual = aligned
+                ? Asn1DescriptorCodec.encodePerAligned(descriptor, value)
+                : Asn1DescriptorCodec.encodePerUnaligned(descriptor, value);
+            assertTrue(message, Arrays.equals(expected, actual));
+
+            Object decoded = aligned
+                ? Asn1DescriptorCodec.decodePerAligned(descriptor, expected)
+                : Asn1DescriptorCodec.decodePerUnaligned(descriptor, expected);
+            assertTrue(message, Arrays.deepEquals(new Object[] {normalize(value)},
+                                                  new Object[] {normalize(decoded)}));
+          }
+        }
+      }
+    }
+  }
+
+  private static Asn1Object newInstance(Class<? extends Asn1Object> type) {
+    try {
+      return type.newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Sets {@code object}, of the given type, to random values and returns the
+   * equivalent descriptor value. Optional root components are set if
+   * {@code optionals} is true, and extension additions if {@code extensions}
+   * is true.
+   */
+  private static Object populate(Asn1Object object, Asn1TypeDescriptor type, Random random,
+                                 boolean optionals, boolean extensions) {
+    switch (type.kind) {
+      case INTEGER: {
+        long value;
+        if (type.hasLowerBound && type.hasUpperBound) {
+          long range = type.upperBound - type.lowerBound;
+          value = type.lowerBound + (range == Long.MAX_VALUE
+              ? random.nextLong() & Long.MAX_VALUE
+              : Math.floorMod(random.nextLong(), range + 1));
+        } else if (type.hasLowerBound) {
+          value = type.lowerBound + random.nextInt(100000);
+        } else {
+          value = random.nextInt();
+        }
+        ((Asn1Integer) object).setInteger(BigInteger.valueOf(value));
+        return value;
+      }
+      case BOOLEAN: {
+        boolean value = random.nextBoolean();
+        ((Asn1Boolean) object).setValue(value);
+        return value;
+      }
+      case NULL:
+        return Boolean.TRUE;
+      case ENUMERATED: {
+        Asn1Enumerated enumerated = (Asn1Enumerated) object;
+        int ordinal = random.nextInt(enumerated.getValueCount());
+        enumerated.setValue(enumerated.lookupValue(ordinal));
+        return ordinal;
+      }
+      case OCTET_STRING: {
+        byte[] value = new byte[randomSize(type, random)];
+        random.nextBytes(value);
+        ((Asn1OctetString) object).setValue(value);
+        return value;
+      }
+      case BIT_STRING: {
+        int size = randomSize(type, random);
+        BitSet value = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+          value.set(i, random.nextBoolean());
+        }
+        if (size > 0 && type.lowerBound != type.upperBound) {
+          // The size of a variable size BIT STRING is that of its last set bit.
+          value.set(size - 1);
+        }
+        ((Asn1BitString) object).setValue(value);
+        return value;
+      }
+      case SEQUENCE: {
+        Object[] values = new Object[type.getComponentCount()];
+        Asn1Sequence sequence = (Asn1Sequence) object;
+        int index = 0;
+        for (SequenceComponent component : sequence.getComponents()) {
+          if (!type.componentOptional[index] || optionals) {
+            component.setToNewInstance();
+            values[index] = populate(component.getComponentValue(),
+                                     type.componentTypes[index], random, optionals, extensions);
+          }
+          index++;
+        }
+        for (SequenceComponent component : sequence.getExtensionComponents()) {
+          if (extensions) {
+            component.setToNewInstance();
+            values[index] = populate(component.getComponentValue(),
+                                     type.componentTypes[index], random, optionals, extensions);
+          }
+          index++;
+        }
+        return values;
+      }
+      case SEQUENCE_OF: {
+        Asn1SequenceOf<?> sequenceOf = (Asn1SequenceOf<?>) object;
+        Object[] elements = new Object[randomSize(type, random)];
+        for (int i = 0; i < elements.length; i++) {
+          elements[i] = populate(sequenceOf.createAndAddValue(), type.componentTypes[0], random,
+                                 optionals, extensions);
+        }
+        return elements;
+      }
+      case CHOICE: {
+        int ordinal = random.nextInt((int) type.upperBound + 1);
+        Asn1Object alternative = ((Asn1Choice) object).createAndSetValue(false, ordinal);
+        return new Asn1DescriptorCodec.Selection(
+            ordinal, populate(alternative, type.componentTypes[ordinal], random, optionals,
+                              extensions));
+      }
+      default:
+        throw new AssertionError(type.kind);
+    }
+  }
+
+  /**
+   * Returns a random size allowed by the size constraint of {@code type}, at
+   * most 4 above its lower bound.
+   */
+  private static int randomSize(Asn1TypeDescriptor type, Random random) {
+    long maximum = type.hasUpperBound
+        ? Math.min(type.upperBound, type.lowerBound + 4)
+        : type.lowerBound + 4;
+    return (int) (type.lowerBound + random.nextInt((int) (maximum - type.lowerBound) + 1));
+  }
+
+  private static void assertSameShape(Asn1TypeDescriptor expected, Asn1TypeDescriptor actual) {
+    assertEquals(expected.getName(), actual.getName());
+    assertEquals(expected.getKind(), actual.getKind());
+    assertEquals(expected.lowerBound, actual.lowerBound);
+    assertEquals(expected.upperBound, actual.upperBound);
+    assertEquals(expected.hasLowerBound, actual.hasLowerBound);
+    assertEquals(expected.hasUpperBound, actual.hasUpperBound);
+    assertEquals(expected.extensible, actual.extensible);
+    assertEquals(expected.rootComponentCount, actual.rootComponentCount);
+    assertTrue(Arrays.equals(expected.componentNames, actual.componentNames));
+    assertTrue(Arrays.equals(expected.componentOptional, actual.componentOptional));
+    for (int i = 0; i < expected.getComponentCount(); i++) {
+      assertSameShape(expected.getComponentType(i), actual.getComponentType(i));
+    }
+  }
+
+  /**
+   * Fills {@code navigationModel} with one uncompressed ephemeris per satellite
+   * and returns the equivalent descriptor value.
+   */
+  private static Object populateNavigationModel(NavigationModel navigationModel) {
+    SeqOfNavModelElement elements = navigationModel.setNavModelListToNewInstance();
+    Object[] elementValues = new Object[SATELLITE_COUNT];
+    for (int i = 0; i < SATELLITE_COUNT; i++) {
+      NavModelElement element = elements.createAndAddValue();
+      element.setSatelliteIDToNewInstance().setInteger(BigInteger.valueOf(i));
+      Object[] ephemeris =
+          Asn1TestValues.populate(
+              element.setSatStatusToNewInstance().setNewSatelliteAndModelUCToNewInstance(), i);
+      elementValues[i] = new Object[] {(long) i, new Asn1DescriptorCodec.Selection(0, ephemeris)};
+    }
+    return new Object[] {elementValues};
+  }
+
+  /**
+   * Replaces {@link Asn1DescriptorCodec.Selection}s by arrays so that values
+   * can be compared with {@link Arrays#deepEquals}.
+   */
+  private static Object normalize(Object value) {
+    if (value instanceof Asn1DescriptorCodec.Selection) {
+      Asn1DescriptorCodec.Selection selection = (Asn1DescriptorCodec.Selection) value;
+      return new Object[] {selection.ordinal, normalize(selection.value)};
+    }
+    if (value instanceof Object[]) {
+      Object[] values = ((Object[]) value).clone();
+      for (int i = 0; i < values.length; i++) {
+        values[i] = normalize(values[i]);
+      }
+      return values;
+    }
+    return value;
+  }
+
+  /**
+   * Encodes {@code object} directly into one buffer, and checks that its
+   * streams give the same bytes.
+   */
+  private static byte[] encode(Asn1Object object, boolean aligned) {
+    byte[] encoded = encodeDirect(object, aligned);
+    PacketBuilder streams = new PacketBuilder();
+    streams.appendAll(aligned ? object.encodePerAligned() : object.encodePerUnaligned());
+    assertTrue(Arrays.equals(streams.getPaddedBytes(), encoded));
+    return encoded;
+  }
+
+  private static byte[] encodeDirect(Asn1Object object, boolean aligned) {
+    PacketBuilder builder = new PacketBuilder();
+    object.encodePer(builder, aligned);
+    return builder.getPaddedBytes();
+  }
+
+  private static void decodeWithClasses(byte[] encoded, boolean aligned) {
+    if (aligned) {
+      NavigationModel.fromPerAligned(encoded);
+    } else {
+      NavigationModel.fromPerUnaligned(encoded);
+    }
+  }
+}
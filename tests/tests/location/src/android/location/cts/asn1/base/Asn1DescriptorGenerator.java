@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.asn1.base;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Derives {@link Asn1TypeDescriptor} tables from the generated
+ * {@link Asn1Object} classes and emits them as Java source, so that a type
+ * tree can be encoded by {@link Asn1DescriptorCodec} without loading the
+ * generated codec classes.
+ *
+ * <p>Usage: {@code Asn1DescriptorGenerator <output class> <type class>...};
+ * the source of the output class is written to stdout.
+ *
+ */
+public final class Asn1DescriptorGenerator {
+
+  private static final String INDENT = "      ";
+  private static final String LICENSE_HEADER =
+      "/*\n"
+      + " * Copyright (C) 2018 The Android Open Source Project\n"
+      + " *\n"
+      + " * Licensed under the Apache License, Version 2.0 (the \"License\");\n"
+      + " * you may not use this file except in compliance with the License.\n"
+      + " * You may obtain a copy of the License at\n"
+      + " *\n"
+      + " *      http://www.apache.org/licenses/LICENSE-2.0\n"
+      + " *\n"
+      + " * Unless required by applicable law or agreed to in writing, software\n"
+      + " * distributed under the License is distributed on an \"AS IS\" BASIS,\n"
+      + " * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.\n"
+      + " * See the License for the specific language governing permissions and\n"
+      + " * limitations under the License.\n"
+      + " */\n\n";
+
+  /** Constant names of constructed types, inline factory calls of the others. */
+  private final Map<Class<?>, String> expressions = new LinkedHashMap<>();
+  /** Constant declarations, dependencies first. */
+  private final List<String> constantDeclarations = new ArrayList<>();
+  private final Map<Class<?>, Asn1TypeDescriptor> descriptors = new LinkedHashMap<>();
+  private final Set<Class<?>> inProgress = new HashSet<>();
+
+  public static void main(String[] args) throws ClassNotFoundException {
+    if (args.length < 2) {
+      System.err.println("Usage: Asn1DescriptorGenerator <output class> <type class>...");
+      System.exit(1);
+    }
+    Asn1DescriptorGenerator generator = new Asn1DescriptorGenerator();
+    for (int i = 1; i < args.length; i++) {
+      generator.add(Class.forName(args[i]).asSubclass(Asn1Object.class));
+    }
+    System.out.print(generator.generateSource(args[0]));
+  }
+
+  /**
+   * Returns the descriptor of {@code type}, built by instantiating it and its
+   * components.
+   * @throws UnsupportedOperationException if the type tree contains a kind
+   * that {@link Asn1DescriptorCodec} does not handle
+   */
+  public static Asn1TypeDescriptor describe(Class<? extends Asn1Object> type) {
+    return new Asn1DescriptorGenerator().add(type);
+  }
+
+  /**
+   * Adds {@code type} and everything it references to the generated source.
+   */
+  public Asn1TypeDescriptor add(Class<? extends Asn1Object> type) {
+    Asn1TypeDescriptor descriptor = descriptors.get(type);
+    if (descriptor != null) {
+      return descriptor;
+    }
+    if (!inProgress.add(type)) {
+      throw new UnsupportedOperationException("Recursive type " + type.getName());
+    }
+    Asn1Object instance = newInstance(type);
+    String name = typeName(type);
+    String expression;
+    if (instance instanceof Asn1Integer) {
+      Asn1Integer integer = (Asn1Integer) instance;
+      Long minimum = toLong(type, integer.getMinimumValue());
+      Long maximum = toLong(type, integer.getMaximumValue());
+      descriptor = Asn1TypeDescriptor.integer(name, minimum, maximum);
+      expression = "integer(" + quote(name) + ", " + longLiteral(minimum) + ", "
+          + longLiteral(maximum) + ")";
+    } else if (instance instanceof Asn1Boolean) {
+      descriptor = Asn1TypeDescriptor.bool(name);
+      expression = "bool(" + quote(name) + ")";
+    } else if (instance instanceof Asn1Null) {
+      descriptor = Asn1TypeDescriptor.nullType(name);
+      expression = "nullType(" + quote(name) + ")";
+    } else if (instance instanceof Asn1Enumerated) {
+      Asn1Enumerated enumerated = (Asn1Enumerated) instance;
+      descriptor = Asn1TypeDescriptor.enumerated(
+          name, enumerated.getValueCount(), enumerated.isExtensible());
+      expression = "enumerated(" + quote(name) + ", " + enumerated.getValueCount() + ", "
+          + enumerated.isExtensible() + ")";
+    } else if (instance instanceof Asn1OctetString) {
+      Asn1OctetString octetString = (Asn1OctetString) instance;
+      descriptor = Asn1TypeDescriptor.octetString(
+          name, octetString.getMinSize(), octetString.getMaxSize());
+      expression = "octetString(" + quote(name) + ", " + octetString.getMinSize() + ", "
+          + octetString.getMaxSize() + ")";
+    } else if (instance instanceof Asn1BitString) {
+      Asn1BitString bitString = (Asn1BitString) instance;
+      descriptor = Asn1TypeDescriptor.bitString(
+          name, bitString.getMinSize(), bitString.getMaxSize());
+      expression = "bitString(" + quote(name) + ", " + bitString.getMinSize() + ", "
+          + bitString.getMaxSize() + ")";
+    } else if (instance instanceof Asn1SequenceOf) {
+      Asn1SequenceOf<?> sequenceOf = (Asn1SequenceOf<?>) instance;
+      Class<? extends Asn1Object> elementClass = sequenceOf.createAndAddValue().getClass();
+      Asn1TypeDescriptor element = add(elementClass);
+      descriptor = Asn1TypeDescriptor.sequenceOf(
+          name, element, sequenceOf.getMinSize(), sequenceOf.getMaxSize());
+      expression = declare(type, "sequenceOf(" + quote(name) + ", " + reference(elementClass)
+          + ", " + sequenceOf.getMinSize() + ", " + sequenceOf.getMaxSize() + ")");
+    } else if (instance instanceof Asn1Sequence) {
+      Asn1Sequence sequence = (Asn1Sequence) instance;
+      List<Asn1TypeDescriptor.Component> components = new ArrayList<>();
+      StringBuilder source = new StringBuilder("sequence(" + quote(name) + ", "
+          + sequence.isExtensible());
+      addComponents(sequence, sequence.getComponents(), false, components, source);
+      addComponents(sequence, sequence.getExtensionComponents(), true, components, source);
+      descriptor = Asn1TypeDescriptor.sequence(name, sequence.isExtensible(),
+          components.toArray(new Asn1TypeDescriptor.Component[components.size()]));
+      expression = declare(type, source.append(")").toString());
+    } else if (instance instanceof Asn1Choice) {
+      Asn1Choice choice = (Asn1Choice) instance;
+      List<Asn1TypeDescriptor.Component> alternatives = new ArrayList<>();
+      StringBuilder source = new StringBuilder("choice(" + quote(name) + ", "
+          + choice.isExtensible());
+      int optionCount = choice.getOptionCount();
+      for (int i = 0; i < optionCount; i++) {
+        Asn1Object value = choice.createAndSetValue(false, i);
+        String alternativeName = accessorName(choice, value);
+        Asn1TypeDescriptor alternativeType = add(value.getClass());
+        alternatives.add(Asn1TypeDescriptor.component(alternativeName, alternativeType));
+        source.append(",\n").append(INDENT).append("component(").append(quote(alternativeName))
+            .append(", ").append(reference(value.getClass())).append(")");
+      }
+      descriptor = Asn1TypeDescriptor.choice(name, choice.isExtensible(),
+          alternatives.toArray(new Asn1TypeDescriptor.Component[alternatives.size()]));
+      expression = declare(type, source.append(")").toString());
+    } else {
+      throw new UnsupportedOperationException(
+          type.getName() + " (" + type.getSuperclass().getSimpleName() + ") unimplemented");
+    }
+    inProgress.remove(type);
+    descriptors.put(type, descriptor);
+    expressions.put(type, expression);
+    return descriptor;
+  }
+
+  /**
+   * Returns the source of a class holding the descriptors of all added types
+   * as constants.
+   */
+  public String generateSource(String qualifiedClassName) {
+    int lastDot = qualifiedClassName.lastIndexOf('.');
+    StringBuilder source = new StringBuilder();
+    source.append(LICENSE_HEADER)
+        .append("// Generated by Asn1DescriptorGenerator, do not edit.\n\n");
+    if (lastDot > 0) {
+      source.append("package ").append(qualifiedClassName, 0, lastDot).append(";\n\n");
+    }
+    source.append("import static android.location.cts.asn1.base.Asn1TypeDescriptor.*;\n\n")
+        .append("import android.location.cts.asn1.base.Asn1TypeDescriptor;\n\n")
+        .append("public final class ").append(qualifiedClassName.substring(lastDot + 1))
+        .append(" {\n\n");
+    for (String declaration : constantDeclarations) {
+      source.append(declaration).append("\n\n");
+    }
+    source.append("  private ").append(qualifiedClassName.substring(lastDot + 1))
+        .append("() {\n  }\n}\n");
+    return source.toString();
+  }
+
+  private void addComponents(Asn1Sequence sequence,
+                             Iterable<? extends SequenceComponent> sequenceComponents,
+                             boolean extension, List<Asn1TypeDescriptor.Component> components,
+                             StringBuilder source) {
+    for (SequenceComponent component : sequenceComponents) {
+      component.setToNewInstance();
+      Asn1Object value = component.getComponentValue();
+      String componentName = accessorName(sequence, value);
+      Asn1TypeDescriptor componentType = add(value.getClass());
+      String factory;
+      if (extension) {
+        factory = "extension";
+        components.add(Asn1TypeDescriptor.extension(componentName, componentType));
+      } else if (component.isOptional() || component.hasDefaultValue()) {
+        factory = "optional";
+        components.add(Asn1TypeDescriptor.optional(componentName, componentType));
+      } else {
+        factory = "component";
+        components.add(Asn1TypeDescriptor.component(componentName, componentType));
+      }
+      source.append(",\n").append(INDENT).append(factory).append("(")
+          .append(quote(componentName)).append(", ").append(reference(value.getClass()))
+          .append(")");
+    }
+  }
+
+  /**
+   * Emits a constant for a constructed type and returns the expression
+   * referencing it.
+   */
+  private String declare(Class<?> type, String expression) {
+    String constantName = constantName(type);
+    constantDeclarations.add("  public static final Asn1TypeDescriptor " + constantName
+                             + " =\n    " + expression + ";");
+    return constantName;
+  }
+
+  /**
+   * Returns the expression for an already added type: a constant name for
+   * constructed types, the inline factory call otherwise.
+   */
+  private String reference(Class<?> type) {
+    return expressions.get(type);
+  }
+
+  /**
+   * Finds the name of the component holding {@code value} through the
+   * generated {@code getXxx()} accessor that returns it.
+   */
+  private static String accessorName(Asn1Object parent, Asn1Object value) {
+    for (Method method : parent.getClass().getMethods()) {
+      String methodName = method.getName();
+      if (!methodName.startsWith("get") || methodName.length() == 3
+          || method.getParameterTypes().length != 0
+          || Modifier.isStatic(method.getModifiers())
+          || !Asn1Object.class.isAssignableFrom(method.getReturnType())) {
+        continue;
+      }
+      try {
+        if (method.invoke(parent) == value) {
+          return Character.toLowerCase(methodName.charAt(3)) + methodName.substring(4);
+        }
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // Accessors of unselected CHOICE alternatives throw, keep looking.
+      }
+    }
+    throw new IllegalStateException("No accessor for " + value.getClass().getName()
+                                    + " in " + parent.getClass().getName());
+  }
+
+  private static Asn1Object newInstance(Class<? extends Asn1Object> type) {
+    try {
+      return type.newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("Cannot instantiate " + type.getName(), e);
+    }
+  }
+
+  private static String typeName(Class<?> type) {
+    Class<?> enclosing = type.getEnclosingClass();
+    return enclosing == null
+        ? type.getSimpleName()
+        : typeName(enclosing) + "." + type.getSimpleName();
+  }
+
+  /** Turns {@code NavModel_KeplerianSet.keplerToeType} into {@code NAV_MODEL_KEPLERIAN_SET_KEPLER_TOE_TYPE}. */
+  private static String constantName(Class<?> type) {
+    String name = typeName(type);
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c == '.' || c == '_' || c == '-') {
+        if (result.length() > 0 && result.charAt(result.length() - 1) != '_') {
+          result.append('_');
+        }
+        continue;
+      }
+      if (Character.isUpperCase(c) && i > 0 && Character.isLowerCase(name.charAt(i - 1))) {
+        result.append('_');
+      }
+      result.append(Character.toUpperCase(c));
+    }
+    return result.toString();
+  }
+
+  private static Long toLong(Class<?> type, BigInteger value) {
+    if (value == null) {
+      return null;
+    }
+    if (value.bitLength() > 63) {
+      throw new UnsupportedOperationException(
+          "Bound " + value + " of " + type.getName() + " does not fit a long");
+    }
+    return value.longValue();
+  }
+
+  private static String longLiteral(Long value) {
+    return value == null ? "null" : value + "L";
+  }
+
+  private static String quote(String value) {
+    return "\"" + value + "\"";
+  }
+}
@@ -57,6 +57,14 @@ public class Asn1Integer extends Asn1Object {
     maximumValue = maximum == null ? null : new BigInteger(maximum);
   }
 
+  @Nullable BigInteger getMinimumValue() {
+    return minimumValue;
+  }
+
+  @Nullable BigInteger getMaximumValue() {
+    return maximumValue;
+  }
+
   private Iterable<BitStream> encodeNormalizedIntegerWithRangeAligned(
       BigInteger normalizedValue, BigInteger range) {
     if (range.compareTo(BigInteger.valueOf(SIXTYFOUR_K)) < 0) {
@@ -187,6 +187,18 @@ public abstract class Asn1Object {
 
   public abstract Iterable<BitStream> encodePerUnaligned();
 
+  /**
+   * Appends the PER encoding of this object to {@code builder}. The
+   * constructed types write their bits straight into the builder, so that a
+   * whole message is encoded into the one growable buffer of the builder
+   * instead of into lists of small streams per component. The builder must
+   * start at the beginning of the encoded message, as the alignment padding
+   * of the aligned variant depends on the absolute bit position.
+   */
+  public void encodePer(PacketBuilder builder, boolean aligned) {
+    builder.appendAll(aligned ? encodePerAligned() : encodePerUnaligned());
+  }
+
   /**
    * This method should only be called on a newly created instance to avoid
    * having residue state in it.
@@ -25,6 +25,8 @@ import com.google.common.io.BaseEncoding;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 
+import javax.annotation.Nullable;
+
 /**
  * Implements ASN.1 functionality.
  *
@@ -50,6 +52,14 @@ public class Asn1OctetString extends Asn1Object {
     maximumSize = max;
   }
 
+  int getMinSize() {
+    return minimumSize;
+  }
+
+  @Nullable Integer getMaxSize() {
+    return maximumSize;
+  }
+
   public byte[] getValue() {
     return value;
   }
@@ -92,10 +102,8 @@ public class Asn1OctetString extends Asn1Object {
         return ImmutableList.of();
       }
       if (maximumSize < SIXTYFOUR_K) {
-        BitStream result = new BitStream();
-        for (int i = 0; i < maximumSize; i++) {
-          result.appendByte(value[i]);
-        }
+        BitStream result = new BitStream(maximumSize);
+        result.appendBytes(value, 0, maximumSize);
         if (aligned && maximumSize > 2) {
           result.setBeginByteAligned();
         }
@@ -136,9 +144,7 @@ public class Asn1OctetString extends Asn1Object {
         if (aligned && maximumSize > 2) {
           reader.spoolToByteBoundary();
         }
-        for (int i = 0; i < maximumSize; i++) {
-          value[i] = reader.readByte();
-        }
+        reader.readBytes(value, 0, maximumSize);
         return;
       }
     }
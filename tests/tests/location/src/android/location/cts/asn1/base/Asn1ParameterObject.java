@@ -62,6 +62,10 @@ public class Asn1ParameterObject extends Asn1Object {
     return realObject.encodePerAligned();
   }
 
+  @Override public void encodePer(PacketBuilder builder, boolean aligned) {
+    realObject.encodePer(builder, aligned);
+  }
+
   @Override
   public void decodePerUnaligned(BitStreamReader reader) {
     realObject.decodePerUnaligned(reader);
@@ -159,17 +159,10 @@ public abstract class Asn1Sequence extends Asn1Object {
     }
 
     Iterable<? extends SequenceComponent> components = getComponents();
-    int bitFieldSize = calculateBitFieldSize(components);
-    if (bitFieldSize >= PerAlignedUtils.SIXTYFOUR_K) {
-      throw new UnsupportedOperationException("unimplemented");
-    }
+    checkBitFieldSize(components);
     for (SequenceComponent component : components) {
-      if (component.isOptional() || component.hasDefaultValue()) {
+      if (isInBitField(component)) {
         prefix.appendBit(component.isExplicitlySet());
-      } else if (!component.isExplicitlySet()) {
-        throw new IllegalStateException("Mandatory component "
-                                        + component.getClass().getName()
-                                        + " not set.");
       }
     }
     listBuilder.add(prefix);
@@ -188,57 +181,113 @@ public abstract class Asn1Sequence extends Asn1Object {
     }
 
     if (isExtensible() && containsExtensionValues()) {
-      Iterable<? extends SequenceComponent> extensionComponents =
-          getExtensionComponents();
-      BitStream extensions = new BitStream();
-      int extensionBitFieldSize = 0;
-      /*
-       * Adding a bit marker per extension addition as ITU spec, however some
-       * H323 implementations seem to only add markers up to the last set
-       * extension.
-       */
-      for (SequenceComponent component : extensionComponents) {
-        if (!component.isOptional() && !component.isExplicitlySet()) {
-          throw new IllegalStateException("Mandatory extension component "
-                                          + component.getClass().getName()
-                                          + " not set.");
-        }
-        extensions.appendBit(component.isExplicitlySet());
-        extensionBitFieldSize++;
+      listBuilder.addAll(encodeExtensionAdditions(aligned));
+    }
+    return listBuilder.build();
+  }
+
+  @Override public void encodePer(PacketBuilder builder, boolean aligned) {
+    if (isExtensible()) {
+      builder.appendBit(containsExtensionValues());
+    }
+
+    Iterable<? extends SequenceComponent> components = getComponents();
+    checkBitFieldSize(components);
+    for (SequenceComponent component : components) {
+      if (isInBitField(component)) {
+        builder.appendBit(component.isExplicitlySet());
       }
-      if (extensionBitFieldSize <= 64) {
-        //encode length to x.691-0207 10.9.3.4 (i.e. length -1)
-        BitStream lengthDeterminant = new BitStream();
-        lengthDeterminant.appendBit(false);
-        lengthDeterminant.appendLowBits(6, (byte) (extensionBitFieldSize - 1));
-        listBuilder.add(lengthDeterminant);
+    }
+
+    for (SequenceComponent component : components) {
+      if (component.isExplicitlySet()) {
+        component.getComponentValue().encodePer(builder, aligned);
+      }
+    }
+
+    if (isExtensible() && containsExtensionValues()) {
+      builder.appendAll(encodeExtensionAdditions(aligned));
+    }
+  }
+
+  private void checkBitFieldSize(Iterable<? extends SequenceComponent> components) {
+    int bitFieldSize = calculateBitFieldSize(components);
+    if (bitFieldSize >= PerAlignedUtils.SIXTYFOUR_K) {
+      throw new UnsupportedOperationException("unimplemented");
+    }
+  }
+
+  /**
+   * Returns whether {@code component} has a presence bit, and throws if it is
+   * a mandatory component that is not set.
+   */
+  private static boolean isInBitField(SequenceComponent component) {
+    if (component.isOptional() || component.hasDefaultValue()) {
+      return true;
+    } else if (!component.isExplicitlySet()) {
+      throw new IllegalStateException("Mandatory component "
+                                      + component.getClass().getName()
+                                      + " not set.");
+    }
+    return false;
+  }
+
+  /**
+   * Encodes the extension addition bit field and the set extension additions,
+   * each of which is an open type field of its own.
+   */
+  private Iterable<BitStream> encodeExtensionAdditions(boolean aligned) {
+    ImmutableList.Builder<BitStream> listBuilder = ImmutableList.builder();
+    Iterable<? extends SequenceComponent> extensionComponents =
+        getExtensionComponents();
+    BitStream extensions = new BitStream();
+    int extensionBitFieldSize = 0;
+    /*
+     * Adding a bit marker per extension addition as ITU spec, however some
+     * H323 implementations seem to only add markers up to the last set
+     * extension.
+     */
+    for (SequenceComponent component : extensionComponents) {
+      if (!component.isOptional() && !component.isExplicitlySet()) {
+        throw new IllegalStateException("Mandatory extension component "
+                                        + component.getClass().getName()
+                                        + " not set.");
+      }
+      extensions.appendBit(component.isExplicitlySet());
+      extensionBitFieldSize++;
+    }
+    if (extensionBitFieldSize <= 64) {
+      //encode length to x.691-0207 10.9.3.4 (i.e. length -1)
+      BitStream lengthDeterminant = new BitStream();
+      lengthDeterminant.appendBit(false);
+      lengthDeterminant.appendLowBits(6, (byte) (extensionBitFieldSize - 1));
+      listBuilder.add(lengthDeterminant);
+    } else {
+      BitStream marker = new BitStream();
+      marker.appendBit(true);
+      listBuilder.add(marker);
+      BitStream lengthDeterminant = null;
+      if (aligned) {
+        lengthDeterminant =
+            PerAlignedUtils.encodeSemiConstrainedLength(extensionBitFieldSize);
+        lengthDeterminant.setBeginByteAligned();
       } else {
-        BitStream marker = new BitStream();
-        marker.appendBit(true);
-        listBuilder.add(marker);
-        BitStream lengthDeterminant = null;
+        lengthDeterminant =
+            PerUnalignedUtils.encodeSemiConstrainedLength(extensionBitFieldSize);
+      }
+      listBuilder.add(lengthDeterminant);
+    }
+    listBuilder.add(extensions);
+    for (SequenceComponent component : extensionComponents) {
+      if (component.isExplicitlySet()) {
+        Iterable<BitStream> extensionValues = null;
         if (aligned) {
-          lengthDeterminant =
-              PerAlignedUtils.encodeSemiConstrainedLength(extensionBitFieldSize);
-          lengthDeterminant.setBeginByteAligned();
+          extensionValues = PerAlignedUtils.
+              encodeOpenTypeField(component.getComponentValue());
         } else {
-          lengthDeterminant =
-              PerUnalignedUtils.encodeSemiConstrainedLength(extensionBitFieldSize);
-        }
-        listBuilder.add(lengthDeterminant);
-      }
-      listBuilder.add(extensions);
-      for (SequenceComponent component : extensionComponents) {
-        if (component.isExplicitlySet()) {
-          Iterable<BitStream> extensionValues = null;
-          if (aligned) {
-            extensionValues = PerAlignedUtils.
-                encodeOpenTypeField(component.getComponentValue());
-          } else {
-            extensionValues = PerUnalignedUtils.encodeOpenTypeField(component.getComponentValue());
-          }
-          listBuilder.addAll(extensionValues);
+          extensionValues = PerUnalignedUtils.encodeOpenTypeField(component.getComponentValue());
         }
+        listBuilder.addAll(extensionValues);
       }
     }
     return listBuilder.build();
@@ -23,6 +23,8 @@ import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.LinkedList;
 
+import javax.annotation.Nullable;
+
 /**
  * Implements ASN.1 functionality.
  *
@@ -47,6 +49,14 @@ public abstract class Asn1SequenceOf<T extends Asn1Object> extends Asn1Object {
     maximumSize = max;
   }
 
+  int getMinSize() {
+    return minimumSize;
+  }
+
+  @Nullable Integer getMaxSize() {
+    return maximumSize;
+  }
+
   public void add(T component) {
     sequence.addLast(component);
   }
@@ -104,28 +114,10 @@ public abstract class Asn1SequenceOf<T extends Asn1Object> extends Asn1Object {
   }
 
   private Iterable<BitStream> encodePerImpl(boolean aligned) {
-    Preconditions.checkState(sequence.size() >= minimumSize,
-                             "Too few components.");
-    Preconditions.checkState(maximumSize == null
-                             || sequence.size() <= maximumSize,
-                             "Too many components.");
     ImmutableList.Builder<BitStream> listBuilder = ImmutableList.builder();
-    if (maximumSize == null || maximumSize >= PerAlignedUtils.SIXTYFOUR_K) {
-      if (aligned) {
-        listBuilder.add(PerAlignedUtils.encodeSemiConstrainedLength(sequence.size()));
-      } else {
-        listBuilder.add(PerUnalignedUtils.encodeSemiConstrainedLength(sequence.size()));
-      }
-    } else if (maximumSize != minimumSize) {
-      if (aligned) {
-        listBuilder.add(
-            PerAlignedUtils.encodeSmallConstrainedWholeNumber(
-                sequence.size(), minimumSize, maximumSize));
-      } else {
-        listBuilder.add(
-            PerUnalignedUtils.encodeConstrainedWholeNumber(
-                sequence.size(), minimumSize, maximumSize));
-      }
+    BitStream lengthDeterminant = encodeLengthDeterminant(aligned);
+    if (lengthDeterminant != null) {
+      listBuilder.add(lengthDeterminant);
     }
     for (Asn1Object component : sequence) {
       if (aligned) {
@@ -137,6 +129,39 @@ public abstract class Asn1SequenceOf<T extends Asn1Object> extends Asn1Object {
     return listBuilder.build();
   }
 
+  @Override public void encodePer(PacketBuilder builder, boolean aligned) {
+    BitStream lengthDeterminant = encodeLengthDeterminant(aligned);
+    if (lengthDeterminant != null) {
+      builder.append(lengthDeterminant);
+    }
+    for (Asn1Object component : sequence) {
+      component.encodePer(builder, aligned);
+    }
+  }
+
+  /**
+   * Returns the encoded number of components, or null if the size is fixed.
+   */
+  private BitStream encodeLengthDeterminant(boolean aligned) {
+    Preconditions.checkState(sequence.size() >= minimumSize,
+                             "Too few components.");
+    Preconditions.checkState(maximumSize == null
+                             || sequence.size() <= maximumSize,
+                             "Too many components.");
+    if (maximumSize == null || maximumSize >= PerAlignedUtils.SIXTYFOUR_K) {
+      return aligned
+          ? PerAlignedUtils.encodeSemiConstrainedLength(sequence.size())
+          : PerUnalignedUtils.encodeSemiConstrainedLength(sequence.size());
+    } else if (maximumSize != minimumSize) {
+      return aligned
+          ? PerAlignedUtils.encodeSmallConstrainedWholeNumber(
+              sequence.size(), minimumSize, maximumSize)
+          : PerUnalignedUtils.encodeConstrainedWholeNumber(
+              sequence.size(), minimumSize, maximumSize);
+    }
+    return null;
+  }
+
   @Override public Iterable<BitStream> encodePerUnaligned() {
     return encodePerImpl(false);
   }
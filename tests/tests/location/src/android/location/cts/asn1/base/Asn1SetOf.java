@@ -31,25 +31,18 @@ public abstract class Asn1SetOf<T extends Asn1Object>
     return Asn1Tag.SET;
   }
 
-  private Iterable<BitStream> encodePerImpl(final boolean aligned) {
+  /** Sorts the components by their encoding, according to canonical PER. */
+  private void sortByEncoding(final boolean aligned) {
     // Encode according to canonical PER, always works.
     Collections.sort(sequence,
                      new Comparator<T>() {
                        @Override
                        public int compare(T lhsT, T rhsT) {
                          PacketBuilder keyMaker = new PacketBuilder();
-                         if (aligned) {
-                           keyMaker.appendAll(lhsT.encodePerAligned());
-                         } else {
-                           keyMaker.appendAll(lhsT.encodePerUnaligned());
-                         }
+                         lhsT.encodePer(keyMaker, aligned);
                          byte[] lhs = keyMaker.getPaddedBytes();
                          keyMaker = new PacketBuilder();
-                         if (aligned) {
-                           keyMaker.appendAll(rhsT.encodePerAligned());
-                         } else {
-                           keyMaker.appendAll(rhsT.encodePerUnaligned());
-                         }
+                         rhsT.encodePer(keyMaker, aligned);
                          byte[] rhs = keyMaker.getPaddedBytes();
                          for (int i = 0; i < lhs.length && i < rhs.length;
                               ++i) {
@@ -70,19 +63,20 @@ public abstract class Asn1SetOf<T extends Asn1Object>
                        }
                      }
     );
+  }
 
-    if (aligned) {
-      return super.encodePerAligned();
-    } else {
-      return super.encodePerUnaligned();
-    }
+  @Override public void encodePer(PacketBuilder builder, boolean aligned) {
+    sortByEncoding(aligned);
+    super.encodePer(builder, aligned);
   }
 
   @Override public Iterable<BitStream> encodePerUnaligned() {
-    return encodePerImpl(false);
+    sortByEncoding(false);
+    return super.encodePerUnaligned();
   }
 
   @Override public Iterable<BitStream> encodePerAligned() {
-    return encodePerImpl(true);
+    sortByEncoding(true);
+    return super.encodePerAligned();
   }
 }
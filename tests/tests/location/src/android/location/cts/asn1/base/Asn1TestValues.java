@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.asn1.base;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills generated ASN.1 sequences of integers with deterministic values for
+ * the codec tests.
+ */
+final class Asn1TestValues {
+
+  private Asn1TestValues() {
+  }
+
+  /**
+   * Sets every component of {@code sequence} to a value derived from
+   * {@code seed}, falling back to {@code seed % 2} where the derived value is
+   * outside the component's range, and returns the values in the form of
+   * {@link Asn1DescriptorCodec}.
+   */
+  static Object[] populate(Asn1Sequence sequence, int seed) {
+    List<Object> values = new ArrayList<>();
+    int index = 0;
+    for (SequenceComponent component : sequence.getComponents()) {
+      component.setToNewInstance();
+      Asn1Object value = component.getComponentValue();
+      if (value instanceof Asn1Sequence) {
+        values.add(populate((Asn1Sequence) value, seed + index));
+      } else {
+        Asn1Integer integer = (Asn1Integer) value;
+        long candidate = (seed + 1) * 7919L * (index + 1);
+        try {
+          integer.setInteger(BigInteger.valueOf(candidate), true);
+        } catch (IllegalStateException e) {
+          candidate = seed % 2;
+          integer.setInteger(BigInteger.valueOf(candidate), true);
+        }
+        values.add(candidate);
+      }
+      index++;
+    }
+    return values.toArray();
+  }
+}
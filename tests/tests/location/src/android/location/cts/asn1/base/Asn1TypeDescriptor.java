@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.asn1.base;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+
+/**
+ * Describes an ASN.1 type as a table of component kinds, constraints and
+ * optionality, to be interpreted by {@link Asn1DescriptorCodec} instead of a
+ * generated class per type.
+ *
+ * <p>Descriptors are immutable and are normally emitted by
+ * {@link Asn1DescriptorGenerator}.
+ *
+ */
+public final class Asn1TypeDescriptor {
+
+  public enum Kind {
+    INTEGER,
+    BOOLEAN,
+    NULL,
+    ENUMERATED,
+    OCTET_STRING,
+    BIT_STRING,
+    SEQUENCE,
+    SEQUENCE_OF,
+    CHOICE
+  }
+
+  private static final String[] NO_NAMES = new String[0];
+  private static final Asn1TypeDescriptor[] NO_TYPES = new Asn1TypeDescriptor[0];
+  private static final boolean[] NO_FLAGS = new boolean[0];
+
+  final String name;
+  final Kind kind;
+  /**
+   * Value bounds for INTEGER, size bounds for OCTET STRING, BIT STRING and
+   * SEQUENCE OF, and the number of root values or alternatives (as the upper
+   * bound) for ENUMERATED and CHOICE.
+   */
+  final long lowerBound;
+  final long upperBound;
+  final boolean hasLowerBound;
+  final boolean hasUpperBound;
+  final boolean extensible;
+  /**
+   * Components of a SEQUENCE (root components first, followed by extension
+   * additions), alternatives of a CHOICE or the single element type of a
+   * SEQUENCE OF.
+   */
+  final String[] componentNames;
+  final Asn1TypeDescriptor[] componentTypes;
+  final boolean[] componentOptional;
+  final int rootComponentCount;
+
+  private Asn1TypeDescriptor(String name, Kind kind,
+                             @Nullable Long lowerBound, @Nullable Long upperBound,
+                             boolean extensible, Component[] components) {
+    this.name = Preconditions.checkNotNull(name);
+    this.kind = kind;
+    this.hasLowerBound = lowerBound != null;
+    this.hasUpperBound = upperBound != null;
+    this.lowerBound = hasLowerBound ? lowerBound : 0;
+    this.upperBound = hasUpperBound ? upperBound : 0;
+    this.extensible = extensible;
+    if (components.length == 0) {
+      componentNames = NO_NAMES;
+      componentTypes = NO_TYPES;
+      componentOptional = NO_FLAGS;
+      rootComponentCount = 0;
+      return;
+    }
+    componentNames = new String[components.length];
+    componentTypes = new Asn1TypeDescriptor[components.length];
+    componentOptional = new boolean[components.length];
+    int roots = 0;
+    for (int i = 0; i < components.length; i++) {
+      Component component = components[i];
+      componentNames[i] = component.name;
+      componentTypes[i] = component.type;
+      componentOptional[i] = component.optional;
+      if (component.extension) {
+        Preconditions.checkArgument(extensible,
+            "Extension addition %s in non-extensible %s", component.name, name);
+      } else {
+        Preconditions.checkArgument(roots == i,
+            "Root component %s follows extension additions in %s", component.name, name);
+        roots++;
+      }
+    }
+    rootComponentCount = roots;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public int getComponentCount() {
+    return componentTypes.length;
+  }
+
+  public String getComponentName(int index) {
+    return componentNames[index];
+  }
+
+  public Asn1TypeDescriptor getComponentType(int index) {
+    return componentTypes[index];
+  }
+
+  /**
+   * Returns the index of the named SEQUENCE component or CHOICE alternative.
+   * @throws IllegalArgumentException if there is no such component
+   */
+  public int indexOf(String componentName) {
+    for (int i = 0; i < componentNames.length; i++) {
+      if (componentNames[i].equals(componentName)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException(name + " has no component " + componentName);
+  }
+
+  @Override public String toString() {
+    return name + " (" + kind + ")";
+  }
+
+  /**
+   * An INTEGER, a null bound meaning that the value is unbounded in that
+   * direction.
+   */
+  public static Asn1TypeDescriptor integer(String name,
+                                           @Nullable Long minimum, @Nullable Long maximum) {
+    Preconditions.checkArgument(minimum == null || maximum == null || minimum <= maximum,
+        "Empty range in %s", name);
+    Preconditions.checkArgument(minimum == null || maximum == null || maximum - minimum >= 0,
+        "Range of %s does not fit a long", name);
+    return new Asn1TypeDescriptor(name, Kind.INTEGER, minimum, maximum, false,
+                                  new Component[0]);
+  }
+
+  public static Asn1TypeDescriptor bool(String name) {
+    return new Asn1TypeDescriptor(name, Kind.BOOLEAN, null, null, false, new Component[0]);
+  }
+
+  public static Asn1TypeDescriptor nullType(String name) {
+    return new Asn1TypeDescriptor(name, Kind.NULL, null, null, false, new Component[0]);
+  }
+
+  /**
+   * An ENUMERATED with {@code valueCount} root values. Values are represented
+   * by their ordinal in size order.
+   */
+  public static Asn1TypeDescriptor enumerated(String name, int valueCount, boolean extensible) {
+    Preconditions.checkArgument(valueCount > 0, "No values in %s", name);
+    return new Asn1TypeDescriptor(name, Kind.ENUMERATED, 0L, (long) valueCount - 1,
+                                  extensible, new Component[0]);
+  }
+
+  public static Asn1TypeDescriptor octetString(String name, int minimumSize,
+                                               @Nullable Integer maximumSize) {
+    return new Asn1TypeDescriptor(name, Kind.OCTET_STRING, (long) minimumSize,
+                                  maximumSize == null ? null : (long) maximumSize,
+                                  false, new Component[0]);
+  }
+
+  public static Asn1TypeDescriptor bitString(String name, int minimumSize,
+                                             @Nullable Integer maximumSize) {
+    return new Asn1TypeDescriptor(name, Kind.BIT_STRING, (long) minimumSize,
+                                  maximumSize == null ? null : (long) maximumSize,
+                                  false, new Component[0]);
+  }
+
+  public static Asn1TypeDescriptor sequenceOf(String name, Asn1TypeDescriptor elementType,
+                                              int minimumSize, @Nullable Integer maximumSize) {
+    return new Asn1TypeDescriptor(name, Kind.SEQUENCE_OF, (long) minimumSize,
+                                  maximumSize == null ? null : (long) maximumSize, false,
+                                  new Component[] {component("element", elementType)});
+  }
+
+  public static Asn1TypeDescriptor sequence(String name, boolean extensible,
+                                            Component... components) {
+    return new Asn1TypeDescriptor(name, Kind.SEQUENCE, null, null, extensible, components);
+  }
+
+  /**
+   * A CHOICE over the root {@code alternatives}. Extension alternatives are
+   * not described.
+   */
+  public static Asn1TypeDescriptor choice(String name, boolean extensible,
+                                          Component... alternatives) {
+    Preconditions.checkArgument(alternatives.length > 0, "No alternatives in %s", name);
+    for (Component alternative : alternatives) {
+      Preconditions.checkArgument(!alternative.optional && !alternative.extension,
+          "Alternative %s of %s must be a plain component", alternative.name, name);
+    }
+    return new Asn1TypeDescriptor(name, Kind.CHOICE, 0L, (long) alternatives.length - 1,
+                                  extensible, alternatives);
+  }
+
+  /** A mandatory root component. */
+  public static Component component(String name, Asn1TypeDescriptor type) {
+    return new Component(name, type, false, false);
+  }
+
+  /** An OPTIONAL or DEFAULT root component. */
+  public static Component optional(String name, Asn1TypeDescriptor type) {
+    return new Component(name, type, true, false);
+  }
+
+  /** An extension addition, always optional. */
+  public static Component extension(String name, Asn1TypeDescriptor type) {
+    return new Component(name, type, true, true);
+  }
+
+  /**
+   * A named component of a SEQUENCE or alternative of a CHOICE.
+   */
+  public static final class Component {
+    final String name;
+    final Asn1TypeDescriptor type;
+    final boolean optional;
+    final boolean extension;
+
+    private Component(String name, Asn1TypeDescriptor type, boolean optional,
+                      boolean extension) {
+      this.name = Preconditions.checkNotNull(name);
+      this.type = Preconditions.checkNotNull(type);
+      this.optional = optional;
+      this.extension = extension;
+    }
+  }
+}
@@ -16,7 +16,6 @@
 
 package android.location.cts.asn1.base;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 
 import java.util.Arrays;
@@ -24,58 +23,90 @@ import java.util.Arrays;
 /**
  * Outputs a stream of bits.
  *
+ * <p>Bits are collected in a 64-bit accumulator and only spilled into the
+ * backing buffer a whole byte at a time, so appending a multi-bit field costs
+ * a shift and an OR rather than one read-modify-write of the buffer per bit.
+ *
  * <p>This class is not thread-safe.
  * 
  */
 public final class BitStream {
 
   /**
-   * The number of bytes that is initially allocated and by which the buffer
-   * gets expanded when necessary.
+   * The number of bytes that is initially allocated by default.
    */
   static final int BUFFER_CHUNK = 50;
   private static final int BITS_IN_BYTE = 8;
+  private static final int BITS_IN_LONG = 64;
 
-  private byte[] buffer = new byte[BUFFER_CHUNK];
+  private byte[] buffer;
   /**
-   * The position in the buffer of the unfinished byte in progress.
+   * The number of complete bytes spilled into the buffer.
    */
   private int position = 0;
   /**
-   *   The number of high bits accumulated in the unfinished byte.
+   * Pending bits, right aligned, the oldest bit being the most significant.
+   */
+  private long accumulator = 0;
+  /**
+   * The number of valid low bits in the {@link #accumulator}.
    */
-  private int setBits = 0;
+  private int accumulatedBits = 0;
+
+  public BitStream() {
+    this(BUFFER_CHUNK);
+  }
+
+  /**
+   * Creates a stream whose buffer can hold {@code initialCapacity} bytes
+   * before it has to grow. Used when the approximate size of a whole message
+   * is known up front.
+   */
+  public BitStream(int initialCapacity) {
+    buffer = new byte[Math.max(1, initialCapacity)];
+  }
 
   public byte[] getPaddedBytes() {
-    return Arrays.copyOf(buffer, position + (setBits == 0 ? 0 : 1));
+    int pendingBytes = (accumulatedBits + BITS_IN_BYTE - 1) / BITS_IN_BYTE;
+    byte[] result = Arrays.copyOf(buffer, position + pendingBytes);
+    long padded = accumulator << (pendingBytes * BITS_IN_BYTE - accumulatedBits);
+    for (int i = pendingBytes - 1, j = position; i >= 0; i--, j++) {
+      result[j] = (byte) (padded >>> (i * BITS_IN_BYTE));
+    }
+    return result;
   }
 
   public void appendByte(byte data) {
-    buffer[position] = (byte) (buffer[position] | (data & 0xFF) >> setBits);
-    incrementPosition();
-    buffer[position] = (byte) (buffer[position] | (data << (BITS_IN_BYTE - setBits)) & 0xFF);
+    appendBits(BITS_IN_BYTE, data & 0xFF);
   }
 
-  private void incrementPosition() {
-    position++;
-    if (position >= buffer.length) {
-      buffer = Arrays.copyOf(buffer, buffer.length + BUFFER_CHUNK);
+  /**
+   * Appends {@code length} bytes of {@code data} starting at {@code offset}.
+   * When the stream is at a byte boundary the bytes are copied in bulk.
+   */
+  public void appendBytes(byte[] data, int offset, int length) {
+    if ((accumulatedBits & (BITS_IN_BYTE - 1)) != 0) {
+      for (int i = offset; i < offset + length; i++) {
+        appendBits(BITS_IN_BYTE, data[i] & 0xFF);
+      }
+      return;
     }
+    spill();
+    ensureCapacity(position + length);
+    System.arraycopy(data, offset, buffer, position, length);
+    position += length;
+  }
+
+  public void appendBytes(byte[] data) {
+    appendBytes(data, 0, data.length);
   }
 
   public void appendBit(boolean one) {
-    if (one) {
-      buffer[position] = (byte) (buffer[position] | 1 << (BITS_IN_BYTE - 1 - setBits));
-    }
-    setBits++;
-    if (setBits == BITS_IN_BYTE) {
-      incrementPosition();
-      setBits = 0;
-    }
+    appendBits(1, one ? 1 : 0);
   }
 
   public int getBitCount() {
-    return BITS_IN_BYTE * position + setBits;
+    return BITS_IN_BYTE * position + accumulatedBits;
   }
 
   /**
@@ -84,14 +115,38 @@ public final class BitStream {
    */
   public void appendLowBits(int howManyBits, byte data) {
     Preconditions.checkArgument(howManyBits < BITS_IN_BYTE);
-    int lowMask = (1 << howManyBits) - 1;
-    int highMask = ~lowMask;
-    int maskedData = data;
-    while (highMask < -1) {
-      maskedData &= ~highMask;
-      highMask >>= 1;
-      appendBit((maskedData & highMask) != 0);
+    appendBits(howManyBits, data);
+  }
+
+  /**
+   * Appends the lowest {@code howManyBits} (at most 64) from the {@code data}
+   * in order from most significant to least significant.
+   */
+  public void appendBits(int howManyBits, long data) {
+    if (howManyBits == 0) {
+      return;
     }
+    if (accumulatedBits + howManyBits > BITS_IN_LONG) {
+      spill();
+      if (howManyBits > BITS_IN_LONG - BITS_IN_BYTE) {
+        // Even after spilling up to 7 bits may be left, so split the value.
+        appendBits(howManyBits - 32, data >>> 32);
+        appendBits(32, data);
+        return;
+      }
+    }
+    long mask = howManyBits == BITS_IN_LONG ? -1L : (1L << howManyBits) - 1;
+    accumulator = (accumulator << howManyBits) | (data & mask);
+    accumulatedBits += howManyBits;
+  }
+
+  /**
+   * Appends all bits of {@code other}. Bytes of {@code other} are copied in
+   * bulk when this stream is at a byte boundary.
+   */
+  public void appendBitStream(BitStream other) {
+    appendBytes(other.buffer, 0, other.position);
+    appendBits(other.accumulatedBits, other.accumulator);
   }
 
   private boolean beginByteAligned;
@@ -105,9 +160,31 @@ public final class BitStream {
   }
 
   public void spoolToByteBoundary() {
-    if (setBits != 0) {
-      setBits = 0;
-      incrementPosition();
+    int partialBits = accumulatedBits & (BITS_IN_BYTE - 1);
+    if (partialBits != 0) {
+      appendBits(BITS_IN_BYTE - partialBits, 0);
+    }
+  }
+
+  /**
+   * Moves all complete bytes from the accumulator to the buffer.
+   */
+  private void spill() {
+    int completeBytes = accumulatedBits / BITS_IN_BYTE;
+    if (completeBytes == 0) {
+      return;
+    }
+    ensureCapacity(position + completeBytes);
+    while (accumulatedBits >= BITS_IN_BYTE) {
+      accumulatedBits -= BITS_IN_BYTE;
+      buffer[position++] = (byte) (accumulator >>> accumulatedBits);
+    }
+    accumulator &= (1L << accumulatedBits) - 1;
+  }
+
+  private void ensureCapacity(int minimumCapacity) {
+    if (minimumCapacity > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(minimumCapacity, 2 * buffer.length));
     }
   }
 }
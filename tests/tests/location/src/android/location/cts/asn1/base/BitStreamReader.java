@@ -19,15 +19,26 @@ package android.location.cts.asn1.base;
 /**
  * Reads a stream of bits.
  *
+ * <p>Up to eight bytes of input are cached in a 64-bit word, so that multi-bit
+ * fields are extracted with a shift and a mask instead of bit by bit.
+ *
  * <p>This class is not thread-safe.
  * 
  */
 public class BitStreamReader {
   private static final int BITS_IN_BYTE = 8;
+  private static final int BITS_IN_LONG = 64;
 
   private final byte[] buffer;
+  /**
+   * The index of the next byte of the buffer to load into the cache.
+   */
   private int position = 0;
-  private int bitsRead = 0;
+  /**
+   * Loaded but not yet consumed bits, right aligned.
+   */
+  private long cache = 0;
+  private int cachedBits = 0;
 
   public BitStreamReader(byte[] bytes) {
     buffer = bytes;
@@ -38,28 +49,20 @@ public class BitStreamReader {
    * @throws IndexOutOfBoundsException if there is no more data.
    */
   public boolean readBit() {
-    bitsRead++;
-    if (bitsRead > BITS_IN_BYTE) {
-      position++;
-      bitsRead = 1;
-    }
-    return ((buffer[position] >> (BITS_IN_BYTE - bitsRead)) & 1) == 1;
+    return readBits(1) == 1;
   }
 
   /**
    * Returns true if there is another readable bit in the stream.
    */
   public boolean hasBit() {
-    return position + 1 < buffer.length
-           || (bitsRead < BITS_IN_BYTE && position < buffer.length);
+    return cachedBits > 0 || position < buffer.length;
   }
 
   public void spoolToByteBoundary() {
-    if (bitsRead == 0) {
-      return;
-    }
-    bitsRead = 0;
-    position++;
+    // Bytes are loaded whole, so a partially consumed byte always sits at the
+    // bottom of the cached bits.
+    cachedBits &= ~(BITS_IN_BYTE - 1);
   }
 
   /**
@@ -67,13 +70,34 @@ public class BitStreamReader {
    * @throws IndexOutOfBoundsException if there is no more data.
    */
   public byte readByte() {
-    int mask = (1 << (8 - bitsRead)) - 1;
-    byte result = (byte) ((buffer[position] & mask) << bitsRead);
-    position++;
-    if (bitsRead > 0) {
-      result = (byte) (result | (buffer[position] & 0xFF) >>> (8 - bitsRead));
+    return (byte) readBits(BITS_IN_BYTE);
+  }
+
+  /**
+   * Fills {@code length} bytes of {@code destination} starting at
+   * {@code offset}. When the stream is at a byte boundary the bytes are
+   * copied in bulk.
+   * @throws IndexOutOfBoundsException if there is not enough data.
+   */
+  public void readBytes(byte[] destination, int offset, int length) {
+    int i = offset;
+    int end = offset + length;
+    if ((cachedBits & (BITS_IN_BYTE - 1)) != 0) {
+      for (; i < end; i++) {
+        destination[i] = readByte();
+      }
+      return;
     }
-    return result;
+    for (; i < end && cachedBits > 0; i++) {
+      destination[i] = readByte();
+    }
+    int remaining = end - i;
+    if (remaining > buffer.length - position) {
+      throw new IndexOutOfBoundsException("Only " + (buffer.length - position)
+                                          + " bytes left, " + remaining + " requested");
+    }
+    System.arraycopy(buffer, position, destination, i, remaining);
+    position += remaining;
   }
 
   /**
@@ -81,11 +105,37 @@ public class BitStreamReader {
    * @throws IndexOutOfBoundsException if there is no more data.
    */
   public int readLowBits(int howMany) {
-    int result = 0;
-    for (int i = 0; i < howMany; i++) {
-      result <<= 1;
-      result |= (readBit() ? 1 : 0);
+    return (int) readBits(howMany);
+  }
+
+  /**
+   * Returns next {@code howMany} (at most 64) bits as the low bits of the
+   * result, the first bit read being the most significant.
+   * @throws IndexOutOfBoundsException if there is no more data.
+   */
+  public long readBits(int howMany) {
+    if (howMany == 0) {
+      return 0;
+    }
+    if (howMany > BITS_IN_LONG - BITS_IN_BYTE) {
+      long high = readBits(howMany - 32);
+      return (high << 32) | readBits(32);
+    }
+    if (cachedBits < howMany) {
+      refill();
+      if (cachedBits < howMany) {
+        throw new IndexOutOfBoundsException("Only " + cachedBits + " bits left, "
+                                            + howMany + " requested");
+      }
+    }
+    cachedBits -= howMany;
+    return (cache >>> cachedBits) & ((1L << howMany) - 1);
+  }
+
+  private void refill() {
+    while (cachedBits <= BITS_IN_LONG - BITS_IN_BYTE && position < buffer.length) {
+      cache = (cache << BITS_IN_BYTE) | (buffer[position++] & 0xFF);
+      cachedBits += BITS_IN_BYTE;
     }
-    return result;
   }
 }
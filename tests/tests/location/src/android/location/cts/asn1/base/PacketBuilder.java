@@ -17,25 +17,60 @@
 package android.location.cts.asn1.base;
 
 /**
+ * Concatenates the {@link BitStream}s produced by the PER encoders into a
+ * single growable buffer shared by the whole message.
  */
 public class PacketBuilder {
-  private BitStream bitStream = new BitStream();
+  private final BitStream bitStream;
+
+  public PacketBuilder() {
+    bitStream = new BitStream();
+  }
+
+  /**
+   * Creates a builder that does not need to grow its buffer for messages of
+   * up to {@code expectedBytes} bytes.
+   */
+  public PacketBuilder(int expectedBytes) {
+    bitStream = new BitStream(expectedBytes);
+  }
+
+  /**
+   * Creates a builder sized for the concatenation of {@code bitStreams},
+   * which must be iterable more than once.
+   */
+  public static PacketBuilder forBitStreams(Iterable<BitStream> bitStreams) {
+    return new PacketBuilder(getExpectedBytes(bitStreams));
+  }
+
+  /**
+   * Returns an upper bound of the bytes needed to concatenate
+   * {@code bitStreams}, counting the padding before each byte aligned stream.
+   */
+  static int getExpectedBytes(Iterable<BitStream> bitStreams) {
+    long bits = 0;
+    for (BitStream bitStream : bitStreams) {
+      bits += bitStream.getBitCount();
+      if (bitStream.beginsByteAligned()) {
+        bits += 7;
+      }
+    }
+    return (int) Math.min(Integer.MAX_VALUE, (bits + 7) / 8);
+  }
 
   public void append(BitStream appendix) {
     if (appendix.beginsByteAligned()) {
       bitStream.spoolToByteBoundary();
     }
-    int bitsToAppend = appendix.getBitCount();
-    byte[] bytes = appendix.getPaddedBytes();
-    for (int i = 0; bitsToAppend >= 8; i++, bitsToAppend -= 8) {
-      bitStream.appendByte(bytes[i]);
-    }
-    if (bitsToAppend != 0) {
-      byte highBits = bytes[bytes.length - 1];
-      byte lowBits = (byte) ((highBits & 0xFF)
-                             >> (8 - bitsToAppend));
-      bitStream.appendLowBits(bitsToAppend, lowBits);
-    }
+    bitStream.appendBitStream(appendix);
+  }
+
+  public void appendBit(boolean one) {
+    bitStream.appendBit(one);
+  }
+
+  public void appendLowBits(int howManyBits, byte data) {
+    bitStream.appendLowBits(howManyBits, data);
   }
 
   public byte[] getPaddedBytes() {
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.asn1.base;
+
+import android.location.cts.BenchmarkTimer;
+import android.location.cts.asn1.supl2.rrlp_components.NavModel_KeplerianSet;
+import android.location.cts.asn1.supl2.rrlp_components.UncompressedEphemeris;
+
+import com.google.common.collect.Iterables;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Round-trips large RRLP navigation model messages through the PER codec and
+ * logs the encode and decode throughput of {@link BitStream},
+ * {@link BitStreamReader} and {@link PacketBuilder}, encoding directly into one
+ * buffer and through the lists of streams, with and without presizing.
+ */
+public class PerCodecBenchmarkTest extends TestCase {
+  private static final String TAG = "PerCodecBenchmarkTest";
+
+  /** Number of satellites' worth of navigation model concatenated per message. */
+  private static final int SATELLITES_PER_MESSAGE = 32;
+
+  public void testUncompressedEphemerisRoundTrip() throws Exception {
+    UncompressedEphemeris[] ephemerides = new UncompressedEphemeris[SATELLITES_PER_MESSAGE];
+    for (int i = 0; i < ephemerides.length; i++) {
+      ephemerides[i] = new UncompressedEphemeris();
+      Asn1TestValues.populate(ephemerides[i], i);
+    }
+    for (UncompressedEphemeris ephemeris : ephemerides) {
+      assertEquals(ephemeris.toString(),
+          UncompressedEphemeris.fromPerUnaligned(encode(ephemeris, false)).toString());
+      assertEquals(ephemeris.toString(),
+          UncompressedEphemeris.fromPerAligned(encode(ephemeris, true)).toString());
+    }
+    benchmark("UncompressedEphemeris", ephemerides);
+  }
+
+  public void testKeplerianSetRoundTrip() throws Exception {
+    NavModel_KeplerianSet[] keplerianSets = new NavModel_KeplerianSet[SATELLITES_PER_MESSAGE];
+    for (int i = 0; i < keplerianSets.length; i++) {
+      keplerianSets[i] = new NavModel_KeplerianSet();
+      Asn1TestValues.populate(keplerianSets[i], i);
+    }
+    for (NavModel_KeplerianSet keplerianSet : keplerianSets) {
+      assertEquals(keplerianSet.toString(),
+          NavModel_KeplerianSet.fromPerUnaligned(encode(keplerianSet, false)).toString());
+      assertEquals(keplerianSet.toString(),
+          NavModel_KeplerianSet.fromPerAligned(encode(keplerianSet, true)).toString());
+    }
+    benchmark("NavModel_KeplerianSet", keplerianSets);
+  }
+
+  public void testBulkAppendMatchesBitwiseAppend() {
+    byte[] payload = new byte[257];
+    for (int i = 0; i < payload.length; i++) {
+      payload[i] = (byte) (i * 37 + 11);
+    }
+    for (int leadingBits = 0; leadingBits < 8; leadingBits++) {
+      BitStream bulk = new BitStream(1);
+      BitStream bitwise = new BitStream(1);
+      for (int i = 0; i < leadingBits; i++) {
+        bulk.appendBit(i % 2 == 0);
+        bitwise.appendBit(i % 2 == 0);
+      }
+      bulk.appendBytes(payload);
+      for (byte b : payload) {
+        for (int bit = 7; bit >= 0; bit--) {
+          bitwise.appendBit(((b >> bit) & 1) != 0);
+        }
+      }
+      assertEquals(bitwise.getBitCount(), bulk.getBitCount());
+      assertTrue(Arrays.equals(bitwise.getPaddedBytes(), bulk.getPaddedBytes()));
+
+      BitStreamReader reader = new BitStreamReader(bulk.getPaddedBytes());
+      for (int i = 0; i < leadingBits; i++) {
+        assertEquals(i % 2 == 0, reader.readBit());
+      }
+      byte[] decoded = new byte[payload.length];
+      reader.readBytes(decoded, 0, decoded.length);
+      assertTrue(Arrays.equals(payload, decoded));
+    }
+  }
+
+  private static void benchmark(final String name, final Asn1Sequence[] message)
+      throws Exception {
+    for (final boolean aligned : new boolean[] {false, true}) {
+      final byte[] encoded = encodeAll(message, aligned, Encoder.DIRECT);
+      for (Encoder encoder : Encoder.values()) {
+        assertTrue(encoder.name(),
+            Arrays.equals(encoded, encodeAll(message, aligned, encoder)));
+      }
+
+      double directMicros = BenchmarkTimer.measureMicros(
+          () -> encodeAll(message, aligned, Encoder.DIRECT));
+      double streamsMicros = BenchmarkTimer.measureMicros(
+          () -> encodeAll(message, aligned, Encoder.STREAMS));
+      double presizedMicros = BenchmarkTimer.measureMicros(
+          () -> encodeAll(message, aligned, Encoder.PRESIZED_STREAMS));
+      double decodeMicros = BenchmarkTimer.measureMicros(
+          () -> decodeAll(encoded, message, aligned));
+
+      BenchmarkTimer.log(TAG, "%s x%d (%s, %d bytes): encode %.1f us/msg"
+          + " (streams %.1f us/msg, presized streams %.1f us/msg), decode %.1f us/msg",
+          name, message.length, aligned ? "aligned" : "unaligned", encoded.length,
+          directMicros, streamsMicros, presizedMicros, decodeMicros);
+    }
+  }
+
+  /** The ways of encoding a message into a {@link PacketBuilder}. */
+  private enum Encoder {
+    /** {@link Asn1Object#encodePer} into the growable buffer of one builder. */
+    DIRECT,
+    /** The streams of {@link Asn1Object#encodePerAligned} into a default sized builder. */
+    STREAMS,
+    /** The streams into a builder presized by {@link PacketBuilder#forBitStreams}. */
+    PRESIZED_STREAMS,
+  }
+
+  /**
+   * Encodes all elements back to back through a single {@link PacketBuilder}, the way a
+   * navigation model with many satellites is laid out in an RRLP assistance message.
+   */
+  private static byte[] encodeAll(Asn1Sequence[] message, boolean aligned, Encoder encoder) {
+    if (encoder == Encoder.DIRECT) {
+      PacketBuilder builder = new PacketBuilder();
+      for (Asn1Sequence element : message) {
+        element.encodePer(builder, aligned);
+      }
+      return builder.getPaddedBytes();
+    }
+    List<BitStream> streams = new ArrayList<>();
+    for (Asn1Sequence element : message) {
+      Iterables.addAll(streams,
+          aligned ? element.encodePerAligned() : element.encodePerUnaligned());
+    }
+    PacketBuilder builder = encoder == Encoder.PRESIZED_STREAMS
+        ? PacketBuilder.forBitStreams(streams)
+        : new PacketBuilder();
+    builder.appendAll(streams);
+    return builder.getPaddedBytes();
+  }
+
+  private static void decodeAll(byte[] encoded, Asn1Sequence[] message, boolean aligned) {
+    BitStreamReader reader = new BitStreamReader(encoded);
+    for (Asn1Sequence element : message) {
+      Asn1Sequence decoded = newInstanceOf(element);
+      if (aligned) {
+        decoded.decodePerAligned(reader);
+      } else {
+        decoded.decodePerUnaligned(reader);
+      }
+    }
+  }
+
+  private static byte[] encode(Asn1Object object, boolean aligned) {
+    PacketBuilder builder = new PacketBuilder();
+    object.encodePer(builder, aligned);
+    return builder.getPaddedBytes();
+  }
+
+  private static Asn1Sequence newInstanceOf(Asn1Sequence prototype) {
+    try {
+      return prototype.getClass().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
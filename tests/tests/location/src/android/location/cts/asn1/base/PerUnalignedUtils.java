@@ -52,10 +52,7 @@ public class PerUnalignedUtils {
   public static BitStream encodeNormalizedConstrainedWholeNumber(
       long normalizedValue, long range) {
     BitStream result = new BitStream();
-    int bits = leastBitsToEncodeLong(range);
-    for (int i = bits - 1; i >= 0; --i) {
-      result.appendBit((normalizedValue >> i & 1) != 0);
-    }
+    result.appendBits(leastBitsToEncodeLong(range), normalizedValue);
     return result;
   }
 
@@ -78,13 +75,7 @@ public class PerUnalignedUtils {
    */
   public static long decodeNormalizedConstrainedWholeNumber(
       BitStreamReader reader, long range) {
-    long result = 0;
-    int bits = leastBitsToEncodeLong(range);
-    for (int i = 0; i < bits; ++i) {
-      result <<= 1;
-      result |= reader.readBit() ? 1 : 0;
-    }
-    return result;
+    return reader.readBits(leastBitsToEncodeLong(range));
   }
 
   private static int leastBitsToEncodeLong(long value) {
@@ -131,9 +122,7 @@ public class PerUnalignedUtils {
       return ImmutableList.of(lengthDeterminant);
     }
     BitStream value = new BitStream();
-    for (byte aByte : bytes) {
-      value.appendByte(aByte);
-    }
+    value.appendBytes(bytes);
     return ImmutableList.of(lengthDeterminant, value);
   }
 
@@ -152,9 +141,7 @@ public class PerUnalignedUtils {
       return new byte[0];
     }
     byte[] result = new byte[length];
-    for (int i = 0; i < length; i++) {
-      result[i] = reader.readByte();
-    }
+    reader.readBytes(result, 0, length);
     return result;
   }
 
@@ -167,9 +154,7 @@ public class PerUnalignedUtils {
     int n = bytes.length;
     if (n < SIXTEEN_K) {
       BitStream result = encodeSemiConstrainedLength(n);
-      for (byte b : bytes) {
-        result.appendByte(b);
-      }
+      result.appendBytes(bytes);
       return ImmutableList.of(result);
     }
     throw new UnsupportedOperationException("Arrays > 16K unimplemented.");
@@ -183,9 +168,7 @@ public class PerUnalignedUtils {
       BitStreamReader reader) {
     int length = decodeSemiConstrainedLength(reader);
     byte[] result = new byte[length];
-    for (int i = 0; i < length; i++) {
-      result[i] = reader.readByte();
-    }
+    reader.readBytes(result, 0, length);
     return result;
   }
 
@@ -249,7 +232,7 @@ public class PerUnalignedUtils {
    */
   public static Iterable<BitStream> encodeOpenTypeField(Asn1Object object){
     PacketBuilder packetBuilder = new PacketBuilder();
-    packetBuilder.appendAll(object.encodePerUnaligned());
+    object.encodePer(packetBuilder, false);
     return encodeSemiConstrainedLengthOfBytes(packetBuilder.getPaddedBytes());
   }
 
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Generated by Asn1DescriptorGenerator, do not edit.
+
+package android.location.cts.asn1.supl2.rrlp_components;
+
+import static android.location.cts.asn1.base.Asn1TypeDescriptor.*;
+
+import android.location.cts.asn1.base.Asn1TypeDescriptor;
+
+public final class RrlpNavigationModelDescriptors {
+
+  public static final Asn1TypeDescriptor EPHEMERIS_SUBFRAME1RESERVED =
+    sequence("EphemerisSubframe1Reserved", false,
+      component("reserved1", integer("EphemerisSubframe1Reserved.reserved1Type", 0L, 8388607L)),
+      component("reserved2", integer("EphemerisSubframe1Reserved.reserved2Type", 0L, 16777215L)),
+      component("reserved3", integer("EphemerisSubframe1Reserved.reserved3Type", 0L, 16777215L)),
+      component("reserved4", integer("EphemerisSubframe1Reserved.reserved4Type", 0L, 65535L)));
+
+  public static final Asn1TypeDescriptor UNCOMPRESSED_EPHEMERIS =
+    sequence("UncompressedEphemeris", false,
+      component("ephemCodeOnL2", integer("UncompressedEphemeris.ephemCodeOnL2Type", 0L, 3L)),
+      component("ephemURA", integer("UncompressedEphemeris.ephemURAType", 0L, 15L)),
+      component("ephemSVhealth", integer("UncompressedEphemeris.ephemSVhealthType", 0L, 63L)),
+      component("ephemIODC", integer("UncompressedEphemeris.ephemIODCType", 0L, 1023L)),
+      component("ephemL2Pflag", integer("UncompressedEphemeris.ephemL2PflagType", 0L, 1L)),
+      component("ephemSF1Rsvd", EPHEMERIS_SUBFRAME1RESERVED),
+      component("ephemTgd", integer("UncompressedEphemeris.ephemTgdType", -128L, 127L)),
+      component("ephemToc", integer("UncompressedEphemeris.ephemTocType", 0L, 37799L)),
+      component("ephemAF2", integer("UncompressedEphemeris.ephemAF2Type", -128L, 127L)),
+      component("ephemAF1", integer("UncompressedEphemeris.ephemAF1Type", -32768L, 32767L)),
+      component("ephemAF0", integer("UncompressedEphemeris.ephemAF0Type", -2097152L, 2097151L)),
+      component("ephemCrs", integer("UncompressedEphemeris.ephemCrsType", -32768L, 32767L)),
+      component("ephemDeltaN", integer("UncompressedEphemeris.ephemDeltaNType", -32768L, 32767L)),
+      component("ephemM0", integer("UncompressedEphemeris.ephemM0Type", -2147483648L, 2147483647L)),
+      component("ephemCuc", integer("UncompressedEphemeris.ephemCucType", -32768L, 32767L)),
+      component("ephemE", integer("UncompressedEphemeris.ephemEType", 0L, 4294967295L)),
+      component("ephemCus", integer("UncompressedEphemeris.ephemCusType", -32768L, 32767L)),
+      component("ephemAPowerHalf", integer("UncompressedEphemeris.ephemAPowerHalfType", 0L, 4294967295L)),
+      component("ephemToe", integer("UncompressedEphemeris.ephemToeType", 0L, 37799L)),
+      component("ephemFitFlag", integer("UncompressedEphemeris.ephemFitFlagType", 0L, 1L)),
+      component("ephemAODA", integer("UncompressedEphemeris.ephemAODAType", 0L, 31L)),
+      component("ephemCic", integer("UncompressedEphemeris.ephemCicType", -32768L, 32767L)),
+      component("ephemOmegaA0", integer("UncompressedEphemeris.ephemOmegaA0Type", -2147483648L, 2147483647L)),
+      component("ephemCis", integer("UncompressedEphemeris.ephemCisType", -32768L, 32767L)),
+      component("ephemI0", integer("UncompressedEphemeris.ephemI0Type", -2147483648L, 2147483647L)),
+      component("ephemCrc", integer("UncompressedEphemeris.ephemCrcType", -32768L, 32767L)),
+      component("ephemW", integer("UncompressedEphemeris.ephemWType", -2147483648L, 2147483647L)),
+      component("ephemOmegaADot", integer("UncompressedEphemeris.ephemOmegaADotType", -8388608L, 8388607L)),
+      component("ephemIDot", integer("UncompressedEphemeris.ephemIDotType", -8192L, 8191L)));
+
+  public static final Asn1TypeDescriptor SAT_STATUS =
+    choice("SatStatus", true,
+      component("newSatelliteAndModelUC", UNCOMPRESSED_EPHEMERIS),
+      component("oldSatelliteAndModel", nullType("SatStatus.oldSatelliteAndModelType")),
+      component("newNaviModelUC", UNCOMPRESSED_EPHEMERIS));
+
+  public static final Asn1TypeDescriptor NAV_MODEL_ELEMENT =
+    sequence("NavModelElement", false,
+      component("satelliteID", integer("SatelliteID", 0L, 63L)),
+      component("satStatus", SAT_STATUS));
+
+  public static final Asn1TypeDescriptor SEQ_OF_NAV_MODEL_ELEMENT =
+    sequenceOf("SeqOfNavModelElement", NAV_MODEL_ELEMENT, 1, 16);
+
+  public static final Asn1TypeDescriptor NAVIGATION_MODEL =
+    sequence("NavigationModel", false,
+      component("navModelList", SEQ_OF_NAV_MODEL_ELEMENT));
+
+  public static final Asn1TypeDescriptor NAV_MODEL_KEPLERIAN_SET =
+    sequence("NavModel_KeplerianSet", false,
+      component("keplerToe", integer("NavModel_KeplerianSet.keplerToeType", 0L, 16383L)),
+      component("keplerW", integer("NavModel_KeplerianSet.keplerWType", -2147483648L, 2147483647L)),
+      component("keplerDeltaN", integer("NavModel_KeplerianSet.keplerDeltaNType", -32768L, 32767L)),
+      component("keplerM0", integer("NavModel_KeplerianSet.keplerM0Type", -2147483648L, 2147483647L)),
+      component("keplerOmegaDot", integer("NavModel_KeplerianSet.keplerOmegaDotType", -8388608L, 8388607L)),
+      component("keplerE", integer("NavModel_KeplerianSet.keplerEType", 0L, 4294967295L)),
+      component("keplerIDot", integer("NavModel_KeplerianSet.keplerIDotType", -8192L, 8191L)),
+      component("keplerAPowerHalf", integer("NavModel_KeplerianSet.keplerAPowerHalfType", 0L, 4294967295L)),
+      component("keplerI0", integer("NavModel_KeplerianSet.keplerI0Type", -2147483648L, 2147483647L)),
+      component("keplerOmega0", integer("NavModel_KeplerianSet.keplerOmega0Type", -2147483648L, 2147483647L)),
+      component("keplerCrs", integer("NavModel_KeplerianSet.keplerCrsType", -32768L, 32767L)),
+      component("keplerCis", integer("NavModel_KeplerianSet.keplerCisType", -32768L, 32767L)),
+      component("keplerCus", integer("NavModel_KeplerianSet.keplerCusType", -32768L, 32767L)),
+      component("keplerCrc", integer("NavModel_KeplerianSet.keplerCrcType", -32768L, 32767L)),
+      component("keplerCic", integer("NavModel_KeplerianSet.keplerCicType", -32768L, 32767L)),
+      component("keplerCuc", integer("NavModel_KeplerianSet.keplerCucType", -32768L, 32767L)));
+
+  private RrlpNavigationModelDescriptors() {
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.pseudorange;
+
+import android.location.GnssStatus;
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import android.location.cts.nano.GnssMeasurementLog.GnssMeasurementLogProto;
+import android.location.cts.nano.GnssMeasurementLog.GnssMeasurementProto;
+import android.location.cts.nano.GnssMeasurementLog.GnssMeasurementsEventProto;
+import com.google.protobuf.nano.InvalidProtocolBufferNanoException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Replays recorded GNSS measurements through {@link UserPositionVelocityWeightedLeastSquare}
+ * without a device or a SUPL server, so that the solver can be verified and benchmarked on a host
+ * JVM.
+ *
+ * <p>The measurements of each {@link GnssMeasurementsEventProto} are filtered and converted to
+ * pseudoranges as in {@link PseudorangePositionVelocityFromRealTimeEvents}, except that the
+ * common reception time is taken per event, and the navigation message recorded in the log is used
+ * for all events.
+ *
+ * <p>Usage: {@code PseudorangeReplayHarness <GnssMeasurementLogProto file> [repetitions]}
+ */
+public class PseudorangeReplayHarness {
+  private static final double SECONDS_PER_NANO = 1.0e-9;
+  private static final int TOW_DECODED_MEASUREMENT_STATE_BIT = 3;
+  private static final int VALID_ACCUMULATED_DELTA_RANGE_STATE = 1;
+  private static final int MINIMUM_NUMBER_OF_USEFUL_SATELLITES = 4;
+  private static final int C_TO_N0_THRESHOLD_DB_HZ = 18;
+  /** Maximum possible number of GPS satellites */
+  private static final int MAX_NUMBER_OF_SATELLITES = 32;
+  private static final int DEFAULT_REPETITIONS = 10;
+
+  private final GpsNavMessageProto navMessageProto;
+  private final GnssMeasurementsEventProto[] events;
+
+  public PseudorangeReplayHarness(GnssMeasurementLogProto log)
+      throws InvalidProtocolBufferNanoException {
+    navMessageProto = GpsNavMessageProto.parseFrom(log.gpsNavMessage);
+    events = log.events;
+  }
+
+  /** Reads a serialized {@link GnssMeasurementLogProto} from {@code path}. */
+  public static PseudorangeReplayHarness fromFile(String path) throws IOException {
+    return new PseudorangeReplayHarness(
+        GnssMeasurementLogProto.parseFrom(Files.readAllBytes(Paths.get(path))));
+  }
+
+  /** Returns the number of recorded events. */
+  public int getEventCount() {
+    return events.length;
+  }
+
+  /**
+   * Computes the position and velocity solution of every event with {@code solver}, starting each
+   * from the center of the earth.
+   *
+   * @return per event, the solution array filled by {@link
+   *         UserPositionVelocityWeightedLeastSquare#calculateUserPositionVelocityLeastSquare}, or
+   *         null if the event has less than {@value #MINIMUM_NUMBER_OF_USEFUL_SATELLITES} useful
+   *         satellites
+   */
+  public double[][] replay(UserPositionVelocityWeightedLeastSquare solver) throws Exception {
+    double[][] solutions = new double[events.length][];
+    GpsMeasurement[] usefulSatellitesToReceiverMeasurements =
+        new GpsMeasurement[MAX_NUMBER_OF_SATELLITES];
+    Long[] usefulSatellitesToTowNs = new Long[MAX_NUMBER_OF_SATELLITES];
+    double[] positionVelocityUncertaintyEnu = new double[6];
+    for (int e = 0; e < events.length; e++) {
+      GnssMeasurementsEventProto event = events[e];
+      Arrays.fill(usefulSatellitesToReceiverMeasurements, null);
+      Arrays.fill(usefulSatellitesToTowNs, null);
+      long arrivalTimeSinceGpsEpochNs = event.clock.timeNanos - event.clock.fullBiasNanos;
+      int gpsWeekNumber = (int) (arrivalTimeSinceGpsEpochNs / GpsTime.NANOS_IN_WEEK);
+      long arrivalTimeSinceGpsWeekNs =
+          arrivalTimeSinceGpsEpochNs - gpsWeekNumber * GpsTime.NANOS_IN_WEEK;
+      int dayOfYear1To366 = new GpsTime(arrivalTimeSinceGpsEpochNs).getTimeInCalendar()
+          .get(Calendar.DAY_OF_YEAR);
+
+      long largestTowNs = Long.MIN_VALUE;
+      int numberOfUsefulSatellites = 0;
+      for (GnssMeasurementProto measurement : event.measurements) {
+        if (measurement.constellationType != GnssStatus.CONSTELLATION_GPS
+            || measurement.cn0DbHz < C_TO_N0_THRESHOLD_DB_HZ
+            || (measurement.state & (1L << TOW_DECODED_MEASUREMENT_STATE_BIT)) == 0
+            || measurement.svid < 1 || measurement.svid > MAX_NUMBER_OF_SATELLITES
+            || !navMessageProtoContainsSvid(measurement.svid)) {
+          continue;
+        }
+        largestTowNs = Math.max(largestTowNs, measurement.receivedSvTimeNanos);
+        if (usefulSatellitesToReceiverMeasurements[measurement.svid - 1] == null) {
+          numberOfUsefulSatellites++;
+        }
+        usefulSatellitesToTowNs[measurement.svid - 1] = measurement.receivedSvTimeNanos;
+        usefulSatellitesToReceiverMeasurements[measurement.svid - 1] =
+            new GpsMeasurement(
+                arrivalTimeSinceGpsWeekNs,
+                measurement.accumulatedDeltaRangeMeters,
+                measurement.accumulatedDeltaRangeState == VALID_ACCUMULATED_DELTA_RANGE_STATE,
+                measurement.pseudorangeRateMetersPerSecond,
+                measurement.cn0DbHz,
+                measurement.accumulatedDeltaRangeUncertaintyMeters,
+                measurement.pseudorangeRateUncertaintyMetersPerSecond);
+      }
+      if (numberOfUsefulSatellites < MINIMUM_NUMBER_OF_USEFUL_SATELLITES) {
+        continue;
+      }
+
+      List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToPseudorangeMeasurements =
+          UserPositionVelocityWeightedLeastSquare.computePseudorangeAndUncertainties(
+              Arrays.asList(usefulSatellitesToReceiverMeasurements),
+              usefulSatellitesToTowNs,
+              largestTowNs);
+      double[] positionVelocitySolutionEcef = new double[8];
+      solver.calculateUserPositionVelocityLeastSquare(
+          navMessageProto,
+          usefulSatellitesToPseudorangeMeasurements,
+          arrivalTimeSinceGpsWeekNs * SECONDS_PER_NANO,
+          gpsWeekNumber,
+          dayOfYear1To366,
+          positionVelocitySolutionEcef,
+          positionVelocityUncertaintyEnu);
+      solutions[e] = positionVelocitySolutionEcef;
+    }
+    return solutions;
+  }
+
+  private boolean navMessageProtoContainsSvid(int svid) {
+    for (GpsEphemerisProto ephemerisProto : navMessageProto.ephemerids) {
+      if (ephemerisProto.prn == svid) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the largest absolute difference between the position (first three components) of the
+   * corresponding solutions of two replays.
+   */
+  static double maxPositionDifferenceMeters(double[][] solutions, double[][] otherSolutions) {
+    double maxDifferenceMeters = 0.0;
+    for (int e = 0; e < solutions.length; e++) {
+      if (solutions[e] == null || otherSolutions[e] == null) {
+        continue;
+      }
+      for (int i = 0; i < 3; i++) {
+        maxDifferenceMeters =
+            Math.max(maxDifferenceMeters, Math.abs(solutions[e][i] - otherSolutions[e][i]));
+      }
+    }
+    return maxDifferenceMeters;
+  }
+
+  /** Replays the log with both solvers and prints the time per event of each. */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println(
+          "Usage: PseudorangeReplayHarness <GnssMeasurementLogProto file> [repetitions]");
+      System.exit(1);
+    }
+    PseudorangeReplayHarness harness = fromFile(args[0]);
+    int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPETITIONS;
+
+    UserPositionVelocityWeightedLeastSquare matrixSolver =
+        new UserPositionVelocityWeightedLeastSquare();
+    UserPositionVelocityWeightedLeastSquare workspaceSolver =
+        new UserPositionVelocityWeightedLeastSquare(null /* pseudorangeSmoother */,
+            true /* useWorkspaceSolver */);
+    double[][] matrixSolutions = harness.replay(matrixSolver);
+    double[][] workspaceSolutions = harness.replay(workspaceSolver);
+
+    long matrixNanos = 0;
+    long workspaceNanos = 0;
+    for (int i = 0; i < repetitions; i++) {
+      long startNanos = System.nanoTime();
+      harness.replay(matrixSolver);
+      matrixNanos += System.nanoTime() - startNanos;
+      startNanos = System.nanoTime();
+      harness.replay(workspaceSolver);
+      workspaceNanos += System.nanoTime() - startNanos;
+    }
+    double events = (double) harness.getEventCount() * repetitions;
+    System.out.println(String.format(
+        "%d events x %d: matrix solver %.1f us/event, workspace solver %.1f us/event, "
+            + "max position difference %.6f m",
+        harness.getEventCount(), repetitions, matrixNanos / 1000.0 / events,
+        workspaceNanos / 1000.0 / events,
+        maxPositionDifferenceMeters(matrixSolutions, workspaceSolutions)));
+  }
+}
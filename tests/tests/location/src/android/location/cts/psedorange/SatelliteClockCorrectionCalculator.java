@@ -42,17 +42,25 @@ public class SatelliteClockCorrectionCalculator {
   public static SatClockCorrection calculateSatClockCorrAndEccAnomAndTkIteratively(
       GpsEphemerisProto ephemerisProto, double receiverGpsTowAtTimeOfTransmission,
       double receiverGpsWeekAtTimeOfTrasnmission) throws Exception {
+    return calculateSatClockCorrAndEccAnomAndTkIteratively(ephemerisProto,
+        calculateCorrectedMeanMotionRadPerSec(ephemerisProto), receiverGpsTowAtTimeOfTransmission,
+        receiverGpsWeekAtTimeOfTrasnmission);
+  }
+
+  /**
+   * Same as {@link #calculateSatClockCorrAndEccAnomAndTkIteratively(GpsEphemerisProto, double,
+   * double)} with the corrected mean motion {@code n} of the satellite orbit already computed by
+   * {@link #calculateCorrectedMeanMotionRadPerSec(GpsEphemerisProto)}, so that callers evaluating
+   * the same ephemeris many times do not recompute it.
+   */
+  static SatClockCorrection calculateSatClockCorrAndEccAnomAndTkIteratively(
+      GpsEphemerisProto ephemerisProto, double n, double receiverGpsTowAtTimeOfTransmission,
+      double receiverGpsWeekAtTimeOfTrasnmission) throws Exception {
     // Units are not added in the variable names to have the same name as the ICD-GPS200
     // Mean anomaly (radians)
     double meanAnomalyRad;
     // Kepler's Equation for Eccentric Anomaly iteratively (Radians)
     double eccentricAnomalyRad;
-    // Semi-major axis of orbit (meters)
-    double a = ephemerisProto.rootOfA * ephemerisProto.rootOfA;
-    // Computed mean motion (radians/seconds)
-    double n0 = Math.sqrt(EARTH_UNIVERSAL_GRAVITATIONAL_CONSTANT_M3_SM2 / (a * a * a));
-    // Corrected mean motion (radians/seconds)
-    double n = n0 + ephemerisProto.deltaN;
     // In the following, Receiver GPS week and ephemeris GPS week are used to correct for week
     // rollover when calculating the time from clock reference epoch (tcSec)
     double timeOfTransmissionIncludingRxWeekSec =
@@ -119,6 +127,19 @@ public class SatelliteClockCorrectionCalculator {
         eccentricAnomalyRad, tkSec);
   }
 
+  /**
+   * Computes the corrected mean motion (radians/seconds) of the satellite orbit described by
+   * {@code ephemerisProto} according to page 98 of the ICD-GPS200.
+   */
+  static double calculateCorrectedMeanMotionRadPerSec(GpsEphemerisProto ephemerisProto) {
+    // Semi-major axis of orbit (meters)
+    double a = ephemerisProto.rootOfA * ephemerisProto.rootOfA;
+    // Computed mean motion (radians/seconds)
+    double n0 = Math.sqrt(EARTH_UNIVERSAL_GRAVITATIONAL_CONSTANT_M3_SM2 / (a * a * a));
+    // Corrected mean motion (radians/seconds)
+    return n0 + ephemerisProto.deltaN;
+  }
+
   /**
    * Calculates Satellite Clock Error Rate in (meters/second) by subtracting the Satellite
    * Clock Error Values at t+0.5s and t-0.5s.
@@ -129,11 +150,23 @@ public class SatelliteClockCorrectionCalculator {
   public static double calculateSatClockCorrErrorRate(
       GpsEphemerisProto ephemerisProto, double receiverGpsTowAtTimeOfTransmissionSeconds,
       double receiverGpsWeekAtTimeOfTrasnmission) throws Exception {
+    return calculateSatClockCorrErrorRate(ephemerisProto,
+        calculateCorrectedMeanMotionRadPerSec(ephemerisProto),
+        receiverGpsTowAtTimeOfTransmissionSeconds, receiverGpsWeekAtTimeOfTrasnmission);
+  }
+
+  /**
+   * Same as {@link #calculateSatClockCorrErrorRate(GpsEphemerisProto, double, double)} with the
+   * corrected mean motion {@code n} of the satellite orbit already computed.
+   */
+  static double calculateSatClockCorrErrorRate(
+      GpsEphemerisProto ephemerisProto, double n, double receiverGpsTowAtTimeOfTransmissionSeconds,
+      double receiverGpsWeekAtTimeOfTrasnmission) throws Exception {
     SatClockCorrection satClockCorrectionPlus = calculateSatClockCorrAndEccAnomAndTkIteratively(
-        ephemerisProto, receiverGpsTowAtTimeOfTransmissionSeconds + 0.5,
+        ephemerisProto, n, receiverGpsTowAtTimeOfTransmissionSeconds + 0.5,
         receiverGpsWeekAtTimeOfTrasnmission);
     SatClockCorrection satClockCorrectionMinus = calculateSatClockCorrAndEccAnomAndTkIteratively(
-        ephemerisProto, receiverGpsTowAtTimeOfTransmissionSeconds - 0.5,
+        ephemerisProto, n, receiverGpsTowAtTimeOfTransmissionSeconds - 0.5,
         receiverGpsWeekAtTimeOfTrasnmission);
     double satelliteClockErrorRate = satClockCorrectionPlus.satelliteClockCorrectionMeters
         - satClockCorrectionMinus.satelliteClockCorrectionMeters;
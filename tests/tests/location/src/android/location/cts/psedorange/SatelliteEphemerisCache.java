@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.pseudorange;
+
+import android.location.cts.pseudorange.SatelliteClockCorrectionCalculator.SatClockCorrection;
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import java.util.Arrays;
+
+/**
+ * Per satellite PRN cache of the ephemeris terms used by the least square solver.
+ *
+ * <p>The ephemeris of each satellite is looked up once per navigation message instead of once per
+ * satellite and iteration, its corrected mean motion is computed once, and the last satellite clock
+ * correction is kept so that repeated evaluations at the same time of transmission (the satellite
+ * position iterations and the predicted pseudorange) solve Kepler's equation only once.
+ *
+ * <p>The cache is keyed on the identity of the navigation message: a message must not be modified
+ * after it has been passed to {@link #update(GpsNavMessageProto)}.
+ */
+class SatelliteEphemerisCache {
+  /** Maximum possible number of GPS satellites */
+  private static final int MAX_NUMBER_OF_SATELLITES = 32;
+
+  private GpsNavMessageProto navMessageProto;
+  private final GpsEphemerisProto[] ephemerides = new GpsEphemerisProto[MAX_NUMBER_OF_SATELLITES];
+  private final double[] correctedMeanMotionRadPerSec = new double[MAX_NUMBER_OF_SATELLITES];
+  private final SatClockCorrection[] satClockCorrections =
+      new SatClockCorrection[MAX_NUMBER_OF_SATELLITES];
+  private final double[] satClockCorrectionTowSeconds = new double[MAX_NUMBER_OF_SATELLITES];
+  private final int[] satClockCorrectionWeeks = new int[MAX_NUMBER_OF_SATELLITES];
+
+  /**
+   * Indexes the ephemerides of {@code navMessageProto} by PRN, unless it is the message already
+   * indexed. As in a linear search, the first ephemeris found for a PRN is used.
+   */
+  void update(GpsNavMessageProto navMessageProto) {
+    if (this.navMessageProto == navMessageProto) {
+      return;
+    }
+    this.navMessageProto = navMessageProto;
+    Arrays.fill(ephemerides, null);
+    Arrays.fill(satClockCorrections, null);
+    for (GpsEphemerisProto ephemerisProto : navMessageProto.ephemerids) {
+      int index = ephemerisProto.prn - 1;
+      if (index >= 0 && index < MAX_NUMBER_OF_SATELLITES && ephemerides[index] == null) {
+        ephemerides[index] = ephemerisProto;
+        correctedMeanMotionRadPerSec[index] =
+            SatelliteClockCorrectionCalculator.calculateCorrectedMeanMotionRadPerSec(
+                ephemerisProto);
+      }
+    }
+  }
+
+  /** Returns the ephemeris of the satellite with PRN {@code satPrn}, or null if there is none. */
+  GpsEphemerisProto getEphemeris(int satPrn) {
+    return ephemerides[satPrn - 1];
+  }
+
+  /** Returns the corrected mean motion (radians/seconds) of the satellite orbit. */
+  double getCorrectedMeanMotionRadPerSec(int satPrn) {
+    return correctedMeanMotionRadPerSec[satPrn - 1];
+  }
+
+  /**
+   * Returns the satellite clock correction of the satellite with PRN {@code satPrn} at the given
+   * GPS time of week and week number, reusing the last result if it was computed for the same time.
+   */
+  SatClockCorrection getSatClockCorrection(int satPrn, double gpsTowSeconds, int gpsWeek)
+      throws Exception {
+    int index = satPrn - 1;
+    SatClockCorrection satClockCorrection = satClockCorrections[index];
+    if (satClockCorrection == null
+        || satClockCorrectionTowSeconds[index] != gpsTowSeconds
+        || satClockCorrectionWeeks[index] != gpsWeek) {
+      satClockCorrection =
+          SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
+              ephemerides[index], correctedMeanMotionRadPerSec[index], gpsTowSeconds, gpsWeek);
+      satClockCorrections[index] = satClockCorrection;
+      satClockCorrectionTowSeconds[index] = gpsTowSeconds;
+      satClockCorrectionWeeks[index] = gpsWeek;
+    }
+    return satClockCorrection;
+  }
+}
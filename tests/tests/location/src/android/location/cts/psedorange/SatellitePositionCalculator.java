@@ -22,7 +22,6 @@ import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
 /* Class to calculate GPS satellite positions from the ephemeris data */
 public class SatellitePositionCalculator {
   private static final double SPEED_OF_LIGHT_MPS = 299792458.0;
-  private static final double UNIVERSAL_GRAVITATIONAL_PARAMETER_M3_SM2 = 3.986005e14;
   private static final int NUMBER_OF_ITERATIONS_FOR_SAT_POS_CALCULATION = 5;
   private static final double EARTH_ROTATION_RATE_RAD_PER_SEC = 7.2921151467e-5;
 
@@ -75,6 +74,28 @@ public class SatellitePositionCalculator {
     return satPosAndVel;
   }
 
+  /**
+   * Same as {@link #calculateSatellitePositionAndVelocityFromEphemeris(GpsEphemerisProto, double,
+   * int, double, double, double)} for callers that already hold the satellite clock correction at
+   * the time of transmission and the corrected mean motion {@code n} of the orbit, and that reuse
+   * the result instances across calls.
+   *
+   * <p>The user position is read from {@code userPosAndVel} and the satellite position and
+   * velocity are set in {@code satPosAndVel}. {@code userSatRangeAndRate} is used as scratch space.
+   */
+  static void calculateSatellitePositionAndVelocityFromEphemeris(
+      GpsEphemerisProto ephemerisProto, double n, SatClockCorrection satClockCorrectionValues,
+      PositionAndVelocity userPosAndVel, RangeAndRangeRate userSatRangeAndRate,
+      PositionAndVelocity satPosAndVel) {
+    userSatRangeAndRate.rangeMeters = 0.070 * SPEED_OF_LIGHT_MPS;
+    userSatRangeAndRate.rangeRateMetersPerSec = 0.0;
+    for (int i = 0; i < NUMBER_OF_ITERATIONS_FOR_SAT_POS_CALCULATION; i++) {
+      calculateSatellitePositionAndVelocity(ephemerisProto, n, satClockCorrectionValues,
+          userSatRangeAndRate, satPosAndVel);
+      computeUserToSatelliteRangeAndRangeRate(userPosAndVel, satPosAndVel, userSatRangeAndRate);
+    }
+  }
+
   /**
    * Calculate GPS satellite position and velocity from ephemeris based on the ICD-GPS-200.
    * Satellite position in meters (x, y and z) and velocity in meters per second (x, y, z) are set
@@ -103,7 +124,18 @@ public class SatellitePositionCalculator {
         SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
             ephemerisProto, receiverGpsTowAtTimeOfTransmissionCorrected,
             receiverGpsWeekAtTimeOfTransmission);
+    calculateSatellitePositionAndVelocity(ephemerisProto,
+        SatelliteClockCorrectionCalculator.calculateCorrectedMeanMotionRadPerSec(ephemerisProto),
+        satClockCorrectionValues, userSatRangeAndRate, satPosAndVel);
+  }
 
+  /**
+   * Calculate GPS satellite position and velocity from the satellite clock correction values at
+   * the time of transmission and the corrected mean motion {@code n} of the satellite orbit.
+   */
+  private static void calculateSatellitePositionAndVelocity(GpsEphemerisProto ephemerisProto,
+      double n, SatClockCorrection satClockCorrectionValues, RangeAndRangeRate userSatRangeAndRate,
+      PositionAndVelocity satPosAndVel) {
     double eccentricAnomalyRadians = satClockCorrectionValues.eccentricAnomalyRadians;
     double tkSec = satClockCorrectionValues.timeFromRefEpochSec;
 
@@ -164,10 +196,6 @@ public class SatellitePositionCalculator {
     // Units are not added in some of the variable names to have the same name as the ICD-GPS200
     // Semi-major axis of orbit (meters)
     double a = ephemerisProto.rootOfA * ephemerisProto.rootOfA;
-    // Computed mean motion (radians/seconds)
-    double n0 = Math.sqrt(UNIVERSAL_GRAVITATIONAL_PARAMETER_M3_SM2 / (a * a * a));
-    // Corrected mean motion (radians/seconds)
-    double n = n0 + ephemerisProto.deltaN;
     // Derivative of mean anomaly (radians/seconds)
     double meanAnomalyDotRadPerSec = n;
     // Derivative of eccentric anomaly (radians/seconds)
@@ -23,7 +23,9 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import android.location.cts.pseudorange.Ecef2LlaConverter.GeodeticLlaValues;
 import android.location.cts.pseudorange.EcefToTopocentricConverter.TopocentricAEDValues;
+import android.location.cts.pseudorange.SatelliteClockCorrectionCalculator.SatClockCorrection;
 import android.location.cts.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import android.location.cts.pseudorange.SatellitePositionCalculator.RangeAndRangeRate;
 import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
 import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
 import java.io.BufferedReader;
@@ -72,8 +74,21 @@ class UserPositionVelocityWeightedLeastSquare {
   private boolean calculateGeoidMeters = true;
   private RealMatrix geometryMatrix;
 
+  /** Workspace of the solver, or null if the commons-math matrices are used */
+  private final WeightedLeastSquareWorkspace workspace;
+  private final SatelliteEphemerisCache ephemerisCache;
+  private final double[] userPositionNoClockECEFMeters = new double[3];
+  private final double[] ionoAlpha = new double[4];
+  private final double[] ionoBeta = new double[4];
+  private final PositionAndVelocity userPosAndVel =
+      new PositionAndVelocity(0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+  private final PositionAndVelocity satPosAndVel =
+      new PositionAndVelocity(0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+  private final RangeAndRangeRate userSatRangeAndRate = new RangeAndRangeRate(0.0, 0.0);
+
   /** Default Constructor */
   public UserPositionVelocityWeightedLeastSquare() {
+    this(null, false);
   }
 
   /*
@@ -81,7 +96,30 @@ class UserPositionVelocityWeightedLeastSquare {
    * the pseudorange, by passing a class which implements {@link PseudorangeSmoother} interface.
    */
   public UserPositionVelocityWeightedLeastSquare(PseudorangeSmoother pseudorangeSmoother) {
+    this(pseudorangeSmoother, false);
+  }
+
+  /**
+   * Constructor with a smoother and a choice of solver.
+   *
+   * <p>If {@code useWorkspaceSolver} is true, the least squares are solved on arrays preallocated
+   * once per instance with an in-place Cholesky decomposition of the normal equations, and the
+   * ephemeris terms of each satellite are cached as long as the same navigation message is passed,
+   * instead of building commons-math matrices and decompositions for every iteration and epoch.
+   * An instance is then meant to be reused for consecutive epochs. The solutions agree with the
+   * default solver to numerical precision, but {@link #calculatePositionVelocityUncertaintyEnu}
+   * is not available.
+   */
+  public UserPositionVelocityWeightedLeastSquare(PseudorangeSmoother pseudorangeSmoother,
+      boolean useWorkspaceSolver) {
     this.pseudorangeSmoother = pseudorangeSmoother;
+    if (useWorkspaceSolver) {
+      workspace = new WeightedLeastSquareWorkspace(MAX_NUMBER_OF_SATELLITES);
+      ephemerisCache = new SatelliteEphemerisCache();
+    } else {
+      workspace = null;
+      ephemerisCache = null;
+    }
   }
 
   /**
@@ -144,6 +182,17 @@ class UserPositionVelocityWeightedLeastSquare {
     // Least square position solution is supported only if 4 or more satellites visible
     Preconditions.checkArgument(numberOfUsefulSatellites >= MINIMUM_NUMER_OF_SATELLITES,
         "At least 4 satellites have to be visible... Only 3D mode is supported...");
+    if (workspace != null) {
+      calculateUserPositionVelocityLeastSquareInWorkspace(
+          navMessageProto,
+          satellitesToReceiverMeasurements,
+          receiverGPSTowAtReceptionSeconds,
+          receiverGPSWeek,
+          dayOfYear1To366,
+          positionVelocitySolutionECEF,
+          positionVelocityUncertaintyEnu);
+      return;
+    }
     boolean repeatLeastSquare = false;
     SatellitesPositionPseudorangesResidualAndCovarianceMatrix satPosPseudorangeResidualAndWeight;
     do {
@@ -329,6 +378,321 @@ class UserPositionVelocityWeightedLeastSquare {
         6 /*length of elements*/);
   }
 
+  /**
+   * Same as the default solver part of {@link #calculateUserPositionVelocityLeastSquare} on the
+   * preallocated {@link WeightedLeastSquareWorkspace} and {@link SatelliteEphemerisCache}.
+   *
+   * <p>The pseudorange covariance matrix is diagonal, so that its determinant is the product of
+   * the pseudorange variances and its inverse is the inverse of each variance. The velocity is the
+   * least square solution of the weighted geometry matrix system solved by QR decomposition in the
+   * default solver, that is of the normal equations weighted by the square of the weights.
+   */
+  private void calculateUserPositionVelocityLeastSquareInWorkspace(
+      GpsNavMessageProto navMessageProto,
+      List<GpsMeasurementWithRangeAndUncertainty> satellitesToReceiverMeasurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGPSWeek,
+      int dayOfYear1To366,
+      double[] positionVelocitySolutionECEF,
+      double[] positionVelocityUncertaintyEnu)
+      throws Exception {
+    ephemerisCache.update(navMessageProto);
+    boolean repeatLeastSquare;
+    do {
+      boolean doAtmosphericCorrections = false;
+      calculateSatPosAndResidualsInWorkspace(
+          navMessageProto,
+          satellitesToReceiverMeasurements,
+          receiverGPSTowAtReceptionSeconds,
+          receiverGPSWeek,
+          dayOfYear1To366,
+          positionVelocitySolutionECEF,
+          doAtmosphericCorrections);
+
+      // Apply weighted least square only if the covariance matrix is not singular (has a non-zero
+      // determinant), otherwise apply ordinary least square.
+      double det = 1.0;
+      for (int i = 0; i < workspace.rows; i++) {
+        det *= workspace.pseudorangeVariances[i];
+      }
+      for (int i = 0; i < workspace.rows; i++) {
+        workspace.weights[i] =
+            det <= DOUBLE_ROUND_OFF_TOLERANCE ? 1.0 : 1.0 / workspace.pseudorangeVariances[i];
+      }
+      applyPositionCorrectionInWorkspace(positionVelocitySolutionECEF);
+
+      // Iterate applying corrections to the position solution until correction is below threshold
+      int numberOfIterations = 0;
+      while ((Math.abs(workspace.solution[0]) + Math.abs(workspace.solution[1])
+          + Math.abs(workspace.solution[2])) >= LEAST_SQUARE_TOLERANCE_METERS) {
+        // Apply ionospheric and tropospheric corrections only if the applied correction to
+        // position is below a specific threshold
+        if ((Math.abs(workspace.solution[0]) + Math.abs(workspace.solution[1])
+            + Math.abs(workspace.solution[2])) < ATMPOSPHERIC_CORRECTIONS_THRESHOLD_METERS) {
+          doAtmosphericCorrections = true;
+        }
+        calculateSatPosAndResidualsInWorkspace(
+            navMessageProto,
+            satellitesToReceiverMeasurements,
+            receiverGPSTowAtReceptionSeconds,
+            receiverGPSWeek,
+            dayOfYear1To366,
+            positionVelocitySolutionECEF,
+            doAtmosphericCorrections);
+        applyPositionCorrectionInWorkspace(positionVelocitySolutionECEF);
+        numberOfIterations++;
+        Preconditions.checkArgument(
+            numberOfIterations <= MAXIMUM_NUMBER_OF_LEAST_SQUARE_ITERATIONS,
+            "Maximum number of least square iterations reached without convergance...");
+      }
+
+      // remove satellites that have residuals above RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS as they
+      // worsen the position solution accuracy. If any satellite is removed, repeat the least square
+      repeatLeastSquare = false;
+      int satsWithResidualBelowThreshold = workspace.rows;
+      for (int i = 0; i < workspace.rows; i++) {
+        if (satsWithResidualBelowThreshold > MINIMUM_NUMER_OF_SATELLITES
+            && Math.abs(workspace.residuals[i]) > RESIDUAL_TO_REPEAT_LEAST_SQUARE_METERS) {
+          satellitesToReceiverMeasurements.set(workspace.satellitePrns[i] - 1, null);
+          satsWithResidualBelowThreshold--;
+          repeatLeastSquare = true;
+        }
+      }
+    } while (repeatLeastSquare);
+    calculateGeoidMeters = false;
+
+    // Velocity solution from the geometry matrix of the last position iteration, see
+    // calculateUserPositionVelocityLeastSquare
+    receiverGPSTowAtReceptionSeconds =
+        receiverGPSTowAtReceptionSeconds - positionVelocitySolutionECEF[3] / SPEED_OF_LIGHT_MPS;
+    setUserPosition(positionVelocitySolutionECEF);
+    for (int i = 0; i < workspace.rows; i++) {
+      int satPrn = workspace.satellitePrns[i];
+      GpsMeasurementWithRangeAndUncertainty measurement =
+          satellitesToReceiverMeasurements.get(satPrn - 1);
+      calculateCorrectedTransmitTowAndWeekInWorkspace(satPrn, receiverGPSTowAtReceptionSeconds,
+          receiverGPSWeek, measurement.pseudorangeMeters, i);
+      calculateSatellitePositionAndVelocityInWorkspace(satPrn, i);
+
+      // Calculates satellite clock error rate
+      double satelliteClockErrorRateMps =
+          SatelliteClockCorrectionCalculator.calculateSatClockCorrErrorRate(
+              ephemerisCache.getEphemeris(satPrn),
+              ephemerisCache.getCorrectedMeanMotionRadPerSec(satPrn),
+              workspace.transmitTowSeconds[i],
+              workspace.transmitWeeks[i]);
+
+      // range rate = satellite velocity (dot product) line-of-sight vector
+      int offset = i * WeightedLeastSquareWorkspace.UNKNOWNS;
+      double rangeRateMps = -1 * (
+          satPosAndVel.velocityXMetersPerSec * workspace.geometryMatrix[offset]
+              + satPosAndVel.velocityYMetersPerSec * workspace.geometryMatrix[offset + 1]
+              + satPosAndVel.velocityZMetersPerSec * workspace.geometryMatrix[offset + 2]);
+      workspace.residuals[i] = measurement.pseudorangeRateMps - rangeRateMps
+          + satelliteClockErrorRateMps - positionVelocitySolutionECEF[7];
+      workspace.pseudorangeRateVariances[i] =
+          measurement.pseudorangeRateUncertaintyMps * measurement.pseudorangeRateUncertaintyMps;
+      workspace.weights[i] =
+          1 / (workspace.pseudorangeRateVariances[i] * workspace.pseudorangeRateVariances[i]);
+    }
+    checkPositiveDefinite(workspace.solve());
+    positionVelocitySolutionECEF[4] = workspace.solution[0];
+    positionVelocitySolutionECEF[5] = workspace.solution[1];
+    positionVelocitySolutionECEF[6] = workspace.solution[2];
+    positionVelocitySolutionECEF[7] = workspace.solution[3];
+
+    // Uncertainties of position and velocity in local ENU system, see
+    // calculatePositionVelocityUncertaintyEnu
+    GeodeticLlaValues llaValues = Ecef2LlaConverter.convertECEFToLLACloseForm(
+        positionVelocitySolutionECEF[0], positionVelocitySolutionECEF[1],
+        positionVelocitySolutionECEF[2]);
+    double[][] rotationMatrix = Ecef2EnuConverter.getRotationMatrix(llaValues.longitudeRadians,
+        llaValues.latitudeRadians).getData();
+    for (int i = 0; i < workspace.rows; i++) {
+      workspace.weights[i] = 1 / workspace.pseudorangeVariances[i];
+    }
+    checkPositiveDefinite(workspace.rotatedConnectionMatrixDiagonal(
+        rotationMatrix, positionVelocityUncertaintyEnu, 0));
+    for (int i = 0; i < workspace.rows; i++) {
+      workspace.weights[i] = 1 / workspace.pseudorangeRateVariances[i];
+    }
+    checkPositiveDefinite(workspace.rotatedConnectionMatrixDiagonal(
+        rotationMatrix, positionVelocityUncertaintyEnu, 3));
+    for (int i = 0; i < 6; i++) {
+      positionVelocityUncertaintyEnu[i] = Math.sqrt(positionVelocityUncertaintyEnu[i]);
+    }
+  }
+
+  /**
+   * Fills the geometry matrix of the workspace at {@code positionSolutionECEF}, solves the weighted
+   * least square for the position correction and applies it. The correction is left in the
+   * solution of the workspace.
+   */
+  private void applyPositionCorrectionInWorkspace(double[] positionSolutionECEF) {
+    workspace.fillGeometryMatrix(positionSolutionECEF);
+    checkPositiveDefinite(workspace.solve());
+    positionSolutionECEF[0] += workspace.solution[0];
+    positionSolutionECEF[1] += workspace.solution[1];
+    positionSolutionECEF[2] += workspace.solution[2];
+    positionSolutionECEF[3] += workspace.solution[3];
+  }
+
+  private static void checkPositiveDefinite(boolean positiveDefinite) {
+    if (!positiveDefinite) {
+      throw new ArithmeticException(
+          "Normal matrix of the least square is not positive definite");
+    }
+  }
+
+  /**
+   * Same as {@link #calculateSatPosAndResiduals} filling the rows of the workspace, with the
+   * ephemerides and satellite clock corrections taken from the {@link SatelliteEphemerisCache}.
+   */
+  private void calculateSatPosAndResidualsInWorkspace(
+      GpsNavMessageProto navMeassageProto,
+      List<GpsMeasurementWithRangeAndUncertainty> usefulSatellitesToReceiverMeasurements,
+      double receiverGPSTowAtReceptionSeconds,
+      int receiverGpsWeek,
+      int dayOfYear1To366,
+      double[] userPositionECEFMeters,
+      boolean doAtmosphericCorrections)
+      throws Exception {
+    System.arraycopy(navMeassageProto.iono.alpha, 0, ionoAlpha, 0, ionoAlpha.length);
+    System.arraycopy(navMeassageProto.iono.beta, 0, ionoBeta, 0, ionoBeta.length);
+    // user position without the clock estimate
+    System.arraycopy(userPositionECEFMeters, 0, userPositionNoClockECEFMeters, 0, 3);
+    setUserPosition(userPositionECEFMeters);
+    int satsCounter = 0;
+    for (int i = 0; i < MAX_NUMBER_OF_SATELLITES; i++) {
+      GpsMeasurementWithRangeAndUncertainty measurement =
+          usefulSatellitesToReceiverMeasurements.get(i);
+      if (measurement != null) {
+        int satPrn = i + 1;
+        // Correct the receiver time of week with the estimated receiver clock bias, accumulated
+        // per satellite exactly as in calculateSatPosAndResiduals
+        receiverGPSTowAtReceptionSeconds =
+            receiverGPSTowAtReceptionSeconds - userPositionECEFMeters[3] / SPEED_OF_LIGHT_MPS;
+
+        // Assuming uncorrelated pseudorange measurements, the covariance matrix is diagonal
+        workspace.pseudorangeVariances[satsCounter] =
+            measurement.pseudorangeUncertaintyMeters * measurement.pseudorangeUncertaintyMeters;
+
+        calculateCorrectedTransmitTowAndWeekInWorkspace(satPrn, receiverGPSTowAtReceptionSeconds,
+            receiverGpsWeek, measurement.pseudorangeMeters, satsCounter);
+        SatClockCorrection satClockCorrection = calculateSatellitePositionAndVelocityInWorkspace(
+            satPrn, satsCounter);
+        double[] satellitePositionMeters = workspace.satellitePositionsMeters[satsCounter];
+        satellitePositionMeters[0] = satPosAndVel.positionXMeters;
+        satellitePositionMeters[1] = satPosAndVel.positionYMeters;
+        satellitePositionMeters[2] = satPosAndVel.positionZMeters;
+
+        // Calculate ionospheric and tropospheric corrections
+        double ionosphericCorrectionMeters;
+        double troposphericCorrectionMeters;
+        if (doAtmosphericCorrections) {
+          ionosphericCorrectionMeters =
+              IonosphericModel.ionoKloboucharCorrectionSeconds(
+                      userPositionNoClockECEFMeters,
+                      satellitePositionMeters,
+                      workspace.transmitTowSeconds[satsCounter],
+                      ionoAlpha,
+                      ionoBeta,
+                      IonosphericModel.L1_FREQ_HZ)
+                  * SPEED_OF_LIGHT_MPS;
+
+          troposphericCorrectionMeters =
+              calculateTroposphericCorrectionMeters(
+                  dayOfYear1To366,
+                  workspace.satellitePositionsMeters,
+                  userPositionNoClockECEFMeters,
+                  satsCounter);
+        } else {
+          troposphericCorrectionMeters = 0.0;
+          ionosphericCorrectionMeters = 0.0;
+        }
+        double dxMeters = satellitePositionMeters[0] - userPositionNoClockECEFMeters[0];
+        double dyMeters = satellitePositionMeters[1] - userPositionNoClockECEFMeters[1];
+        double dzMeters = satellitePositionMeters[2] - userPositionNoClockECEFMeters[2];
+        double predictedPseudorangeMeters =
+            Math.sqrt(dxMeters * dxMeters + dyMeters * dyMeters + dzMeters * dzMeters)
+                - satClockCorrection.satelliteClockCorrectionMeters + ionosphericCorrectionMeters
+                + troposphericCorrectionMeters + userPositionECEFMeters[3];
+
+        // Pseudorange residual (difference of measured to predicted pseudoranges)
+        workspace.residuals[satsCounter] =
+            measurement.pseudorangeMeters - predictedPseudorangeMeters;
+        workspace.satellitePrns[satsCounter] = satPrn;
+        satsCounter++;
+      }
+    }
+    workspace.rows = satsCounter;
+  }
+
+  /** Sets the user position used for the satellite position and velocity calculations. */
+  private void setUserPosition(double[] userPositionECEFMeters) {
+    userPosAndVel.positionXMeters = userPositionECEFMeters[0];
+    userPosAndVel.positionYMeters = userPositionECEFMeters[1];
+    userPosAndVel.positionZMeters = userPositionECEFMeters[2];
+  }
+
+  /**
+   * Calculates the position and velocity of the satellite {@code satPrn} into
+   * {@link #satPosAndVel} at the time of transmission stored in {@code row} of the workspace, and
+   * returns the satellite clock correction at that time.
+   */
+  private SatClockCorrection calculateSatellitePositionAndVelocityInWorkspace(int satPrn, int row)
+      throws Exception {
+    SatClockCorrection satClockCorrection = ephemerisCache.getSatClockCorrection(satPrn,
+        workspace.transmitTowSeconds[row], workspace.transmitWeeks[row]);
+    SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+        ephemerisCache.getEphemeris(satPrn),
+        ephemerisCache.getCorrectedMeanMotionRadPerSec(satPrn),
+        satClockCorrection,
+        userPosAndVel,
+        userSatRangeAndRate,
+        satPosAndVel);
+    return satClockCorrection;
+  }
+
+  /**
+   * Same as {@link #calculateCorrectedTransmitTowAndWeek} storing the GPS time of week and week
+   * number at transmission in {@code row} of the workspace.
+   */
+  private void calculateCorrectedTransmitTowAndWeekInWorkspace(int satPrn,
+      double receiverGpsTowAtReceptionSeconds, int receiverGpsWeek, double pseudorangeMeters,
+      int row) throws Exception {
+    double receiverGpsTowAtTimeOfTransmission =
+        receiverGpsTowAtReceptionSeconds - pseudorangeMeters / SPEED_OF_LIGHT_MPS;
+    if (receiverGpsTowAtTimeOfTransmission < 0) {
+      receiverGpsTowAtTimeOfTransmission += SECONDS_IN_WEEK;
+      receiverGpsWeek -= 1;
+    } else if (receiverGpsTowAtTimeOfTransmission > SECONDS_IN_WEEK) {
+      receiverGpsTowAtTimeOfTransmission -= SECONDS_IN_WEEK;
+      receiverGpsWeek += 1;
+    }
+
+    // Not taken from the cache, so that it keeps the correction at the corrected time below
+    double clockCorrectionSeconds =
+        SatelliteClockCorrectionCalculator.calculateSatClockCorrAndEccAnomAndTkIteratively(
+            ephemerisCache.getEphemeris(satPrn),
+            ephemerisCache.getCorrectedMeanMotionRadPerSec(satPrn),
+            receiverGpsTowAtTimeOfTransmission,
+            receiverGpsWeek).satelliteClockCorrectionMeters / SPEED_OF_LIGHT_MPS;
+
+    double receiverGpsTowAtTimeOfTransmissionCorrectedSec =
+        receiverGpsTowAtTimeOfTransmission + clockCorrectionSeconds;
+    if (receiverGpsTowAtTimeOfTransmissionCorrectedSec < 0.0) {
+      receiverGpsTowAtTimeOfTransmissionCorrectedSec += SECONDS_IN_WEEK;
+      receiverGpsWeek -= 1;
+    }
+    if (receiverGpsTowAtTimeOfTransmissionCorrectedSec > SECONDS_IN_WEEK) {
+      receiverGpsTowAtTimeOfTransmissionCorrectedSec -= SECONDS_IN_WEEK;
+      receiverGpsWeek += 1;
+    }
+    workspace.transmitTowSeconds[row] = receiverGpsTowAtTimeOfTransmissionCorrectedSec;
+    workspace.transmitWeeks[row] = receiverGpsWeek;
+  }
+
   /**
    * Calculates the position uncertainty in meters and the velocity uncertainty
    * in meters per second solution in local ENU system.
@@ -824,7 +1188,8 @@ class UserPositionVelocityWeightedLeastSquare {
    * residual per visible satellite in meters and the covariance matrix of the pseudoranges in
    * meters square
    */
-  private static class SatellitesPositionPseudorangesResidualAndCovarianceMatrix {
+  @VisibleForTesting
+  static class SatellitesPositionPseudorangesResidualAndCovarianceMatrix {
 
     /** Satellites' PRNs */
     private final int[] satellitePRNs;
@@ -833,7 +1198,7 @@ class UserPositionVelocityWeightedLeastSquare {
     private final double[][] satellitesPositionsMeters;
 
     /** Pseudorange measurement residuals (difference of measured to predicted pseudoranges) */
-    private final double[] pseudorangeResidualsMeters;
+    final double[] pseudorangeResidualsMeters;
 
     /** Pseudorange covariance Matrix for the weighted least squares (meters square) */
     private final double[][] covarianceMatrixMetersSquare;
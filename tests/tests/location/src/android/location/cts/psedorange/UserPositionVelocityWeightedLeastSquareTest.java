@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.pseudorange;
+
+import android.location.cts.BenchmarkTimer;
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+import android.location.cts.nano.Ephemeris.IonosphericModelProto;
+import android.location.cts.pseudorange.EcefToTopocentricConverter.TopocentricAEDValues;
+import android.location.cts.pseudorange.SatellitePositionCalculator.PositionAndVelocity;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the workspace solver of {@link UserPositionVelocityWeightedLeastSquare} agrees with
+ * the commons-math solver on a synthetic constellation, and logs the time per epoch of both.
+ */
+public class UserPositionVelocityWeightedLeastSquareTest extends TestCase {
+  private static final String TAG = "UserPositionVelocityWeightedLeastSquareTest";
+
+  private static final int GPS_WEEK = 1980;
+  private static final double RECEIVER_TOW_SECONDS = 345600.0;
+  private static final int DAY_OF_YEAR = 355;
+  /** Receiver ECEF position (meters), about 40 meters above Mountain View */
+  private static final double[] USER_POSITION_ECEF_METERS = {-2694685.0, -4293642.0, 3857878.0};
+  private static final double MINIMUM_ELEVATION_RADIANS = Math.toRadians(10.0);
+  private static final int EPOCHS = 30;
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 3;
+
+  public void testCholeskySolve() {
+    double[] l = {
+        4.0, 12.0, -16.0,
+        12.0, 37.0, -43.0,
+        -16.0, -43.0, 98.0};
+    assertTrue(WeightedLeastSquareWorkspace.choleskyDecompose(l, 3));
+    assertEquals(2.0, l[0], 1e-12);
+    assertEquals(6.0, l[3], 1e-12);
+    assertEquals(1.0, l[4], 1e-12);
+    assertEquals(-8.0, l[6], 1e-12);
+    assertEquals(5.0, l[7], 1e-12);
+    assertEquals(3.0, l[8], 1e-12);
+
+    // b = A * {1, 2, 3}
+    double[] b = {-20.0, -43.0, 192.0};
+    WeightedLeastSquareWorkspace.choleskySolve(l, 3, b);
+    assertEquals(1.0, b[0], 1e-9);
+    assertEquals(2.0, b[1], 1e-9);
+    assertEquals(3.0, b[2], 1e-9);
+
+    double[] notPositiveDefinite = {1.0, 2.0, 2.0, 1.0};
+    assertFalse(WeightedLeastSquareWorkspace.choleskyDecompose(notPositiveDefinite, 2));
+  }
+
+  public void testWorkspaceSolverMatchesMatrixSolver() throws Exception {
+    GpsNavMessageProto navMessageProto = createNavMessage();
+    UserPositionVelocityWeightedLeastSquare matrixSolver =
+        new UserPositionVelocityWeightedLeastSquare();
+    UserPositionVelocityWeightedLeastSquare workspaceSolver =
+        new UserPositionVelocityWeightedLeastSquare(null /* pseudorangeSmoother */,
+            true /* useWorkspaceSolver */);
+    for (int epoch = 0; epoch < EPOCHS; epoch++) {
+      double receiverTowSeconds = RECEIVER_TOW_SECONDS + epoch;
+      List<GpsMeasurementWithRangeAndUncertainty> measurements =
+          createMeasurements(navMessageProto, receiverTowSeconds);
+      double[] matrixSolution = new double[8];
+      double[] matrixUncertainty = new double[6];
+      matrixSolver.calculateUserPositionVelocityLeastSquare(navMessageProto, measurements,
+          receiverTowSeconds, GPS_WEEK, DAY_OF_YEAR, matrixSolution, matrixUncertainty);
+      double[] workspaceSolution = new double[8];
+      double[] workspaceUncertainty = new double[6];
+      workspaceSolver.calculateUserPositionVelocityLeastSquare(navMessageProto, measurements,
+          receiverTowSeconds, GPS_WEEK, DAY_OF_YEAR, workspaceSolution, workspaceUncertainty);
+
+      for (int i = 0; i < 3; i++) {
+        assertEquals(USER_POSITION_ECEF_METERS[i], matrixSolution[i], 1.0);
+        assertEquals(matrixSolution[i], workspaceSolution[i], 1e-4);
+        assertEquals(matrixSolution[i + 4], workspaceSolution[i + 4], 1e-6);
+      }
+      assertEquals(matrixSolution[3], workspaceSolution[3], 1e-4);
+      assertEquals(matrixSolution[7], workspaceSolution[7], 1e-6);
+      for (int i = 0; i < 6; i++) {
+        assertEquals(matrixUncertainty[i], workspaceUncertainty[i], 1e-9 * matrixUncertainty[i]);
+      }
+    }
+  }
+
+  public void testThroughput() throws Exception {
+    GpsNavMessageProto navMessageProto = createNavMessage();
+    List<List<GpsMeasurementWithRangeAndUncertainty>> epochs = new ArrayList<>();
+    for (int epoch = 0; epoch < EPOCHS; epoch++) {
+      epochs.add(createMeasurements(navMessageProto, RECEIVER_TOW_SECONDS + epoch));
+    }
+    UserPositionVelocityWeightedLeastSquare matrixSolver =
+        new UserPositionVelocityWeightedLeastSquare();
+    UserPositionVelocityWeightedLeastSquare workspaceSolver =
+        new UserPositionVelocityWeightedLeastSquare(null /* pseudorangeSmoother */,
+            true /* useWorkspaceSolver */);
+    double matrixMicros = BenchmarkTimer.measureMicros(WARMUP_ITERATIONS, MEASURED_ITERATIONS,
+        () -> solveAll(matrixSolver, navMessageProto, epochs));
+    double workspaceMicros = BenchmarkTimer.measureMicros(WARMUP_ITERATIONS,
+        MEASURED_ITERATIONS, () -> solveAll(workspaceSolver, navMessageProto, epochs));
+    BenchmarkTimer.log(TAG,
+        "%d epochs: matrix solver %.1f us/epoch, workspace solver %.1f us/epoch", EPOCHS,
+        matrixMicros / EPOCHS, workspaceMicros / EPOCHS);
+  }
+
+  private static void solveAll(UserPositionVelocityWeightedLeastSquare solver,
+      GpsNavMessageProto navMessageProto,
+      List<List<GpsMeasurementWithRangeAndUncertainty>> epochs) throws Exception {
+    for (int epoch = 0; epoch < epochs.size(); epoch++) {
+      solver.calculateUserPositionVelocityLeastSquare(navMessageProto, epochs.get(epoch),
+          RECEIVER_TOW_SECONDS + epoch, GPS_WEEK, DAY_OF_YEAR, new double[8], new double[6]);
+    }
+  }
+
+  /**
+   * Creates a navigation message of a nominal constellation of six orbital planes with four
+   * satellites each.
+   */
+  private static GpsNavMessageProto createNavMessage() {
+    GpsNavMessageProto navMessageProto = new GpsNavMessageProto();
+    navMessageProto.iono = new IonosphericModelProto();
+    navMessageProto.iono.alpha = new double[] {1.1176e-8, 7.4506e-9, -5.9605e-8, -5.9605e-8};
+    navMessageProto.iono.beta = new double[] {90112.0, 0.0, -196608.0, -65536.0};
+    navMessageProto.ephemerids = new GpsEphemerisProto[24];
+    for (int i = 0; i < navMessageProto.ephemerids.length; i++) {
+      GpsEphemerisProto ephemerisProto = new GpsEphemerisProto();
+      ephemerisProto.prn = i + 1;
+      ephemerisProto.week = GPS_WEEK;
+      ephemerisProto.toe = RECEIVER_TOW_SECONDS;
+      ephemerisProto.toc = RECEIVER_TOW_SECONDS;
+      ephemerisProto.af0 = 1.0e-5 * ((i % 5) - 2);
+      ephemerisProto.af1 = 1.0e-12 * ((i % 3) - 1);
+      ephemerisProto.tgd = -5.0e-9;
+      ephemerisProto.rootOfA = 5153.6;
+      ephemerisProto.e = 0.002 + 0.001 * (i % 4);
+      ephemerisProto.i0 = Math.toRadians(55.0);
+      ephemerisProto.omega = 0.3 * (i % 7);
+      ephemerisProto.omega0 = Math.toRadians(60.0 * (i / 4));
+      ephemerisProto.omegaDot = -8.0e-9;
+      ephemerisProto.m0 = Math.toRadians(90.0 * (i % 4) + 15.0 * (i / 4));
+      ephemerisProto.deltaN = 4.5e-9;
+      ephemerisProto.crc = 200.0;
+      ephemerisProto.crs = 20.0;
+      ephemerisProto.cuc = 1.0e-6;
+      ephemerisProto.cus = 8.0e-6;
+      ephemerisProto.cic = 1.0e-7;
+      ephemerisProto.cis = -1.0e-7;
+      navMessageProto.ephemerids[i] = ephemerisProto;
+    }
+    return navMessageProto;
+  }
+
+  /**
+   * Creates measurements of the satellites above {@link #MINIMUM_ELEVATION_RADIANS} consistent
+   * with a static receiver at {@link #USER_POSITION_ECEF_METERS} with no clock bias.
+   */
+  private static List<GpsMeasurementWithRangeAndUncertainty> createMeasurements(
+      GpsNavMessageProto navMessageProto, double receiverTowSeconds) throws Exception {
+    GpsMeasurementWithRangeAndUncertainty[] measurements =
+        new GpsMeasurementWithRangeAndUncertainty[32];
+    for (GpsEphemerisProto ephemerisProto : navMessageProto.ephemerids) {
+      PositionAndVelocity satPosAndVel =
+          SatellitePositionCalculator.calculateSatellitePositionAndVelocityFromEphemeris(
+              ephemerisProto, receiverTowSeconds - 0.07, GPS_WEEK, USER_POSITION_ECEF_METERS[0],
+              USER_POSITION_ECEF_METERS[1], USER_POSITION_ECEF_METERS[2]);
+      double[] lineOfSightMeters = {
+          satPosAndVel.positionXMeters - USER_POSITION_ECEF_METERS[0],
+          satPosAndVel.positionYMeters - USER_POSITION_ECEF_METERS[1],
+          satPosAndVel.positionZMeters - USER_POSITION_ECEF_METERS[2]};
+      TopocentricAEDValues elevationAzimuthDist =
+          EcefToTopocentricConverter.convertCartesianToTopocentericRadMeters(
+              USER_POSITION_ECEF_METERS, lineOfSightMeters);
+      if (elevationAzimuthDist.elevationRadians < MINIMUM_ELEVATION_RADIANS) {
+        continue;
+      }
+      double rangeMeters = elevationAzimuthDist.distanceMeters;
+      double rangeRateMps = (satPosAndVel.velocityXMetersPerSec * lineOfSightMeters[0]
+          + satPosAndVel.velocityYMetersPerSec * lineOfSightMeters[1]
+          + satPosAndVel.velocityZMetersPerSec * lineOfSightMeters[2]) / rangeMeters;
+      int prn = ephemerisProto.prn;
+      GpsMeasurement gpsMeasurement = new GpsMeasurement(
+          (long) (receiverTowSeconds * 1e9), 0.0 /* accumulatedDeltaRangeMeters */,
+          false /* validAccumulatedDeltaRangeMeters */, rangeRateMps,
+          30.0 + prn % 15 /* signalToNoiseRatioDb */,
+          0.0 /* accumulatedDeltaRangeUncertaintyMeters */,
+          0.05 + 0.01 * (prn % 10) /* pseudorangeRateUncertaintyMps */);
+      measurements[prn - 1] = new GpsMeasurementWithRangeAndUncertainty(
+          gpsMeasurement, rangeMeters, 3.0 + 0.5 * (prn % 8));
+    }
+
+    // Refine the pseudoranges until they match the pseudoranges predicted by the solver model at
+    // the receiver position
+    UserPositionVelocityWeightedLeastSquare model = new UserPositionVelocityWeightedLeastSquare();
+    for (int iteration = 0; iteration < 5; iteration++) {
+      List<GpsMeasurementWithRangeAndUncertainty> usefulMeasurements = Arrays.asList(measurements);
+      double[] userPositionEcefMeters = Arrays.copyOf(USER_POSITION_ECEF_METERS, 4);
+      double[] residualsMeters = model.calculateSatPosAndPseudorangeResidual(navMessageProto,
+          usefulMeasurements, receiverTowSeconds, GPS_WEEK, DAY_OF_YEAR, userPositionEcefMeters,
+          true /* doAtmosphericCorrections */).pseudorangeResidualsMeters;
+      int row = 0;
+      for (int i = 0; i < measurements.length; i++) {
+        GpsMeasurementWithRangeAndUncertainty measurement = measurements[i];
+        if (measurement != null) {
+          measurements[i] = new GpsMeasurementWithRangeAndUncertainty(measurement,
+              measurement.pseudorangeMeters - residualsMeters[row++],
+              measurement.pseudorangeUncertaintyMeters);
+        }
+      }
+    }
+    return Arrays.asList(measurements);
+  }
+}
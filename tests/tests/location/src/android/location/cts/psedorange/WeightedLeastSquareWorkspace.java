@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.pseudorange;
+
+/**
+ * Preallocated primitive arrays for solving the weighted least square problems of
+ * {@link UserPositionVelocityWeightedLeastSquare} with diagonal weights.
+ *
+ * <p>For a geometry matrix G with {@link #rows} rows and {@value #UNKNOWNS} columns, diagonal
+ * weights W and residuals r, the solution x of the normal equations (G' * W * G) * x = G' * W * r
+ * is computed by an in-place Cholesky decomposition of the symmetric positive definite
+ * {@value #UNKNOWNS}x{@value #UNKNOWNS} matrix G' * W * G. No array is allocated after
+ * construction.
+ */
+class WeightedLeastSquareWorkspace {
+  /** Number of unknowns: the three position (or velocity) components and the clock term */
+  static final int UNKNOWNS = 4;
+
+  /** Number of used rows (satellites) in the arrays below */
+  int rows;
+  /** PRNs of the satellites of each row */
+  final int[] satellitePrns;
+  /** ECEF positions (meters) of the satellites of each row */
+  final double[][] satellitePositionsMeters;
+  /** Time of week (seconds) at transmission, corrected with the satellite clock, of each row */
+  final double[] transmitTowSeconds;
+  /** Week number at transmission of each row */
+  final int[] transmitWeeks;
+  /** Geometry matrix, row major with {@value #UNKNOWNS} columns */
+  final double[] geometryMatrix;
+  /** Measurement residuals of each row */
+  final double[] residuals;
+  /** Pseudorange variances (meters square) of each row */
+  final double[] pseudorangeVariances;
+  /** Pseudorange rate variances (meters square per second square) of each row */
+  final double[] pseudorangeRateVariances;
+  /** Diagonal weights of each row */
+  final double[] weights;
+  /** Solution of the last call to {@link #solve()} */
+  final double[] solution = new double[UNKNOWNS];
+
+  /** Normal matrix, row major, overwritten by its Cholesky factor */
+  private final double[] normalMatrix = new double[UNKNOWNS * UNKNOWNS];
+  /** Scratch column used when inverting the normal matrix */
+  private final double[] column = new double[UNKNOWNS];
+  /** Position block of the inverse of the normal matrix, row major */
+  private final double[] positionBlock = new double[9];
+
+  WeightedLeastSquareWorkspace(int maxRows) {
+    satellitePrns = new int[maxRows];
+    satellitePositionsMeters = new double[maxRows][3];
+    transmitTowSeconds = new double[maxRows];
+    transmitWeeks = new int[maxRows];
+    geometryMatrix = new double[maxRows * UNKNOWNS];
+    residuals = new double[maxRows];
+    pseudorangeVariances = new double[maxRows];
+    pseudorangeRateVariances = new double[maxRows];
+    weights = new double[maxRows];
+  }
+
+  /**
+   * Fills the geometry matrix with the normalized line-of-sight vectors from the satellites of each
+   * row to {@code userPositionECEFMeters} and 1 s in the fourth column.
+   *
+   * <p>Source: Parkinson, B.W., Spilker Jr., J.J.: ‘Global positioning system: theory and
+   * applications’ page 413
+   */
+  void fillGeometryMatrix(double[] userPositionECEFMeters) {
+    for (int i = 0; i < rows; i++) {
+      double[] satellitePositionMeters = satellitePositionsMeters[i];
+      double dx = userPositionECEFMeters[0] - satellitePositionMeters[0];
+      double dy = userPositionECEFMeters[1] - satellitePositionMeters[1];
+      double dz = userPositionECEFMeters[2] - satellitePositionMeters[2];
+      double norm = Math.sqrt(dx * dx + dy * dy + dz * dz);
+      int offset = i * UNKNOWNS;
+      geometryMatrix[offset] = dx / norm;
+      geometryMatrix[offset + 1] = dy / norm;
+      geometryMatrix[offset + 2] = dz / norm;
+      geometryMatrix[offset + 3] = 1;
+    }
+  }
+
+  /**
+   * Solves the normal equations for the current geometry matrix, {@link #weights} and
+   * {@link #residuals} and stores the result in {@link #solution}.
+   *
+   * @return false if the normal matrix is not positive definite, in which case {@link #solution}
+   *         is left unchanged
+   */
+  boolean solve() {
+    if (!decomposeNormalMatrix()) {
+      return false;
+    }
+    for (int j = 0; j < UNKNOWNS; j++) {
+      double sum = 0.0;
+      for (int i = 0; i < rows; i++) {
+        sum += geometryMatrix[i * UNKNOWNS + j] * weights[i] * residuals[i];
+      }
+      solution[j] = sum;
+    }
+    choleskySolve(normalMatrix, UNKNOWNS, solution);
+    return true;
+  }
+
+  /**
+   * Computes the diagonal of the measurement connection matrix H = (G' * W * G) ^ -1 for the
+   * current geometry matrix and {@link #weights}, rotated by the 3x3 {@code rotationMatrix}:
+   * the diagonal of R * H * R' restricted to the first three unknowns.
+   *
+   * <p>Reference: Global Positioning System: Signals, Measurements, and Performance, P207
+   *
+   * @param rotationMatrix rotation from ECEF to the local frame of the result
+   * @param result array in which the three diagonal entries are set from {@code offset}
+   * @return false if the normal matrix is not positive definite
+   */
+  boolean rotatedConnectionMatrixDiagonal(double[][] rotationMatrix, double[] result, int offset) {
+    if (!decomposeNormalMatrix()) {
+      return false;
+    }
+    // Column by column inverse of the normal matrix, only the position block of which is needed
+    for (int j = 0; j < 3; j++) {
+      for (int i = 0; i < UNKNOWNS; i++) {
+        column[i] = i == j ? 1.0 : 0.0;
+      }
+      choleskySolve(normalMatrix, UNKNOWNS, column);
+      for (int i = 0; i < 3; i++) {
+        positionBlock[i * 3 + j] = column[i];
+      }
+    }
+    for (int k = 0; k < 3; k++) {
+      double sum = 0.0;
+      for (int i = 0; i < 3; i++) {
+        for (int j = 0; j < 3; j++) {
+          sum += rotationMatrix[k][i] * positionBlock[i * 3 + j] * rotationMatrix[k][j];
+        }
+      }
+      result[offset + k] = sum;
+    }
+    return true;
+  }
+
+  /** Computes G' * W * G into the normal matrix and decomposes it in place. */
+  private boolean decomposeNormalMatrix() {
+    for (int j = 0; j < UNKNOWNS; j++) {
+      for (int k = 0; k <= j; k++) {
+        double sum = 0.0;
+        for (int i = 0; i < rows; i++) {
+          int offset = i * UNKNOWNS;
+          sum += geometryMatrix[offset + j] * weights[i] * geometryMatrix[offset + k];
+        }
+        normalMatrix[j * UNKNOWNS + k] = sum;
+        normalMatrix[k * UNKNOWNS + j] = sum;
+      }
+    }
+    return choleskyDecompose(normalMatrix, UNKNOWNS);
+  }
+
+  /**
+   * Replaces the lower triangle of the symmetric {@code n}x{@code n} row major matrix {@code a} by
+   * its Cholesky factor L such that a = L * L'. The upper triangle is left unchanged.
+   *
+   * @return false if {@code a} is not positive definite
+   */
+  static boolean choleskyDecompose(double[] a, int n) {
+    for (int j = 0; j < n; j++) {
+      double diagonal = a[j * n + j];
+      for (int k = 0; k < j; k++) {
+        diagonal -= a[j * n + k] * a[j * n + k];
+      }
+      if (!(diagonal > 0.0)) {
+        return false;
+      }
+      diagonal = Math.sqrt(diagonal);
+      a[j * n + j] = diagonal;
+      for (int i = j + 1; i < n; i++) {
+        double sum = a[i * n + j];
+        for (int k = 0; k < j; k++) {
+          sum -= a[i * n + k] * a[j * n + k];
+        }
+        a[i * n + j] = sum / diagonal;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Solves L * L' * x = b in place in {@code b}, where L is the lower triangle of {@code l} as left
+   * by {@link #choleskyDecompose(double[], int)}.
+   */
+  static void choleskySolve(double[] l, int n, double[] b) {
+    for (int i = 0; i < n; i++) {
+      double sum = b[i];
+      for (int k = 0; k < i; k++) {
+        sum -= l[i * n + k] * b[k];
+      }
+      b[i] = sum / l[i * n + i];
+    }
+    for (int i = n - 1; i >= 0; i--) {
+      double sum = b[i];
+      for (int k = i + 1; k < n; k++) {
+        sum -= l[k * n + i] * b[k];
+      }
+      b[i] = sum / l[i * n + i];
+    }
+  }
+}
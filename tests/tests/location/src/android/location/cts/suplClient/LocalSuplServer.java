@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.suplClient;
+
+import android.location.cts.asn1.supl2.ulp.ULP_PDU;
+import android.location.cts.asn1.supl2.ulp.UlpMessage;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for a SUPL server on the loopback interface, that serves GPS assistance data to
+ * {@link SuplRrlpController} without a real SUPL server.
+ *
+ * <p>It answers a SUPL START with a SUPL RESPONSE, and a SUPL POS INIT with a SUPL POS carrying
+ * the navigation model of a given number of satellites. Every message is decoded and encoded with
+ * the PER codec of the ASN.1 runtime, so a session exercises the codec end to end on both sides.
+ * Each connection is served by a thread of a pool, so many sessions can run concurrently.
+ */
+public class LocalSuplServer implements Closeable {
+  private static final String TAG = "LocalSuplServer";
+
+  private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
+  private static final int BACKLOG = 128;
+
+  /** The maximum number of satellites of an RRLP navigation model. */
+  public static final int MAX_SATELLITES = 16;
+
+  /** The modulo-1024 GPS week of the reference time sent to the clients. */
+  public static final int GPS_WEEK = 1000;
+
+  private final int satelliteCount;
+  private final ServerSocket serverSocket;
+  private final ExecutorService executor;
+  private final AtomicLong messagesReceived = new AtomicLong();
+  private final AtomicLong messagesSent = new AtomicLong();
+  private volatile boolean closed;
+
+  /**
+   * Starts a server on an ephemeral loopback port.
+   *
+   * @param satelliteCount the number of satellites of the navigation model sent to the clients
+   * @param threadCount the number of sessions served concurrently, more connections wait
+   */
+  public LocalSuplServer(int satelliteCount, int threadCount) throws IOException {
+    if (satelliteCount < 1 || satelliteCount > MAX_SATELLITES) {
+      throw new IllegalArgumentException("Invalid satellite count " + satelliteCount);
+    }
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Invalid thread count " + threadCount);
+    }
+    this.satelliteCount = satelliteCount;
+    serverSocket = new ServerSocket(0, BACKLOG, InetAddress.getLoopbackAddress());
+    // One more thread accepts the connections.
+    executor = Executors.newFixedThreadPool(threadCount + 1);
+    executor.execute(this::acceptConnections);
+  }
+
+  /** Returns the address the server listens on. */
+  public String getHostName() {
+    return serverSocket.getInetAddress().getHostAddress();
+  }
+
+  /** Returns the port the server listens on. */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /** Returns the number of messages received from clients. */
+  public long getMessagesReceived() {
+    return messagesReceived.get();
+  }
+
+  /** Returns the number of messages sent to clients. */
+  public long getMessagesSent() {
+    return messagesSent.get();
+  }
+
+  /** Stops the server, and closes the connections of running sessions. */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    serverSocket.close();
+    executor.shutdownNow();
+  }
+
+  private void acceptConnections() {
+    while (!closed) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        if (!closed) {
+          Log.w(TAG, "Failed to accept a connection", e);
+        }
+        return;
+      }
+      try {
+        executor.execute(() -> serveSession(socket));
+      } catch (RejectedExecutionException e) {
+        closeQuietly(socket);
+      }
+    }
+  }
+
+  /** Answers the messages of a client until it closes the connection or ends the session. */
+  private void serveSession(Socket socket) {
+    try {
+      socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+      byte[] request;
+      while (!closed && (request = SuplTcpClient.readSuplMessage(in)) != null) {
+        messagesReceived.incrementAndGet();
+        byte[] response = generateResponse(ULP_PDU.fromPerUnaligned(request));
+        if (response == null) {
+          break;
+        }
+        // Count before writing, a client may end its session as soon as it reads the response.
+        messagesSent.incrementAndGet();
+        out.write(response);
+      }
+    } catch (IOException | RuntimeException e) {
+      if (!closed) {
+        Log.w(TAG, "SUPL session failed", e);
+      }
+    } finally {
+      closeQuietly(socket);
+    }
+  }
+
+  /** Returns the response to a message, or null if the message ends the session. */
+  private byte[] generateResponse(ULP_PDU request) {
+    UlpMessage message = request.getMessage();
+    if (message.isMsSUPLSTART()) {
+      return SuplRrlpMessagesGenerator.generateSuplResponseMessage(request.getSessionID());
+    }
+    if (message.isMsSUPLPOSINIT()) {
+      return SuplRrlpMessagesGenerator.generateSuplPosAssistanceDataMessage(
+          request.getSessionID(), satelliteCount, GPS_WEEK);
+    }
+    return null;
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing left to do with the socket.
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.location.cts.suplClient;
+
+import android.location.cts.BenchmarkTimer;
+import android.location.cts.nano.Ephemeris.GpsEphemerisProto;
+import android.location.cts.nano.Ephemeris.GpsNavMessageProto;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many concurrent SUPL sessions of {@link SuplRrlpController} against a
+ * {@link LocalSuplServer}, and logs the message throughput and the session latency percentiles
+ * of the SUPL client, the TCP framing and the PER codec together.
+ */
+public class SuplLoadBenchmarkTest extends TestCase {
+  private static final String TAG = "SuplLoadBenchmarkTest";
+
+  private static final int SATELLITES = LocalSuplServer.MAX_SATELLITES;
+  private static final int CONCURRENT_CLIENTS = 8;
+  private static final int SESSIONS_PER_CLIENT = 25;
+  private static final int WARMUP_SESSIONS = 10;
+  /** SUPL START, SUPL RESPONSE, SUPL POS INIT and SUPL POS. */
+  private static final int MESSAGES_PER_SESSION = 4;
+
+  private static final long LAT_E7 = 374220000L;
+  private static final long LNG_E7 = -1220840000L;
+
+  public void testConcurrentSessions() throws Exception {
+    try (LocalSuplServer server = new LocalSuplServer(SATELLITES, CONCURRENT_CLIENTS)) {
+      final SuplRrlpController controller =
+          new SuplRrlpController(server.getHostName(), server.getPort());
+      for (int i = 0; i < WARMUP_SESSIONS; i++) {
+        assertNavMessage(controller.generateNavMessage(LAT_E7, LNG_E7));
+      }
+
+      ExecutorService clients = Executors.newFixedThreadPool(CONCURRENT_CLIENTS);
+      long[] latencyNanos = new long[CONCURRENT_CLIENTS * SESSIONS_PER_CLIENT];
+      long startNanos = System.nanoTime();
+      try {
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_CLIENTS; i++) {
+          results.add(clients.submit(new Callable<long[]>() {
+            @Override
+            public long[] call() throws Exception {
+              long[] clientLatencyNanos = new long[SESSIONS_PER_CLIENT];
+              for (int j = 0; j < SESSIONS_PER_CLIENT; j++) {
+                long sessionStartNanos = System.nanoTime();
+                GpsNavMessageProto navMessage = controller.generateNavMessage(LAT_E7, LNG_E7);
+                clientLatencyNanos[j] = System.nanoTime() - sessionStartNanos;
+                assertNavMessage(navMessage);
+              }
+              return clientLatencyNanos;
+            }
+          }));
+        }
+        for (int i = 0; i < results.size(); i++) {
+          System.arraycopy(results.get(i).get(), 0, latencyNanos, i * SESSIONS_PER_CLIENT,
+              SESSIONS_PER_CLIENT);
+        }
+      } finally {
+        clients.shutdownNow();
+      }
+      long elapsedNanos = System.nanoTime() - startNanos;
+
+      int sessions = WARMUP_SESSIONS + latencyNanos.length;
+      assertEquals(sessions * MESSAGES_PER_SESSION / 2, server.getMessagesReceived());
+      assertEquals(sessions * MESSAGES_PER_SESSION / 2, server.getMessagesSent());
+
+      Arrays.sort(latencyNanos);
+      double seconds = elapsedNanos / 1e9;
+      BenchmarkTimer.log(TAG, "%d sessions of %d satellites on %d clients in %.1f ms:"
+          + " %.0f sessions/s, %.0f messages/s, latency p50 %.2f ms, p90 %.2f ms,"
+          + " p99 %.2f ms, max %.2f ms",
+          latencyNanos.length, SATELLITES, CONCURRENT_CLIENTS, elapsedNanos / 1e6,
+          latencyNanos.length / seconds, latencyNanos.length * MESSAGES_PER_SESSION / seconds,
+          percentileMillis(latencyNanos, 50), percentileMillis(latencyNanos, 90),
+          percentileMillis(latencyNanos, 99), latencyNanos[latencyNanos.length - 1] / 1e6);
+    }
+  }
+
+  public void testMessageSplitAcrossReads() throws Exception {
+    byte[] message = SuplRrlpMessagesGenerator.generateSuplStartLocalLocationMessage(null);
+    byte[] stream = Arrays.copyOf(message, message.length * 2);
+    System.arraycopy(message, 0, stream, message.length, message.length);
+
+    InputStream in = new OneByteInputStream(stream);
+    assertTrue(Arrays.equals(message, SuplTcpClient.readSuplMessage(in)));
+    assertTrue(Arrays.equals(message, SuplTcpClient.readSuplMessage(in)));
+    assertNull(SuplTcpClient.readSuplMessage(in));
+
+    in = new OneByteInputStream(Arrays.copyOf(message, message.length - 1));
+    try {
+      SuplTcpClient.readSuplMessage(in);
+      fail("Truncated message was read");
+    } catch (EOFException expected) {
+    }
+  }
+
+  private static void assertNavMessage(GpsNavMessageProto navMessage) {
+    assertEquals(GpsNavMessageProto.SUCCESS, navMessage.rpcStatus);
+    assertEquals(4, navMessage.iono.alpha.length);
+    assertEquals(SATELLITES, navMessage.ephemerids.length);
+    for (int i = 0; i < SATELLITES; i++) {
+      GpsEphemerisProto ephemeris = navMessage.ephemerids[i];
+      assertEquals(i + 1, ephemeris.prn);
+      assertEquals(LocalSuplServer.GPS_WEEK, ephemeris.week % 1024);
+    }
+  }
+
+  private static double percentileMillis(long[] sortedNanos, int percentile) {
+    int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+    return sortedNanos[Math.max(index, 0)] / 1e6;
+  }
+
+  /** Returns at most one byte per read, like a TCP stream that delivers a message in pieces. */
+  private static class OneByteInputStream extends ByteArrayInputStream {
+    OneByteInputStream(byte[] buffer) {
+      super(buffer);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, 1));
+    }
+  }
+}
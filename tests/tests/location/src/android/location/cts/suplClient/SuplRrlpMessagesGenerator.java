@@ -17,6 +17,13 @@
 package android.location.cts.suplClient;
 
 import android.location.cts.asn1.base.PacketBuilder;
+import android.location.cts.asn1.supl2.rrlp_components.ControlHeader;
+import android.location.cts.asn1.supl2.rrlp_components.EphemerisSubframe1Reserved;
+import android.location.cts.asn1.supl2.rrlp_components.GPSTime;
+import android.location.cts.asn1.supl2.rrlp_components.IonosphericModel;
+import android.location.cts.asn1.supl2.rrlp_components.NavModelElement;
+import android.location.cts.asn1.supl2.rrlp_components.SeqOfNavModelElement;
+import android.location.cts.asn1.supl2.rrlp_components.UncompressedEphemeris;
 import android.location.cts.asn1.supl2.rrlp_messages.PDU;
 import android.location.cts.asn1.supl2.supl_pos.PosPayLoad;
 import android.location.cts.asn1.supl2.supl_pos.SUPLPOS;
@@ -27,11 +34,13 @@ import android.location.cts.asn1.supl2.supl_start.PosProtocol;
 import android.location.cts.asn1.supl2.supl_start.PosTechnology;
 import android.location.cts.asn1.supl2.supl_start.PrefMethod;
 import android.location.cts.asn1.supl2.supl_start.SETCapabilities;
+import android.location.cts.asn1.supl2.supl_response.SUPLRESPONSE;
 import android.location.cts.asn1.supl2.supl_start.SUPLSTART;
 import android.location.cts.asn1.supl2.ulp.ULP_PDU;
 import android.location.cts.asn1.supl2.ulp.UlpMessage;
 import android.location.cts.asn1.supl2.ulp_components.CellInfo;
 import android.location.cts.asn1.supl2.ulp_components.LocationId;
+import android.location.cts.asn1.supl2.ulp_components.PosMethod;
 import android.location.cts.asn1.supl2.ulp_components.Position;
 import android.location.cts.asn1.supl2.ulp_components.Position.timestampType;
 import android.location.cts.asn1.supl2.ulp_components.PositionEstimate;
@@ -252,9 +261,10 @@ public class SuplRrlpMessagesGenerator {
     pdu.setComponentToNewInstance();
     pdu.getComponent().setAssistanceDataAckToNewInstance();
 
-    PacketBuilder payloadBuilder = new PacketBuilder();
+    PacketBuilder payloadBuilder;
     try {
-      payloadBuilder.appendAll(pdu.encodePerUnaligned());
+      payloadBuilder = new PacketBuilder();
+      pdu.encodePer(payloadBuilder, false);
     } catch (IllegalArgumentException | IllegalStateException | IndexOutOfBoundsException
         | UnsupportedOperationException e) {
       throw new RuntimeException(e);
@@ -272,12 +282,134 @@ public class SuplRrlpMessagesGenerator {
     return encodeUlp(ulpPdu);
   }
 
+  /**
+   * Generate a SUPL RESPONSE message, as sent by a SUPL server in reply to a SUPL START, for the
+   * given SessionID.
+   */
+  public static byte[] generateSuplResponseMessage(SessionID sessionId) {
+    ULP_PDU ulpPdu = new ULP_PDU();
+    Version version = ulpPdu.setVersionToNewInstance();
+    version.setMinToNewInstance().setInteger(BigInteger.ZERO);
+    version.setMajToNewInstance().setInteger(BigInteger.valueOf(2));
+    version.setServindToNewInstance().setInteger(BigInteger.ZERO);
+    ulpPdu.setVersion(version);
+
+    ulpPdu.setSessionID(sessionId);
+
+    UlpMessage message = new UlpMessage();
+    SUPLRESPONSE suplResponse = message.setMsSUPLRESPONSEToNewInstance();
+    suplResponse.setPosMethodToNewInstance().setValue(PosMethod.Value.agpsSETbased);
+
+    ulpPdu.setMessage(message);
+    return encodeUlp(ulpPdu);
+  }
+
+  /**
+   * Generate a SUPL POS message, as sent by a SUPL server in reply to a SUPL POS INIT, carrying
+   * an RRLP assistance data message with a reference time in the given modulo-1024 GPS week, an
+   * ionospheric model, and a navigation model of satelliteCount satellites with made up but
+   * valid ephemerides.
+   */
+  public static byte[] generateSuplPosAssistanceDataMessage(SessionID sessionId,
+      int satelliteCount, int gpsWeek) {
+    ULP_PDU ulpPdu = new ULP_PDU();
+    Version version = ulpPdu.setVersionToNewInstance();
+    version.setMinToNewInstance().setInteger(BigInteger.ZERO);
+    version.setMajToNewInstance().setInteger(BigInteger.valueOf(2));
+    version.setServindToNewInstance().setInteger(BigInteger.ZERO);
+    ulpPdu.setVersion(version);
+
+    ulpPdu.setSessionID(sessionId);
+
+    PDU pdu = new PDU();
+    pdu.setReferenceNumberToNewInstance().setInteger(BigInteger.ONE);
+    ControlHeader controlHeader = pdu.setComponentToNewInstance()
+        .setAssistanceDataToNewInstance().setGps_AssistDataToNewInstance()
+        .setControlHeaderToNewInstance();
+
+    GPSTime gpsTime = controlHeader.setReferenceTimeToNewInstance().setGpsTimeToNewInstance();
+    gpsTime.setGpsTOW23bToNewInstance().setInteger(BigInteger.ZERO);
+    gpsTime.setGpsWeekToNewInstance().setInteger(BigInteger.valueOf(gpsWeek));
+
+    IonosphericModel ionoModel = controlHeader.setIonosphericModelToNewInstance();
+    ionoModel.setAlfa0ToNewInstance().setInteger(BigInteger.valueOf(12));
+    ionoModel.setAlfa1ToNewInstance().setInteger(BigInteger.valueOf(1));
+    ionoModel.setAlfa2ToNewInstance().setInteger(BigInteger.valueOf(-8));
+    ionoModel.setAlfa3ToNewInstance().setInteger(BigInteger.valueOf(-1));
+    ionoModel.setBeta0ToNewInstance().setInteger(BigInteger.valueOf(46));
+    ionoModel.setBeta1ToNewInstance().setInteger(BigInteger.valueOf(16));
+    ionoModel.setBeta2ToNewInstance().setInteger(BigInteger.valueOf(-64));
+    ionoModel.setBeta3ToNewInstance().setInteger(BigInteger.valueOf(-16));
+
+    SeqOfNavModelElement navModelList =
+        controlHeader.setNavigationModelToNewInstance().setNavModelListToNewInstance();
+    for (int satId = 0; satId < satelliteCount; satId++) {
+      NavModelElement navModelElement = navModelList.createAndAddValue();
+      navModelElement.setSatelliteIDToNewInstance().setInteger(BigInteger.valueOf(satId));
+      setEphemeris(navModelElement.setSatStatusToNewInstance()
+          .setNewSatelliteAndModelUCToNewInstance(), satId);
+    }
+
+    PacketBuilder payloadBuilder = new PacketBuilder();
+    pdu.encodePer(payloadBuilder, false);
+    PosPayLoad.rrlpPayloadType rrlpPayload = new PosPayLoad.rrlpPayloadType();
+    rrlpPayload.setValue(payloadBuilder.getPaddedBytes());
+
+    UlpMessage message = new UlpMessage();
+    SUPLPOS suplPos = message.setMsSUPLPOSToNewInstance();
+    suplPos.setPosPayLoadToNewInstance();
+    suplPos.getPosPayLoad().setRrlpPayload(rrlpPayload);
+
+    ulpPdu.setMessage(message);
+    return encodeUlp(ulpPdu);
+  }
+
+  /** Sets the fields of an ephemeris to values within their ranges, that differ by satellite. */
+  private static void setEphemeris(UncompressedEphemeris ephemeris, int satId) {
+    ephemeris.setEphemCodeOnL2ToNewInstance().setInteger(BigInteger.ONE);
+    ephemeris.setEphemURAToNewInstance().setInteger(BigInteger.ZERO);
+    ephemeris.setEphemSVhealthToNewInstance().setInteger(BigInteger.ZERO);
+    ephemeris.setEphemIODCToNewInstance().setInteger(BigInteger.valueOf(10 * satId + 1));
+    ephemeris.setEphemL2PflagToNewInstance().setInteger(BigInteger.ZERO);
+    EphemerisSubframe1Reserved reserved = ephemeris.setEphemSF1RsvdToNewInstance();
+    reserved.setReserved1ToNewInstance().setInteger(BigInteger.ZERO);
+    reserved.setReserved2ToNewInstance().setInteger(BigInteger.ZERO);
+    reserved.setReserved3ToNewInstance().setInteger(BigInteger.ZERO);
+    reserved.setReserved4ToNewInstance().setInteger(BigInteger.ZERO);
+    ephemeris.setEphemTgdToNewInstance().setInteger(BigInteger.valueOf(-11));
+    ephemeris.setEphemTocToNewInstance().setInteger(BigInteger.valueOf(22500));
+    ephemeris.setEphemAF2ToNewInstance().setInteger(BigInteger.ZERO);
+    ephemeris.setEphemAF1ToNewInstance().setInteger(BigInteger.valueOf(-3 * satId));
+    ephemeris.setEphemAF0ToNewInstance().setInteger(BigInteger.valueOf(-1000 * satId + 500));
+    ephemeris.setEphemCrsToNewInstance().setInteger(BigInteger.valueOf(-1500 + 100 * satId));
+    ephemeris.setEphemDeltaNToNewInstance().setInteger(BigInteger.valueOf(12000 + satId));
+    ephemeris.setEphemM0ToNewInstance()
+        .setInteger(BigInteger.valueOf(130000000L * satId - 900000000L));
+    ephemeris.setEphemCucToNewInstance().setInteger(BigInteger.valueOf(-2000 + 50 * satId));
+    ephemeris.setEphemEToNewInstance().setInteger(BigInteger.valueOf(40000000L + 1000000L * satId));
+    ephemeris.setEphemCusToNewInstance().setInteger(BigInteger.valueOf(4000 - 50 * satId));
+    ephemeris.setEphemAPowerHalfToNewInstance().setInteger(BigInteger.valueOf(2702000000L + satId));
+    ephemeris.setEphemToeToNewInstance().setInteger(BigInteger.valueOf(22500));
+    ephemeris.setEphemFitFlagToNewInstance().setInteger(BigInteger.ZERO);
+    ephemeris.setEphemAODAToNewInstance().setInteger(BigInteger.ZERO);
+    ephemeris.setEphemCicToNewInstance().setInteger(BigInteger.valueOf(20 - satId));
+    ephemeris.setEphemOmegaA0ToNewInstance()
+        .setInteger(BigInteger.valueOf(-600000000L + 70000000L * satId));
+    ephemeris.setEphemCisToNewInstance().setInteger(BigInteger.valueOf(-20 + satId));
+    ephemeris.setEphemI0ToNewInstance().setInteger(BigInteger.valueOf(650000000L + satId));
+    ephemeris.setEphemCrcToNewInstance().setInteger(BigInteger.valueOf(7000 + 10 * satId));
+    ephemeris.setEphemWToNewInstance()
+        .setInteger(BigInteger.valueOf(300000000L - 40000000L * satId));
+    ephemeris.setEphemOmegaADotToNewInstance().setInteger(BigInteger.valueOf(-22000 - satId));
+    ephemeris.setEphemIDotToNewInstance().setInteger(BigInteger.valueOf(100 - satId));
+  }
+
   /** Encodes a ULP_PDU message into bytes and sets the length field. */
   public static byte[] encodeUlp(ULP_PDU message) {
     message.setLengthToNewInstance();
     message.getLength().setInteger(BigInteger.ZERO);
     PacketBuilder messageBuilder = new PacketBuilder();
-    messageBuilder.appendAll(message.encodePerUnaligned());
+    message.encodePer(messageBuilder, false);
     byte[] result = messageBuilder.getPaddedBytes();
     ByteBuffer buffer = ByteBuffer.wrap(result);
     buffer.order(ByteOrder.BIG_ENDIAN);
@@ -17,7 +17,9 @@
 package android.location.cts.suplClient;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
@@ -30,10 +32,7 @@ import java.util.concurrent.TimeUnit;
 public class SuplTcpClient {
 
   private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
-  private static final short HEADER_SIZE = 2;
-  /** BUFFER_SIZE data size that is enough to hold SUPL responses */
-  private static final int SUPL_RESPONSE_BUFFER_SIZE = 16384;
-  private static final byte[] SUPL_RESPONSE_BUFFER = new byte[SUPL_RESPONSE_BUFFER_SIZE];
+  static final short HEADER_SIZE = 2;
 
   private Socket socket;
   private BufferedInputStream bufferedInputStream;
@@ -60,15 +59,44 @@ public class SuplTcpClient {
    * is not readable.
    */
   public byte[] getSuplResponse() throws IOException {
-    int sizeOfRead = bufferedInputStream.read(SUPL_RESPONSE_BUFFER, 0, HEADER_SIZE);
-    if (sizeOfRead == HEADER_SIZE) {
-      byte[] lengthArray = {SUPL_RESPONSE_BUFFER[0], SUPL_RESPONSE_BUFFER[1]};
-      short dataLength = ByteBuffer.wrap(lengthArray).getShort();
-      bufferedInputStream.read(SUPL_RESPONSE_BUFFER, 2, dataLength - HEADER_SIZE);
-      return SUPL_RESPONSE_BUFFER;
-    } else {
+    return readSuplMessage(bufferedInputStream);
+  }
+
+  /**
+   * Reads a SUPL message, including its two byte length header, from a stream. Reads are repeated
+   * until the whole message arrived, as a TCP read may return any part of it. Null is returned if
+   * the stream ends before the length header.
+   */
+  static byte[] readSuplMessage(InputStream in) throws IOException {
+    byte[] header = new byte[HEADER_SIZE];
+    if (readFully(in, header, 0, HEADER_SIZE) < HEADER_SIZE) {
       return null;
     }
+    int dataLength = ByteBuffer.wrap(header).getShort() & 0xFFFF;
+    if (dataLength < HEADER_SIZE) {
+      throw new IOException("Invalid SUPL message length " + dataLength);
+    }
+    byte[] message = new byte[dataLength];
+    System.arraycopy(header, 0, message, 0, HEADER_SIZE);
+    if (readFully(in, message, HEADER_SIZE, dataLength - HEADER_SIZE)
+        < dataLength - HEADER_SIZE) {
+      throw new EOFException("SUPL message of " + dataLength + " bytes truncated");
+    }
+    return message;
+  }
+
+  /** Reads up to length bytes, stopping early only at the end of the stream. */
+  private static int readFully(InputStream in, byte[] buffer, int offset, int length)
+      throws IOException {
+    int total = 0;
+    while (total < length) {
+      int count = in.read(buffer, offset + total, length - total);
+      if (count < 0) {
+        break;
+      }
+      total += count;
+    }
+    return total;
   }
 
   /** Closes the TCP socket */
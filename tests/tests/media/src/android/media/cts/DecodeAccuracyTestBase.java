@@ -17,7 +17,6 @@ package android.media.cts;
 
 import static org.junit.Assert.assertNotNull;
 
-import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
@@ -73,7 +72,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.microedition.khronos.egl.EGL10;
@@ -1751,13 +1749,6 @@ class FilenameParser {
  */
 class BitmapCompare {
 
-    private static final int RED = 0;
-    private static final int GREEN = 1;
-    private static final int BLUE = 2;
-    private static final int X = 0;
-    private static final int Y = 1;
-    private static final int Z = 2;
-
     private BitmapCompare() {}
 
     /**
@@ -1782,244 +1773,64 @@ class BitmapCompare {
         }
         // Convert all pixels to CIE L*a*b* color space so we can do a direct color comparison using
         // euclidean distance formula.
-        final double[][] pixels1 = convertRgbToCieLab(bitmap1);
-        final double[][] pixels2 = convertRgbToCieLab(bitmap2);
-        int greatestDifference = 0;
-        int greatestDifferenceIndex = -1;
-        for (int i = 0; i < pixels1.length; i++) {
-            final int difference = euclideanDistance(pixels1[i], pixels2[i]);
-            if (difference > greatestDifference) {
-                greatestDifference = difference;
-                greatestDifferenceIndex = i;
-            }
-        }
-        return new Difference(greatestDifference, Pair.create(
-            greatestDifferenceIndex % bitmap1.getWidth(),
-            greatestDifferenceIndex / bitmap1.getHeight()));
+        final LabColorDifference.LabImage lab1 =
+                LabColorDifference.toLab(getPixels(bitmap1), bitmap1.getWidth(), bitmap1.getHeight());
+        return toDifference(
+                LabColorDifference.greatestDifference(lab1, getPixels(bitmap2)), bitmap1.getWidth());
     }
 
-    @SuppressLint("UseSparseArrays")
-    private static double[][] convertRgbToCieLab(Bitmap bitmap) {
-        final HashMap<Integer, double[]> pixelTransformCache = new HashMap<>();
-        final double[][] result = new double[bitmap.getHeight() * bitmap.getWidth()][3];
+    private static int[] getPixels(Bitmap bitmap) {
         final int[] pixels = new int[bitmap.getHeight() * bitmap.getWidth()];
         bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        for (int i = 0; i < pixels.length; i++) {
-            final double[] transformedColor = pixelTransformCache.get(pixels[i]);
-            if (transformedColor != null) {
-                result[i] = transformedColor;
-            } else {
-                result[i] = convertXyzToCieLab(convertRgbToXyz(pixels[i]));
-                pixelTransformCache.put(pixels[i], result[i]);
-            }
-        }
-        return result;
-    }
-
-    /**
-     * Conversion from RGB to XYZ based algorithm as defined by:
-     * http://www.easyrgb.com/index.php?X=MATH&H=02#text2
-     *
-     * <p><pre>{@code
-     *   var_R = ( R / 255 )        //R from 0 to 255
-     *   var_G = ( G / 255 )        //G from 0 to 255
-     *   var_B = ( B / 255 )        //B from 0 to 255
-     *
-     *   if ( var_R > 0.04045 ) var_R = ( ( var_R + 0.055 ) / 1.055 ) ^ 2.4
-     *   else                   var_R = var_R / 12.92
-     *   if ( var_G > 0.04045 ) var_G = ( ( var_G + 0.055 ) / 1.055 ) ^ 2.4
-     *   else                   var_G = var_G / 12.92
-     *   if ( var_B > 0.04045 ) var_B = ( ( var_B + 0.055 ) / 1.055 ) ^ 2.4
-     *   else                   var_B = var_B / 12.92
-     *
-     *   var_R = var_R * 100
-     *   var_G = var_G * 100
-     *   var_B = var_B * 100
-     *
-     *   // Observer. = 2°, Illuminant = D65
-     *   X = var_R * 0.4124 + var_G * 0.3576 + var_B * 0.1805
-     *   Y = var_R * 0.2126 + var_G * 0.7152 + var_B * 0.0722
-     *   Z = var_R * 0.0193 + var_G * 0.1192 + var_B * 0.9505
-     * }</pre>
-     *
-     * @param rgbColor A packed int made up of 4 bytes: alpha, red, green, blue.
-     * @return An array of doubles where each value is a component of the XYZ color space.
-     */
-    private static double[] convertRgbToXyz(int rgbColor) {
-        final double[] comp = {Color.red(rgbColor), Color.green(rgbColor), Color.blue(rgbColor)};
-        for (int i = 0; i < comp.length; i++) {
-            comp[i] /= 255.0;
-            if (comp[i] > 0.04045) {
-                comp[i] = Math.pow((comp[i] + 0.055) / 1.055, 2.4);
-            } else {
-                comp[i] /= 12.92;
-            }
-            comp[i] *= 100;
-        }
-        final double x = (comp[RED] * 0.4124) + (comp[GREEN] * 0.3576) + (comp[BLUE] * 0.1805);
-        final double y = (comp[RED] * 0.2126) + (comp[GREEN] * 0.7152) + (comp[BLUE] * 0.0722);
-        final double z = (comp[RED] * 0.0193) + (comp[GREEN] * 0.1192) + (comp[BLUE] * 0.9505);
-        return new double[] {x, y, z};
-    }
-
-    /**
-     * Conversion from XYZ to CIE-L*a*b* based algorithm as defined by:
-     * http://www.easyrgb.com/index.php?X=MATH&H=07#text7
-     *
-     * <p><pre>
-     * {@code
-     *   var_X = X / ref_X          //ref_X =  95.047   Observer= 2°, Illuminant= D65
-     *   var_Y = Y / ref_Y          //ref_Y = 100.000
-     *   var_Z = Z / ref_Z          //ref_Z = 108.883
-     *
-     *   if ( var_X > 0.008856 ) var_X = var_X ^ ( 1/3 )
-     *   else                    var_X = ( 7.787 * var_X ) + ( 16 / 116 )
-     *   if ( var_Y > 0.008856 ) var_Y = var_Y ^ ( 1/3 )
-     *   else                    var_Y = ( 7.787 * var_Y ) + ( 16 / 116 )
-     *   if ( var_Z > 0.008856 ) var_Z = var_Z ^ ( 1/3 )
-     *   else                    var_Z = ( 7.787 * var_Z ) + ( 16 / 116 )
-     *
-     *   CIE-L* = ( 116 * var_Y ) - 16
-     *   CIE-a* = 500 * ( var_X - var_Y )
-     *   CIE-b* = 200 * ( var_Y - var_Z )
-     * }
-     * </pre>
-     *
-     * @param comp An array of doubles where each value is a component of the XYZ color space.
-     * @return An array of doubles where each value is a component of the CIE-L*a*b* color space.
-     */
-    private static double[] convertXyzToCieLab(double[] comp) {
-        comp[X] /= 95.047;
-        comp[Y] /= 100.0;
-        comp[Z] /= 108.883;
-        for (int i = 0; i < comp.length; i++) {
-            if (comp[i] > 0.008856) {
-                comp[i] = Math.pow(comp[i], (1.0 / 3.0));
-            } else {
-                comp[i] = (7.787 * comp[i]) + (16.0 / 116.0);
-            }
-        }
-        final double l = (116 * comp[Y]) - 16;
-        final double a = 500 * (comp[X] - comp[Y]);
-        final double b = 200 * (comp[Y] - comp[Z]);
-        return new double[] {l, a, b};
-    }
-
-    private static int euclideanDistance(double[] p1, double[] p2) {
-        if (p1.length != p2.length) {
-            return Integer.MAX_VALUE;
-        }
-        double result = 0;
-        for (int i = 0; i < p1.length; i++) {
-            result += Math.pow(p1[i] - p2[i], 2);
-        }
-        return (int) Math.round(Math.sqrt(result));
+        return pixels;
     }
 
-    /**
-     * Crops the border of the array representing an image by hBorderSize
-     * pixels on the left and right borders, and by vBorderSize pixels on the
-     * top and bottom borders (so the width is 2 * hBorderSize smaller and
-     * the height is 2 * vBorderSize smaller), then scales the image up to
-     * match the original size using bilinear interpolation.
-     */
-    private static Bitmap shrinkAndScaleBilinear(
-            Bitmap input, double hBorderSize, double vBorderSize) {
-
-        int width = input.getWidth();
-        int height = input.getHeight();
-
-        // Compute the proper step sizes
-        double xInc = ((double) width - 1 - hBorderSize * 2) / (double) (width - 1);
-        double yInc = ((double) height - 1 - vBorderSize * 2) / (double) (height - 1);
-
-        // Read the input bitmap into RGB arrays.
-        int[] inputPixels = new int[width * height];
-        input.getPixels(inputPixels, 0, width, 0, 0, width, height);
-        int[][] inputRgb = new int[width * height][3];
-        for (int i = 0; i < width * height; ++i) {
-            inputRgb[i][0] = Color.red(inputPixels[i]);
-            inputRgb[i][1] = Color.green(inputPixels[i]);
-            inputRgb[i][2] = Color.blue(inputPixels[i]);
-        }
-        inputPixels = null;
-
-        // Prepare the output buffer.
-        int[] outputPixels = new int[width * height];
-
-        // Start the iteration. The first y coordinate is vBorderSize.
-        double y = vBorderSize;
-        for (int yIndex = 0; yIndex < height; ++yIndex) {
-            // The first x coordinate is hBorderSize.
-            double x = hBorderSize;
-            for (int xIndex = 0; xIndex < width; ++xIndex) {
-                // Determine the square of interest.
-                int left = (int)x;    // This is floor(x).
-                int top = (int)y;     // This is floor(y).
-                int right = left + 1;
-                int bottom = top + 1;
-
-                // (u, v) is the fractional part of (x, y).
-                double u = x - (double)left;
-                double v = y - (double)top;
-
-                // Precompute necessary products to save time.
-                double p00 = (1.0 - u) * (1.0 - v);
-                double p01 = (1.0 - u) * v;
-                double p10 = u * (1.0 - v);
-                double p11 = u * v;
-
-                // Clamp the indices to prevent out-of-bound that may be caused
-                // by round-off error.
-                if (left >= width) left = width - 1;
-                if (top >= height) top = height - 1;
-                if (right >= width) right = width - 1;
-                if (bottom >= height) bottom = height - 1;
-
-                // Sample RGB values from the four corners.
-                int[] rgb00 = inputRgb[top * width + left];
-                int[] rgb01 = inputRgb[bottom * width + left];
-                int[] rgb10 = inputRgb[top * width + right];
-                int[] rgb11 = inputRgb[bottom * width + right];
-
-                // Interpolate each component of RGB separately.
-                int[] mixedColor = new int[3];
-                for (int k = 0; k < 3; ++k) {
-                    mixedColor[k] = (int)Math.round(
-                            p00 * (double) rgb00[k] + p01 * (double) rgb01[k]
-                            + p10 * (double) rgb10[k] + p11 * (double) rgb11[k]);
-                }
-                // Convert RGB to bitmap Color format and store.
-                outputPixels[yIndex * width + xIndex] = Color.rgb(
-                        mixedColor[0], mixedColor[1], mixedColor[2]);
-                x += xInc;
-            }
-            y += yInc;
-        }
-        // Assemble the output buffer into a Bitmap object.
-        return Bitmap.createBitmap(outputPixels, width, height, input.getConfig());
+    private static Difference toDifference(LabColorDifference.Result result, int width) {
+        return new Difference(result.greatestDifference, Pair.create(
+            result.index % width,
+            result.index / width));
     }
 
     /**
      * Calls computeDifference on multiple cropped-and-scaled versions of
      * bitmap2.
+     *
+     * <p>The L*a*b* planes of bitmap1 are computed once, and the candidates are evaluated in
+     * parallel.
      */
     @TargetApi(12)
     public static Difference computeMinimumDifference(
             Bitmap bitmap1, Bitmap bitmap2, Pair<Double, Double>[] borderCrops) {
+        if (bitmap1 == null || bitmap2 == null
+                || bitmap1.getHeight() != bitmap2.getHeight()
+                || bitmap1.getWidth() != bitmap2.getWidth()) {
+            return new Difference(Integer.MAX_VALUE);
+        }
+        if (bitmap1.equals(bitmap2) || bitmap1.sameAs(bitmap2)) {
+            return new Difference(0);
+        }
+        final int width = bitmap1.getWidth();
+        final double[][] crops = new double[borderCrops.length][];
+        for (int i = 0; i < borderCrops.length; i++) {
+            crops[i] = new double[] {borderCrops[i].first, borderCrops[i].second};
+        }
+        final LabColorDifference.Result[] results;
+        try {
+            results = LabColorDifference.greatestDifferences(
+                    LabColorDifference.toLab(getPixels(bitmap1), width, bitmap1.getHeight()),
+                    getPixels(bitmap2), crops, Runtime.getRuntime().availableProcessors());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
 
-        // Compute the difference with the original image (bitmap2) first.
-        Difference minDiff = computeDifference(bitmap1, bitmap2);
-        // Then go through the list of borderCrops.
-        for (Pair<Double, Double> borderCrop : borderCrops) {
-            // Compute the difference between bitmap1 and a transformed
-            // version of bitmap2.
-            Bitmap bitmap2s = shrinkAndScaleBilinear(bitmap2, borderCrop.first, borderCrop.second);
-            Difference d = computeDifference(bitmap1, bitmap2s);
-            // Keep the minimum difference.
-            if (d.greatestPixelDifference < minDiff.greatestPixelDifference) {
-                minDiff = d;
-                minDiff.bestMatchBorderCrop = borderCrop;
+        // Start with the difference with the original image (bitmap2), then keep the minimum
+        // difference over the list of borderCrops.
+        Difference minDiff = toDifference(results[0], width);
+        for (int i = 0; i < borderCrops.length; i++) {
+            if (results[i + 1].greatestDifference < minDiff.greatestPixelDifference) {
+                minDiff = toDifference(results[i + 1], width);
+                minDiff.bestMatchBorderCrop = borderCrops[i];
             }
         }
         return minDiff;
@@ -18,6 +18,10 @@ package android.media.cts;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A simple reader for an IVF file.
@@ -27,6 +31,12 @@ import java.io.RandomAccessFile;
  * This reader is capable of getting frame count, width and height
  * from the header, and access individual frames randomly by
  * frame number.
+ *
+ * The file is memory-mapped and the frame headers are indexed once when the
+ * reader is created. Frames can be read as zero-copy views of the mapping with
+ * {@link #getFrameBuffer}. When frames are read in order, the pages of the
+ * following frames are faulted in ahead of time, in windows of
+ * {@link #setPrefetchFrames} frames.
  */
 
 public class IvfReader {
@@ -36,14 +46,21 @@ public class IvfReader {
     private static final byte HEIGHT_OFFSET = 14;
     private static final byte FRAMECOUNT_OFFSET = 24;
     private static final byte FRAME_HEADER_SIZE = 12;
+    private static final int PAGE_SIZE = 4096;
+    private static final int DEFAULT_PREFETCH_FRAMES = 16;
 
     private RandomAccessFile mIvfFile;
+    private MappedByteBuffer mMappedFile;
     private boolean mHeaderValid;
     private int mWidth;
     private int mHeight;
     private int mFrameCount;
     private int[] mFrameHeads;  // Head of frame header
     private int[] mFrameSizes;  // Frame size excluding header
+    private int mPrefetchFrames = DEFAULT_PREFETCH_FRAMES;
+    private int mLastFrameIndex = -1;
+    private int mPrefetchedUntil;  // Frames before this index have been prefetched
+    private int mPrefetchChecksum;  // Keeps the page touches from being optimized out
 
 
     /**
@@ -58,6 +75,9 @@ public class IvfReader {
      */
     public IvfReader(String filename) throws IOException{
         mIvfFile = new RandomAccessFile(filename, "r");
+        FileChannel channel = mIvfFile.getChannel();
+        mMappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        mMappedFile.order(ByteOrder.LITTLE_ENDIAN);
 
         mHeaderValid = verifyHeader();
         readHeaderData();
@@ -89,12 +109,21 @@ public class IvfReader {
     }
 
     /**
-     * Returns frame count according to header information.
+     * Returns frame count according to header information, limited to the
+     * frames actually present in the file.
      */
     public int getFrameCount(){
         return mFrameCount;
     }
 
+    /**
+     * Sets how many frames ahead are faulted in when frames are read in order.
+     * 0 disables prefetching.
+     */
+    public void setPrefetchFrames(int prefetchFrames) {
+        mPrefetchFrames = Math.max(0, prefetchFrames);
+    }
+
     /**
      * Returns frame data by index.
      *
@@ -102,17 +131,46 @@ public class IvfReader {
      * than 0 and less than frameCount.
      */
     public byte[] readFrame(int frameIndex) throws IOException {
-        if (frameIndex > mFrameCount || frameIndex < 0){
+        ByteBuffer view = getFrameBuffer(frameIndex);
+        if (view == null) {
             return null;
         }
-        int frameSize = mFrameSizes[frameIndex];
-        int frameHead = mFrameHeads[frameIndex];
+        byte[] frame = new byte[view.remaining()];
+        view.get(frame);
+        return frame;
+    }
 
-        byte[] frame = new byte[frameSize];
-        mIvfFile.seek(frameHead + FRAME_HEADER_SIZE);
-        mIvfFile.read(frame);
+    /**
+     * Returns a read-only view of the frame data by index, without copying it.
+     * The view is valid until the reader is closed.
+     *
+     * @param frameIndex index of the frame to read, greater-equal
+     * than 0 and less than frameCount.
+     */
+    public ByteBuffer getFrameBuffer(int frameIndex) {
+        if (frameIndex >= mFrameCount || frameIndex < 0){
+            return null;
+        }
+        if (frameIndex == mLastFrameIndex + 1) {
+            prefetch(frameIndex);
+        }
+        mLastFrameIndex = frameIndex;
 
-        return frame;
+        ByteBuffer view = mMappedFile.asReadOnlyBuffer();
+        int frameStart = mFrameHeads[frameIndex] + FRAME_HEADER_SIZE;
+        view.limit(frameStart + mFrameSizes[frameIndex]);
+        view.position(frameStart);
+        return view.slice();
+    }
+
+    /**
+     * Returns the timestamp stored in the frame header, in the timebase of the file.
+     */
+    public long getFrameTimestamp(int frameIndex) {
+        if (frameIndex >= mFrameCount || frameIndex < 0){
+            throw new IndexOutOfBoundsException("Frame " + frameIndex + " of " + mFrameCount);
+        }
+        return mMappedFile.getLong(mFrameHeads[frameIndex] + 4);
     }
 
     /**
@@ -122,73 +180,78 @@ public class IvfReader {
         mIvfFile.close();
     }
 
-    private boolean verifyHeader() throws IOException{
-        mIvfFile.seek(0);
+    // Touches one byte per page of the next window of frames once sequential
+    // reads reach the end of the previous one.
+    private void prefetch(int frameIndex) {
+        if (mPrefetchFrames == 0 || frameIndex < mPrefetchedUntil - mPrefetchFrames / 2) {
+            return;
+        }
+        int first = Math.max(frameIndex, mPrefetchedUntil);
+        int last = Math.min(mFrameCount, frameIndex + mPrefetchFrames);
+        if (first >= last) {
+            return;
+        }
+        int start = mFrameHeads[first];
+        int end = mFrameHeads[last - 1] + FRAME_HEADER_SIZE + mFrameSizes[last - 1];
+        int checksum = mPrefetchChecksum;
+        for (int offset = start; offset < end; offset += PAGE_SIZE) {
+            checksum += mMappedFile.get(offset);
+        }
+        mPrefetchChecksum = checksum;
+        mPrefetchedUntil = last;
+    }
 
-        if (mIvfFile.length() < HEADER_SIZE){
+    private boolean verifyHeader() {
+        if (mMappedFile.capacity() < HEADER_SIZE){
             return false;
         }
 
         // DKIF signature
-        boolean signatureMatch = ((mIvfFile.readByte() == (byte)'D') &&
-                (mIvfFile.readByte() == (byte)'K') &&
-                (mIvfFile.readByte() == (byte)'I') &&
-                (mIvfFile.readByte() == (byte)'F'));
+        boolean signatureMatch = ((mMappedFile.get(0) == (byte)'D') &&
+                (mMappedFile.get(1) == (byte)'K') &&
+                (mMappedFile.get(2) == (byte)'I') &&
+                (mMappedFile.get(3) == (byte)'F'));
 
         // Fourcc
-        mIvfFile.seek(FOURCC_OFFSET);
-        boolean fourccMatch = ((mIvfFile.readByte() == (byte)'V') &&
-                (mIvfFile.readByte() == (byte)'P') &&
-                (mIvfFile.readByte() == (byte)'8') &&
-                (mIvfFile.readByte() == (byte)'0'));
+        boolean fourccMatch = ((mMappedFile.get(FOURCC_OFFSET) == (byte)'V') &&
+                (mMappedFile.get(FOURCC_OFFSET + 1) == (byte)'P') &&
+                (mMappedFile.get(FOURCC_OFFSET + 2) == (byte)'8') &&
+                (mMappedFile.get(FOURCC_OFFSET + 3) == (byte)'0'));
 
         return signatureMatch && fourccMatch;
     }
 
     private void readHeaderData() throws IOException{
-        // width
-        mIvfFile.seek(WIDTH_OFFSET);
-        mWidth = (int) changeEndianness(mIvfFile.readShort());
-
-        // height
-        mIvfFile.seek(HEIGHT_OFFSET);
-        mHeight = (int) changeEndianness(mIvfFile.readShort());
-
-        // frame count
-        mIvfFile.seek(FRAMECOUNT_OFFSET);
-        mFrameCount = changeEndianness(mIvfFile.readInt());
+        if (mMappedFile.capacity() < HEADER_SIZE) {
+            throw new IOException("IVF file is shorter than its header");
+        }
+        mWidth = mMappedFile.getShort(WIDTH_OFFSET) & 0xFFFF;
+        mHeight = mMappedFile.getShort(HEIGHT_OFFSET) & 0xFFFF;
+        mFrameCount = Math.max(0, mMappedFile.getInt(FRAMECOUNT_OFFSET));
 
         // allocate frame metadata
         mFrameHeads = new int[mFrameCount];
         mFrameSizes = new int[mFrameCount];
     }
 
-    private void readFrameMetadata() throws IOException{
+    private void readFrameMetadata() {
+        int fileSize = mMappedFile.capacity();
         int frameHead = HEADER_SIZE;
-        for(int i = 0; i < mFrameCount; i++){
-            mIvfFile.seek(frameHead);
-            int frameSize = changeEndianness(mIvfFile.readInt());
+        int i = 0;
+        for (; i < mFrameCount; i++){
+            if (frameHead + FRAME_HEADER_SIZE > fileSize) {
+                break;
+            }
+            int frameSize = mMappedFile.getInt(frameHead);
+            if (frameSize < 0 || frameSize > fileSize - frameHead - FRAME_HEADER_SIZE) {
+                break;
+            }
             mFrameHeads[i] = frameHead;
             mFrameSizes[i] = frameSize;
             // next frame
             frameHead += FRAME_HEADER_SIZE + frameSize;
         }
-    }
-
-    private static short changeEndianness(short value){
-        // Rationale for down-cast;
-        // Java Language specification 15.19:
-        //  "The type of the shift expression is the promoted type of the left-hand operand."
-        // Java Language specification 5.6:
-        //  "...if the operand is of compile-time type byte, short, or char,
-        //  unary numeric promotion promotes it to a value of type int by a widening conversion."
-        return (short) (((value << 8) & 0XFF00) | ((value >> 8) & 0X00FF));
-    }
-
-    private static int changeEndianness(int value){
-        return (((value << 24) & 0XFF000000) |
-                ((value << 8)  & 0X00FF0000) |
-                ((value >> 8)  & 0X0000FF00) |
-                ((value >> 24) & 0X000000FF));
+        // Ignore frames announced by the header but missing from the file.
+        mFrameCount = i;
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media.cts;
+
+import android.media.MediaFormat;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Round trip of synthetic IVF files through {@link IvfWriter} and {@link IvfReader}, and their
+ * throughput compared to unbuffered {@link RandomAccessFile} access.
+ *
+ * <p>This runs on the device rather than the host: the reader and writer serve the codec tests
+ * there, and their memory mapping and batched writes are only worth measuring against the flash
+ * storage and page cache of the device.
+ */
+public class IvfReaderWriterTest extends AndroidTestCase {
+    private static final String TAG = "IvfReaderWriterTest";
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int FRAME_COUNT = 3000;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("ivf", ".ivf");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    // Mostly small inter frames with a large key frame every 30 frames, and one frame larger
+    // than the writer buffer.
+    private static byte[][] makeFrames(int count, long seed) {
+        Random random = new Random(seed);
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int size = i == count / 2 ? 600 * 1024
+                    : i % 30 == 0 ? 40000 + random.nextInt(20000) : 500 + random.nextInt(4000);
+            frames[i] = new byte[size];
+            random.nextBytes(frames[i]);
+        }
+        return frames;
+    }
+
+    private void writeFrames(byte[][] frames) throws Exception {
+        IvfWriter writer = new IvfWriter(
+                mFile.getPath(), MediaFormat.MIMETYPE_VIDEO_VP8, WIDTH, HEIGHT);
+        for (int i = 0; i < frames.length; i++) {
+            writer.writeFrame(frames[i], i * 33333L);
+        }
+        writer.close();
+    }
+
+    public void testRoundTrip() throws Exception {
+        byte[][] frames = makeFrames(200, 1);
+        writeFrames(frames);
+
+        IvfReader reader = new IvfReader(mFile.getPath());
+        try {
+            assertTrue(reader.isHeaderValid());
+            assertEquals(WIDTH, reader.getWidth());
+            assertEquals(HEIGHT, reader.getHeight());
+            assertEquals(frames.length, reader.getFrameCount());
+            // Sequential, then random access.
+            for (int i = 0; i < frames.length; i++) {
+                ByteBuffer view = reader.getFrameBuffer(i);
+                byte[] frame = new byte[view.remaining()];
+                view.get(frame);
+                assertTrue(Arrays.equals(frames[i], frame));
+                assertEquals(i * 33333L, reader.getFrameTimestamp(i));
+            }
+            Random random = new Random(2);
+            for (int n = 0; n < 50; n++) {
+                int i = random.nextInt(frames.length);
+                assertTrue(Arrays.equals(frames[i], reader.readFrame(i)));
+            }
+            assertNull(reader.readFrame(frames.length));
+            assertNull(reader.getFrameBuffer(-1));
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testWriteByteBufferFrames() throws Exception {
+        byte[][] frames = makeFrames(20, 3);
+        IvfWriter writer = new IvfWriter(
+                mFile.getPath(), MediaFormat.MIMETYPE_VIDEO_VP9, WIDTH, HEIGHT);
+        for (int i = 0; i < frames.length; i++) {
+            ByteBuffer frame = ByteBuffer.allocateDirect(frames[i].length + 8);
+            frame.position(8);
+            frame.put(frames[i]);
+            frame.position(8);
+            writer.writeFrame(frame, i);
+            assertEquals(8, frame.position());
+        }
+        writer.close();
+
+        IvfReader reader = new IvfReader(mFile.getPath());
+        try {
+            // The reader only recognizes VP8 headers, but frames are still indexed.
+            assertFalse(reader.isHeaderValid());
+            assertEquals(frames.length, reader.getFrameCount());
+            for (int i = 0; i < frames.length; i++) {
+                assertTrue(Arrays.equals(frames[i], reader.readFrame(i)));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testTruncatedFile() throws Exception {
+        byte[][] frames = makeFrames(10, 4);
+        writeFrames(frames);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+
+        IvfReader reader = new IvfReader(mFile.getPath());
+        try {
+            assertEquals(frames.length - 1, reader.getFrameCount());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testThroughput() throws Exception {
+        byte[][] frames = makeFrames(FRAME_COUNT, 5);
+        long totalBytes = 0;
+        for (byte[] frame : frames) {
+            totalBytes += frame.length;
+        }
+
+        // Unbuffered writes of every frame header and frame to another file, as a baseline.
+        File baselineFile = File.createTempFile("ivf", ".ivf");
+        long startNs = System.nanoTime();
+        RandomAccessFile file = new RandomAccessFile(baselineFile, "rw");
+        file.setLength(0);
+        file.seek(32);
+        byte[] frameHeader = new byte[12];
+        for (byte[] frame : frames) {
+            frameHeader[0] = (byte) frame.length;
+            file.write(frameHeader);
+            file.write(frame);
+        }
+        file.close();
+        long baselineWriteNs = System.nanoTime() - startNs;
+        baselineFile.delete();
+
+        startNs = System.nanoTime();
+        writeFrames(frames);
+        long writeNs = System.nanoTime() - startNs;
+
+        // Per frame seek and read into a new array, as a baseline.
+        IvfReader reader = new IvfReader(mFile.getPath());
+        file = new RandomAccessFile(mFile, "r");
+        startNs = System.nanoTime();
+        long position = 32;
+        for (int i = 0; i < reader.getFrameCount(); i++) {
+            file.seek(position);
+            int size = Integer.reverseBytes(file.readInt());
+            byte[] frame = new byte[size];
+            file.seek(position + 12);
+            file.readFully(frame);
+            position += 12 + size;
+        }
+        long baselineReadNs = System.nanoTime() - startNs;
+        file.close();
+
+        ByteBuffer input = ByteBuffer.allocateDirect(1024 * 1024);
+        startNs = System.nanoTime();
+        for (int i = 0; i < reader.getFrameCount(); i++) {
+            input.clear();
+            input.put(reader.getFrameBuffer(i));
+        }
+        long readNs = System.nanoTime() - startNs;
+        reader.close();
+
+        double megabytes = totalBytes / 1e6;
+        Log.i(TAG, String.format(Locale.US,
+                "%d frames, %.1f MB: write %.1f MB/s (unbuffered %.1f MB/s),"
+                + " read %.1f MB/s (per frame seek %.1f MB/s)",
+                FRAME_COUNT, megabytes, megabytes / (writeNs / 1e9),
+                megabytes / (baselineWriteNs / 1e9), megabytes / (readNs / 1e9),
+                megabytes / (baselineReadNs / 1e9)));
+    }
+}
@@ -20,17 +20,32 @@ import android.media.MediaFormat;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 /**
  * Writes an IVF file.
  *
  * IVF format is a simple container format for VP8 encoded frames defined at
  * http://wiki.multimedia.cx/index.php?title=IVF.
+ *
+ * Frames are appended to a direct buffer and written to the file channel in
+ * batches; large frames are written with the buffer in a single gathering
+ * write instead of being copied. The file header is patched in place on {@link #close}.
  */
 
 public class IvfWriter {
     private static final byte HEADER_END = 32;
+    private static final byte FRAME_HEADER_SIZE = 12;
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    // Frames at least this large are not copied into the write buffer.
+    private static final int DIRECT_WRITE_SIZE = WRITE_BUFFER_SIZE / 4;
     private RandomAccessFile mOutputFile;
+    private FileChannel mChannel;
+    private final ByteBuffer mWriteBuffer =
+            ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer[] mGather = new ByteBuffer[2];
     private int mWidth;
     private int mHeight;
     private int mScale;
@@ -63,7 +78,8 @@ public class IvfWriter {
         mRate = rate;
         mFrameCount = 0;
         mOutputFile.setLength(0);
-        mOutputFile.seek(HEADER_END);  // Skip the header for now, as framecount is unknown
+        mChannel = mOutputFile.getChannel();
+        mChannel.position(HEADER_END);  // Skip the header for now, as framecount is unknown
     }
 
     /**
@@ -84,10 +100,18 @@ public class IvfWriter {
      * Finalizes the IVF header and closes the file.
      */
     public void close() throws IOException{
-        // Write header now
-        mOutputFile.seek(0);
-        mOutputFile.write(makeIvfHeader(mFrameCount, mWidth, mHeight, mScale, mRate, mMimeType));
-        mOutputFile.close();
+        try {
+            flush();
+            // Write header now
+            ByteBuffer header = ByteBuffer.wrap(
+                    makeIvfHeader(mFrameCount, mWidth, mHeight, mScale, mRate, mMimeType));
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += mChannel.write(header, position);
+            }
+        } finally {
+            mOutputFile.close();
+        }
     }
 
     /**
@@ -97,11 +121,50 @@ public class IvfWriter {
      * @param timeStamp timestamp of the frame (in accordance to specified timebase)
      */
     public void writeFrame(byte[] frame, long timeStamp) throws IOException {
-        mOutputFile.write(makeIvfFrameHeader(frame.length, timeStamp));
-        mOutputFile.write(frame);
+        writeFrame(ByteBuffer.wrap(frame), timeStamp);
+    }
+
+    /**
+     * Writes a single encoded VP8 frame with its frame header.
+     *
+     * @param frame     the remaining bytes of this buffer are the encoded frame
+     *                  data; its position is not modified
+     * @param timeStamp timestamp of the frame (in accordance to specified timebase)
+     */
+    public void writeFrame(ByteBuffer frame, long timeStamp) throws IOException {
+        int size = frame.remaining();
+        if (mWriteBuffer.remaining() < FRAME_HEADER_SIZE + Math.min(size, DIRECT_WRITE_SIZE)) {
+            flush();
+        }
+        mWriteBuffer.putInt(size);
+        mWriteBuffer.putLong(timeStamp);
+        if (size < DIRECT_WRITE_SIZE) {
+            mWriteBuffer.put(frame.duplicate());
+        } else {
+            // Write the buffered frames, the frame header and the frame data together.
+            mWriteBuffer.flip();
+            mGather[0] = mWriteBuffer;
+            mGather[1] = frame.duplicate();
+            while (mGather[0].hasRemaining() || mGather[1].hasRemaining()) {
+                mChannel.write(mGather);
+            }
+            mGather[1] = null;
+            mWriteBuffer.clear();
+        }
         mFrameCount++;
     }
 
+    /**
+     * Writes the buffered frames to the file.
+     */
+    private void flush() throws IOException {
+        mWriteBuffer.flip();
+        while (mWriteBuffer.hasRemaining()) {
+            mChannel.write(mWriteBuffer);
+        }
+        mWriteBuffer.clear();
+    }
+
     /**
      * Makes a 32 byte file header for IVF format.
      *
@@ -135,20 +198,6 @@ public class IvfWriter {
         return ivfHeader;
     }
 
-    /**
-     * Makes a 12 byte header for an encoded frame.
-     *
-     * @param size      frame size
-     * @param timestamp presentation timestamp of the frame
-     */
-    private static byte[] makeIvfFrameHeader(int size, long timestamp){
-        byte[] frameHeader = new byte[12];
-        lay32Bits(frameHeader, 0, size);
-        lay64bits(frameHeader, 4, timestamp);
-        return frameHeader;
-    }
-
-
     /**
      * Lays least significant 16 bits of an int into 2 items of a byte array.
      *
@@ -177,19 +226,4 @@ public class IvfWriter {
             array[index + i] = (byte) (value >> (i * 8));
         }
     }
-
-    /**
-     * Lays a long int into 8 items of a byte array.
-     *
-     * Note that ordering is little-endian.
-     *
-     * @param array     the array to be modified
-     * @param index     index of the array to start laying down
-     * @param value     the integer to use
-     */
-    private static void lay64bits(byte[] array, int index, long value){
-        for (int i = 0; i < 8; i++){
-            array[index + i] = (byte) (value >> (i * 8));
-        }
-    }
 }
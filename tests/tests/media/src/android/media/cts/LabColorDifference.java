@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media.cts;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Greatest CIE L*a*b* pixel difference between packed ARGB images, as computed by
+ * {@link BitmapCompare}, on flat primitive arrays.
+ *
+ * <p>The sRGB to linear conversion and the cube root of the XYZ to L*a*b* conversion are read from
+ * lookup tables instead of calling {@link Math#pow}. The L*a*b* planes of the reference image are
+ * stored as separate {@code float[]}s; the pixels of the compared images are converted on the fly,
+ * so that several border crop candidates can be evaluated in parallel without holding their
+ * L*a*b* planes.
+ *
+ * <p>The conversions follow http://www.easyrgb.com/index.php?X=MATH&H=02#text2 (RGB to XYZ) and
+ * http://www.easyrgb.com/index.php?X=MATH&H=07#text7 (XYZ to CIE-L*a*b*).
+ */
+final class LabColorDifference {
+
+    // Reference white, Observer = 2°, Illuminant = D65.
+    private static final double REF_X = 95.047;
+    private static final double REF_Y = 100.0;
+    private static final double REF_Z = 108.883;
+
+    /** sRGB component (0..255) to linear component scaled to 0..100. */
+    private static final double[] SRGB_TO_LINEAR = new double[256];
+
+    /**
+     * Samples of f(t) = t ^ (1/3) above 0.008856, 7.787 * t + 16 / 116 below, for t in
+     * [0, CBRT_MAX_T], linearly interpolated. X / ref_X, Y / ref_Y and Z / ref_Z never exceed
+     * 1.0002 for 8-bit sRGB input.
+     */
+    private static final int CBRT_STEPS = 8192;
+    private static final double CBRT_MAX_T = 1.0625;
+    private static final double CBRT_SCALE = CBRT_STEPS / CBRT_MAX_T;
+    private static final float[] CBRT = new float[CBRT_STEPS + 2];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            double c = i / 255.0;
+            if (c > 0.04045) {
+                c = Math.pow((c + 0.055) / 1.055, 2.4);
+            } else {
+                c /= 12.92;
+            }
+            SRGB_TO_LINEAR[i] = c * 100;
+        }
+        for (int i = 0; i < CBRT.length; i++) {
+            double t = i / CBRT_SCALE;
+            CBRT[i] = (float) (t > 0.008856 ? Math.cbrt(t) : (7.787 * t) + (16.0 / 116.0));
+        }
+    }
+
+    private LabColorDifference() {}
+
+    private static float f(double t) {
+        double position = t * CBRT_SCALE;
+        int index = (int) position;
+        if (index < 0) {
+            return CBRT[0];
+        }
+        if (index >= CBRT_STEPS) {
+            return (float) (t > 0.008856 ? Math.cbrt(t) : (7.787 * t) + (16.0 / 116.0));
+        }
+        float fraction = (float) (position - index);
+        return CBRT[index] + fraction * (CBRT[index + 1] - CBRT[index]);
+    }
+
+    /** L*a*b* planes of an image, in row major order. */
+    static final class LabImage {
+        final int width;
+        final int height;
+        final float[] l;
+        final float[] a;
+        final float[] b;
+
+        LabImage(int width, int height) {
+            this.width = width;
+            this.height = height;
+            l = new float[width * height];
+            a = new float[width * height];
+            b = new float[width * height];
+        }
+    }
+
+    /** Greatest difference and the index of the first pixel where it was found, or -1. */
+    static final class Result {
+        final int greatestDifference;
+        final int index;
+
+        Result(int greatestDifference, int index) {
+            this.greatestDifference = greatestDifference;
+            this.index = index;
+        }
+    }
+
+    /** Converts packed ARGB pixels to L*a*b* planes; alpha is ignored. */
+    static LabImage toLab(int[] argb, int width, int height) {
+        LabImage lab = new LabImage(width, height);
+        for (int i = 0; i < argb.length; i++) {
+            int color = argb[i];
+            double r = SRGB_TO_LINEAR[(color >> 16) & 0xff];
+            double g = SRGB_TO_LINEAR[(color >> 8) & 0xff];
+            double b = SRGB_TO_LINEAR[color & 0xff];
+            float x = f(((r * 0.4124) + (g * 0.3576) + (b * 0.1805)) / REF_X);
+            float y = f(((r * 0.2126) + (g * 0.7152) + (b * 0.0722)) / REF_Y);
+            float z = f(((r * 0.0193) + (g * 0.1192) + (b * 0.9505)) / REF_Z);
+            lab.l[i] = (116 * y) - 16;
+            lab.a[i] = 500 * (x - y);
+            lab.b[i] = 200 * (y - z);
+        }
+        return lab;
+    }
+
+    /**
+     * Computes the greatest rounded euclidean distance between the L*a*b* pixels of
+     * {@code reference} and the packed ARGB pixels {@code argb} of the same size.
+     */
+    static Result greatestDifference(LabImage reference, int[] argb) {
+        int greatestDifference = 0;
+        int greatestDifferenceIndex = -1;
+        // Smallest squared distance that rounds above greatestDifference.
+        double threshold = 0.25;
+        for (int i = 0; i < argb.length; i++) {
+            int color = argb[i];
+            double r = SRGB_TO_LINEAR[(color >> 16) & 0xff];
+            double g = SRGB_TO_LINEAR[(color >> 8) & 0xff];
+            double b = SRGB_TO_LINEAR[color & 0xff];
+            float x = f(((r * 0.4124) + (g * 0.3576) + (b * 0.1805)) / REF_X);
+            float y = f(((r * 0.2126) + (g * 0.7152) + (b * 0.0722)) / REF_Y);
+            float z = f(((r * 0.0193) + (g * 0.1192) + (b * 0.9505)) / REF_Z);
+            double dl = reference.l[i] - ((116 * y) - 16);
+            double da = reference.a[i] - (500 * (x - y));
+            double db = reference.b[i] - (200 * (y - z));
+            double squaredDistance = dl * dl + da * da + db * db;
+            if (squaredDistance >= threshold) {
+                int difference = (int) Math.round(Math.sqrt(squaredDistance));
+                if (difference > greatestDifference) {
+                    greatestDifference = difference;
+                    greatestDifferenceIndex = i;
+                    threshold = (difference + 0.5) * (difference + 0.5);
+                }
+            }
+        }
+        return new Result(greatestDifference, greatestDifferenceIndex);
+    }
+
+    /**
+     * Crops the border of a packed RGB image by hBorderSize pixels on the left and right borders,
+     * and by vBorderSize pixels on the top and bottom borders, then scales it back up to its
+     * original size using bilinear interpolation. The alpha of the output is opaque.
+     */
+    static int[] shrinkAndScaleBilinear(
+            int[] input, int width, int height, double hBorderSize, double vBorderSize) {
+        // Compute the proper step sizes
+        double xInc = ((double) width - 1 - hBorderSize * 2) / (double) (width - 1);
+        double yInc = ((double) height - 1 - vBorderSize * 2) / (double) (height - 1);
+
+        int[] output = new int[width * height];
+        // The first y coordinate is vBorderSize.
+        double y = vBorderSize;
+        for (int yIndex = 0; yIndex < height; ++yIndex) {
+            int top = (int) y;     // This is floor(y).
+            double v = y - (double) top;
+            int bottom = top + 1;
+            // Clamp the indices to prevent out-of-bound that may be caused by round-off error.
+            if (top >= height) top = height - 1;
+            if (bottom >= height) bottom = height - 1;
+            int topRow = top * width;
+            int bottomRow = bottom * width;
+
+            // The first x coordinate is hBorderSize.
+            double x = hBorderSize;
+            for (int xIndex = 0; xIndex < width; ++xIndex) {
+                int left = (int) x;    // This is floor(x).
+                double u = x - (double) left;
+                int right = left + 1;
+                if (left >= width) left = width - 1;
+                if (right >= width) right = width - 1;
+
+                double p00 = (1.0 - u) * (1.0 - v);
+                double p01 = (1.0 - u) * v;
+                double p10 = u * (1.0 - v);
+                double p11 = u * v;
+
+                int c00 = input[topRow + left];
+                int c01 = input[bottomRow + left];
+                int c10 = input[topRow + right];
+                int c11 = input[bottomRow + right];
+
+                int mixed = 0xff000000;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    int component = (int) Math.round(
+                            p00 * (double) ((c00 >> shift) & 0xff)
+                            + p01 * (double) ((c01 >> shift) & 0xff)
+                            + p10 * (double) ((c10 >> shift) & 0xff)
+                            + p11 * (double) ((c11 >> shift) & 0xff));
+                    mixed |= component << shift;
+                }
+                output[yIndex * width + xIndex] = mixed;
+                x += xInc;
+            }
+            y += yInc;
+        }
+        return output;
+    }
+
+    /**
+     * Computes the greatest difference between {@code reference} and {@code argb}, then between
+     * {@code reference} and each border crop of {@code argb} given as (hBorderSize, vBorderSize)
+     * pairs, using up to {@code threadCount} threads.
+     *
+     * @return the result for {@code argb} followed by the result of each border crop
+     */
+    static Result[] greatestDifferences(final LabImage reference, final int[] argb,
+            double[][] borderCrops, int threadCount) throws InterruptedException {
+        final int width = reference.width;
+        final int height = reference.height;
+        List<Callable<Result>> tasks = new ArrayList<Callable<Result>>();
+        tasks.add(new Callable<Result>() {
+            @Override
+            public Result call() {
+                return greatestDifference(reference, argb);
+            }
+        });
+        for (final double[] borderCrop : borderCrops) {
+            tasks.add(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return greatestDifference(reference, shrinkAndScaleBilinear(
+                            argb, width, height, borderCrop[0], borderCrop[1]));
+                }
+            });
+        }
+
+        Result[] results = new Result[tasks.size()];
+        int threads = Math.max(1, Math.min(threadCount, tasks.size()));
+        if (threads == 1) {
+            for (int i = 0; i < results.length; i++) {
+                try {
+                    results[i] = tasks.get(i).call();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = executor.invokeAll(tasks);
+            for (int i = 0; i < results.length; i++) {
+                try {
+                    results[i] = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media.cts;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Verification of {@link LabColorDifference} against the per-pixel double precision conversion
+ * previously done by {@link BitmapCompare}, and its throughput on 1080p frames.
+ */
+public class LabColorDifferenceTest extends AndroidTestCase {
+    private static final String TAG = "LabColorDifferenceTest";
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    private static final double[][] BORDER_CROPS = {
+        {0.5, 0.0}, {0.5, 0.5}, {0.0, 0.5}, {1.0, 0.0}, {1.0, 1.0}, {0.0, 1.0}
+    };
+
+    private static int[] makeImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        // Smooth gradients with noise, close to a decoded frame.
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(8)) & 0xff;
+                int g = (y * 255 / height + random.nextInt(8)) & 0xff;
+                int b = ((x + y) * 255 / (width + height) + random.nextInt(8)) & 0xff;
+                pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] distort(int[] pixels, int maxError, long seed) {
+        Random random = new Random(seed);
+        int[] distorted = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int color = 0xff000000;
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                int component = ((pixels[i] >> shift) & 0xff)
+                        + random.nextInt(2 * maxError + 1) - maxError;
+                color |= Math.max(0, Math.min(255, component)) << shift;
+            }
+            distorted[i] = color;
+        }
+        return distorted;
+    }
+
+    private static double[] referenceLab(int color) {
+        double[] comp = {(color >> 16) & 0xff, (color >> 8) & 0xff, color & 0xff};
+        for (int i = 0; i < comp.length; i++) {
+            comp[i] /= 255.0;
+            if (comp[i] > 0.04045) {
+                comp[i] = Math.pow((comp[i] + 0.055) / 1.055, 2.4);
+            } else {
+                comp[i] /= 12.92;
+            }
+            comp[i] *= 100;
+        }
+        double[] xyz = {
+            ((comp[0] * 0.4124) + (comp[1] * 0.3576) + (comp[2] * 0.1805)) / 95.047,
+            ((comp[0] * 0.2126) + (comp[1] * 0.7152) + (comp[2] * 0.0722)) / 100.0,
+            ((comp[0] * 0.0193) + (comp[1] * 0.1192) + (comp[2] * 0.9505)) / 108.883
+        };
+        for (int i = 0; i < xyz.length; i++) {
+            if (xyz[i] > 0.008856) {
+                xyz[i] = Math.pow(xyz[i], (1.0 / 3.0));
+            } else {
+                xyz[i] = (7.787 * xyz[i]) + (16.0 / 116.0);
+            }
+        }
+        return new double[] {
+            (116 * xyz[1]) - 16, 500 * (xyz[0] - xyz[1]), 200 * (xyz[1] - xyz[2])
+        };
+    }
+
+    private static int referenceGreatestDifference(int[] pixels1, int[] pixels2) {
+        int greatestDifference = 0;
+        for (int i = 0; i < pixels1.length; i++) {
+            double[] lab1 = referenceLab(pixels1[i]);
+            double[] lab2 = referenceLab(pixels2[i]);
+            double result = 0;
+            for (int k = 0; k < 3; k++) {
+                result += Math.pow(lab1[k] - lab2[k], 2);
+            }
+            greatestDifference =
+                    Math.max(greatestDifference, (int) Math.round(Math.sqrt(result)));
+        }
+        return greatestDifference;
+    }
+
+    public void testMatchesDoublePrecisionConversion() {
+        int width = 320;
+        int height = 180;
+        int[] pixels1 = makeImage(width, height, 1);
+        for (int maxError : new int[] {0, 1, 3, 10, 60}) {
+            int[] pixels2 = distort(pixels1, maxError, maxError);
+            LabColorDifference.Result result = LabColorDifference.greatestDifference(
+                    LabColorDifference.toLab(pixels1, width, height), pixels2);
+            int expected = referenceGreatestDifference(pixels1, pixels2);
+            assertTrue("max error " + maxError + ": " + result.greatestDifference
+                    + " vs " + expected, Math.abs(result.greatestDifference - expected) <= 1);
+            if (result.greatestDifference == 0) {
+                assertEquals(-1, result.index);
+            } else {
+                assertTrue(result.index >= 0 && result.index < pixels1.length);
+            }
+        }
+    }
+
+    public void testAllColorsMatchDoublePrecisionConversion() {
+        // Every 8-bit value of each channel against black and white.
+        int[] colors = new int[256 * 3];
+        for (int i = 0; i < 256; i++) {
+            colors[i] = 0xff000000 | (i << 16);
+            colors[256 + i] = 0xff000000 | (i << 8);
+            colors[512 + i] = 0xff000000 | i;
+        }
+        for (int background : new int[] {0xff000000, 0xffffffff}) {
+            LabColorDifference.LabImage lab =
+                    LabColorDifference.toLab(new int[] {background}, 1, 1);
+            for (int color : colors) {
+                int actual = LabColorDifference.greatestDifference(
+                        lab, new int[] {color}).greatestDifference;
+                int expected = referenceGreatestDifference(
+                        new int[] {background}, new int[] {color});
+                assertTrue(Math.abs(actual - expected) <= 1);
+            }
+        }
+    }
+
+    public void testBorderCropsMatchSequentialEvaluation() throws Exception {
+        int width = 160;
+        int height = 90;
+        int[] pixels1 = makeImage(width, height, 2);
+        int[] pixels2 = distort(pixels1, 5, 3);
+        LabColorDifference.LabImage lab1 = LabColorDifference.toLab(pixels1, width, height);
+
+        LabColorDifference.Result[] parallel =
+                LabColorDifference.greatestDifferences(lab1, pixels2, BORDER_CROPS, 4);
+        assertEquals(BORDER_CROPS.length + 1, parallel.length);
+        assertEquals(LabColorDifference.greatestDifference(lab1, pixels2).greatestDifference,
+                parallel[0].greatestDifference);
+        for (int i = 0; i < BORDER_CROPS.length; i++) {
+            LabColorDifference.Result sequential = LabColorDifference.greatestDifference(lab1,
+                    LabColorDifference.shrinkAndScaleBilinear(pixels2, width, height,
+                            BORDER_CROPS[i][0], BORDER_CROPS[i][1]));
+            assertEquals(sequential.greatestDifference, parallel[i + 1].greatestDifference);
+            assertEquals(sequential.index, parallel[i + 1].index);
+        }
+
+        // A zero border crop leaves the image unchanged.
+        int[] unchanged =
+                LabColorDifference.shrinkAndScaleBilinear(pixels1, width, height, 0.0, 0.0);
+        for (int i = 0; i < pixels1.length; i++) {
+            assertEquals(pixels1[i], unchanged[i]);
+        }
+    }
+
+    public void testThroughput() throws Exception {
+        int[] pixels1 = makeImage(WIDTH, HEIGHT, 4);
+        int[] pixels2 = distort(pixels1, 4, 5);
+
+        long startNs = System.nanoTime();
+        referenceGreatestDifference(pixels1, pixels2);
+        long referenceNs = System.nanoTime() - startNs;
+
+        startNs = System.nanoTime();
+        LabColorDifference.LabImage lab1 = LabColorDifference.toLab(pixels1, WIDTH, HEIGHT);
+        LabColorDifference.greatestDifference(lab1, pixels2);
+        long singleNs = System.nanoTime() - startNs;
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        startNs = System.nanoTime();
+        LabColorDifference.greatestDifferences(
+                LabColorDifference.toLab(pixels1, WIDTH, HEIGHT), pixels2, BORDER_CROPS, threads);
+        long candidatesNs = System.nanoTime() - startNs;
+
+        Log.i(TAG, String.format(Locale.US,
+                "%dx%d: reference %.1f ms, lookup tables %.1f ms, %d candidates on %d threads"
+                + " %.1f ms", WIDTH, HEIGHT, referenceNs / 1e6, singleNs / 1e6,
+                BORDER_CROPS.length + 1, threads, candidatesNs / 1e6));
+    }
+}
@@ -588,13 +588,14 @@ public class VpxCodecTestBase extends AndroidTestCase {
             if (!sawInputEOS) {
                 int inputBufIndex = decoder.dequeueInputBuffer(DEFAULT_DEQUEUE_TIMEOUT_US);
                 if (inputBufIndex >= 0) {
-                    byte[] frame = ivf.readFrame(inputFrameIndex);
+                    ByteBuffer frame = ivf.getFrameBuffer(inputFrameIndex);
 
                     if (inputFrameIndex == frameCount - 1) {
                         Log.d(TAG, "  Input EOS for frame # " + inputFrameIndex);
                         sawInputEOS = true;
                     }
 
+                    int frameSize = frame.remaining();
                     inputBuffers[inputBufIndex].clear();
                     inputBuffers[inputBufIndex].put(frame);
                     inputBuffers[inputBufIndex].rewind();
@@ -603,7 +604,7 @@ public class VpxCodecTestBase extends AndroidTestCase {
                     decoder.queueInputBuffer(
                             inputBufIndex,
                             0,  // offset
-                            frame.length,
+                            frameSize,
                             inPresentationTimeUs,
                             sawInputEOS ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
 
@@ -1929,22 +1930,6 @@ public class VpxCodecTestBase extends AndroidTestCase {
         public double mMinimumPSNR;
     }
 
-    /**
-     * Calculates PSNR value between two video frames.
-     */
-    private double computePSNR(byte[] data0, byte[] data1) {
-        long squareError = 0;
-        assertTrue(data0.length == data1.length);
-        int length = data0.length;
-        for (int i = 0 ; i < length; i++) {
-            int diff = ((int)data0[i] & 0xff) - ((int)data1[i] & 0xff);
-            squareError += diff * diff;
-        }
-        double meanSquareError = (double)squareError / length;
-        double psnr = 10 * Math.log10((double)255 * 255 / meanSquareError);
-        return psnr;
-    }
-
     /**
      * Calculates average and minimum PSNR values between
      * set of reference and decoded video frames.
@@ -1957,18 +1942,14 @@ public class VpxCodecTestBase extends AndroidTestCase {
             int width,
             int height) throws Exception {
         VpxDecodingStatistics statistics = new VpxDecodingStatistics();
-        InputStream referenceStream =
-                OpenFileOrResourceId(referenceYuvFilename, referenceYuvRawId);
-        InputStream decodedStream = new FileInputStream(decodedYuvFilename);
-
-        int ySize = width * height;
-        int uvSize = width * height / 4;
-        byte[] yRef = new byte[ySize];
-        byte[] yDec = new byte[ySize];
-        byte[] uvRef = new byte[uvSize];
-        byte[] uvDec = new byte[uvSize];
-
-        int frames = 0;
+        ByteBuffer reference = referenceYuvFilename != null
+                ? YuvQualityMetrics.mapFile(referenceYuvFilename)
+                : YuvQualityMetrics.mapResource(mResources, referenceYuvRawId);
+        ByteBuffer decoded = YuvQualityMetrics.mapFile(decodedYuvFilename);
+        YuvQualityMetrics.FrameMetrics[] metrics =
+                new YuvQualityMetrics(width, height).compute(reference, decoded);
+
+        int frames = metrics.length;
         double averageYPSNR = 0;
         double averageUPSNR = 0;
         double averageVPSNR = 0;
@@ -1977,52 +1958,24 @@ public class VpxCodecTestBase extends AndroidTestCase {
         double minimumVPSNR = Integer.MAX_VALUE;
         int minimumPSNRFrameIndex = 0;
 
-        while (true) {
-            // Calculate Y PSNR.
-            int bytesReadRef = referenceStream.read(yRef);
-            int bytesReadDec = decodedStream.read(yDec);
-            if (bytesReadDec == -1) {
-                break;
-            }
-            if (bytesReadRef == -1) {
-                // Reference file wrapping up
-                referenceStream.close();
-                referenceStream =
-                        OpenFileOrResourceId(referenceYuvFilename, referenceYuvRawId);
-                bytesReadRef = referenceStream.read(yRef);
-            }
-            double curYPSNR = computePSNR(yRef, yDec);
-            averageYPSNR += curYPSNR;
-            minimumYPSNR = Math.min(minimumYPSNR, curYPSNR);
-            double curMinimumPSNR = curYPSNR;
-
-            // Calculate U PSNR.
-            bytesReadRef = referenceStream.read(uvRef);
-            bytesReadDec = decodedStream.read(uvDec);
-            double curUPSNR = computePSNR(uvRef, uvDec);
-            averageUPSNR += curUPSNR;
-            minimumUPSNR = Math.min(minimumUPSNR, curUPSNR);
-            curMinimumPSNR = Math.min(curMinimumPSNR, curUPSNR);
-
-            // Calculate V PSNR.
-            bytesReadRef = referenceStream.read(uvRef);
-            bytesReadDec = decodedStream.read(uvDec);
-            double curVPSNR = computePSNR(uvRef, uvDec);
-            averageVPSNR += curVPSNR;
-            minimumVPSNR = Math.min(minimumVPSNR, curVPSNR);
-            curMinimumPSNR = Math.min(curMinimumPSNR, curVPSNR);
+        for (YuvQualityMetrics.FrameMetrics frame : metrics) {
+            averageYPSNR += frame.mYPSNR;
+            averageUPSNR += frame.mUPSNR;
+            averageVPSNR += frame.mVPSNR;
+            minimumYPSNR = Math.min(minimumYPSNR, frame.mYPSNR);
+            minimumUPSNR = Math.min(minimumUPSNR, frame.mUPSNR);
+            minimumVPSNR = Math.min(minimumVPSNR, frame.mVPSNR);
 
             // Frame index for minimum PSNR value - help to detect possible distortions
+            double curMinimumPSNR = frame.getMinimumPSNR();
             if (curMinimumPSNR < statistics.mMinimumPSNR) {
                 statistics.mMinimumPSNR = curMinimumPSNR;
-                minimumPSNRFrameIndex = frames;
+                minimumPSNRFrameIndex = frame.mFrameIndex;
             }
 
             String logStr = String.format(Locale.US, "PSNR #%d: Y: %.2f. U: %.2f. V: %.2f",
-                    frames, curYPSNR, curUPSNR, curVPSNR);
+                    frame.mFrameIndex, frame.mYPSNR, frame.mUPSNR, frame.mVPSNR);
             Log.v(TAG, logStr);
-
-            frames++;
         }
 
         averageYPSNR /= frames;
@@ -2040,9 +1993,6 @@ public class VpxCodecTestBase extends AndroidTestCase {
                 minimumYPSNR, minimumUPSNR, minimumVPSNR,
                 statistics.mMinimumPSNR, minimumPSNRFrameIndex);
         Log.d(TAG, logStr);
-
-        referenceStream.close();
-        decodedStream.close();
         return statistics;
     }
 }
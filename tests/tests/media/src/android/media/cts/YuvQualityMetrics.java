@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media.cts;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes per-frame quality metrics between a reference and a decoded I420 (YUV 4:2:0 planar)
+ * sequence.
+ *
+ * Both sequences are read from {@link ByteBuffer}s, typically memory-mapped files, so that no
+ * frame is read through an {@link InputStream}. Frames are split into contiguous ranges that are
+ * processed in parallel. When the decoded sequence is longer than the reference, the reference
+ * wraps around, as the encoder input does.
+ */
+public class YuvQualityMetrics {
+    // SSIM constants for 8-bit samples, and the window size and step over the luma plane.
+    private static final double SSIM_C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double SSIM_C2 = (0.03 * 255) * (0.03 * 255);
+    private static final int SSIM_WINDOW = 8;
+    private static final int SSIM_STEP = 4;
+
+    /**
+     * Quality metrics of one decoded frame.
+     */
+    public static class FrameMetrics {
+        public int mFrameIndex;
+        public double mYPSNR;
+        public double mUPSNR;
+        public double mVPSNR;
+        /** Mean SSIM of the luma plane, or NaN if SSIM was not requested. */
+        public double mYSSIM = Double.NaN;
+
+        public double getMinimumPSNR() {
+            return Math.min(mYPSNR, Math.min(mUPSNR, mVPSNR));
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mYSize;
+    private final int mUVSize;
+    private final int mFrameSize;
+    private boolean mComputeSSIM = false;
+    private int mThreadCount = Runtime.getRuntime().availableProcessors();
+
+    public YuvQualityMetrics(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mYSize = width * height;
+        mUVSize = width * height / 4;
+        mFrameSize = mYSize + 2 * mUVSize;
+    }
+
+    /** Also computes the luma SSIM of every frame. Off by default. */
+    public YuvQualityMetrics setComputeSSIM(boolean computeSSIM) {
+        mComputeSSIM = computeSSIM;
+        return this;
+    }
+
+    /** Sets the number of frame ranges processed in parallel. Defaults to the CPU count. */
+    public YuvQualityMetrics setThreadCount(int threadCount) {
+        mThreadCount = Math.max(1, threadCount);
+        return this;
+    }
+
+    /**
+     * Memory-maps a file read-only.
+     */
+    public static ByteBuffer mapFile(String filename) throws IOException {
+        FileInputStream stream = new FileInputStream(filename);
+        try {
+            FileChannel channel = stream.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Memory-maps a raw resource if it is stored uncompressed in the APK, otherwise reads it into
+     * a heap buffer.
+     */
+    public static ByteBuffer mapResource(Resources resources, int resourceId) throws IOException {
+        AssetFileDescriptor afd = null;
+        try {
+            afd = resources.openRawResourceFd(resourceId);
+        } catch (Resources.NotFoundException e) {
+            // Compressed resource, read it below.
+        }
+        if (afd != null) {
+            FileInputStream stream = afd.createInputStream();
+            try {
+                return stream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        afd.getStartOffset(), afd.getLength());
+            } finally {
+                stream.close();
+                afd.close();
+            }
+        }
+        InputStream stream = resources.openRawResource(resourceId);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[64 * 1024];
+            int bytesRead;
+            while ((bytesRead = stream.read(chunk)) != -1) {
+                bytes.write(chunk, 0, bytesRead);
+            }
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Computes the metrics of every complete frame of {@code decoded} against the corresponding
+     * frame of {@code reference}. The buffers are read from their current position and are not
+     * modified.
+     *
+     * @return the metrics of each decoded frame, in frame order
+     */
+    public FrameMetrics[] compute(ByteBuffer reference, ByteBuffer decoded) throws Exception {
+        final int referenceFrames = reference.remaining() / mFrameSize;
+        final int frames = decoded.remaining() / mFrameSize;
+        if (referenceFrames == 0) {
+            throw new IllegalArgumentException("Reference sequence has no complete frame");
+        }
+        final FrameMetrics[] metrics = new FrameMetrics[frames];
+        int threads = Math.min(mThreadCount, Math.max(1, frames));
+        if (threads == 1) {
+            new FrameRangeTask(reference, decoded, referenceFrames, 0, frames, metrics).call();
+            return metrics;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                int start = (int) ((long) frames * t / threads);
+                int end = (int) ((long) frames * (t + 1) / threads);
+                futures.add(executor.submit(new FrameRangeTask(
+                        reference, decoded, referenceFrames, start, end, metrics)));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw (Exception) e.getCause();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return metrics;
+    }
+
+    /**
+     * Computes the metrics of frames [start, end) with its own buffer views and scratch planes.
+     */
+    private class FrameRangeTask implements Callable<Void> {
+        private final ByteBuffer mReference;
+        private final ByteBuffer mDecoded;
+        private final int mReferenceFrames;
+        private final int mStart;
+        private final int mEnd;
+        private final FrameMetrics[] mMetrics;
+        private final byte[] mRefFrame = new byte[mFrameSize];
+        private final byte[] mDecFrame = new byte[mFrameSize];
+
+        FrameRangeTask(ByteBuffer reference, ByteBuffer decoded, int referenceFrames,
+                int start, int end, FrameMetrics[] metrics) {
+            mReference = reference.duplicate();
+            mDecoded = decoded.duplicate();
+            mReferenceFrames = referenceFrames;
+            mStart = start;
+            mEnd = end;
+            mMetrics = metrics;
+        }
+
+        @Override
+        public Void call() {
+            int referenceBase = mReference.position();
+            int decodedBase = mDecoded.position();
+            for (int i = mStart; i < mEnd; i++) {
+                mReference.position(referenceBase + (i % mReferenceFrames) * mFrameSize);
+                mReference.get(mRefFrame);
+                mDecoded.position(decodedBase + i * mFrameSize);
+                mDecoded.get(mDecFrame);
+
+                FrameMetrics frame = new FrameMetrics();
+                frame.mFrameIndex = i;
+                frame.mYPSNR = computePSNR(mRefFrame, mDecFrame, 0, mYSize);
+                frame.mUPSNR = computePSNR(mRefFrame, mDecFrame, mYSize, mUVSize);
+                frame.mVPSNR = computePSNR(mRefFrame, mDecFrame, mYSize + mUVSize, mUVSize);
+                if (mComputeSSIM) {
+                    frame.mYSSIM = computeSSIM(mRefFrame, mDecFrame, mWidth, mHeight);
+                }
+                mMetrics[i] = frame;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Calculates the PSNR between {@code length} samples of two planes starting at {@code offset}.
+     */
+    static double computePSNR(byte[] data0, byte[] data1, int offset, int length) {
+        long squareError = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int diff = (data0[i] & 0xff) - (data1[i] & 0xff);
+            squareError += diff * diff;
+        }
+        double meanSquareError = (double) squareError / length;
+        return 10 * Math.log10((double) 255 * 255 / meanSquareError);
+    }
+
+    /**
+     * Calculates the mean SSIM of the {@code width} x {@code height} luma planes at the start of
+     * two frames, over 8x8 windows every 4 samples in both directions.
+     */
+    static double computeSSIM(byte[] frame0, byte[] frame1, int width, int height) {
+        double ssimSum = 0;
+        int windows = 0;
+        for (int y = 0; y + SSIM_WINDOW <= height; y += SSIM_STEP) {
+            for (int x = 0; x + SSIM_WINDOW <= width; x += SSIM_STEP) {
+                long sum0 = 0, sum1 = 0, sumSq0 = 0, sumSq1 = 0, sumCross = 0;
+                for (int j = 0; j < SSIM_WINDOW; j++) {
+                    int row = (y + j) * width + x;
+                    for (int i = 0; i < SSIM_WINDOW; i++) {
+                        int s0 = frame0[row + i] & 0xff;
+                        int s1 = frame1[row + i] & 0xff;
+                        sum0 += s0;
+                        sum1 += s1;
+                        sumSq0 += s0 * s0;
+                        sumSq1 += s1 * s1;
+                        sumCross += s0 * s1;
+                    }
+                }
+                double n = SSIM_WINDOW * SSIM_WINDOW;
+                double mean0 = sum0 / n;
+                double mean1 = sum1 / n;
+                double variance0 = sumSq0 / n - mean0 * mean0;
+                double variance1 = sumSq1 / n - mean1 * mean1;
+                double covariance = sumCross / n - mean0 * mean1;
+                ssimSum += ((2 * mean0 * mean1 + SSIM_C1) * (2 * covariance + SSIM_C2))
+                        / ((mean0 * mean0 + mean1 * mean1 + SSIM_C1)
+                                * (variance0 + variance1 + SSIM_C2));
+                windows++;
+            }
+        }
+        return windows == 0 ? 1.0 : ssimSum / windows;
+    }
+}
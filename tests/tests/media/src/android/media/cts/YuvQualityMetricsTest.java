@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media.cts;
+
+import android.test.AndroidTestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Verification of {@link YuvQualityMetrics} against a straightforward plane by plane
+ * computation. CIF frames keep the sequences small enough for the default heap.
+ */
+public class YuvQualityMetricsTest extends AndroidTestCase {
+    private static final int WIDTH = 352;
+    private static final int HEIGHT = 288;
+    private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+
+    private static byte[] makeSequence(int frames, long seed) {
+        byte[] data = new byte[frames * FRAME_SIZE];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    // Adds a bounded, frame dependent error to every sample.
+    private static byte[] distort(byte[] reference, int frames, int maxError) {
+        byte[] decoded = new byte[frames * FRAME_SIZE];
+        int referenceFrames = reference.length / FRAME_SIZE;
+        Random random = new Random(frames);
+        for (int i = 0; i < frames; i++) {
+            int refOffset = (i % referenceFrames) * FRAME_SIZE;
+            for (int j = 0; j < FRAME_SIZE; j++) {
+                int sample = (reference[refOffset + j] & 0xff)
+                        + random.nextInt(2 * maxError + 1) - maxError;
+                decoded[i * FRAME_SIZE + j] = (byte) Math.max(0, Math.min(255, sample));
+            }
+        }
+        return decoded;
+    }
+
+    private static double planePSNR(byte[] ref, byte[] dec, int refOffset, int decOffset,
+            int length) {
+        long squareError = 0;
+        for (int i = 0; i < length; i++) {
+            int diff = (ref[refOffset + i] & 0xff) - (dec[decOffset + i] & 0xff);
+            squareError += diff * diff;
+        }
+        return 10 * Math.log10((double) 255 * 255 / ((double) squareError / length));
+    }
+
+    public void testMatchesPlaneByPlanePSNR() throws Exception {
+        int referenceFrames = 3;
+        int frames = 7;
+        byte[] reference = makeSequence(referenceFrames, 1);
+        byte[] decoded = distort(reference, frames, 4);
+        // A trailing partial frame is ignored.
+        ByteBuffer decodedBuffer = ByteBuffer.allocateDirect(decoded.length + 100);
+        decodedBuffer.put(decoded).rewind();
+
+        YuvQualityMetrics.FrameMetrics[] metrics = new YuvQualityMetrics(WIDTH, HEIGHT)
+                .setThreadCount(3)
+                .compute(ByteBuffer.wrap(reference), decodedBuffer);
+
+        assertEquals(frames, metrics.length);
+        int ySize = WIDTH * HEIGHT;
+        int uvSize = ySize / 4;
+        for (int i = 0; i < frames; i++) {
+            int refOffset = (i % referenceFrames) * FRAME_SIZE;
+            int decOffset = i * FRAME_SIZE;
+            assertEquals(i, metrics[i].mFrameIndex);
+            assertEquals(planePSNR(reference, decoded, refOffset, decOffset, ySize),
+                    metrics[i].mYPSNR, 1e-9);
+            assertEquals(planePSNR(reference, decoded, refOffset + ySize, decOffset + ySize,
+                    uvSize), metrics[i].mUPSNR, 1e-9);
+            assertEquals(planePSNR(reference, decoded, refOffset + ySize + uvSize,
+                    decOffset + ySize + uvSize, uvSize), metrics[i].mVPSNR, 1e-9);
+            assertTrue(Double.isNaN(metrics[i].mYSSIM));
+        }
+        assertEquals(0, decodedBuffer.position());
+    }
+
+    public void testSSIM() throws Exception {
+        byte[] reference = makeSequence(1, 2);
+        YuvQualityMetrics engine = new YuvQualityMetrics(WIDTH, HEIGHT).setComputeSSIM(true);
+
+        YuvQualityMetrics.FrameMetrics[] identical =
+                engine.compute(ByteBuffer.wrap(reference), ByteBuffer.wrap(reference));
+        assertEquals(1.0, identical[0].mYSSIM, 1e-9);
+
+        YuvQualityMetrics.FrameMetrics[] small =
+                engine.compute(ByteBuffer.wrap(reference),
+                        ByteBuffer.wrap(distort(reference, 1, 2)));
+        YuvQualityMetrics.FrameMetrics[] large =
+                engine.compute(ByteBuffer.wrap(reference),
+                        ByteBuffer.wrap(distort(reference, 1, 40)));
+        assertTrue(small[0].mYSSIM < 1.0);
+        assertTrue(large[0].mYSSIM < small[0].mYSSIM);
+    }
+
+    public void testIdenticalFrames() throws Exception {
+        byte[] reference = makeSequence(2, 3);
+        YuvQualityMetrics.FrameMetrics[] metrics = new YuvQualityMetrics(WIDTH, HEIGHT)
+                .setComputeSSIM(true)
+                .compute(ByteBuffer.wrap(reference), ByteBuffer.wrap(reference.clone()));
+
+        assertEquals(2, metrics.length);
+        for (YuvQualityMetrics.FrameMetrics frame : metrics) {
+            assertEquals(Double.POSITIVE_INFINITY, frame.getMinimumPSNR());
+            assertEquals(1.0, frame.mYSSIM, 1e-9);
+        }
+    }
+
+    public void testParallelMatchesSingleThread() throws Exception {
+        int frames = 12;
+        byte[] reference = makeSequence(4, 4);
+        ByteBuffer decoded = ByteBuffer.wrap(distort(reference, frames, 8));
+
+        YuvQualityMetrics.FrameMetrics[] single = new YuvQualityMetrics(WIDTH, HEIGHT)
+                .setComputeSSIM(true).setThreadCount(1)
+                .compute(ByteBuffer.wrap(reference), decoded);
+        YuvQualityMetrics.FrameMetrics[] parallel = new YuvQualityMetrics(WIDTH, HEIGHT)
+                .setComputeSSIM(true).setThreadCount(4)
+                .compute(ByteBuffer.wrap(reference), decoded);
+
+        assertEquals(frames, single.length);
+        assertEquals(frames, parallel.length);
+        for (int i = 0; i < frames; i++) {
+            assertEquals(i, parallel[i].mFrameIndex);
+            assertEquals(single[i].mYPSNR, parallel[i].mYPSNR);
+            assertEquals(single[i].mUPSNR, parallel[i].mUPSNR);
+            assertEquals(single[i].mVPSNR, parallel[i].mVPSNR);
+            assertEquals(single[i].mYSSIM, parallel[i].mYSSIM);
+            // An error of at most 8 per sample keeps the PSNR above 10 log10(255^2 / 64).
+            assertTrue(parallel[i].getMinimumPSNR() > 30);
+            assertTrue(parallel[i].mYSSIM < 1.0);
+        }
+    }
+}
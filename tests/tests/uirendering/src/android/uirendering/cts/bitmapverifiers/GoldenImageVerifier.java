@@ -17,24 +17,31 @@ package android.uirendering.cts.bitmapverifiers;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.uirendering.cts.bitmapcomparers.BitmapComparer;
 import android.uirendering.cts.differencevisualizers.PassFailVisualizer;
 import android.uirendering.cts.testinfrastructure.ActivityTestBase;
+import android.uirendering.cts.util.GoldenImageCache;
 
 public class GoldenImageVerifier extends BitmapVerifier {
     private BitmapComparer mBitmapComparer;
     private int[] mGoldenBitmapArray;
 
     public GoldenImageVerifier(Bitmap goldenBitmap, BitmapComparer bitmapComparer) {
-        mGoldenBitmapArray = new int[ActivityTestBase.TEST_WIDTH * ActivityTestBase.TEST_HEIGHT];
-        goldenBitmap.getPixels(mGoldenBitmapArray, 0, ActivityTestBase.TEST_WIDTH, 0, 0,
-                ActivityTestBase.TEST_WIDTH, ActivityTestBase.TEST_HEIGHT);
-        mBitmapComparer = bitmapComparer;
+        this(GoldenImageCache.getPixels(goldenBitmap, ActivityTestBase.TEST_WIDTH,
+                ActivityTestBase.TEST_HEIGHT), bitmapComparer);
     }
 
+    /**
+     * Verifies against a golden image resource. Decoded goldens are cached across verifiers.
+     */
     public GoldenImageVerifier(Context context, int goldenResId, BitmapComparer bitmapComparer) {
-        this(BitmapFactory.decodeResource(context.getResources(), goldenResId), bitmapComparer);
+        this(GoldenImageCache.getPixels(context, goldenResId, ActivityTestBase.TEST_WIDTH,
+                ActivityTestBase.TEST_HEIGHT), bitmapComparer);
+    }
+
+    private GoldenImageVerifier(int[] goldenBitmapArray, BitmapComparer bitmapComparer) {
+        mGoldenBitmapArray = goldenBitmapArray;
+        mBitmapComparer = bitmapComparer;
     }
 
     @Override
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.uirendering.cts.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+/**
+ * LRU cache of decoded golden images, so that a golden resource shared by several tests is
+ * decoded once per process.
+ */
+public final class GoldenImageCache {
+    /** Bound of the cache, in bytes of ARGB pixels. */
+    private static final int MAX_SIZE_BYTES = 8 * 1024 * 1024;
+
+    private static final LruCache<Integer, int[]> sCache =
+            new LruCache<Integer, int[]>(MAX_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(Integer key, int[] pixels) {
+                    return pixels.length * 4;
+                }
+            };
+
+    private GoldenImageCache() {}
+
+    /**
+     * Returns the top left width x height pixels of a golden image resource, in row-major order.
+     * The array is shared and must not be modified.
+     */
+    public static int[] getPixels(Context context, int goldenResId, int width, int height) {
+        int[] pixels = sCache.get(goldenResId);
+        if (pixels == null || pixels.length != width * height) {
+            pixels = getPixels(BitmapFactory.decodeResource(context.getResources(), goldenResId),
+                    width, height);
+            sCache.put(goldenResId, pixels);
+        }
+        return pixels;
+    }
+
+    /** Returns the top left width x height pixels of a bitmap, in row-major order. */
+    public static int[] getPixels(Bitmap bitmap, int width, int height) {
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return pixels;
+    }
+}
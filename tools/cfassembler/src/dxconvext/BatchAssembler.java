@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dxconvext;
+
+import dxconvext.util.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Assembles many .cfh and .dfh files in one process, in parallel, into a single jar.
+ *
+ * <pre>
+ * cfassembler --batch [-j threads] [--root dir] -o out.jar input...
+ * </pre>
+ *
+ * An input is a .cfh or .dfh file, a directory searched for them, or "@file" naming a file
+ * that lists whitespace separated inputs. Each input dir/T_foo.dfh, relative to the root, is
+ * assembled into a jar tests/dir/T_foo.jar holding classes.dex (or the class named in the header
+ * of a .cfh file), which is stored in out.jar. This is the layout vmtests-cfassembler.sh used to
+ * build with one cfassembler and soong_zip process per file.
+ *
+ * <p>The argument parsing, input listing and jar writing are kept identical to
+ * dasm.BatchAssembler of dasm, as the two tools share no library; change both together.
+ */
+public class BatchAssembler {
+
+    static final String BATCH_FLAG = "--batch";
+
+    /** The inputs assembled, for error messages. */
+    private static final String INPUT_KIND = "a .cfh or .dfh file";
+
+    /** Time of all jar entries, so that the output only depends on the inputs. */
+    private static final long ENTRY_TIME = new GregorianCalendar(2008, 0, 1).getTimeInMillis();
+
+    /** Sorted, so that the output does not depend on the order of the arguments. */
+    private final SortedSet<File> inputs = new TreeSet<File>();
+    private String root = "";
+    private File outFile;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) {
+        BatchAssembler batch = new BatchAssembler();
+        try {
+            batch.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: cfassembler " + BATCH_FLAG
+                    + " [-j threads] [--root dir] -o out.jar (file.dfh|file.cfh|dir|@list)...");
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        int count = batch.run();
+        System.out.println("assembled " + count + " files into " + batch.outFile + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-o") || arg.equals("-j") || arg.equals("--root")) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("missing value for " + arg);
+                }
+                String value = args[++i];
+                if (arg.equals("-o")) {
+                    outFile = new File(value);
+                } else if (arg.equals("-j")) {
+                    threads = Integer.parseInt(value);
+                } else {
+                    root = value.endsWith("/") ? value : value + "/";
+                }
+            } else if (arg.startsWith("@")) {
+                String list;
+                try {
+                    list = new String(Files.readAllBytes(new File(arg.substring(1)).toPath()),
+                            StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("cannot read " + arg.substring(1), e);
+                }
+                for (String line : list.split("\\s+")) {
+                    if (!line.isEmpty()) {
+                        addInput(new File(line));
+                    }
+                }
+            } else {
+                addInput(new File(arg));
+            }
+        }
+        if (outFile == null) {
+            throw new IllegalArgumentException("no output jar");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("thread count must be positive: " + threads);
+        }
+    }
+
+    private void addInput(File file) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                throw new IllegalArgumentException(file + ": trouble listing");
+            }
+            for (File child : children) {
+                if (child.isDirectory() || isInput(child.getName())) {
+                    addInput(child);
+                }
+            }
+        } else if (isInput(file.getName())) {
+            inputs.add(file);
+        } else {
+            throw new IllegalArgumentException(
+                    file + ": file must be " + INPUT_KIND + ", or a directory");
+        }
+    }
+
+    private static boolean isInput(String name) {
+        return ClassFileAssembler.isHexFile(name);
+    }
+
+    /**
+     * Returns the name of the jar of a test in the output, e.g. "tests/dot/junit/T_foo.jar" for
+     * root + "dot/junit/T_foo.dfh".
+     */
+    private String getJarName(File input) {
+        String path = input.getPath().replace(File.separatorChar, '/');
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException(input + ": not under " + root);
+        }
+        path = path.substring(root.length());
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return "tests/" + path.substring(0, path.lastIndexOf('.')) + ".jar";
+    }
+
+    /**
+     * Assembles the inputs on a thread pool, and writes the output in input path order.
+     *
+     * @return the number of assembled files
+     */
+    private int run() {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        boolean success = false;
+        try {
+            List<File> files = new ArrayList<File>(inputs);
+            List<Future<byte[]>> jars = new ArrayList<Future<byte[]>>(files.size());
+            for (final File input : files) {
+                jars.add(executor.submit(() -> assembleJar(input)));
+            }
+
+            OutputStream os = new FileOutputStream(outFile);
+            try (ZipOutputStream zos = new ZipOutputStream(os)) {
+                for (int i = 0; i < files.size(); i++) {
+                    byte[] jar;
+                    try {
+                        jar = jars.get(i).get();
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException("problem while parsing .dfh or .cfh file: "
+                                + files.get(i).getAbsolutePath(), e.getCause());
+                    }
+                    writeEntry(zos, getJarName(files.get(i)), jar);
+                }
+            }
+            success = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while assembling", e);
+        } catch (IOException e) {
+            throw new RuntimeException("problem while writing " + outFile, e);
+        } finally {
+            executor.shutdownNow();
+            if (!success) {
+                outFile.delete();
+            }
+        }
+        return inputs.size();
+    }
+
+    /**
+     * Assembles an input into a jar holding the assembled file.
+     */
+    private static byte[] assembleJar(File input) throws IOException {
+        byte[] hexFile = FileUtils.readFile(input);
+        boolean isDex = input.getName().endsWith(".dfh");
+        String name = ClassFileAssembler.getOutputName(hexFile, isDex);
+        byte[] assembled = ClassFileAssembler.assemble(hexFile, isDex);
+
+        ByteArrayOutputStream jar = new ByteArrayOutputStream(assembled.length / 2 + 256);
+        try (ZipOutputStream zos = new ZipOutputStream(jar)) {
+            writeEntry(zos, name, assembled);
+        }
+        return jar.toByteArray();
+    }
+
+    private static void writeEntry(ZipOutputStream zos, String name, byte[] data)
+            throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(ENTRY_TIME);
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+    }
+}
@@ -18,22 +18,16 @@ package dxconvext;
 
 import dxconvext.util.FileUtils;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.zip.Adler32;
 
 public class ClassFileAssembler {
@@ -42,6 +36,10 @@ public class ClassFileAssembler {
      * @param args
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals(BatchAssembler.BATCH_FLAG)) {
+            BatchAssembler.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         ClassFileAssembler cfa = new ClassFileAssembler();
         cfa.run(args);
     }
@@ -64,8 +62,7 @@ public class ClassFileAssembler {
         // this class here simply takes all non-comment lines from the .cfh
         // file, parses them as hex values and writes the bytes to the class file
         File cfhF = new File(args[0]);
-        if (!cfhF.getName().endsWith(".cfh") &&
-            !cfhF.getName().endsWith(".dfh")) {
+        if (!isHexFile(cfhF.getName())) {
             System.out.println("file must be a .cfh or .dfh file, and its filename end with .cfh or .dfh");
             return;
         }
@@ -75,48 +72,53 @@ public class ClassFileAssembler {
         boolean isDex = cfhF.getName().endsWith(".dfh");
         
         byte[] cfhbytes = FileUtils.readFile(cfhF);
-        ByteArrayInputStream bais = new ByteArrayInputStream(cfhbytes);
-        // encoding should not matter, since we are skipping comment lines and parsing
         try {
-            // get the package name
-            BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(cfhF)));
-            String firstLine = br.readLine();
-            br.close();
-            String classHdr = "//@class:";
-            String dexHdr = "// Processing '";
-            String hdr;
-            if(isDex)
-                hdr = dexHdr;
-            else
-                hdr = classHdr;
-            
-            if (!firstLine.startsWith(hdr)) throw new RuntimeException("wrong format:"+firstLine +" isDex=" + isDex);
-            String tFile;
-            if(isDex) {
-                tFile = outBase + "/classes.dex";
-            } else {
-                String classO = firstLine.substring(hdr.length()).trim();
-                tFile = outBase +"/"+classO+".class";
-            }
+            String tFile = outBase + "/" + getOutputName(cfhbytes, isDex);
             File outFile = new File(tFile);
             System.out.println("outfile:" + outFile);
             String mkdir = tFile.substring(0, tFile.lastIndexOf("/"));
             new File(mkdir).mkdirs();
             
-            Reader r = new InputStreamReader(bais,"utf-8");
             OutputStream os = new FileOutputStream(outFile);
-            BufferedOutputStream bos = new BufferedOutputStream(os);
-            writeClassFile(r, bos, isDex);
-            bos.close();
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("problem while parsing .dfh or .cfh file: "+cfhF.getAbsolutePath(), e);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("problem while parsing .dfh or .cfh file: "+cfhF.getAbsolutePath(), e);
+            os.write(assemble(cfhbytes, isDex));
+            os.close();
         } catch (IOException e) {
             throw new RuntimeException("problem while parsing .dfh or .cfh file: "+cfhF.getAbsolutePath(), e);
         } 
     }
-    
+
+    /**
+     * @return whether the file name is the one of a .cfh or .dfh file
+     */
+    static boolean isHexFile(String name) {
+        return name.endsWith(".cfh") || name.endsWith(".dfh");
+    }
+
+    /**
+     * Returns the name of the file assembled from a .cfh or .dfh file: classes.dex for a .dfh
+     * file, or the class named in the header of a .cfh file, e.g. "dxc/junit/T_foo.class".
+     */
+    static String getOutputName(byte[] hexFile, boolean isDex) {
+        int end = 0;
+        while (end < hexFile.length && hexFile[end] != '\n' && hexFile[end] != '\r') {
+            end++;
+        }
+        String firstLine = new String(hexFile, 0, end, StandardCharsets.UTF_8);
+        String classHdr = "//@class:";
+        String dexHdr = "// Processing '";
+        String hdr;
+        if(isDex)
+            hdr = dexHdr;
+        else
+            hdr = classHdr;
+
+        if (!firstLine.startsWith(hdr)) throw new RuntimeException("wrong format:"+firstLine +" isDex=" + isDex);
+        if (isDex) {
+            return "classes.dex";
+        }
+        return firstLine.substring(hdr.length()).trim() + ".class";
+    }
+
     /**
      * Calculates the signature for the <code>.dex</code> file in the
      * given array, and modify the array to contain it.
@@ -125,7 +127,7 @@ public class ClassFileAssembler {
      * 
      * @param bytes non-null; the bytes of the file
      */
-    private void calcSignature(byte[] bytes) {
+    private static void calcSignature(byte[] bytes) {
         MessageDigest md;
 
         try {
@@ -155,7 +157,7 @@ public class ClassFileAssembler {
      * 
      * @param bytes non-null; the bytes of the file
      */
-    private void calcChecksum(byte[] bytes) {
+    private static void calcChecksum(byte[] bytes) {
         Adler32 a32 = new Adler32();
 
         a32.update(bytes, 12, bytes.length - 12);
@@ -169,49 +171,149 @@ public class ClassFileAssembler {
     }   
 
     public void writeClassFile(Reader r, OutputStream rOs, boolean isDex) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
-        BufferedReader br = new BufferedReader(r);
-        String line;
-        String secondLine = null;
-        int lineCnt = 0;
         try {
-            while ((line = br.readLine()) != null) {
-                if (isDex && lineCnt++ == 1) {
-                    secondLine = line;
-                }
-                // skip it if it is a comment
-                if (!line.trim().startsWith("//")) {
-                    // we have a row like "    ae 08 21 ff" etc.
-                    String[] parts = line.split("\\s+");
-                    for (int i = 0; i < parts.length; i++) {
-                        String part = parts[i].trim();
-                        if (!part.equals("")) {
-                            int res = Integer.parseInt(part, 16);
-                            baos.write(res);
-                        }
-                    }
-                }
-            }
-            
-            // now for dex, update the checksum and the signature.
-            // special case:
-            // for two tests (currently T_f1_9.dfh and T_f1_10.dfh), we need
-            // to keep the checksum or the signature, respectively.
-            byte[] outBytes = baos.toByteArray();
-            if (isDex) {
-                boolean leaveChecksum = secondLine.contains("//@leaveChecksum");
-                boolean leaveSignature= secondLine.contains("//@leaveSignature");
-                // update checksum and signature for dex file            
-                if(!leaveSignature)
-                    calcSignature(outBytes);
-                if(!leaveChecksum)
-                    calcChecksum(outBytes);
+            StringBuilder sb = new StringBuilder(8192);
+            char[] buf = new char[8192];
+            int count;
+            while ((count = r.read(buf)) != -1) {
+                sb.append(buf, 0, count);
             }
-            rOs.write(outBytes);
+            rOs.write(assemble(sb.toString().getBytes(StandardCharsets.UTF_8), isDex));
             rOs.close();
         } catch (IOException e) {
             throw new RuntimeException("problem while writing file",e);
         }
     }
 
+    /**
+     * Assembles the contents of a .cfh or .dfh file: all non-comment lines are parsed as rows of
+     * whitespace separated hex bytes, like "    ae 08 21 ff".
+     *
+     * For dex, the checksum and the signature are then updated in the assembled bytes, unless
+     * the second line contains "//@leaveChecksum" or "//@leaveSignature", respectively
+     * (currently for T_f1_9.dfh and T_f1_10.dfh).
+     *
+     * Thread safe; used concurrently by {@link BatchAssembler}.
+     *
+     * @param hexFile non-null; the contents of the file
+     * @return non-null; the class or dex file
+     */
+    public static byte[] assemble(byte[] hexFile, boolean isDex) {
+        // Every byte takes at least one digit and one separator, but the last one.
+        byte[] out = new byte[hexFile.length / 2 + 1];
+        int size = 0;
+        boolean leaveChecksum = false;
+        boolean leaveSignature = false;
+        int lineCnt = 0;
+        int pos = 0;
+        while (pos < hexFile.length) {
+            int end = pos;
+            while (end < hexFile.length && hexFile[end] != '\n' && hexFile[end] != '\r') {
+                end++;
+            }
+            if (isDex && lineCnt++ == 1) {
+                leaveChecksum = contains(hexFile, pos, end, "//@leaveChecksum");
+                leaveSignature = contains(hexFile, pos, end, "//@leaveSignature");
+            }
+            // skip it if it is a comment
+            if (!isComment(hexFile, pos, end)) {
+                size = decodeRow(hexFile, pos, end, out, size);
+            }
+            // "\r\n" ends a single line
+            if (end + 1 < hexFile.length && hexFile[end] == '\r' && hexFile[end + 1] == '\n') {
+                end++;
+            }
+            pos = end + 1;
+        }
+
+        byte[] outBytes = Arrays.copyOf(out, size);
+        if (isDex) {
+            // update checksum and signature for dex file
+            if(!leaveSignature)
+                calcSignature(outBytes);
+            if(!leaveChecksum)
+                calcChecksum(outBytes);
+        }
+        return outBytes;
+    }
+
+    /**
+     * @return whether the line in [start, end) starts with "//" after leading whitespace and
+     * control characters, as with String.trim()
+     */
+    private static boolean isComment(byte[] b, int start, int end) {
+        while (start < end && (b[start] & 0xff) <= ' ') {
+            start++;
+        }
+        return end - start >= 2 && b[start] == '/' && b[start + 1] == '/';
+    }
+
+    private static boolean contains(byte[] b, int start, int end, String s) {
+        outer:
+        for (int i = start; i <= end - s.length(); i++) {
+            for (int j = 0; j < s.length(); j++) {
+                if (b[i + j] != s.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /** @return whether c matches the regex \s */
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0b || c == '\f' || c == '\r';
+    }
+
+    private static int hexDigit(byte c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the whitespace separated hex values in [start, end) into out at size, keeping
+     * the low byte of each value.
+     *
+     * @return the new size of out
+     */
+    private static int decodeRow(byte[] b, int start, int end, byte[] out, int size) {
+        int i = start;
+        while (i < end) {
+            if (isWhitespace(b[i])) {
+                i++;
+                continue;
+            }
+            int tokenStart = i;
+            int value = 0;
+            boolean plain = true;
+            while (i < end && !isWhitespace(b[i])) {
+                int digit = hexDigit(b[i]);
+                if (digit < 0) {
+                    plain = false;
+                }
+                value = (value << 4) | (digit & 0xf);
+                i++;
+            }
+            // Anything but up to 7 plain hex digits goes through Integer.parseInt, for signs,
+            // overflow and error reporting.
+            if (!plain || i - tokenStart > 7) {
+                String part = new String(b, tokenStart, i - tokenStart, StandardCharsets.UTF_8)
+                        .trim();
+                if (part.equals("")) {
+                    continue;
+                }
+                value = Integer.parseInt(part, 16);
+            }
+            out[size++] = (byte) value;
+        }
+        return size;
+    }
+
 }
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dasm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Assembles many .d files in one process, in parallel, into a single jar.
+ *
+ * <pre>
+ * dasm --batch [-j threads] [-e encoding] [-v] [--root dir] -o out.jar input...
+ * </pre>
+ *
+ * An input is a .d file, a directory searched for them, or "@file" naming a file that lists
+ * whitespace separated inputs. Each input dir/T_foo.d, relative to the root, is assembled into a
+ * jar tests/dir/T_foo.jar holding classes.dex, which is stored in out.jar. This is the layout
+ * vmtests-dasm.sh used to build with one dasm and soong_zip process per file.
+ *
+ * <p>Every file is parsed by its own {@link DAsm}, from a char array holding the whole file, and
+ * its dex is written to memory. A summary of the parse and write times of the files is printed;
+ * -v prints the times of every file instead of the slowest ones.
+ *
+ * <p>The argument parsing, input listing and jar writing are kept identical to
+ * dxconvext.BatchAssembler of cfassembler, as the two tools share no library; change both
+ * together.
+ */
+public class BatchAssembler {
+
+    static final String BATCH_FLAG = "--batch";
+
+    /** The inputs assembled, for error messages. */
+    private static final String INPUT_KIND = "a .d file";
+
+    /** Time of all jar entries, so that the output only depends on the inputs. */
+    private static final long ENTRY_TIME = new GregorianCalendar(2008, 0, 1).getTimeInMillis();
+
+    /** Number of files listed in the timing summary, without -v. */
+    private static final int SLOWEST_COUNT = 10;
+
+    /** Sorted, so that the output does not depend on the order of the arguments. */
+    private final SortedSet<File> inputs = new TreeSet<File>();
+    private String root = "";
+    private File outFile;
+    private Charset charset = Charset.defaultCharset();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean verbose;
+
+    /** The outcome of assembling one file. */
+    private static class Result {
+        final File input;
+        /** The jar holding classes.dex, or null if the file had errors. */
+        byte[] jar;
+        /** Errors reported while assembling. */
+        String messages = "";
+        long parseNanos;
+        long writeNanos;
+
+        Result(File input) {
+            this.input = input;
+        }
+    }
+
+    public static void main(String[] args) {
+        BatchAssembler batch = new BatchAssembler();
+        try {
+            batch.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: dasm " + BATCH_FLAG + " [-j threads] [-e encoding] [-v]"
+                    + " [--root dir] -o out.jar (file.d|dir|@list)...");
+            System.exit(1);
+        }
+        if (!batch.run()) {
+            System.exit(1);
+        }
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-v")) {
+                verbose = true;
+            } else if (arg.equals("-o") || arg.equals("-j") || arg.equals("-e")
+                    || arg.equals("--root")) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("missing value for " + arg);
+                }
+                String value = args[++i];
+                if (arg.equals("-o")) {
+                    outFile = new File(value);
+                } else if (arg.equals("-j")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.equals("-e")) {
+                    charset = Charset.forName(value);
+                } else {
+                    root = value.endsWith("/") ? value : value + "/";
+                }
+            } else if (arg.startsWith("@")) {
+                String list;
+                try {
+                    list = new String(Files.readAllBytes(new File(arg.substring(1)).toPath()),
+                            StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("cannot read " + arg.substring(1), e);
+                }
+                for (String line : list.split("\\s+")) {
+                    if (!line.isEmpty()) {
+                        addInput(new File(line));
+                    }
+                }
+            } else {
+                addInput(new File(arg));
+            }
+        }
+        if (outFile == null) {
+            throw new IllegalArgumentException("no output jar");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("thread count must be positive: " + threads);
+        }
+    }
+
+    private void addInput(File file) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) {
+                throw new IllegalArgumentException(file + ": trouble listing");
+            }
+            for (File child : children) {
+                if (child.isDirectory() || isInput(child.getName())) {
+                    addInput(child);
+                }
+            }
+        } else if (isInput(file.getName())) {
+            inputs.add(file);
+        } else {
+            throw new IllegalArgumentException(
+                    file + ": file must be " + INPUT_KIND + ", or a directory");
+        }
+    }
+
+    private static boolean isInput(String name) {
+        return name.endsWith(".d");
+    }
+
+    /**
+     * Returns the name of the jar of a test in the output, e.g. "tests/dot/junit/T_foo.jar" for
+     * root + "dot/junit/T_foo.d".
+     */
+    private String getJarName(File input) {
+        String path = input.getPath().replace(File.separatorChar, '/');
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException(input + ": not under " + root);
+        }
+        path = path.substring(root.length());
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return "tests/" + path.substring(0, path.lastIndexOf('.')) + ".jar";
+    }
+
+    /**
+     * Assembles the inputs on a thread pool, and writes the output in input path order. The
+     * output is deleted if any input has errors.
+     *
+     * @return whether all inputs were assembled
+     */
+    private boolean run() {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Result> results = new ArrayList<Result>(inputs.size());
+        int failures = 0;
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>(inputs.size());
+            for (final File input : inputs) {
+                futures.add(executor.submit(() -> assembleJar(input)));
+            }
+
+            OutputStream os = new FileOutputStream(outFile);
+            try (ZipOutputStream zos = new ZipOutputStream(os)) {
+                for (Future<Result> future : futures) {
+                    Result result = future.get();
+                    results.add(result);
+                    if (result.jar == null) {
+                        failures++;
+                        System.err.print(result.messages);
+                    } else if (failures == 0) {
+                        writeEntry(zos, getJarName(result.input), result.jar);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while assembling", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (IOException e) {
+            throw new RuntimeException("problem while writing " + outFile, e);
+        } finally {
+            executor.shutdownNow();
+            if (failures > 0 || results.size() < inputs.size()) {
+                outFile.delete();
+            }
+        }
+
+        printTimes(results, System.nanoTime() - start);
+        if (failures > 0) {
+            System.err.println("Found errors in " + failures + " of " + inputs.size()
+                    + " files, " + outFile + " not written");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Assembles an input into a jar holding classes.dex. Errors are recorded in the result, with
+     * the name of the input, so that the messages of files assembled concurrently do not mix.
+     */
+    private Result assembleJar(File input) {
+        Result result = new Result(input);
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        PrintStream errorStream = new PrintStream(messages, true);
+        DAsm dAsm = new DAsm();
+        dAsm.setErrorStream(errorStream);
+        try {
+            long start = System.nanoTime();
+            CharBuffer source = charset.decode(ByteBuffer.wrap(Files.readAllBytes(input.toPath())));
+            dAsm.readD(source.array(), source.limit(), input.getName(), false);
+            result.parseNanos = System.nanoTime() - start;
+
+            if (dAsm.errorCount() > 0) {
+                errorStream.println("Found " + dAsm.errorCount()
+                        + " errors while reading and parsing " + input);
+            } else {
+                start = System.nanoTime();
+                ByteArrayOutputStream dex = new ByteArrayOutputStream();
+                dAsm.write(dex, null);
+                ByteArrayOutputStream jar = new ByteArrayOutputStream(dex.size() + 256);
+                try (ZipOutputStream zos = new ZipOutputStream(jar)) {
+                    writeEntry(zos, "classes.dex", dex.toByteArray());
+                }
+                result.jar = jar.toByteArray();
+                result.writeNanos = System.nanoTime() - start;
+            }
+        } catch (DasmError e) {
+            errorStream.println("DASM Error: " + e.getMessage() + " in " + input);
+        } catch (Exception e) {
+            errorStream.println("Exception <" + e.getClass().getName() + ">" + e.getMessage()
+                    + " while assembling " + input);
+            if (Main.DEBUG) e.printStackTrace(errorStream);
+        }
+        if (result.jar == null) {
+            result.messages = messages.toString();
+        }
+        return result;
+    }
+
+    private static void writeEntry(ZipOutputStream zos, String name, byte[] data)
+            throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(ENTRY_TIME);
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+    }
+
+    /**
+     * Prints the total times, and the times of the slowest files, or of all files with -v.
+     */
+    private void printTimes(List<Result> results, long wallNanos) {
+        long parseNanos = 0;
+        long writeNanos = 0;
+        for (Result result : results) {
+            parseNanos += result.parseNanos;
+            writeNanos += result.writeNanos;
+        }
+        System.out.println(String.format(
+                "assembled %d files into %s in %d ms (%d threads, parse %d ms, write %d ms)",
+                results.size(), outFile, wallNanos / 1000000, threads, parseNanos / 1000000,
+                writeNanos / 1000000));
+
+        List<Result> sorted = new ArrayList<Result>(results);
+        Collections.sort(sorted, Comparator.comparingLong(
+                (Result result) -> result.parseNanos + result.writeNanos).reversed());
+        int count = verbose ? sorted.size() : Math.min(SLOWEST_COUNT, sorted.size());
+        if (count > 0) {
+            System.out.println(verbose ? "time per file:" : "slowest files:");
+        }
+        for (Result result : sorted.subList(0, count)) {
+            System.out.println(String.format("  %8.2f ms  (parse %8.2f, write %8.2f)  %s",
+                    (result.parseNanos + result.writeNanos) / 1e6, result.parseNanos / 1e6,
+                    result.writeNanos / 1e6, result.input.getPath()));
+        }
+    }
+}
@@ -61,6 +61,7 @@ import com.android.dx.util.IntList;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Enumeration;
@@ -82,6 +83,8 @@ public class DAsm {
 
     // number of errors reported in a file.
     int errors;
+    // where errors are reported
+    PrintStream errorStream = System.out;
 
     // options for dex output
     DexOptions dexOptions = new DexOptions();
@@ -175,9 +178,16 @@ public class DAsm {
         return errors;
     }
 
+    /**
+     * Sets the stream errors are reported to, System.out by default.
+     */
+    public void setErrorStream(PrintStream errorStream) {
+        this.errorStream = errorStream;
+    }
+
     void report_error(String msg) {
         errors++;
-        System.out.println("Line " + line_num + ": " + msg);
+        errorStream.println("Line " + line_num + ": " + msg);
     }
 
     void throwDasmError(String msg) throws DasmError {
@@ -1600,6 +1610,21 @@ public class DAsm {
      */
     public void readD(Reader input, String name, boolean numberLines)
             throws IOException, Exception {
+        readD(new Scanner(input), name, numberLines);
+    }
+
+    /**
+     * Parses a .d file held in the first length chars of input, as
+     * {@link #readD(Reader, String, boolean)} does. The array must not be
+     * modified while parsing.
+     */
+    public void readD(char[] input, int length, String name,
+            boolean numberLines) throws IOException, Exception {
+        readD(new Scanner(input, length), name, numberLines);
+    }
+
+    private void readD(Scanner input, String name, boolean numberLines)
+            throws IOException, Exception {
 
         // TODO: numberLines?
         errors = 0;
@@ -1609,7 +1634,7 @@ public class DAsm {
         classDef = null;
         dexFile = new DexFile(dexOptions);
 
-        scanner = new Scanner(input);
+        scanner = input;
         parser parse_obj = new parser(this, scanner);
 
 
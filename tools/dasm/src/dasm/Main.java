@@ -25,6 +25,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.Arrays;
 
 /**
  * DAsm entry point
@@ -183,6 +184,11 @@ public class Main {
     }
 
     public static void main(String args[]) {
+        if (args.length > 0 && args[0].equals(BatchAssembler.BATCH_FLAG)) {
+            BatchAssembler.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         int i;
 
         String files[] = new String[args.length];
@@ -236,6 +242,8 @@ public class Main {
                         + "  -d - path for generated classfiles\n"
                         + "  -h - generate human-readable output\n"
                         + "  file  - sourcefile\n"
+                        + "or: dasm --batch [-j <threads>] [-e <encoding>] [-v]"
+                        + " [--root <dir>] -o <out.jar> <file|dir|@list> ...\n"
                         + "or: dasm -version\n"
                         + "or: dasm -help");
     }
@@ -23,8 +23,14 @@ import java_cup.runtime.token;
 class ReservedWords {
     static Hashtable<String, token> reserved_words;
 
+    /**
+     * Returns a new token for a reserved word, or null. The parser stores its
+     * state in the tokens it reads, so they can not be shared by parsers
+     * running concurrently.
+     */
     public static token get(String name) {
-        return (token) reserved_words.get(name);
+        token word = reserved_words.get(name);
+        return word == null ? null : new token(word.sym);
     }
 
     public static boolean contains(String name) {
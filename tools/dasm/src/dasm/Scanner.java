@@ -20,6 +20,7 @@ package dasm;
 import dasm.tokens.number_token;
 import dasm.tokens.relative_number_token;
 
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.Hashtable;
@@ -29,74 +30,43 @@ import java_cup.runtime.str_token;
 import java_cup.runtime.token;
 
 /**
- * Tokenizer
+ * Tokenizer. Reads from a char array holding the whole source, so that names
+ * and numbers are taken as slices of it.
  */
 
 
 class Scanner {
     /**
-     * Chars buffer with autoexpanding.
+     * the source, and the number of chars in it
      */
-    class CharBuffer {
-        private int buffer_size = 256;
-        private char[] buffer = new char[buffer_size];
-        private int cur_pos = 0;
-
-        private void expand() {
-            char tmp[] = new char[buffer_size * 2];
-            System.arraycopy(buffer, 0, tmp, 0, buffer_size);
-            buffer_size *= 2;
-            buffer = tmp;
-        }
-
-        void add(char c) {
-            buffer[cur_pos] = c;
-            cur_pos++;
-            if (cur_pos == buffer_size) expand();
-        }
-
-        int size() {
-            return cur_pos;
-        }
-
-        char charAt(int idx) {
-            return buffer[idx];
-        }
-
-        public String toString() {
-            return new String(buffer, 0, cur_pos);
-        }
-
-        void reset() {
-            cur_pos = 0;
-        }
-    }
-
-
-    protected Reader inputReader;
+    protected final char[] input;
+    protected final int length;
 
     /**
-     * next character in input stream
+     * index of the char after nextChar in input
      */
-    protected int nextChar;
+    protected int pos;
 
-    protected CharBuffer charBuf = new CharBuffer();
+    /**
+     * index of nextChar in input, or length if nextChar is the end of input or
+     * the newline added at the end of the last line
+     */
+    protected int nextPos;
 
     /**
-     * Whitespace characters
+     * next character in input stream
      */
-    protected static final String WHITESPACE = " \n\t\r";
+    protected int nextChar;
 
     /**
-     * Separator characters
+     * Buffer for tokens with escape sequences.
      */
-    protected static final String SEPARATORS = WHITESPACE + ":=" + ",";
+    protected final StringBuilder charBuf = new StringBuilder();
 
     /**
      * error reporting
      */
     public int line_num, token_line_num, char_num;
-    public StringBuffer line;
 
     /**
      * Holds new variables defined by .set directive
@@ -104,34 +74,62 @@ class Scanner {
     public Hashtable dict = new Hashtable();
 
     public Scanner(Reader i) throws IOException, DasmError {
-        inputReader = i;
+        this(readAll(i));
+    }
+
+    private Scanner(CharArrayWriter source) throws IOException, DasmError {
+        this(source.toCharArray(), source.size());
+    }
+
+    /**
+     * Creates a scanner for the first length chars of input, which must not
+     * be modified while scanning.
+     */
+    public Scanner(char[] input, int length) throws IOException, DasmError {
+        this.input = input;
+        this.length = length;
         line_num = 1;
         char_num = 0;
-        line = new StringBuffer();
         nextChar = 0;
         skipEmptyLines();
         if (nextChar == -1) throw new DasmError("empty source file");
     }
 
+    private static CharArrayWriter readAll(Reader reader) throws IOException {
+        CharArrayWriter source = new CharArrayWriter();
+        char[] buf = new char[8192];
+        int n;
+        while ((n = reader.read(buf)) != -1) {
+            source.write(buf, 0, n);
+        }
+        return source;
+    }
+
     /**
      * Checks if a character code is a whitespace character
      */
     protected static boolean isWhitespace(int c) {
-        return (WHITESPACE.indexOf(c) != -1);
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
     }
 
     /**
      * Checks if a character code is a separator character
      */
     protected static boolean isSeparator(int c) {
-        return (c == -1 || SEPARATORS.indexOf(c) != -1);
+        return c == -1 || c == ':' || c == '=' || c == ',' || isWhitespace(c);
     }
 
     /**
      * Gets next char from input
      */
-    protected void readNextChar() throws IOException {
-        nextChar = inputReader.read();
+    protected void readNextChar() {
+        if (pos < length) {
+            nextPos = pos;
+            nextChar = input[pos++];
+        } else {
+            nextPos = length;
+            nextChar = -1;
+        }
         switch (nextChar) {
         case -1: // EOF
             if (char_num == 0) {
@@ -145,11 +143,8 @@ class Scanner {
             char_num = 0;
             break;
         default:
-            line.append((char) nextChar);
             char_num++;
-            return;
         }
-        line.setLength(0);
     }
 
     /**
@@ -266,18 +261,23 @@ class Scanner {
                 // read up until a separatorcharacter
                 boolean only_name = false;
 
-                charBuf.reset();
+                int start = nextPos;
                 do {
-                    char chval = (char) nextChar;
                     if (nextChar == '\\') {
-                        chval = nameEscape();
+                        if (!only_name) {
+                            charBuf.setLength(0);
+                            charBuf.append(input, start, nextPos - start);
+                        }
+                        charBuf.append(nameEscape());
                         only_name = true;
+                    } else if (only_name) {
+                        charBuf.append((char) nextChar);
                     }
-                    charBuf.add(chval);
                     readNextChar();
                 } while (!isSeparator(nextChar));
 
-                String str = charBuf.toString();
+                String str = only_name ? charBuf.toString()
+                        : new String(input, start, nextPos - start);
 
                 if (!only_name) {
                     token tok;
@@ -330,7 +330,7 @@ class Scanner {
      */
     protected token readQuotedString() throws IOException, DasmError {
         boolean f = false;
-        charBuf.reset();
+        charBuf.setLength(0);
         for (;;) {
             if (f)
                 f = false;
@@ -419,7 +419,7 @@ class Scanner {
                     throw new DasmError("Incorrect backslash escape sequence");
                 }
             }
-            charBuf.add(chval);
+            charBuf.append(chval);
         }
     }
 
@@ -427,20 +427,18 @@ class Scanner {
      * Reads list of registers ({v1, v2, v3} or {v1..v3})
      */
     protected token readRegList() throws IOException, DasmError {
-        charBuf.reset();
+        int start = nextPos + 1;
         for (;;) {
             readNextChar();
 
             if (nextChar == '}') {
+                String str = new String(input, start, nextPos - start);
                 readNextChar(); // skip closing quote
-                return new str_token(sym.Word, charBuf.toString());
+                return new str_token(sym.Word, str);
             }
 
             if (nextChar == -1)
                 throw new DasmError("Unterminated list of registers");
-
-
-            charBuf.add((char) nextChar);
         }
     }
 
@@ -448,14 +446,13 @@ class Scanner {
      * Reads number
      */
     protected token readNumber() throws IOException, DasmError {
-        charBuf.reset();
+        int start = nextPos;
 
         do {
-            charBuf.add((char) nextChar);
             readNextChar();
         } while (!isSeparator(nextChar));
 
-        String str = charBuf.toString();
+        String str = new String(input, start, nextPos - start);
         token tok;
 
         // directive?
@@ -465,7 +462,7 @@ class Scanner {
         try {
             num = Utils.stringToNumber(str);
         } catch (NumberFormatException e) {
-            if (charBuf.charAt(0) != '.') // directive?
+            if (input[start] != '.') // directive?
                 throw new DasmError("Bad number format");
             throw new DasmError("Unknown directive or bad number format");
         }
@@ -481,13 +478,13 @@ class Scanner {
      * Reads ''-quoted overloaded reserved words
      */
     protected token readQuotedReservedWord() throws IOException, DasmError {
-        charBuf.reset();
+        charBuf.setLength(0);
         for (;;) {
             readNextChar();
             if (isSeparator(nextChar))
                 throw new DasmError("Unterminated ''-enclosed name");
             if (nextChar == '\'') {
-                if (charBuf.size() == 0)
+                if (charBuf.length() == 0)
                     throw new DasmError("Empty ''-enclosed name");
                 readNextChar(); // skip close quote
                 if (!isSeparator(nextChar))
@@ -497,7 +494,7 @@ class Scanner {
             }
             char chval = (char) nextChar;
             if (nextChar == '\\') chval = nameEscape();
-            charBuf.add(chval);
+            charBuf.append(chval);
         }
     }
 };
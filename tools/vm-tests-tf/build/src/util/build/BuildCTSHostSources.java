@@ -79,10 +79,12 @@ public class BuildCTSHostSources extends BuildUtilBase {
     private static class HostState {
         private String fileName;
         private StringBuilder fileData;
+        private StringBuilder vmTests;
 
         public HostState(String fileName) {
             this.fileName = fileName;
             fileData = new StringBuilder();
+            vmTests = new StringBuilder();
         }
 
         public void append(String s) {
@@ -109,11 +111,22 @@ public class BuildCTSHostSources extends BuildUtilBase {
 
             //"dot.junit.opcodes.add_double_2addr.Main_testN2";
             String mainclass = pName + ".Main_" + method;
-            fileData.append(getShellExecJavaLine(cp, mainclass));
+            fileData.append("    runVmTest(\"" + mainclass + "\");");
             fileData.append("\n}\n\n");
+
+            // The tests of the class run in one VM, see DxHostTestCase.
+            vmTests.append("        { \"" + mainclass + "\",\n");
+            vmTests.append("          \"" + cp + "\" },\n");
         }
 
         public void end() {
+            fileData.append("@Override\n" +
+                    "protected String[][] getVmTests() {\n" +
+                    "    return VM_TESTS;\n" +
+                    "}\n\n" +
+                    "private static final String[][] VM_TESTS = {\n");
+            fileData.append(vmTests);
+            fileData.append("};\n");
             fileData.append("\n}\n");
         }
 
@@ -156,42 +169,12 @@ public class BuildCTSHostSources extends BuildUtilBase {
 
         newState.append(getWarningMessage());
         newState.append("package " + modPackage + ";\n");
-        newState.append("import java.io.IOException;\n" +
-                "import java.util.concurrent.TimeUnit;\n\n" +
-                "import com.android.tradefed.device.CollectingOutputReceiver;\n" +
-                "import com.android.tradefed.testtype.IAbi;\n" +
-                "import com.android.tradefed.testtype.IAbiReceiver;\n" +
-                "import com.android.tradefed.testtype.DeviceTestCase;\n" +
-                "import com.android.tradefed.util.AbiFormatter;\n" +
-                "\n");
-        newState.append("public class " + sourceName + " extends DeviceTestCase implements " +
-                "IAbiReceiver {\n");
-
-        newState.append("\n" +
-                "protected IAbi mAbi;\n" +
-                "@Override\n" +
-                "public void setAbi(IAbi abi) {\n" +
-                "    mAbi = abi;\n" +
-                "}\n\n");
+        newState.append("import dot.junit.host.DxHostTestCase;\n\n");
+        newState.append("public class " + sourceName + " extends DxHostTestCase {\n\n");
 
         return newState;
     }
 
-    private static String getShellExecJavaLine(String classpath, String mainclass) {
-      String cmd = String.format("ANDROID_DATA=%s dalvikvm|#ABI#| -Xmx512M -Xss32K " +
-              "-Djava.io.tmpdir=%s -classpath %s %s", TARGET_JAR_ROOT_PATH, TARGET_JAR_ROOT_PATH,
-              classpath, mainclass);
-      StringBuilder code = new StringBuilder();
-      code.append("    String cmd = AbiFormatter.formatCmdForAbi(\"")
-          .append(cmd)
-          .append("\", mAbi.getBitness());\n")
-          .append("    CollectingOutputReceiver receiver = new CollectingOutputReceiver();\n")
-          .append("    getDevice().executeShellCommand(cmd, receiver, 6, TimeUnit.MINUTES, 1);\n")
-          .append("    // A sucessful adb shell command returns an empty string.\n")
-          .append("    assertEquals(cmd, \"\", receiver.getOutput());");
-      return code.toString();
-    }
-
     private String getWarningMessage() {
         return "//Autogenerated code by " + this.getClass().getName() + "; do not edit.\n";
     }
@@ -226,10 +209,8 @@ public class BuildCTSHostSources extends BuildUtilBase {
             // }
             // }
             MethodData md = parseTestMethod(pName, classOnlyName, method);
-            String methodContent = md.methodBody;
 
-            List<String> dependentTestClassNames = parseTestClassName(pName,
-                    classOnlyName, methodContent);
+            List<String> dependentTestClassNames = md.dependencies;
 
             hostState.addCTSHostMethod(pName, method, dependentTestClassNames);
         }
@@ -101,8 +101,7 @@ public class BuildCTSMainsSources extends BuildUtilBase {
             MethodData md = parseTestMethod(pName, classOnlyName, method);
             String methodContent = md.methodBody;
 
-            List<String> dependentTestClassNames = parseTestClassName(pName,
-                    classOnlyName, methodContent);
+            List<String> dependentTestClassNames = md.dependencies;
 
             if (dependentTestClassNames.isEmpty()) {
                 continue;
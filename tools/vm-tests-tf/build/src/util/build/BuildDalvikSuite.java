@@ -44,6 +44,11 @@ public class BuildDalvikSuite extends BuildUtilBase {
 
     private String JAVASRC_FOLDER;
 
+    // optional folder to cache the dex files assembled from smali across builds
+    private String SMALI_CACHE_FOLDER;
+
+    private SmaliBatchBuildStep smaliBuildStep;
+
     /**
      * @param args
      *            args 0 must be the project root folder (where src, lib etc.
@@ -65,10 +70,13 @@ public class BuildDalvikSuite extends BuildUtilBase {
     }
 
     private boolean parseArgs(String[] args) {
-      if (args.length == 3) {
+      if (args.length == 3 || args.length == 4) {
           JAVASRC_FOLDER = args[0];
           OUTPUT_FOLDER = args[1];
           COMPILED_CLASSES_FOLDER = args[2];
+          if (args.length == 4) {
+              SMALI_CACHE_FOLDER = args[3];
+          }
           return true;
       } else {
           return false;
@@ -77,7 +85,7 @@ public class BuildDalvikSuite extends BuildUtilBase {
 
     private static void printUsage() {
         System.out.println("usage: java-src-folder output-folder classpath " +
-                           "generated-main-files compiled_output");
+                           "generated-main-files compiled_output [smali-cache-folder]");
     }
 
     class MyTestHandler implements TestHandler {
@@ -113,10 +121,8 @@ public class BuildDalvikSuite extends BuildUtilBase {
                 // }
                 // }
                 MethodData md = parseTestMethod(pName, classOnlyName, method);
-                String methodContent = md.methodBody;
 
-                List<String> dependentTestClassNames = parseTestClassName(pName,
-                        classOnlyName, methodContent);
+                List<String> dependentTestClassNames = md.dependencies;
 
                 if (dependentTestClassNames.isEmpty()) {
                     continue;
@@ -209,6 +215,8 @@ public class BuildDalvikSuite extends BuildUtilBase {
     @Override
     protected void handleTests(JUnitTestCollector tests, TestHandler ignored) {
         MyTestHandler handler = new MyTestHandler();
+        smaliBuildStep = new SmaliBatchBuildStep(new File(OUTPUT_FOLDER),
+                SMALI_CACHE_FOLDER != null ? new File(SMALI_CACHE_FOLDER) : null);
         super.handleTests(tests, handler);
 
         File scriptDataDir = new File(OUTPUT_FOLDER + "/data/");
@@ -249,31 +257,31 @@ public class BuildDalvikSuite extends BuildUtilBase {
 
         {
             // Build dex from a single '*.smali' file or a *.smalis' dir
-            // containing multiple smali files.
+            // containing multiple smali files. All of them are assembled by
+            // smaliBuildStep, when the first jar is built.
             File dexFile = null;
-            SmaliBuildStep buildStep = null;
+            List<String> inputFiles = null;
             File smaliFile = new File(sourceFolder, fileName + ".smali");
             File smalisDir = new File(sourceFolder, fileName + ".smalis");
 
             if (smaliFile.exists()) {
                 dexFile = new File(OUTPUT_FOLDER, fileName + ".dex");
-                buildStep = new SmaliBuildStep(
-                    Collections.singletonList(smaliFile.getAbsolutePath()), dexFile);
+                inputFiles = Collections.singletonList(smaliFile.getAbsolutePath());
             } else if (smalisDir.exists() && smalisDir.isDirectory()) {
-                List<String> inputFiles = new ArrayList<>();
+                inputFiles = new ArrayList<>();
                 for (File f: smalisDir.listFiles()) {
                     inputFiles.add(f.getAbsolutePath());
                 }
                 dexFile = new File(OUTPUT_FOLDER, fileName + ".dex");
-                buildStep = new SmaliBuildStep(inputFiles, dexFile);
             }
 
-            if (buildStep != null) {
+            if (inputFiles != null) {
+                smaliBuildStep.addDexFile(inputFiles, dexFile);
                 BuildStep.BuildFile jarFile = new BuildStep.BuildFile(
                         OUTPUT_FOLDER, fileName + ".jar");
                 JarBuildStep jarBuildStep = new JarBuildStep(new BuildStep.BuildFile(dexFile),
                         "classes.dex", jarFile, true);
-                jarBuildStep.addChild(buildStep);
+                jarBuildStep.addChild(smaliBuildStep);
                 targets.add(jarBuildStep);
                 return;
             }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import org.jf.smali.Smali;
+import org.jf.smali.SmaliOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BuildStep that assembles the dex files of all test cases written in Smali
+ * in one pass.
+ *
+ * Each dex file is assembled by its own {@link Smali#assemble} call, so the
+ * output is the same as with one SmaliBuildStep per dex file, and the dex
+ * files are assembled in parallel. If a cache folder is given, dex files are
+ * stored there by a hash of their inputs, and copied from there when the
+ * inputs did not change.
+ *
+ * The step builds once; JarBuildSteps of the dex files add it as a child, and
+ * the first one to build assembles all dex files.
+ */
+class SmaliBatchBuildStep extends BuildStep {
+
+    /** Changes the cache keys, to invalidate the cache if the cached data changes. */
+    private static final String CACHE_VERSION = "2";
+
+    private final File cacheFolder;
+
+    /** Input files of each dex file. */
+    private final Map<File, List<String>> dexInputs = new TreeMap<File, List<String>>();
+
+    private Boolean result;
+
+    /**
+     * @param outputFolder the folder the dex files are written to
+     * @param cacheFolder the folder of the dex cache, or null for no cache
+     */
+    SmaliBatchBuildStep(File outputFolder, File cacheFolder) {
+        super(outputFolder);
+        this.cacheFolder = cacheFolder;
+    }
+
+    private static SmaliOptions createOptions() {
+        SmaliOptions options = new SmaliOptions();
+        options.verboseErrors = true;
+        return options;
+    }
+
+    /**
+     * Adds a dex file assembled from the given .smali files or directories.
+     */
+    void addDexFile(List<String> inputFiles, File dexFile) {
+        dexInputs.put(dexFile, inputFiles);
+    }
+
+    @Override
+    boolean build() {
+        if (result == null) {
+            result = super.build() && buildAll();
+        }
+        return result;
+    }
+
+    private boolean buildAll() {
+        long start = System.currentTimeMillis();
+        if (cacheFolder != null && !cacheFolder.isDirectory() && !cacheFolder.mkdirs()) {
+            System.err.println("failed to create smali cache dir: "
+                    + cacheFolder.getAbsolutePath());
+            return false;
+        }
+        // The options every dex file starts from, for the job count and the cache keys.
+        SmaliOptions defaults = createOptions();
+        final String toolKey = getToolKey(defaults);
+
+        ExecutorService executor = Executors.newFixedThreadPool(defaults.jobs);
+        int assembled = 0;
+        int failed = 0;
+        try {
+            List<Future<Boolean>> tasks = new ArrayList<Future<Boolean>>();
+            for (final Map.Entry<File, List<String>> e : dexInputs.entrySet()) {
+                tasks.add(executor.submit(() -> buildDexFile(e.getValue(), e.getKey(), toolKey)));
+            }
+            for (Future<Boolean> task : tasks) {
+                try {
+                    if (task.get()) {
+                        assembled++;
+                    }
+                } catch (ExecutionException e) {
+                    failed++;
+                    if (BuildDalvikSuite.DEBUG) {
+                        e.getCause().printStackTrace();
+                    }
+                    System.err.println("Exception <" + e.getCause().getClass().getName() + ">"
+                            + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        System.out.println("smali: " + dexInputs.size() + " dex files, " + assembled
+                + " assembled, " + (dexInputs.size() - assembled - failed) + " from cache, "
+                + failed + " failed, in " + (System.currentTimeMillis() - start) + " ms");
+        return failed == 0;
+    }
+
+    /**
+     * Assembles a dex file, or copies it from the cache.
+     *
+     * @return whether the dex file was assembled
+     */
+    private boolean buildDexFile(List<String> inputFiles, File dexFile, String toolKey)
+            throws Exception {
+        // The files in the order Smali.assemble uses, for the cache key.
+        TreeSet<File> files = new TreeSet<File>();
+        for (String inputFile : inputFiles) {
+            addSmaliFiles(new File(inputFile), files);
+        }
+        List<byte[]> contents = new ArrayList<byte[]>(files.size());
+        for (File file : files) {
+            contents.add(Files.readAllBytes(file.toPath()));
+        }
+
+        File destDir = dexFile.getParentFile();
+        if (!destDir.exists()) {
+            destDir.mkdirs();
+        }
+
+        File cachedFile = null;
+        if (cacheFolder != null) {
+            cachedFile = new File(cacheFolder, getCacheKey(toolKey, files, contents) + ".dex");
+            if (cachedFile.exists()) {
+                Files.copy(cachedFile.toPath(), dexFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                return false;
+            }
+        }
+
+        SmaliOptions dexOptions = createOptions();
+        dexOptions.outputDexFile = dexFile.getAbsolutePath();
+        // The dex files are already assembled in parallel.
+        dexOptions.jobs = 1;
+        if (!Smali.assemble(dexOptions, inputFiles)) {
+            throw new IOException("failed to assemble " + dexFile.getAbsolutePath());
+        }
+
+        if (cachedFile != null) {
+            // Another build may add the same file concurrently, so move it in atomically.
+            File tmpFile = File.createTempFile("smali", ".tmp", cacheFolder);
+            Files.copy(dexFile.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpFile.toPath(), cachedFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a file, or the .smali files in a directory and its subdirectories, like
+     * {@link Smali#assemble} does, for the cache key.
+     */
+    private static void addSmaliFiles(File file, TreeSet<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    if (child.isDirectory() || child.getName().endsWith(".smali")) {
+                        addSmaliFiles(child, files);
+                    }
+                }
+            }
+        } else if (file.isFile()) {
+            files.add(file);
+        } else {
+            throw new IllegalArgumentException("Cannot find file or directory \""
+                    + file.getAbsolutePath() + "\"");
+        }
+    }
+
+    /**
+     * Returns the part of the cache keys that identifies the assembler: the options, and the
+     * smali jar, so that an updated smali does not reuse old dex files.
+     */
+    private static String getToolKey(SmaliOptions options) {
+        StringBuilder key = new StringBuilder(CACHE_VERSION);
+        key.append(";api=").append(options.apiLevel);
+        key.append(";odex=").append(options.allowOdexOpcodes);
+        try {
+            File jar = new File(Smali.class.getProtectionDomain().getCodeSource().getLocation()
+                    .toURI());
+            key.append(";smali=").append(jar.getAbsolutePath()).append(',')
+                    .append(jar.length()).append(',').append(jar.lastModified());
+        } catch (Exception e) {
+            // No location, rely on CACHE_VERSION.
+        }
+        return key.toString();
+    }
+
+    private static String getCacheKey(String toolKey, TreeSet<File> files, List<byte[]> contents) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(toolKey.getBytes(StandardCharsets.UTF_8));
+        int i = 0;
+        for (File file : files) {
+            byte[] content = contents.get(i++);
+            digest.update(("\n" + file.getName() + "\n" + content.length + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            digest.update(content);
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b & 0xff));
+        }
+        return key.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (super.equals(obj)) {
+            SmaliBatchBuildStep other = (SmaliBatchBuildStep) obj;
+            return dexInputs.equals(other.dexInputs) && outputFile.equals(other.outputFile);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return outputFile.hashCode();
+    }
+}
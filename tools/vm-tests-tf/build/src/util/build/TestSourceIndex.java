@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package util.build;
+
+import util.build.BuildUtilBase.MethodData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the test sources the code generators read the test methods from.
+ *
+ * Each Test_*.java is read and parsed once, into the body, the @title and
+ * @constraint of the javadoc, and the dependencies of each of its test methods.
+ * The result is the same as parsing the source again for every method with
+ * method specific patterns, as the generators used to.
+ *
+ * If a file is given, the index is kept there between runs, and the methods of a
+ * source are only parsed again if the SHA-1 of the source changed. The three
+ * generators can share the file.
+ */
+class TestSourceIndex {
+
+    /** System property naming the file the index is kept in. */
+    static final String INDEX_FILE_PROPERTY = "vmtests.source.index";
+
+    /** Changes whenever the parsing or the data changes, to invalidate old index files. */
+    private static final int INDEX_VERSION = 1;
+
+    private static final Pattern METHOD_DECLARATION_PATTERN =
+            Pattern.compile("public\\s+void\\s+(\\w+)");
+    private static final Pattern TITLE_PATTERN = Pattern.compile("@title (.*)", Pattern.DOTALL);
+    private static final Pattern TITLE_CONTINUATION_PATTERN = Pattern.compile("\\n     \\*");
+    private static final Pattern NEWLINE_PATTERN = Pattern.compile("\\n");
+    private static final Pattern CONSTRAINT_PATTERN = Pattern.compile("@constraint (.*)");
+    private static final Pattern TEST_CLASS_PATTERN = Pattern.compile("new\\s(T\\w*)");
+    private static final Pattern USES_PATTERN =
+            Pattern.compile("@uses\\s+(.*)\\s+", Pattern.MULTILINE);
+    private static final Pattern LOAD_PATTERN =
+            Pattern.compile("load\\(\"([^\"]*)\"", Pattern.MULTILINE);
+    private static final Pattern LOAD_AND_RUN_PATTERN =
+            Pattern.compile("loadAndRun\\(\"([^\"]*)\"", Pattern.MULTILINE);
+
+    /** The parsed methods of a source. */
+    private static class SourceData implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String hash;
+        final Map<String, MethodData> methods = new HashMap<String, MethodData>();
+
+        SourceData(String hash) {
+            this.hash = hash;
+        }
+    }
+
+    /** A "public void name" in a source. */
+    private static class Declaration {
+        /** Index of "public". */
+        int start;
+        int nameStart;
+        String name;
+        /** Index of the first '{' after the name, or -1. */
+        int brace;
+    }
+
+    private final ClassLoader loader;
+    private final File indexFile;
+
+    /** Sources by path, as read from the index file, and as parsed by this run. */
+    private Map<String, SourceData> sources = new HashMap<String, SourceData>();
+
+    /** Sources whose hash was checked by this run, the ones saved. */
+    private final Map<String, SourceData> checkedSources = new HashMap<String, SourceData>();
+
+    /** Patterns of the test classes of an opcode, for {@link #parseDependencies}. */
+    private final Map<String, Pattern[]> opcodePatterns = new HashMap<String, Pattern[]>();
+
+    private boolean changed;
+    private int parsedCount;
+    private int reusedCount;
+
+    /**
+     * @param loader the class loader the sources are resources of
+     * @param indexFile the file the index is kept in, or null to parse every source
+     */
+    TestSourceIndex(ClassLoader loader, File indexFile) {
+        this.loader = loader;
+        this.indexFile = indexFile;
+        if (indexFile != null && indexFile.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * Returns a TestSourceIndex kept in the file named by the {@link #INDEX_FILE_PROPERTY}
+     * system property, if set.
+     */
+    static TestSourceIndex create(ClassLoader loader) {
+        String indexFile = System.getProperty(INDEX_FILE_PROPERTY);
+        return new TestSourceIndex(loader, indexFile != null ? new File(indexFile) : null);
+    }
+
+    /**
+     * Returns the data of a test method, printing the warnings about it.
+     */
+    MethodData getMethod(String pName, String classOnlyName, String method) {
+        String searchPath = "src/" + pName.replace('.', '/') + "/" + classOnlyName + ".java";
+        SourceData source = checkedSources.get(searchPath);
+        if (source == null) {
+            String content = read(searchPath);
+            String hash = getHash(content);
+            source = sources.get(searchPath);
+            if (source != null && source.hash.equals(hash)) {
+                reusedCount++;
+            } else {
+                source = parse(pName, classOnlyName, content, hash);
+                sources.put(searchPath, source);
+                parsedCount++;
+            }
+            checkedSources.put(searchPath, source);
+        }
+
+        MethodData md = source.methods.get(method);
+        if (md == null) {
+            // Not declared as itself, but maybe as a method it is a prefix of.
+            String content = read(searchPath);
+            md = parseMethod(pName, classOnlyName, method, content, findDeclarations(content));
+            if (md == null) {
+                throw new RuntimeException("cannot find method source of 'public void " + method
+                        + "' in file '" + searchPath + "'");
+            }
+            source.methods.put(method, md);
+            changed = true;
+        }
+        printWarnings(pName, classOnlyName, method, md);
+        return md;
+    }
+
+    /**
+     * Writes the index file, with the sources read by this run, if it changed.
+     */
+    void save() {
+        System.out.println("test sources: " + parsedCount + " parsed, " + reusedCount
+                + " from index");
+        // Sources not read by this run were deleted, drop them.
+        if (indexFile == null || (!changed && checkedSources.size() == sources.size())) {
+            return;
+        }
+        try {
+            File parent = indexFile.getAbsoluteFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                throw new IOException("failed to create directory: " + parent.getAbsolutePath());
+            }
+            // Another generator may write the index concurrently, so move it in atomically.
+            File tmpFile = File.createTempFile("index", ".tmp", parent);
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeInt(INDEX_VERSION);
+                out.writeObject(checkedSources);
+            }
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The index only saves time.
+            System.err.println("warning: failed to write " + indexFile + ": " + e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load() {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() == INDEX_VERSION) {
+                sources = (Map<String, SourceData>) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.err.println("warning: ignoring " + indexFile + ": " + e);
+        }
+    }
+
+    private String read(String searchPath) {
+        URL resource = loader.getResource(searchPath);
+        if (resource == null) {
+            throw new RuntimeException("Could not find " + searchPath);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = resource.openStream()) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (bytes.size() == 0) {
+            throw new RuntimeException("Could not retrieve content for " + searchPath);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String getHash(String content) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest(content.getBytes(StandardCharsets.UTF_8))) {
+            hash.append(String.format("%02x", b & 0xff));
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Parses all methods declared in a source.
+     */
+    private SourceData parse(String pName, String classOnlyName, String content, String hash) {
+        changed = true;
+        SourceData source = new SourceData(hash);
+        List<Declaration> declarations = findDeclarations(content);
+        for (Declaration declaration : declarations) {
+            if (!source.methods.containsKey(declaration.name)) {
+                MethodData md = parseMethod(pName, classOnlyName, declaration.name, content,
+                        declarations);
+                if (md != null) {
+                    source.methods.put(declaration.name, md);
+                }
+            }
+        }
+        return source;
+    }
+
+    private static List<Declaration> findDeclarations(String content) {
+        List<Declaration> declarations = new ArrayList<Declaration>();
+        Matcher m = METHOD_DECLARATION_PATTERN.matcher(content);
+        while (m.find()) {
+            Declaration declaration = new Declaration();
+            declaration.start = m.start();
+            declaration.nameStart = m.start(1);
+            declaration.name = m.group(1);
+            declaration.brace = content.indexOf('{', m.end(1));
+            declarations.add(declaration);
+        }
+        return declarations;
+    }
+
+    /**
+     * Returns whether a declaration matches "public\s+void\s+method[^\{]+\{", the pattern the
+     * source of a method used to be searched with. This includes methods whose name starts
+     * with the method name.
+     */
+    private static boolean matches(Declaration declaration, String method) {
+        return declaration.brace != -1 && declaration.name.startsWith(method)
+                && declaration.brace > declaration.nameStart + method.length();
+    }
+
+    /**
+     * Parses a method, or returns null if no declaration matches it.
+     */
+    private MethodData parseMethod(String pName, String classOnlyName, String method,
+            String content, List<Declaration> declarations) {
+        Declaration found = null;
+        for (Declaration declaration : declarations) {
+            if (matches(declaration, method)) {
+                found = declaration;
+                break;
+            }
+        }
+        if (found == null) {
+            return null;
+        }
+
+        // The body up to the brace closing the method, counting all braces.
+        int end = found.brace + 1;
+        int blocks = 1;
+        while (end < content.length() && blocks > 0) {
+            char c = content.charAt(end++);
+            if (c == '}') {
+                blocks--;
+            } else if (c == '{') {
+                blocks++;
+            }
+        }
+
+        MethodData md = new MethodData();
+        md.methodBody = content.substring(found.brace + 1, end);
+
+        String javadoc = findJavadoc(method, content, declarations);
+        md.hasJavadoc = javadoc != null;
+        if (javadoc != null) {
+            Matcher titleM = TITLE_PATTERN.matcher(javadoc);
+            if (titleM.find()) {
+                String title = TITLE_CONTINUATION_PATTERN.matcher(titleM.group(1)).replaceAll("");
+                md.title = NEWLINE_PATTERN.matcher(title).replaceAll(" ").trim();
+            }
+            // constraint can be one line only
+            Matcher constraintM = CONSTRAINT_PATTERN.matcher(javadoc);
+            if (constraintM.find()) {
+                md.constraint = constraintM.group(1).trim();
+            }
+        }
+        md.dependencies = parseDependencies(pName, classOnlyName, md.methodBody);
+        return md;
+    }
+
+    /**
+     * Returns the text of the javadoc comment of a method, as the comment pattern followed by
+     * the method pattern used to match it: from the first comment start with no '{' between
+     * it and a matching declaration, up to the last comment end directly before one.
+     */
+    private static String findJavadoc(String method, String content,
+            List<Declaration> declarations) {
+        int start = content.indexOf("/**");
+        while (start != -1) {
+            int textStart = start + 3;
+            int brace = content.indexOf('{', textStart);
+            if (brace == -1) {
+                return null;
+            }
+            int textEnd = -1;
+            for (Declaration declaration : declarations) {
+                if (declaration.start < textStart || declaration.brace != brace
+                        || !matches(declaration, method)) {
+                    continue;
+                }
+                int commentEnd = declaration.start;
+                while (commentEnd > 0 && isWhitespace(content.charAt(commentEnd - 1))) {
+                    commentEnd--;
+                }
+                if (commentEnd - 2 >= textStart && content.startsWith("*/", commentEnd - 2)) {
+                    textEnd = commentEnd - 2;
+                }
+            }
+            if (textEnd != -1) {
+                return content.substring(textStart, textEnd);
+            }
+            start = content.indexOf("/**", start + 1);
+        }
+        return null;
+    }
+
+    /** Whether c matches \s. */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Returns the names of the test classes a test method uses: the class it creates, the
+     * classes named by @uses, and the classes it loads.
+     */
+    private List<String> parseDependencies(String pName, String classOnlyName,
+            String methodSource) {
+        List<String> entries = new ArrayList<String>(2);
+        String opcodeName = classOnlyName.substring(5);
+        Pattern[] patterns = opcodePatterns.get(opcodeName);
+        if (patterns == null) {
+            patterns = new Pattern[] {
+                    Pattern.compile("new\\s(T_" + opcodeName + "\\w*)"),
+                    Pattern.compile("(T_" + opcodeName + "\\w*)"),
+                    TEST_CLASS_PATTERN };
+            opcodePatterns.put(opcodeName, patterns);
+        }
+
+        String token = null;
+        for (Pattern pattern : patterns) {
+            Matcher m = pattern.matcher(methodSource);
+            if (m.find()) {
+                token = m.group(1);
+                break;
+            }
+        }
+        if (token == null) {
+            return entries;
+        }
+        entries.add((pName + ".d." + token).trim());
+
+        // search additional @uses directives
+        Matcher m = USES_PATTERN.matcher(methodSource);
+        while (m.find()) {
+            entries.add(0, m.group(1).trim());
+        }
+
+        // search for " load(\"...\" " and add as dependency
+        m = LOAD_PATTERN.matcher(methodSource);
+        while (m.find()) {
+            entries.add(m.group(1).trim());
+        }
+
+        // search for " loadAndRun(\"...\" " and add as dependency
+        m = LOAD_AND_RUN_PATTERN.matcher(methodSource);
+        while (m.find()) {
+            entries.add(m.group(1).trim());
+        }
+        return entries;
+    }
+
+    private static void printWarnings(String pName, String classOnlyName, String method,
+            MethodData md) {
+        if (!md.hasJavadoc) {
+            System.err.println("warning: no javadoc found for method " + method + " in " + pName
+                    + "," + classOnlyName);
+        } else {
+            if (md.title == null) {
+                System.err.println("warning: no @title found for method " + method + " in "
+                        + pName + "," + classOnlyName);
+            }
+            if (md.constraint == null && method.contains("VFE")) {
+                System.err.println("warning: no @constraint for for a VFE method:" + method
+                        + " in " + pName + "," + classOnlyName);
+            }
+        }
+        if (md.dependencies.isEmpty()) {
+            System.err.println("warning: failed to find dependent test class name: " + pName
+                    + ", " + classOnlyName + " in methodSource:\n" + md.methodBody);
+        }
+    }
+}
@@ -15,35 +15,15 @@
 # limitations under the License.
 #
 # Execute cfassembler for the given programs.
+#
+# All programs are assembled by a single cfassembler process, which writes the
+# jar of each test (tests/<path>/<name>.jar holding classes.dex) into the final
+# jar directly.
 prog="$0"
 cfassembler="$1"
 shift
-soong_zip="$1"
-shift
-gen_dir="$1"
-shift
 out="$1"
 shift
 
-for IN in $@ ; do
-  # Strip cts/tools/vm-tests-tf/src
-  TESTDIR_DFH=${IN#cts/tools/vm-tests-tf/src}
-  TESTDIR=${TESTDIR_DFH%.dfh}
-  TESTNAME=`basename $TESTDIR`
-  TESTDIRPARENT=`dirname $TESTDIR`
-
-  GENDIR="$gen_dir/tmp/tests/$TESTDIR"
-  GENDIRP="$gen_dir/tmp/tests/$TESTDIRPARENT"
-
-  mkdir -p $GENDIR || exit 1
-  # Assemble.
-  $cfassembler $IN $GENDIR || exit 1
-  # Wrap inside jar.
-  $soong_zip -o $GENDIRP/$TESTNAME.jar -C $GENDIR -D $GENDIR || exit 1
-  rm $GENDIR/classes.dex || exit 1
-  rmdir $GENDIR || exit 1
-done
-
-# Create the final jar.
-$soong_zip -o $out -C $gen_dir/tmp -D $gen_dir/tmp || exit 1
-rm -rf $gen_dir/tmp || exit 1
+# Strip cts/tools/vm-tests-tf/src from the test paths.
+$cfassembler --batch --root cts/tools/vm-tests-tf/src -o $out $@ || exit 1
@@ -15,39 +15,15 @@
 # limitations under the License.
 #
 # Execute dasm for the given programs.
+#
+# All programs are assembled by a single dasm process, which writes the jar of
+# each test (tests/<path>/<name>.jar holding classes.dex) into the final jar
+# directly.
 prog="$0"
 dasm="$1"
 shift
-soong_zip="$1"
-shift
-gen_dir="$1"
-shift
 out="$1"
 shift
 
-# dasm is hardcoded to produce an output file as if it was a Java input:
-#  * package is translated to path components
-#  * single dex file with the name of the class
-
-GENDIR="$gen_dir/tmp/tests"
-mkdir -p $GENDIR || exit 1
-
-for IN in $@ ; do
-  # Strip cts/tools/vm-tests-tf/src
-  TESTDIR_DFH=${IN#cts/tools/vm-tests-tf/src}
-  TESTDIR=${TESTDIR_DFH%.d}
-  TESTNAME=`basename $TESTDIR`
-  TESTDIRPARENT=`dirname $TESTDIR`
-
-  # Assemble.
-  $dasm -d $GENDIR $IN || exit 1
-  # Rename to classes.dex.
-  mv $GENDIR/$TESTDIR.dex $GENDIR/$TESTDIRPARENT/classes.dex
-  # Wrap inside jar.
-  $soong_zip -o $GENDIR/$TESTDIR.jar -C $GENDIR/$TESTDIRPARENT -f $GENDIR/$TESTDIRPARENT/classes.dex || exit 1
-  rm $GENDIR/$TESTDIRPARENT/classes.dex || exit 1
-done
-
-# Create the final jar.
-$soong_zip -o $out -C $gen_dir/tmp -D $gen_dir/tmp || exit 1
-rm -rf $gen_dir/tmp || exit 1
+# Strip cts/tools/vm-tests-tf/src from the test paths.
+$dasm --batch --root cts/tools/vm-tests-tf/src -o $out $@ || exit 1
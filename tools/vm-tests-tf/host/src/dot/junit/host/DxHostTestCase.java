@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dot.junit.host;
+
+import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.device.CollectingOutputReceiver;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.testtype.DeviceTestCase;
+import com.android.tradefed.testtype.IAbi;
+import com.android.tradefed.testtype.IAbiReceiver;
+import com.android.tradefed.testtype.IBuildReceiver;
+import com.android.tradefed.util.AbiFormatter;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base class of the generated vm test host classes.
+ *
+ * The first test of a class that runs on an ABI runs the Main_* classes of all
+ * tests of the class in one dalvikvm, with dot.junit.DxTestRunner, and keeps
+ * their results. Each test then checks its own result. A test without a result,
+ * e.g. because the runner crashed or stopped after a timeout, runs in a
+ * dalvikvm of its own, as all tests used to. Each result is used once, so
+ * that a retry of a test runs it again in a dalvikvm of its own.
+ */
+public abstract class DxHostTestCase extends DeviceTestCase
+        implements IAbiReceiver, IBuildReceiver {
+
+    private static final String TARGET_JAR_ROOT_PATH = "/data/local/tmp/vm-tests";
+
+    private static final String DEXCORE_JAR = TARGET_JAR_ROOT_PATH + "/dot/junit/dexcore.jar";
+
+    private static final String VM_COMMAND = "ANDROID_DATA=" + TARGET_JAR_ROOT_PATH
+            + " dalvikvm|#ABI#| -Xmx512M -Xss32K -Djava.io.tmpdir=" + TARGET_JAR_ROOT_PATH;
+
+    /** Stack size of the test threads of the runner, as set by -Xss32K for a VM per test. */
+    private static final int RUNNER_STACK_SIZE = 32 * 1024;
+
+    /**
+     * Timeout of a test in the runner, below the 6 minutes a shell command may
+     * go without output, since the runner prints a line after each test.
+     */
+    private static final int RUNNER_TIMEOUT_SECONDS = 5 * 60;
+
+    /** Must match the output of DxTestRunner. */
+    private static final String RESULT_PREFIX = "VMTEST ";
+    private static final String PASS = "PASS";
+
+    /**
+     * Results of the batch runs, by test class, ABI, device and build, and by
+     * main class: the output of the test, empty if it passed. The first test of
+     * a key runs the batch, others wait for its future.
+     */
+    private static final ConcurrentMap<String, Future<Map<String, String>>> sResults =
+            new ConcurrentHashMap<String, Future<Map<String, String>>>();
+
+    protected IAbi mAbi;
+    protected IBuildInfo mBuild;
+
+    @Override
+    public void setAbi(IAbi abi) {
+        mAbi = abi;
+    }
+
+    @Override
+    public void setBuild(IBuildInfo buildInfo) {
+        mBuild = buildInfo;
+    }
+
+    /**
+     * Returns the tests of this class, as pairs of the name of their Main_*
+     * class and their classpath on the device.
+     */
+    protected abstract String[][] getVmTests();
+
+    /**
+     * Runs the Main_* class of a test of this class, and checks that it printed nothing.
+     */
+    protected void runVmTest(String mainClass) throws Exception {
+        String classpath = null;
+        for (String[] test : getVmTests()) {
+            if (test[0].equals(mainClass)) {
+                classpath = test[1];
+            }
+        }
+        assertNotNull("unknown test " + mainClass, classpath);
+
+        String cmd = AbiFormatter.formatCmdForAbi(
+                VM_COMMAND + " -classpath " + classpath + " " + mainClass, mAbi.getBitness());
+        String output = getBatchResults().remove(mainClass);
+        if (output == null) {
+            CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+            getDevice().executeShellCommand(cmd, receiver, 6, TimeUnit.MINUTES, 1);
+            output = receiver.getOutput();
+        }
+        // A sucessful adb shell command returns an empty string.
+        assertEquals(cmd, "", output);
+    }
+
+    /**
+     * Returns the results of the tests of this class, running them on the
+     * first call for an ABI, device and build. The batch runs outside of any
+     * lock shared with other classes or devices.
+     */
+    private Map<String, String> getBatchResults() throws InterruptedException {
+        final String key = getClass().getName() + " " + mAbi.getName() + " "
+                + getDevice().getSerialNumber() + " "
+                + (mBuild != null ? mBuild.getBuildId() : "");
+        FutureTask<Map<String, String>> task = new FutureTask<Map<String, String>>(
+                new Callable<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call() {
+                        return runBatch(key);
+                    }
+                });
+        Future<Map<String, String>> future = sResults.putIfAbsent(key, task);
+        if (future == null) {
+            future = task;
+            task.run();
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("batch run of " + key + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Runs the tests of this class in one VM. The results are empty if the
+     * run fails, tests then fall back to a VM of their own.
+     */
+    private Map<String, String> runBatch(String key) {
+        Map<String, String> results = new ConcurrentHashMap<String, String>();
+        StringBuilder testList = new StringBuilder();
+        for (String[] test : getVmTests()) {
+            testList.append(test[0]).append(' ').append(test[1]).append('\n');
+        }
+        String listPath = TARGET_JAR_ROOT_PATH + "/" + getClass().getName() + "-"
+                + mAbi.getName() + ".tests";
+        String cmd = AbiFormatter.formatCmdForAbi(VM_COMMAND + " -classpath " + DEXCORE_JAR
+                + " dot.junit.DxTestRunner -t " + RUNNER_TIMEOUT_SECONDS
+                + " -s " + RUNNER_STACK_SIZE + " " + listPath + "; rm -f " + listPath,
+                mAbi.getBitness());
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        try {
+            if (!getDevice().pushString(testList.toString(), listPath)) {
+                CLog.w("Failed to push the test list of %s, running each test alone", key);
+                return results;
+            }
+            getDevice().executeShellCommand(cmd, receiver, 6, TimeUnit.MINUTES, 1);
+        } catch (DeviceNotAvailableException e) {
+            // Also thrown when the runner is unresponsive: leave the results
+            // empty, each test then reports its own outcome.
+            CLog.w("Failed to run the tests of %s in one VM, running each test alone: %s",
+                    key, e);
+            return results;
+        }
+        parseResults(receiver.getOutput(), results);
+        return results;
+    }
+
+    /**
+     * Parses the result lines of DxTestRunner. Other lines, e.g. printed by
+     * threads that outlived their test, are ignored.
+     */
+    private static void parseResults(String output, Map<String, String> results) {
+        for (String line : output.split("\r?\n")) {
+            if (!line.startsWith(RESULT_PREFIX)) {
+                continue;
+            }
+            // status class millis [output]
+            String[] fields = line.substring(RESULT_PREFIX.length()).split(" ", 4);
+            if (fields.length < 3) {
+                continue;
+            }
+            if (fields[0].equals(PASS)) {
+                results.put(fields[1], "");
+            } else {
+                String testOutput = fields.length == 4 ? unescape(fields[3]) : "";
+                results.put(fields[1], fields[0] + ": " + testOutput);
+            }
+        }
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                sb.append(c == 'n' ? '\n' : c == 'r' ? '\r' : c);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dot.junit;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Runs the Main_* classes of many tests in one VM, instead of a VM per test.
+ *
+ * <pre>
+ * dalvikvm -classpath dexcore.jar dot.junit.DxTestRunner [-t timeout-seconds]
+ *         [-s stack-size] [test-list]
+ * </pre>
+ *
+ * Tests are read from test-list, or from stdin, one per line: the name of the
+ * Main_* class, a space, and the classpath the test runs with. Each test runs
+ * in a new thread, with its classpath loaded by a new class loader, so tests
+ * do not share classes or static state. Like with a VM per test, a test passes
+ * if its main method returns without printing anything.
+ *
+ * A line is printed to stdout for each test when it ends:
+ *
+ * <pre>
+ * VMTEST PASS class millis
+ * VMTEST FAIL class millis output
+ * VMTEST TIMEOUT class millis output
+ * </pre>
+ *
+ * where output holds what the test printed and the stack trace of what it
+ * threw, with backslashes, newlines and carriage returns escaped. A test that
+ * times out keeps running, so the runner exits after reporting it, and the
+ * remaining tests have no result.
+ *
+ * Off Android, classpath entries are loaded as class jars or directories, so
+ * the runner can be run with the Main_* classes on a host VM.
+ */
+public class DxTestRunner implements Runnable {
+
+    private static final String RESULT_PREFIX = "VMTEST ";
+    private static final String PASS = "PASS";
+    private static final String FAIL = "FAIL";
+    private static final String TIMEOUT = "TIMEOUT";
+
+    private static final long DEFAULT_TIMEOUT_SECONDS = 300;
+
+    private final String mainClass;
+    private final String classpath;
+    private final PrintStream output;
+
+    private DxTestRunner(String mainClass, String classpath, PrintStream output) {
+        this.mainClass = mainClass;
+        this.classpath = classpath;
+        this.output = output;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long timeoutMillis = DEFAULT_TIMEOUT_SECONDS * 1000;
+        long stackSize = 0;
+        String testList = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-t") && i + 1 < args.length) {
+                timeoutMillis = Long.parseLong(args[++i]) * 1000;
+            } else if (args[i].equals("-s") && i + 1 < args.length) {
+                stackSize = Long.parseLong(args[++i]);
+            } else if (testList == null && !args[i].startsWith("-")) {
+                testList = args[i];
+            } else {
+                System.err.println("usage: DxTestRunner [-t timeout-seconds] [-s stack-size]"
+                        + " [test-list]");
+                System.exit(2);
+            }
+        }
+
+        BufferedReader in = new BufferedReader(testList != null
+                ? new FileReader(testList) : new InputStreamReader(System.in));
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        boolean failed = false;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                String mainClass = space < 0 ? line : line.substring(0, space);
+                String classpath = space < 0 ? "" : line.substring(space + 1).trim();
+
+                ByteArrayOutputStream testOutput = new ByteArrayOutputStream();
+                PrintStream capture = new PrintStream(testOutput, true);
+                Thread thread = new Thread(null,
+                        new DxTestRunner(mainClass, classpath, capture), mainClass, stackSize);
+                thread.setDaemon(true);
+
+                long start = System.nanoTime();
+                System.setOut(capture);
+                System.setErr(capture);
+                try {
+                    thread.start();
+                    thread.join(timeoutMillis);
+                } finally {
+                    System.setOut(out);
+                    System.setErr(err);
+                }
+                long millis = (System.nanoTime() - start) / 1000000;
+
+                String result = testOutput.toString();
+                if (thread.isAlive()) {
+                    out.println(RESULT_PREFIX + TIMEOUT + " " + mainClass + " " + millis + " "
+                            + escape("timed out after " + millis + " ms\n" + result));
+                    out.flush();
+                    System.exit(1);
+                } else if (result.length() > 0) {
+                    failed = true;
+                    out.println(RESULT_PREFIX + FAIL + " " + mainClass + " " + millis + " "
+                            + escape(result));
+                } else {
+                    out.println(RESULT_PREFIX + PASS + " " + mainClass + " " + millis);
+                }
+                out.flush();
+            }
+        } finally {
+            in.close();
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Loads the main class with a new class loader, and runs its main method.
+     * What it throws is printed to the output of the test.
+     */
+    public void run() {
+        try {
+            ClassLoader loader = createClassLoader(classpath);
+            Thread.currentThread().setContextClassLoader(loader);
+            Class<?> c = Class.forName(mainClass, true, loader);
+            c.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            printThrowable(e.getCause());
+        } catch (Throwable t) {
+            printThrowable(t);
+        }
+    }
+
+    private void printThrowable(Throwable t) {
+        output.print("Exception in thread \"main\" ");
+        t.printStackTrace(output);
+    }
+
+    /**
+     * Returns a class loader for a classpath, whose parent only loads the
+     * classes of the platform, so that every class of the test is loaded anew.
+     */
+    private static ClassLoader createClassLoader(String classpath) throws Exception {
+        ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+        try {
+            Class<?> pathClassLoader = Class.forName("dalvik.system.PathClassLoader");
+            return (ClassLoader) pathClassLoader.getConstructor(String.class, ClassLoader.class)
+                    .newInstance(classpath, parent);
+        } catch (ClassNotFoundException e) {
+            // Not on Android.
+        }
+        String[] entries = classpath.split(File.pathSeparator);
+        URL[] urls = new URL[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            urls[i] = new File(entries[i]).toURI().toURL();
+        }
+        return new URLClassLoader(urls, parent);
+    }
+
+    /**
+     * Escapes backslashes, newlines and carriage returns, so that s fits on one line.
+     */
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dot.junit;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests of {@link DxTestRunner}, run in a host JVM with the Main_* classes below.
+ */
+public class DxTestRunnerTest extends TestCase {
+
+    /** Passes once per class loader, fails if its statics are shared. */
+    public static class CountingMain {
+        static int sRuns;
+
+        public static void main(String[] args) {
+            if (++sRuns != 1) {
+                System.out.println("statics shared, runs: " + sRuns);
+            }
+        }
+    }
+
+    public static class PassMain {
+        public static void main(String[] args) {
+            CountingMain.main(args);
+        }
+    }
+
+    public static class OutputMain {
+        public static void main(String[] args) {
+            System.out.println("first\\line");
+            System.err.println("second");
+        }
+    }
+
+    public static class ThrowMain {
+        public static void main(String[] args) {
+            throw new IllegalStateException("thrown");
+        }
+    }
+
+    public static class HangMain {
+        public static void main(String[] args) throws InterruptedException {
+            Thread.sleep(Long.MAX_VALUE);
+        }
+    }
+
+    private File mTestList;
+
+    @Override
+    protected void setUp() throws Exception {
+        mTestList = File.createTempFile("vmtests", ".tests");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTestList.delete();
+    }
+
+    /** Test that passing tests are reported, with statics isolated between tests. */
+    public void testPass() throws Exception {
+        List<String> lines = run(0, CountingMain.class, PassMain.class, CountingMain.class);
+        assertEquals(3, lines.size());
+        assertResult(lines.get(0), "PASS", CountingMain.class);
+        assertResult(lines.get(1), "PASS", PassMain.class);
+        assertResult(lines.get(2), "PASS", CountingMain.class);
+        assertEquals(4, lines.get(0).split(" ").length);
+    }
+
+    /** Test that output, exceptions and missing classes fail, escaped on one line. */
+    public void testFail() throws Exception {
+        List<String> lines = run(1, OutputMain.class, ThrowMain.class, PassMain.class);
+        assertEquals(4, lines.size());
+        assertResult(lines.get(0), "FAIL", OutputMain.class);
+        assertTrue(lines.get(0), lines.get(0).endsWith(" first\\\\line\\nsecond\\n"));
+        assertResult(lines.get(1), "FAIL", ThrowMain.class);
+        assertTrue(lines.get(1), lines.get(1).contains(
+                "Exception in thread \"main\" java.lang.IllegalStateException: thrown\\n"));
+        assertResult(lines.get(2), "PASS", PassMain.class);
+        assertTrue(lines.get(3), lines.get(3).startsWith("VMTEST FAIL dot.junit.Missing "));
+        assertTrue(lines.get(3), lines.get(3).contains("ClassNotFoundException"));
+    }
+
+    /** Test that the runner reports a timeout and exits, leaving later tests without result. */
+    public void testTimeout() throws Exception {
+        List<String> lines = run(1, PassMain.class, HangMain.class, PassMain.class);
+        assertEquals(2, lines.size());
+        assertResult(lines.get(0), "PASS", PassMain.class);
+        assertResult(lines.get(1), "TIMEOUT", HangMain.class);
+        assertTrue(lines.get(1), lines.get(1).contains(" timed out after "));
+    }
+
+    private static void assertResult(String line, String status, Class<?> mainClass) {
+        assertTrue(line, line.startsWith("VMTEST " + status + " " + mainClass.getName() + " "));
+    }
+
+    /**
+     * Runs the runner in a new JVM with a 1 second timeout, on the given
+     * classes, and then dot.junit.Missing if the expected exit code is 1 and
+     * no test hangs. Returns the result lines.
+     */
+    private List<String> run(int expectedExitCode, Class<?>... mainClasses) throws Exception {
+        String classpath = new File(DxTestRunnerTest.class.getProtectionDomain().getCodeSource()
+                .getLocation().toURI()).getPath();
+        FileWriter writer = new FileWriter(mTestList);
+        try {
+            writer.write("# comment\n\n");
+            boolean hangs = false;
+            for (Class<?> mainClass : mainClasses) {
+                writer.write(mainClass.getName() + " " + classpath + "\n");
+                hangs |= mainClass == HangMain.class;
+            }
+            if (expectedExitCode == 1 && !hangs) {
+                writer.write("dot.junit.Missing " + classpath + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                DxTestRunner.class.getName(), "-t", "1", mTestList.getPath())
+                .redirectErrorStream(true).start();
+        String output = readAll(process.getInputStream());
+        assertEquals(output, expectedExitCode, process.waitFor());
+
+        List<String> lines = new ArrayList<String>();
+        for (String line : output.split("\n")) {
+            if (line.startsWith("VMTEST ")) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toString();
+    }
+}